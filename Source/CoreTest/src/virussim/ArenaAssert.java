@@ -0,0 +1,94 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+
+/**
+ * Assertions comparing the state of two arenas, used by the tests that
+ * check that two engines produce the same simulation
+ */
+public class ArenaAssert
+{
+  /**
+   * Updates an arena a number of times
+   * @param a The arena
+   * @param steps The number of steps
+   */
+  public static void run(/*@ non_null @*/ Arena a, int steps)
+  {
+    for (int i = 0; i < steps; i++)
+    {
+      a.update();
+    }
+  }
+
+  /**
+   * Checks that two arenas contain balls in exactly the same state. Balls
+   * are matched in ascending order of ID, since two populations created
+   * from the same scenario in the same JVM get different IDs. Positions
+   * and velocities must be identical to the last bit.
+   * @param expected The reference arena
+   * @param actual The arena to check
+   */
+  public static void assertSameState(/*@ non_null @*/ Arena expected, /*@ non_null @*/ Arena actual)
+  {
+    List<Ball> e = sorted(expected), a = sorted(actual);
+    assertEquals("Number of balls", e.size(), a.size());
+    for (int i = 0; i < e.size(); i++)
+    {
+      Ball b1 = e.get(i), b2 = a.get(i);
+      assertBits("X position of ball " + i, b1.getPosition().getX(), b2.getPosition().getX());
+      assertBits("Y position of ball " + i, b1.getPosition().getY(), b2.getPosition().getY());
+      assertBits("X velocity of ball " + i, b1.getVelocity().getX(), b2.getVelocity().getX());
+      assertBits("Y velocity of ball " + i, b1.getVelocity().getY(), b2.getVelocity().getY());
+      if (b1 instanceof Patient && b2 instanceof Patient)
+      {
+        assertEquals("Health of ball " + i, ((Patient) b1).getHealthState(), ((Patient) b2).getHealthState());
+      }
+    }
+  }
+
+  /**
+   * Checks that two numbers are identical to the last bit
+   * @param message The message of the assertion
+   * @param expected The expected number
+   * @param actual The actual number
+   */
+  protected static void assertBits(String message, double expected, double actual)
+  {
+    assertEquals(message, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+  }
+
+  /**
+   * Gets the balls of an arena in ascending order of ID
+   * @param a The arena
+   * @return The balls
+   */
+  protected static List<Ball> sorted(/*@ non_null @*/ Arena a)
+  {
+    return new ArrayList<Ball>(new TreeMap<Integer,Ball>(a.getBalls()).values());
+  }
+}
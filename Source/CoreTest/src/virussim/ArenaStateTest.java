@@ -0,0 +1,111 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import static virussim.ArenaAssert.assertSameState;
+import static virussim.ArenaAssert.run;
+
+import org.junit.Test;
+
+import virussim.physics.Arena;
+
+/**
+ * Unit tests for {@link ArenaState}, which must produce exactly the same
+ * simulation as the generic {@link Arena}
+ */
+public class ArenaStateTest
+{
+  /**
+   * The number of steps computed by the tests
+   */
+  protected static final int NUM_STEPS = 200;
+
+  @Test
+  public void testFixedRecovery()
+  {
+    checkSame("use_markov=false");
+  }
+
+  @Test
+  public void testMarkov()
+  {
+    checkSame("use_markov=true");
+  }
+
+  @Test
+  public void testAllPairs()
+  {
+    Scenario s = createScenario("use_markov=true");
+    Arena generic = s.createArena();
+    s.set("engine", Scenario.ENGINE_SOA);
+    Arena soa = s.createArena();
+    generic.setSpatialHashing(false);
+    soa.setSpatialHashing(false);
+    run(generic, NUM_STEPS);
+    run(soa, NUM_STEPS);
+    assertSameState(generic, soa);
+  }
+
+  @Test
+  public void testSubsteps()
+  {
+    checkSame("use_markov=true", "velocity=12", "max_substeps=4");
+  }
+
+  @Test
+  public void testContinuous()
+  {
+    checkSame("use_markov=true", "velocity=12", "continuous=true");
+  }
+
+  @Test
+  public void testContinuousSubsteps()
+  {
+    checkSame("use_markov=true", "velocity=12", "continuous=true", "max_substeps=4");
+  }
+
+  /**
+   * Checks that the generic and SoA engines produce the same simulation
+   * for a scenario
+   * @param args The parameters of the scenario, in addition to those of
+   * {@link #createScenario(String...)}
+   */
+  protected static void checkSame(String ... args)
+  {
+    Scenario s = createScenario(args);
+    Arena generic = s.createArena();
+    s.set("engine", Scenario.ENGINE_SOA);
+    Arena soa = s.createArena();
+    run(generic, NUM_STEPS);
+    run(soa, NUM_STEPS);
+    assertSameState(generic, soa);
+  }
+
+  /**
+   * Creates a crowded scenario using the generic engine
+   * @param args Other parameters of the scenario
+   * @return The scenario
+   */
+  protected static Scenario createScenario(String ... args)
+  {
+    Scenario s = new Scenario();
+    s.parse("engine=generic", "num_players=1500", "width=800", "height=600", "seed=3");
+    s.parse(args);
+    return s;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import static org.junit.Assert.assertEquals;
+import static virussim.ArenaAssert.assertSameState;
+import static virussim.ArenaAssert.run;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import virussim.physics.Arena;
+import virussim.physics.ParallelArena;
+
+/**
+ * Unit tests for {@link Checkpoint}. A simulation resumed from a
+ * checkpoint must continue exactly as the original one.
+ */
+public class CheckpointTest
+{
+  /**
+   * The number of steps before the checkpoint, and after it
+   */
+  protected static final int NUM_STEPS = 100;
+
+  @Test
+  public void testGeneric() throws IOException
+  {
+    checkResume(Scenario.ENGINE_GENERIC, "use_markov=false");
+    checkResume(Scenario.ENGINE_GENERIC, "use_markov=true");
+  }
+
+  @Test
+  public void testSoa() throws IOException
+  {
+    checkResume(Scenario.ENGINE_SOA, "use_markov=false");
+    checkResume(Scenario.ENGINE_SOA, "use_markov=true");
+  }
+
+  @Test
+  public void testFused() throws IOException
+  {
+    checkResume(Scenario.ENGINE_FUSED, "use_markov=true");
+  }
+
+  @Test
+  public void testParallel() throws IOException
+  {
+    checkResume(Scenario.ENGINE_PARALLEL, "use_markov=true");
+  }
+
+  @Test
+  public void testEpidemic() throws IOException
+  {
+    // The order of the infected patients is restored with the checkpoint
+    checkResume(Scenario.ENGINE_EPIDEMIC, "use_markov=false");
+    checkResume(Scenario.ENGINE_EPIDEMIC, "use_markov=true");
+  }
+
+  /**
+   * Runs a simulation for {@link #NUM_STEPS} steps, takes a checkpoint,
+   * writes it and reads it back, and checks that the arena restored from
+   * it is in the same state as the original arena after
+   * {@link #NUM_STEPS} more steps
+   * @param engine The engine of the simulation
+   * @param health The parameter selecting the health model
+   * @throws IOException If the checkpoint cannot be written or read
+   */
+  protected static void checkResume(String engine, String health) throws IOException
+  {
+    Scenario s = new Scenario();
+    s.parse("engine=" + engine, "num_players=1500", "width=800", "height=600", "seed=11", health);
+    Arena original = s.createArena(new HealthCounts());
+    Arena restored = null;
+    try
+    {
+      run(original, NUM_STEPS);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Checkpoint.capture(s, original, NUM_STEPS).write(bos);
+      Checkpoint c = Checkpoint.read(new ByteArrayInputStream(bos.toByteArray()));
+      assertEquals(NUM_STEPS, c.getStep());
+      HealthCounts counts = new HealthCounts();
+      restored = c.createArena(c.getScenario(), counts);
+      assertSameState(original, restored);
+      run(original, NUM_STEPS);
+      run(restored, NUM_STEPS);
+      assertSameState(original, restored);
+    }
+    finally
+    {
+      shutdown(original);
+      shutdown(restored);
+    }
+  }
+
+  /**
+   * Stops the threads of an arena, if it has any
+   * @param a The arena, or <tt>null</tt>
+   */
+  protected static void shutdown(Arena a)
+  {
+    if (a instanceof ParallelArena)
+    {
+      ((ParallelArena) a).shutdown();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link DistributedArena}. The workers are started as
+ * separate processes on the local machine.
+ */
+public class DistributedArenaTest
+{
+  /**
+   * The number of patients in the arenas of the tests
+   */
+  protected static final int NUM_PATIENTS = 3000;
+
+  /**
+   * The number of steps computed by the tests
+   */
+  protected static final int NUM_STEPS = 20;
+
+  /**
+   * The arena created by the current test, stopped after the test even if
+   * it fails
+   */
+  protected DistributedArena m_arena = null;
+
+  @After
+  public void tearDown()
+  {
+    if (m_arena != null)
+    {
+      m_arena.shutdown();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testTwoProcesses()
+  {
+    checkRun(2);
+  }
+
+  @Test(timeout = 120000)
+  public void testThreeProcesses()
+  {
+    checkRun(3);
+  }
+
+  /**
+   * Runs a few steps of a distributed arena, and checks that the counts
+   * merged from the workers always add up to the number of patients, and
+   * that no worker is left running after the arena is stopped
+   * @param processes The number of worker processes
+   */
+  protected void checkRun(int processes)
+  {
+    Scenario s = new Scenario();
+    s.parse("engine=distributed", "processes=" + processes, "num_players=" + NUM_PATIENTS, "width=1500", "height=1000", "seed=1");
+    HealthCounts counts = new HealthCounts();
+    m_arena = (DistributedArena) s.createArena(counts);
+    assertEquals(processes, m_arena.getWorkerCount());
+    assertEquals(NUM_PATIENTS, m_arena.size());
+    assertEquals(NUM_PATIENTS, total(counts));
+    for (int step = 0; step < NUM_STEPS; step++)
+    {
+      m_arena.update();
+      assertEquals("Step " + step, NUM_PATIENTS, total(counts));
+    }
+    List<Patient> patients = m_arena.getPatients();
+    assertEquals(NUM_PATIENTS, patients.size());
+    for (int i = 1; i < patients.size(); i++)
+    {
+      // Each patient is in exactly one strip
+      assertTrue(patients.get(i - 1).getId() < patients.get(i).getId());
+    }
+    m_arena.shutdown();
+    for (Process p : m_arena.m_processes)
+    {
+      assertFalse("A worker is still running", p.isAlive());
+    }
+  }
+
+  /**
+   * Adds up the number of patients in every health state
+   * @param counts The counts
+   * @return The total
+   */
+  protected static int total(/*@ non_null @*/ HealthCounts counts)
+  {
+    int[] values = new int[Patient.Health.values().length];
+    counts.get(values);
+    int sum = 0;
+    for (int v : values)
+    {
+      sum += v;
+    }
+    return sum;
+  }
+}
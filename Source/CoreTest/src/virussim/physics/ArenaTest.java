@@ -0,0 +1,72 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import static org.junit.Assert.assertTrue;
+import static virussim.ArenaAssert.assertSameState;
+import static virussim.ArenaAssert.run;
+
+import org.junit.Test;
+
+import virussim.HealthCounts;
+import virussim.Patient.Health;
+import virussim.Scenario;
+
+/**
+ * Unit tests for {@link Arena}
+ */
+public class ArenaTest
+{
+  /**
+   * The number of steps computed by the tests
+   */
+  protected static final int NUM_STEPS = 200;
+
+  @Test
+  public void testGridFixedRecovery()
+  {
+    checkGrid("use_markov=false");
+  }
+
+  @Test
+  public void testGridMarkov()
+  {
+    checkGrid("use_markov=true");
+  }
+
+  /**
+   * Checks that the spatial hash finds exactly the same collisions, in the
+   * same order, as the test of all the pairs of balls
+   * @param health The parameter selecting the health model
+   */
+  protected void checkGrid(String health)
+  {
+    Scenario s = new Scenario();
+    s.parse("engine=generic", "num_players=1500", "width=800", "height=600", "seed=7", health);
+    HealthCounts counts = new HealthCounts();
+    Arena grid = s.createArena(counts);
+    Arena pairs = s.createArena();
+    grid.setSpatialHashing(true);
+    pairs.setSpatialHashing(false);
+    run(grid, NUM_STEPS);
+    run(pairs, NUM_STEPS);
+    assertSameState(pairs, grid);
+    // The virus has spread, so the patients have met
+    assertTrue(counts.get(Health.HEALTHY) < 1499);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import static virussim.ArenaAssert.assertSameState;
+import static virussim.ArenaAssert.run;
+
+import org.junit.Test;
+
+import virussim.Scenario;
+
+/**
+ * Unit tests for {@link ParallelArena}, which must produce exactly the
+ * same simulation as the sequential {@link Arena}, whatever the number of
+ * threads
+ */
+public class ParallelArenaTest
+{
+  /**
+   * The number of steps computed by the tests
+   */
+  protected static final int NUM_STEPS = 200;
+
+  @Test
+  public void testFixedRecovery()
+  {
+    checkThreads("use_markov=false");
+  }
+
+  @Test
+  public void testMarkov()
+  {
+    checkThreads("use_markov=true");
+  }
+
+  /**
+   * Checks that the parallel engine produces the same simulation as the
+   * generic engine, with various numbers of threads
+   * @param health The parameter selecting the health model
+   */
+  protected static void checkThreads(String health)
+  {
+    Scenario s = new Scenario();
+    s.parse("engine=generic", "num_players=1500", "width=800", "height=600", "seed=5", health);
+    Arena sequential = s.createArena();
+    run(sequential, NUM_STEPS);
+    s.set("engine", Scenario.ENGINE_PARALLEL);
+    for (int threads : new int[] {1, 2, 3, 8})
+    {
+      s.set("threads", Integer.toString(threads));
+      ParallelArena parallel = (ParallelArena) s.createArena();
+      try
+      {
+        run(parallel, NUM_STEPS);
+        assertSameState(sequential, parallel);
+      }
+      finally
+      {
+        parallel.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link UniformGrid}
+ */
+public class UniformGridTest
+{
+  @Test
+  public void testNeighbours()
+  {
+    UniformGrid g = new UniformGrid(100, 100, 10, 3);
+    g.insert(0, 5, 5);
+    g.insert(1, 15, 15);
+    g.insert(2, 45, 45);
+    IntList out = new IntList();
+    g.query(5, 5, -1, out);
+    assertEquals(2, out.size());
+  }
+
+  @Test
+  public void testZeroCellSize()
+  {
+    UniformGrid g = new UniformGrid(800, 600, 0, 2);
+    assertEquals(1, g.getColumns());
+    assertEquals(1, g.getRows());
+    g.insert(0, 10, 10);
+    g.insert(1, 790, 590);
+    IntList out = new IntList();
+    g.query(10, 10, -1, out);
+    assertEquals(2, out.size());
+  }
+}
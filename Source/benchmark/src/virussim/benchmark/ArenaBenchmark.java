@@ -0,0 +1,101 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import virussim.Scenario;
+import virussim.physics.Arena;
+import virussim.physics.ParallelArena;
+
+/**
+ * Measures the number of simulation steps per second of each
+ * {@link Arena} engine. The arena is created once per trial and keeps
+ * evolving across iterations, so the measure averages over the course of
+ * the epidemic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArenaBenchmark
+{
+  /**
+   * The number of patients in the arena. JMH takes the name of the
+   * parameter from the name of the field.
+   */
+  @Param({"200", "2000", "20000", "200000"})
+  public int players;
+
+  /**
+   * The name of the engine, as given to {@link Scenario}
+   */
+  @Param({Scenario.ENGINE_GENERIC, Scenario.ENGINE_SOA, Scenario.ENGINE_FUSED, Scenario.ENGINE_PARALLEL, Scenario.ENGINE_EPIDEMIC})
+  public String engine;
+
+  /**
+   * The arena
+   */
+  protected Arena m_arena;
+
+  /**
+   * Creates the arena
+   */
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    m_arena = Populations.createScenario(players, engine).createArena();
+  }
+
+  /**
+   * Stops the threads of the arena, if any
+   */
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    if (m_arena instanceof ParallelArena)
+    {
+      ((ParallelArena) m_arena).shutdown();
+    }
+  }
+
+  /**
+   * Runs one step of the simulation
+   */
+  @Benchmark
+  public void update()
+  {
+    m_arena.update();
+  }
+}
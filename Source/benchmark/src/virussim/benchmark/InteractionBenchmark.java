@@ -0,0 +1,162 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import virussim.Patient;
+import virussim.physics.Ball;
+import virussim.physics.Vector2d;
+
+/**
+ * Measures {@link Ball#interactWith(Ball)} on pairs of patients, for the
+ * two branches of the method: patients that overlap (and are pushed apart)
+ * and patients that do not touch. Each operation processes one pair per
+ * patient; the position and velocity of every patient is restored before
+ * each call, so that all calls take the same branch. The method updates
+ * the vectors of the patients in place, so each patient has its own
+ * vectors, into which the initial values are copied; the allocation
+ * rate reported for both benchmarks should be zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InteractionBenchmark
+{
+  /**
+   * The number of pairs of patients. JMH takes the name of the parameter
+   * from the name of the field.
+   */
+  @Param({"200", "2000", "20000", "200000"})
+  public int players;
+
+  /**
+   * The first patient of each pair
+   */
+  protected Patient[] m_first;
+
+  /**
+   * The second patient of each pair, overlapping the first
+   */
+  protected Patient[] m_touching;
+
+  /**
+   * The second patient of each pair, away from the first
+   */
+  protected Patient[] m_apart;
+
+  /**
+   * The initial position of the patients in {@link #m_first}
+   */
+  protected Vector2d[] m_firstPositions;
+
+  /**
+   * The initial position of the patients in {@link #m_touching}
+   */
+  protected Vector2d[] m_touchingPositions;
+
+  /**
+   * The initial velocity of the patients in {@link #m_first}
+   */
+  protected Vector2d m_firstVelocity = new Vector2d(1, 0);
+
+  /**
+   * The initial velocity of the patients in {@link #m_touching}
+   */
+  protected Vector2d m_touchingVelocity = new Vector2d(-1, 0);
+
+  /**
+   * Creates the pairs of patients
+   */
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    m_first = new Patient[players];
+    m_touching = new Patient[players];
+    m_apart = new Patient[players];
+    m_firstPositions = new Vector2d[players];
+    m_touchingPositions = new Vector2d[players];
+    for (int i = 0; i < players; i++)
+    {
+      // Patients have a radius of 5; pairs are 100 units apart
+      double x = 100 * i;
+      m_firstPositions[i] = new Vector2d(x, 0);
+      m_touchingPositions[i] = new Vector2d(x + 6, 1);
+      m_first[i] = new Patient(new Vector2d(x, 0), new Vector2d(1, 0), true);
+      m_touching[i] = new Patient(new Vector2d(x + 6, 1), new Vector2d(-1, 0), true);
+      m_apart[i] = new Patient(new Vector2d(x + 50, 0), new Vector2d(-1, 0), true);
+    }
+  }
+
+  /**
+   * Makes each pair of overlapping patients interact
+   * @return The number of contacts
+   */
+  @Benchmark
+  public int collision()
+  {
+    int contacts = 0;
+    for (int i = 0; i < players; i++)
+    {
+      Patient p1 = m_first[i], p2 = m_touching[i];
+      p1.getPosition().set(m_firstPositions[i]);
+      p1.getVelocity().set(m_firstVelocity);
+      p2.getPosition().set(m_touchingPositions[i]);
+      p2.getVelocity().set(m_touchingVelocity);
+      if (p1.interactWith(p2))
+      {
+        contacts++;
+      }
+    }
+    return contacts;
+  }
+
+  /**
+   * Makes each pair of distant patients interact
+   * @return The number of contacts
+   */
+  @Benchmark
+  public int noCollision()
+  {
+    int contacts = 0;
+    for (int i = 0; i < players; i++)
+    {
+      if (m_first[i].interactWith(m_apart[i]))
+      {
+        contacts++;
+      }
+    }
+    return contacts;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.benchmark;
+
+import virussim.Scenario;
+
+/**
+ * Creates the scenarios used by the benchmarks. A benchmark with
+ * <i>n</i> patients uses the default {@link Scenario}, with an arena
+ * enlarged so that the density of patients stays the same as with the
+ * default number of patients. The number of contacts per patient, and
+ * hence the work per patient, is therefore the same at every size.
+ */
+public class Populations
+{
+  /**
+   * Private constructor; this class only has static methods
+   */
+  private Populations()
+  {
+    super();
+  }
+
+  /**
+   * Creates a scenario with a given number of patients
+   * @param num_players The number of patients
+   * @param engine The name of the engine that runs the scenario
+   * @return The scenario
+   */
+  public static Scenario createScenario(int num_players, /*@ non_null @*/ String engine)
+  {
+    Scenario s = new Scenario();
+    double scale = Math.sqrt((double) num_players / s.getNumPlayers());
+    s.set("width", Integer.toString((int) Math.round(s.getWidth() * scale)));
+    s.set("height", Integer.toString((int) Math.round(s.getHeight() * scale)));
+    s.set("num_players", Integer.toString(num_players));
+    s.set("engine", engine);
+    return s;
+  }
+}
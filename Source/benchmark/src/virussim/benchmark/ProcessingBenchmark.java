@@ -0,0 +1,174 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uqac.lif.cep.functions.FunctionTree;
+import ca.uqac.lif.cep.tuples.MapToTuple;
+import ca.uqac.lif.cep.util.Maps;
+import ca.uqac.lif.cep.util.Multiset;
+import virussim.HealthCounts;
+import virussim.Scenario;
+import virussim.cep.CountHealth;
+import virussim.cep.DrawArena;
+import virussim.cep.GetHealth;
+import virussim.cep.RasterDrawArena;
+import virussim.physics.Arena;
+
+/**
+ * Measures the BeepBeep functions that <tt>Main</tt> applies to the map of
+ * patients produced at each step: the rendering of the arena with
+ * {@link DrawArena} or {@link RasterDrawArena}, and the count of patients in each health state, either
+ * recomputed from the map of patients or read from {@link CountHealth}. The
+ * arena is advanced by a few steps before the measurements, so that
+ * patients in every health state are present.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProcessingBenchmark
+{
+  /**
+   * The number of patients in the arena. JMH takes the name of the
+   * parameter from the name of the field.
+   */
+  @Param({"200", "2000", "20000", "200000"})
+  public int players;
+
+  /**
+   * The map of patients given to the functions
+   */
+  @SuppressWarnings("rawtypes")
+  protected Map m_balls;
+
+  /**
+   * The function that renders the arena
+   */
+  protected DrawArena m_draw;
+
+  /**
+   * The function that renders the arena into reused images
+   */
+  protected RasterDrawArena m_rasterDraw;
+
+  /**
+   * The function that counts the patients in each health state
+   */
+  protected FunctionTree m_count;
+
+  /**
+   * The function that reads the live count of patients in each health
+   * state
+   */
+  protected CountHealth m_liveCount;
+
+  /**
+   * The array of inputs given to {@link #m_count}
+   */
+  protected Object[] m_inputs;
+
+  /**
+   * The array of outputs produced by {@link #m_count}
+   */
+  protected Object[] m_outputs = new Object[1];
+
+  /**
+   * Creates the arena and the functions
+   */
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    Scenario s = Populations.createScenario(players, Scenario.ENGINE_GENERIC);
+    HealthCounts counts = new HealthCounts();
+    Arena arena = s.createArena(counts);
+    for (int i = 0; i < 100; i++)
+    {
+      arena.update();
+    }
+    m_balls = arena.getBalls();
+    m_inputs = new Object[] {m_balls};
+    m_draw = new DrawArena(s.getWidth(), s.getHeight());
+    m_rasterDraw = new RasterDrawArena(s.getWidth(), s.getHeight());
+    // Same function as in Main
+    m_count = new FunctionTree(
+        MapToTuple.instance,
+          new FunctionTree(Multiset.getCardinalities,
+              new FunctionTree(Maps.multiValues, new Maps.ApplyAll(GetHealth.instance))));
+    m_liveCount = new CountHealth(counts);
+  }
+
+  /**
+   * Renders the arena
+   * @return The image
+   */
+  @Benchmark
+  public BufferedImage drawArena()
+  {
+    return m_draw.getValue(m_balls);
+  }
+
+  /**
+   * Renders the arena into reused images
+   * @return The image
+   */
+  @Benchmark
+  public BufferedImage drawArenaRaster()
+  {
+    return m_rasterDraw.getValue(m_balls);
+  }
+
+  /**
+   * Counts the patients in each health state
+   * @return The tuple of counts
+   */
+  @Benchmark
+  public Object countHealth()
+  {
+    m_count.evaluate(m_inputs, m_outputs);
+    return m_outputs[0];
+  }
+
+  /**
+   * Reads the live count of patients in each health state
+   * @return The tuple of counts
+   */
+  @Benchmark
+  public Object countHealthLive()
+  {
+    return m_liveCount.getValue(m_balls);
+  }
+}
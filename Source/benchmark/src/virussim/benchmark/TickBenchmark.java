@@ -0,0 +1,188 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uqac.lif.synthia.random.RandomFloat;
+import virussim.Patient;
+import virussim.physics.Vector2d;
+import virussim.picker.FixedRecoveryModel;
+import virussim.picker.HealthMarkovChain;
+import virussim.picker.HealthModel;
+import virussim.picker.MarkovHealthModel;
+import virussim.picker.StepCounter;
+
+/**
+ * Measures {@link Patient#tick()} on infected patients, with either of
+ * the two health pickers, or either of the two shared health models. Each
+ * operation ticks every patient once; a patient that is no longer infected
+ * is infected again, and its picker or model state reset, before its tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TickBenchmark
+{
+  /**
+   * The name of the picker based on {@link StepCounter}
+   */
+  public static final String PICKER_STEP = "step";
+
+  /**
+   * The name of the picker based on {@link HealthMarkovChain}
+   */
+  public static final String PICKER_MARKOV = "markov";
+
+  /**
+   * The name of the shared {@link FixedRecoveryModel}
+   */
+  public static final String MODEL_STEP = "stepModel";
+
+  /**
+   * The name of the shared {@link MarkovHealthModel}
+   */
+  public static final String MODEL_MARKOV = "markovModel";
+
+  /**
+   * The number of patients. JMH takes the name of the parameter from the
+   * name of the field.
+   */
+  @Param({"200", "2000", "20000", "200000"})
+  public int players;
+
+  /**
+   * The name of the health picker or model
+   */
+  @Param({PICKER_STEP, PICKER_MARKOV, MODEL_STEP, MODEL_MARKOV})
+  public String picker;
+
+  /**
+   * The patients
+   */
+  protected InfectedPatient[] m_patients;
+
+  /**
+   * Creates the patients
+   */
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    m_patients = new InfectedPatient[players];
+    // Default parameters of Scenario
+    HealthModel model = null;
+    if (picker.equals(MODEL_MARKOV))
+    {
+      model = new MarkovHealthModel(0.995f, 0.001f, 0);
+    }
+    else if (picker.equals(MODEL_STEP))
+    {
+      model = new FixedRecoveryModel(75);
+    }
+    for (int i = 0; i < players; i++)
+    {
+      InfectedPatient p = new InfectedPatient();
+      if (model != null)
+      {
+        p.setHealthModel(model, i);
+      }
+      else if (picker.equals(PICKER_MARKOV))
+      {
+        RandomFloat rf = new RandomFloat();
+        rf.setSeed(i);
+        p.setHealthPicker(new HealthMarkovChain(0.995f, 0.001f, rf));
+      }
+      else
+      {
+        p.setHealthPicker(new StepCounter(75));
+      }
+      m_patients[i] = p;
+    }
+  }
+
+  /**
+   * Ticks every patient
+   * @return The number of patients still infected
+   */
+  @Benchmark
+  public int tick()
+  {
+    int infected = 0;
+    for (InfectedPatient p : m_patients)
+    {
+      if (p.getHealthState() != Patient.Health.INFECTED)
+      {
+        p.reinfect();
+      }
+      p.tick();
+      if (p.getHealthState() == Patient.Health.INFECTED)
+      {
+        infected++;
+      }
+    }
+    return infected;
+  }
+
+  /**
+   * A patient that can be infected again after it recovers or dies
+   */
+  protected static class InfectedPatient extends Patient
+  {
+    /**
+     * Creates a new infected patient
+     */
+    public InfectedPatient()
+    {
+      super(new Vector2d(0, 0), new Vector2d(0, 0), true);
+      m_health = Health.INFECTED;
+    }
+
+    /**
+     * Infects the patient again, and resets its health picker or its step
+     * count in its health model
+     */
+    public void reinfect()
+    {
+      m_health = Health.INFECTED;
+      if (m_healthModel != null)
+      {
+        m_ticks = 0;
+      }
+      else
+      {
+        m_healthPicker.reset();
+      }
+    }
+  }
+}
@@ -0,0 +1,332 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import virussim.Checkpoint;
+import virussim.Checkpointer;
+import virussim.DistributedArena;
+import virussim.HealthCounts;
+import virussim.HealthMetrics;
+import virussim.Patient.Health;
+import virussim.Scenario;
+import virussim.physics.Arena;
+import virussim.physics.LogHistogram;
+import virussim.physics.ParallelArena;
+import virussim.physics.StepMetrics;
+import virussim.record.ContactWriter;
+import virussim.record.TrajectoryWriter;
+
+/**
+ * Runs a simulation without any window or BeepBeep processor, as fast as
+ * possible. The program takes the same <tt>name=value</tt> arguments as
+ * {@link Main} to define the {@link Scenario}, plus the following ones:
+ * <ul>
+ * <li><tt>steps</tt>: the maximum number of steps to run (default: no
+ * limit). The simulation also stops as soon as nobody is infected.</li>
+ * <li><tt>interval</tt>: the number of steps between two lines of output
+ * (default: 1)</li>
+ * <li><tt>output</tt>: the file where the time series is written (default:
+ * the standard output)</li>
+ * <li><tt>metrics</tt>: if <tt>true</tt>, the duration of each phase of
+ * a step and the number of contacts are measured and summarized on the
+ * standard error at the end (default: <tt>false</tt>)</li>
+ * <li><tt>record</tt>: a file where the position and health state of
+ * every patient are saved after each step, to be replayed by {@link Main}
+ * (default: none)</li>
+ * <li><tt>contacts</tt>: a file where every contact between two
+ * patients is saved, with its step and whether the virus was transmitted
+ * (default: none). It can be read with a
+ * {@link virussim.record.ContactReader ContactReader}. The distributed
+ * engine cannot record contacts.</li>
+ * <li><tt>checkpoint</tt>: a file where the whole state of the
+ * simulation is saved at regular intervals, in the background (default:
+ * none)</li>
+ * <li><tt>checkpoint_interval</tt>: the number of steps between two
+ * checkpoints (default: 1000)</li>
+ * <li><tt>restore</tt>: a checkpoint from which the simulation is resumed
+ * (default: none). The scenario is that of the checkpoint; parameters
+ * given on the command line replace its values, which can be used to
+ * change the engine. The steps are counted from the start of the original
+ * simulation.</li>
+ * </ul>
+ * The output is a CSV table giving the number of patients in each health
+ * state after each step. The time taken by the simulation, which excludes
+ * the creation of the population, is printed on the standard error.
+ */
+public class Batch
+{
+  public static void main(String[] args) throws IOException
+  {
+    long max_steps = Long.MAX_VALUE;
+    int interval = 1;
+    String output = null;
+    boolean with_metrics = false;
+    String record = null;
+    String contacts = null;
+    String checkpoint = null;
+    long checkpoint_interval = 1000;
+    String restore = null;
+    List<String> scenario_args = new ArrayList<String>();
+    for (String arg : args)
+    {
+      if (arg.startsWith("steps="))
+      {
+        max_steps = Long.parseLong(arg.substring(6));
+      }
+      else if (arg.startsWith("interval="))
+      {
+        interval = Integer.parseInt(arg.substring(9));
+      }
+      else if (arg.startsWith("output="))
+      {
+        output = arg.substring(7);
+      }
+      else if (arg.startsWith("metrics="))
+      {
+        with_metrics = Boolean.parseBoolean(arg.substring(8));
+      }
+      else if (arg.startsWith("record="))
+      {
+        record = arg.substring(7);
+      }
+      else if (arg.startsWith("contacts="))
+      {
+        contacts = arg.substring(9);
+      }
+      else if (arg.startsWith("checkpoint="))
+      {
+        checkpoint = arg.substring(11);
+      }
+      else if (arg.startsWith("checkpoint_interval="))
+      {
+        checkpoint_interval = Long.parseLong(arg.substring(20));
+      }
+      else if (arg.startsWith("restore="))
+      {
+        restore = arg.substring(8);
+      }
+      else
+      {
+        scenario_args.add(arg);
+      }
+    }
+    if (interval < 1)
+    {
+      System.err.println("Invalid value for interval: " + interval + " (must be at least 1)");
+      System.exit(1);
+    }
+    if (checkpoint_interval < 1)
+    {
+      System.err.println("Invalid value for checkpoint_interval: " + checkpoint_interval + " (must be at least 1)");
+      System.exit(1);
+    }
+    Scenario scenario = new Scenario();
+    Checkpoint restored = null;
+    if (restore != null)
+    {
+      InputStream is = Files.newInputStream(Paths.get(restore));
+      try
+      {
+        restored = Checkpoint.read(is);
+      }
+      finally
+      {
+        is.close();
+      }
+      scenario = restored.getScenario();
+    }
+    try
+    {
+      List<String> others = scenario.parse(scenario_args.toArray(new String[scenario_args.size()]));
+      if (!others.isEmpty())
+      {
+        System.err.println("Ignored arguments: " + others);
+      }
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    PrintStream out = System.out;
+    if (output != null)
+    {
+      out = new PrintStream(new BufferedOutputStream(new FileOutputStream(output)));
+    }
+    HealthCounts health_counts = new HealthCounts();
+    Arena arena;
+    long step = 0;
+    if (restored != null)
+    {
+      arena = restored.createArena(scenario, health_counts);
+      step = restored.getStep();
+      // The copy of the population is no longer needed
+      restored = null;
+    }
+    else
+    {
+      arena = scenario.createArena(health_counts);
+    }
+    Checkpointer checkpointer = null;
+    if (checkpoint != null)
+    {
+      checkpointer = new Checkpointer(scenario, Paths.get(checkpoint));
+    }
+    StepMetrics metrics = null;
+    if (with_metrics)
+    {
+      metrics = new HealthMetrics(health_counts);
+      arena.setMetrics(metrics);
+    }
+    TrajectoryWriter writer = null;
+    if (record != null)
+    {
+      writer = new TrajectoryWriter(Paths.get(record), arena);
+    }
+    ContactWriter contact_writer = null;
+    if (contacts != null)
+    {
+      contact_writer = new ContactWriter(Paths.get(contacts), health_counts);
+      try
+      {
+        arena.setContactListener(contact_writer);
+      }
+      catch (UnsupportedOperationException e)
+      {
+        System.err.println(e.getMessage());
+        System.exit(1);
+      }
+    }
+    int[] counts = new int[Health.values().length];
+    out.println("t,HEALTHY,INFECTED,RECOVERED,DEAD");
+    health_counts.get(counts);
+    print(out, step, counts);
+    long start = System.nanoTime();
+    long first_step = step;
+    while (step < max_steps && counts[Health.INFECTED.ordinal()] > 0)
+    {
+      if (contact_writer != null)
+      {
+        contact_writer.setStep(step + 1);
+      }
+      arena.update();
+      step++;
+      if (writer != null)
+      {
+        writer.write();
+      }
+      if (checkpointer != null && step % checkpoint_interval == 0)
+      {
+        if (!checkpointer.checkpoint(arena, step))
+        {
+          System.err.println("Checkpoint skipped at step " + step + ": the previous one is still being written");
+        }
+      }
+      health_counts.get(counts);
+      if (step % interval == 0 || counts[Health.INFECTED.ordinal()] == 0)
+      {
+        print(out, step, counts);
+      }
+    }
+    long duration = System.nanoTime() - start;
+    if (writer != null)
+    {
+      writer.close();
+    }
+    if (contact_writer != null)
+    {
+      contact_writer.close();
+      System.err.println(contact_writer.getContactCount() + " contacts recorded, "
+          + contact_writer.getTransmissionCount() + " with a transmission");
+    }
+    if (checkpointer != null)
+    {
+      checkpointer.close();
+    }
+    out.flush();
+    if (out != System.out)
+    {
+      out.close();
+    }
+    if (arena instanceof ParallelArena)
+    {
+      ((ParallelArena) arena).shutdown();
+    }
+    if (arena instanceof DistributedArena)
+    {
+      ((DistributedArena) arena).shutdown();
+    }
+    long computed = step - first_step;
+    System.err.println(computed + " steps in " + (duration / 1000000) + " ms ("
+        + (computed == 0 ? 0 : duration / 1000 / computed) + " us/step)");
+    if (metrics != null)
+    {
+      printMetrics(System.err, metrics);
+    }
+  }
+
+  /**
+   * Prints a summary of the metrics of a simulation
+   * @param out The stream where to print
+   * @param metrics The metrics
+   */
+  protected static void printMetrics(PrintStream out, StepMetrics metrics)
+  {
+    out.println("phase,mean_us,median_us,p99_us,max_us");
+    for (StepMetrics.Phase p : StepMetrics.Phase.values())
+    {
+      LogHistogram h = metrics.getHistogram(p);
+      if (h.getCount() == 0)
+      {
+        continue;
+      }
+      out.println(p + "," + Math.round(h.getMean() / 1000) + "," + h.getPercentile(0.5) / 1000
+          + "," + h.getPercentile(0.99) / 1000 + "," + h.getMax() / 1000);
+    }
+    out.println("pair tests: " + metrics.getTotalPairTests() + ", contacts: " + metrics.getTotalContacts()
+        + ", infections: " + metrics.getTotalNewInfections() + ", allocated: "
+        + (metrics.getTotalAllocatedBytes() < 0 ? "n/a" : (metrics.getTotalAllocatedBytes() / 1024) + " kB"));
+  }
+
+  /**
+   * Prints a line of the time series
+   * @param out The stream where to print
+   * @param step The number of the step
+   * @param counts The number of patients in each health state
+   */
+  protected static void print(PrintStream out, long step, int[] counts)
+  {
+    out.print(step);
+    for (int c : counts)
+    {
+      out.print(",");
+      out.print(c);
+    }
+    out.println();
+  }
+}
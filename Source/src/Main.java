@@ -19,147 +19,172 @@
 
 import static ca.uqac.lif.cep.Connector.connect;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import ca.uqac.lif.cep.functions.ApplyFunction;
 import ca.uqac.lif.cep.functions.Cumulate;
 import ca.uqac.lif.cep.functions.CumulativeFunction;
-import ca.uqac.lif.cep.functions.FunctionTree;
 import ca.uqac.lif.cep.functions.TurnInto;
-import ca.uqac.lif.cep.mtnp.DrawPlot;
-import ca.uqac.lif.cep.mtnp.UpdateTableMap;
 import ca.uqac.lif.cep.tmf.CountDecimate;
 import ca.uqac.lif.cep.tmf.Fork;
 import ca.uqac.lif.cep.tmf.Pump;
-import ca.uqac.lif.cep.tuples.MapToTuple;
+import ca.uqac.lif.cep.tmf.Source;
 import ca.uqac.lif.cep.tuples.MergeTuples;
 import ca.uqac.lif.cep.tuples.ScalarIntoTuple;
-import ca.uqac.lif.cep.util.Maps;
-import ca.uqac.lif.cep.util.Multiset;
 import ca.uqac.lif.cep.util.Numbers;
 import ca.uqac.lif.cep.widgets.WidgetSink;
-import ca.uqac.lif.mtnp.plot.gnuplot.Scatterplot;
-import ca.uqac.lif.synthia.Picker;
-import ca.uqac.lif.synthia.random.AffineTransform;
-import ca.uqac.lif.synthia.random.GaussianFloat;
-import ca.uqac.lif.synthia.random.RandomBoolean;
-import ca.uqac.lif.synthia.random.RandomFloat;
-import ca.uqac.lif.synthia.random.RandomIntervalFloat;
-import ca.uqac.lif.synthia.vector.HyperspherePicker;
-import ca.uqac.lif.synthia.vector.PrismPicker;
-import virussim.Patient;
-import virussim.Patient.Health;
+import virussim.HealthCounts;
+import virussim.HealthMetrics;
+import virussim.Scenario;
+import virussim.TiledArena;
 import virussim.cep.ArenaSource;
-import virussim.cep.DrawArena;
-import virussim.cep.GetHealth;
+import virussim.cep.CountHealth;
+import virussim.cep.DrawCurves;
+import virussim.cep.FrameSlot;
+import virussim.cep.FrameSource;
+import virussim.cep.GetFrameBalls;
+import virussim.cep.GetFrameCounts;
+import virussim.cep.GetFrameStep;
+import virussim.cep.GetMetrics;
+import virussim.cep.PlotHealth;
+import virussim.cep.RasterDrawArena;
+import virussim.cep.ReplaySource;
+import virussim.cep.SimulationLoop;
 import virussim.gui.BitmapJFrame;
+import virussim.gui.PauseClickListener;
 import virussim.gui.ProcessorClickListener;
 import virussim.physics.Arena;
-import virussim.picker.HealthMarkovChain;
-import virussim.picker.PlayerPicker;
-import virussim.picker.StepCounter;
-import virussim.picker.Vector2dPicker;
+import virussim.record.TrajectoryReader;
+import virussim.record.TrajectoryWriter;
 
 public class Main
 {
   @SuppressWarnings("unchecked")
-  public static void main(String[] args)
+  public static void main(String[] args) throws IOException
   {
-    // The starting seed for all RNGs
-    int seed = 0;
-    
-    // Whether to use the Markov model for patients, or
-    // a fixed number of steps
-    boolean use_markov = false;
-    
-    // Whether to use a Gaussian distribution for patient positions,
-    // or a uniform distribution
-    boolean gaussian_positions = false;
-    
-    // The width and height of the arena
-    int width = 640, height = 320;
-    
-    // The initial velocity of each player
-    float velocity = 3;
-    
-    // The number of players in the arena
-    int num_players = 200;
-    
-    // The probability of a player being movable
-    float movable_probability = 1f;
-    
-    // The number of simulation steps after which a player recovers
-    // (in the fixed model)
-    int recovery_steps = 75;
-    
-    // The probability of dying when infected (in the Markov model)
-    float p_die = 0.001f;
-    
-    // The probability of staying infected (in the Markov model)
-    float p_infected = 0.995f;
-    
-    // The position pickers
-    Picker<Float> r_w = null, r_h = null;
-    if (gaussian_positions)
+    // The parameters of the simulation; the default values can be
+    // changed from the command line with arguments of the form name=value.
+    // In addition, record=file saves the simulation in a file,
+    // replay=file shows a saved simulation instead of computing one, and
+    // pipeline=ms runs the simulation on its own thread, with at least
+    // that many milliseconds between two steps, while the windows show
+    // the latest state at their own pace, and metrics=true adds a window
+    // plotting the cost of each step.
+    String record = null, replay = null;
+    long pipeline = -1;
+    boolean with_metrics = false;
+    List<String> scenario_args = new ArrayList<String>();
+    for (String arg : args)
     {
-      GaussianFloat gf_w = new GaussianFloat();
-      gf_w.setSeed(seed++);
-      r_w = new AffineTransform.AffineTransformFloat(gf_w, width / 6, width / 2);
-      GaussianFloat gf_h = new GaussianFloat();
-      gf_h.setSeed(seed++);
-      r_h = new AffineTransform.AffineTransformFloat(gf_h, height / 6, height / 2);
+      if (arg.startsWith("record="))
+      {
+        record = arg.substring(7);
+      }
+      else if (arg.startsWith("replay="))
+      {
+        replay = arg.substring(7);
+      }
+      else if (arg.startsWith("pipeline="))
+      {
+        pipeline = Long.parseLong(arg.substring(9));
+      }
+      else if (arg.startsWith("metrics="))
+      {
+        with_metrics = Boolean.parseBoolean(arg.substring(8));
+      }
+      else
+      {
+        scenario_args.add(arg);
+      }
     }
-    else
+    Scenario scenario = new Scenario();
+    scenario.parse(scenario_args.toArray(new String[scenario_args.size()]));
+    int width, height;
+    HealthCounts counts;
+    Source as;
+    
+    // Measure each step; the metrics can also be read through JMX
+    HealthMetrics metrics;
+    if (replay != null)
     {
-      RandomFloat rf_w = new RandomFloat();
-      rf_w.setSeed(seed++);
-      r_w = new AffineTransform.AffineTransformFloat(rf_w, width, 0);
-      RandomFloat rf_h = new RandomFloat();
-      rf_h.setSeed(seed++);
-      r_h = new AffineTransform.AffineTransformFloat(rf_h, height, 0);
+      TrajectoryReader reader = new TrajectoryReader(Paths.get(replay));
+      width = (int) reader.getWidth();
+      height = (int) reader.getHeight();
+      counts = reader.getHealthCounts();
+      metrics = new HealthMetrics(counts);
+      as = new ReplaySource(reader);
     }
-    
-    // Create a collection of randomly generated players, and add them
-    // to the arena
-    Vector2dPicker p_position = new Vector2dPicker(new PrismPicker(r_w, r_h));
-    RandomIntervalFloat rif = new RandomIntervalFloat(0, 2 * Math.PI);
-    rif.setSeed(seed++);
-    Vector2dPicker p_velocity = new Vector2dPicker(new HyperspherePicker(velocity, rif));
-    RandomBoolean p_movable = new RandomBoolean(movable_probability);
-    p_movable.setSeed(seed++);
-    PlayerPicker p_player = new PlayerPicker(p_position, p_velocity, p_movable);
-    Set<Patient> players = new HashSet<Patient>(num_players);
-    for (int i = 0; i < num_players; i++)
+    else
     {
-      Patient p = p_player.pick();
-      if (i == 0)
+      width = scenario.getWidth();
+      height = scenario.getHeight();
+      counts = new HealthCounts();
+      Arena arena = scenario.createArena(counts);
+      if (arena instanceof TiledArena)
       {
-        // Set a single player as infected
-        p.setHealthState(Health.INFECTED);
+        // The world may be much larger than a window: only show its
+        // top-left corner
+        width = Math.min(width, 1280);
+        height = Math.min(height, 720);
+        ((TiledArena) arena).setViewport(0, 0, width, height);
       }
-      if (use_markov)
+      metrics = new HealthMetrics(counts);
+      arena.setMetrics(metrics);
+      ArenaSource arena_source = new ArenaSource(arena);
+      SimulationLoop loop = null;
+      if (pipeline >= 0)
       {
-        p.setHealthPicker(new HealthMarkovChain(p_infected, p_die, new RandomFloat()));
+        loop = new SimulationLoop(arena, new FrameSlot(), counts, pipeline);
       }
-      else
+      if (record != null)
       {
-        p.setHealthPicker(new StepCounter(recovery_steps));
+        // Frames are written as the simulation runs, and the file is
+        // completed when the program exits
+        final TrajectoryWriter writer = new TrajectoryWriter(Paths.get(record), arena);
+        arena_source.setRecorder(writer);
+        if (loop != null)
+        {
+          loop.setRecorder(writer);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+          @Override
+          public void run()
+          {
+            try
+            {
+              writer.close();
+            }
+            catch (IOException e)
+            {
+              System.err.println("Cannot save the simulation: " + e.getMessage());
+            }
+          }
+        });
       }
-      players.add(p);
+      if (loop != null)
+      {
+        metrics.register("main");
+        showPipeline(loop, metrics, with_metrics, width, height);
+        return;
+      }
+      as = arena_source;
     }
-    Arena arena = new Arena(width, height, players);
+    metrics.register("main");
     
-    // Connect arena to pump and to fork
-    ArenaSource as = new ArenaSource(arena);
+    // Connect source to pump and to fork
     Pump pump = new Pump(50);
     connect(as, pump);
-    Fork fork = new Fork(2);
+    Fork fork = new Fork(with_metrics ? 3 : 2);
     connect(pump, fork);
     
     {
       // Branch 1: render arena and draw in window
-      ApplyFunction draw = new ApplyFunction(new DrawArena(width, height));
+      RasterDrawArena draw_arena = new RasterDrawArena(width, height);
+      draw_arena.setMetrics(metrics);
+      ApplyFunction draw = new ApplyFunction(draw_arena);
       connect(fork, 0, draw, 0);
       BitmapJFrame window = new BitmapJFrame(width, height, "Simulation");
       window.getLabel().addMouseListener(new ProcessorClickListener(pump));
@@ -170,8 +195,9 @@ public class Main
     }
     
     {
-      // Branch 2: compute infected
-      int decim_interval = 25;
+      // Branch 2: compute infected; drawing the curves takes the same
+      // time at every update, so they can be updated often
+      int decim_interval = 5;
       CountDecimate decim = new CountDecimate(decim_interval);
       connect(fork, 1, decim, 0);
       Fork f = new Fork(2);
@@ -182,20 +208,13 @@ public class Main
       connect(one, sum);
       ApplyFunction stt = new ApplyFunction(new ScalarIntoTuple("t"));
       connect(sum, stt);
-      ApplyFunction count = new ApplyFunction(new FunctionTree(
-          MapToTuple.instance,
-            new FunctionTree(Multiset.getCardinalities,
-                new FunctionTree(Maps.multiValues, new Maps.ApplyAll(GetHealth.instance)))));
+      ApplyFunction count = new ApplyFunction(new CountHealth(counts));
       connect(f, 1, count, 0);
       ApplyFunction merge = new ApplyFunction(new MergeTuples());
       connect(stt, 0, merge, 0);
       connect(count, 0, merge, 1);
-      UpdateTableMap table = new UpdateTableMap("t", "HEALTHY", "INFECTED", "RECOVERED", "DEAD");
-      connect(merge, table);
-      Scatterplot plot = new Scatterplot();
-      
-      DrawPlot draw = new DrawPlot(plot);
-      connect(table, draw);
+      ApplyFunction draw = new ApplyFunction(new PlotHealth(640, 480));
+      connect(merge, draw);
       BitmapJFrame window = new BitmapJFrame(640, 480, "Evolution");
       WidgetSink ws = new WidgetSink(window.getLabel());
       connect(draw, ws);
@@ -203,8 +222,134 @@ public class Main
       window.setVisible(true);
     }
     
+    if (with_metrics)
+    {
+      // Branch 3: plot the cost of the simulation; like the curves of
+      // branch 2, this plot takes the same time at every update
+      int decim_interval = 5;
+      CountDecimate decim = new CountDecimate(decim_interval);
+      connect(fork, 2, decim, 0);
+      Fork f = new Fork(2);
+      connect(decim, f);
+      TurnInto one = new TurnInto(decim_interval);
+      connect(f, 0, one, 0);
+      Cumulate sum = new Cumulate(new CumulativeFunction<Number>(Numbers.addition));
+      connect(one, sum);
+      ApplyFunction stt = new ApplyFunction(new ScalarIntoTuple("t"));
+      connect(sum, stt);
+      ApplyFunction get = new ApplyFunction(new GetMetrics(metrics));
+      connect(f, 1, get, 0);
+      ApplyFunction merge = new ApplyFunction(new MergeTuples());
+      connect(stt, 0, merge, 0);
+      connect(get, 0, merge, 1);
+      ApplyFunction draw = new ApplyFunction(new DrawCurves(640, 480, "t", "UPDATE_US", "RENDER_US", "CONTACTS", "INFECTIONS"));
+      connect(merge, draw);
+      BitmapJFrame window = new BitmapJFrame(640, 480, "Metrics");
+      WidgetSink ws = new WidgetSink(window.getLabel());
+      connect(draw, ws);
+      window.setLocation(750, 200);
+      window.setVisible(true);
+    }
+    
     // Ready
     pump.turn();
   }
 
+  /**
+   * Shows a simulation running on its own thread. Each window is updated
+   * by its own pump, which samples the frames of the simulation at its
+   * own rate; a click on the simulation window pauses or resumes the
+   * simulation.
+   * @param loop The loop running the simulation
+   * @param metrics The metrics of the simulation
+   * @param with_metrics Whether to show a window plotting the metrics
+   * @param width The width of the simulation window
+   * @param height The height of the simulation window
+   */
+  protected static void showPipeline(SimulationLoop loop, HealthMetrics metrics, boolean with_metrics, int width, int height)
+  {
+    FrameSlot slot = loop.getSlot();
+    List<Pump> pumps = new ArrayList<Pump>();
+    
+    {
+      // Window 1: render the latest frame
+      FrameSource source = new FrameSource(slot);
+      Pump pump = new Pump(50);
+      connect(source, pump);
+      pumps.add(pump);
+      ApplyFunction balls = new ApplyFunction(new GetFrameBalls());
+      connect(pump, balls);
+      RasterDrawArena draw_arena = new RasterDrawArena(width, height);
+      draw_arena.setMetrics(metrics);
+      ApplyFunction draw = new ApplyFunction(draw_arena);
+      connect(balls, draw);
+      BitmapJFrame window = new BitmapJFrame(width, height, "Simulation");
+      window.getLabel().addMouseListener(new PauseClickListener(loop));
+      WidgetSink ws = new WidgetSink(window.getLabel());
+      connect(draw, ws);
+      window.setLocation(50, 50);
+      window.setVisible(true);
+    }
+    
+    {
+      // Window 2: plot the infected, about four times per second
+      FrameSource source = new FrameSource(slot);
+      Pump pump = new Pump(250);
+      connect(source, pump);
+      pumps.add(pump);
+      Fork f = new Fork(2);
+      connect(pump, f);
+      ApplyFunction step = new ApplyFunction(new GetFrameStep());
+      connect(f, 0, step, 0);
+      ApplyFunction stt = new ApplyFunction(new ScalarIntoTuple("t"));
+      connect(step, stt);
+      ApplyFunction count = new ApplyFunction(new GetFrameCounts());
+      connect(f, 1, count, 0);
+      ApplyFunction merge = new ApplyFunction(new MergeTuples());
+      connect(stt, 0, merge, 0);
+      connect(count, 0, merge, 1);
+      ApplyFunction draw = new ApplyFunction(new PlotHealth(640, 480));
+      connect(merge, draw);
+      BitmapJFrame window = new BitmapJFrame(640, 480, "Evolution");
+      WidgetSink ws = new WidgetSink(window.getLabel());
+      connect(draw, ws);
+      window.setLocation(100, 200);
+      window.setVisible(true);
+    }
+    
+    if (with_metrics)
+    {
+      // Window 3: plot the cost of the simulation, about once per second
+      FrameSource source = new FrameSource(slot);
+      Pump pump = new Pump(1000);
+      connect(source, pump);
+      pumps.add(pump);
+      Fork f = new Fork(2);
+      connect(pump, f);
+      ApplyFunction step = new ApplyFunction(new GetFrameStep());
+      connect(f, 0, step, 0);
+      ApplyFunction stt = new ApplyFunction(new ScalarIntoTuple("t"));
+      connect(step, stt);
+      ApplyFunction get = new ApplyFunction(new GetMetrics(metrics));
+      connect(f, 1, get, 0);
+      ApplyFunction merge = new ApplyFunction(new MergeTuples());
+      connect(stt, 0, merge, 0);
+      connect(get, 0, merge, 1);
+      ApplyFunction draw = new ApplyFunction(new DrawCurves(640, 480, "t", "UPDATE_US", "RENDER_US", "CONTACTS", "INFECTIONS"));
+      connect(merge, draw);
+      BitmapJFrame window = new BitmapJFrame(640, 480, "Metrics");
+      WidgetSink ws = new WidgetSink(window.getLabel());
+      connect(draw, ws);
+      window.setLocation(750, 200);
+      window.setVisible(true);
+    }
+    
+    // Ready: the windows show the initial state until the first click
+    loop.start();
+    for (Pump pump : pumps)
+    {
+      pump.start();
+    }
+  }
+
 }
@@ -0,0 +1,182 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import virussim.Scenario;
+import virussim.ensemble.CurveStatistics;
+import virussim.ensemble.Ensemble;
+
+/**
+ * Runs many replicas of a simulation over a grid of parameter values, and
+ * prints aggregated curves. The program takes the same <tt>name=value</tt>
+ * arguments as {@link Main} to define the {@link Scenario}, except that a
+ * parameter can be given multiple values separated by commas (for example
+ * <tt>p_infected=0.99,0.995</tt>); the scenarios are all the combinations of
+ * these values. The following arguments are also accepted:
+ * <ul>
+ * <li><tt>replicas</tt>: the number of replicas of each scenario (default:
+ * 100)</li>
+ * <li><tt>workers</tt>: the number of replicas run at the same time
+ * (default: the number of processors)</li>
+ * <li><tt>steps</tt>: the number of steps of each replica (default:
+ * 1000)</li>
+ * <li><tt>interval</tt>: the number of steps between two lines of output
+ * (default: 1)</li>
+ * <li><tt>quantiles</tt>: the quantiles to estimate, separated by commas
+ * (default: 0.05,0.5,0.95)</li>
+ * <li><tt>output</tt>: the file where the table is written (default: the
+ * standard output)</li>
+ * </ul>
+ * The output is a CSV table giving, for each scenario and each sample, the
+ * mean and the quantiles of the number of patients in each health state.
+ */
+public class Sweep
+{
+  public static void main(String[] args) throws FileNotFoundException, InterruptedException, ExecutionException
+  {
+    int replicas = 100;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int steps = 1000;
+    int interval = 1;
+    double[] quantiles = new double[] {0.05, 0.5, 0.95};
+    String output = null;
+    List<String> names = new ArrayList<String>();
+    List<String[]> values = new ArrayList<String[]>();
+    for (String arg : args)
+    {
+      if (arg.startsWith("replicas="))
+      {
+        replicas = Integer.parseInt(arg.substring(9));
+      }
+      else if (arg.startsWith("workers="))
+      {
+        workers = Integer.parseInt(arg.substring(8));
+      }
+      else if (arg.startsWith("steps="))
+      {
+        steps = Integer.parseInt(arg.substring(6));
+      }
+      else if (arg.startsWith("interval="))
+      {
+        interval = Integer.parseInt(arg.substring(9));
+      }
+      else if (arg.startsWith("quantiles="))
+      {
+        String[] parts = arg.substring(10).split(",");
+        quantiles = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+          quantiles[i] = Double.parseDouble(parts[i].trim());
+        }
+      }
+      else if (arg.startsWith("output="))
+      {
+        output = arg.substring(7);
+      }
+      else
+      {
+        int pos = arg.indexOf('=');
+        if (pos < 0)
+        {
+          System.err.println("Ignored argument: " + arg);
+          continue;
+        }
+        names.add(arg.substring(0, pos).trim());
+        values.add(arg.substring(pos + 1).split(","));
+      }
+    }
+    if (interval < 1)
+    {
+      System.err.println("Invalid value for interval: " + interval + " (must be at least 1)");
+      System.exit(1);
+    }
+    // Enumerate the combinations of values
+    List<Scenario> points = new ArrayList<Scenario>();
+    List<String> labels = new ArrayList<String>();
+    int[] choice = new int[names.size()];
+    try
+    {
+      while (true)
+      {
+        Scenario s = new Scenario();
+        StringBuilder label = new StringBuilder();
+        for (int i = 0; i < choice.length; i++)
+        {
+          String v = values.get(i)[choice[i]].trim();
+          s.set(names.get(i), v);
+          if (values.get(i).length > 1)
+          {
+            label.append(v).append(",");
+          }
+        }
+        points.add(s);
+        labels.add(label.toString());
+        int i = choice.length - 1;
+        while (i >= 0 && ++choice[i] == values.get(i).length)
+        {
+          choice[i--] = 0;
+        }
+        if (i < 0)
+        {
+          break;
+        }
+      }
+    }
+    catch (IllegalArgumentException e)
+    {
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+    StringBuilder header = new StringBuilder();
+    for (int i = 0; i < names.size(); i++)
+    {
+      if (values.get(i).length > 1)
+      {
+        header.append(names.get(i)).append(",");
+      }
+    }
+    PrintStream out = System.out;
+    if (output != null)
+    {
+      out = new PrintStream(new BufferedOutputStream(new FileOutputStream(output)));
+    }
+    long start = System.nanoTime();
+    Ensemble ensemble = new Ensemble(points, replicas, steps, interval, quantiles);
+    List<CurveStatistics> stats = ensemble.run(workers);
+    long duration = System.nanoTime() - start;
+    stats.get(0).printHeader(out, header.toString());
+    for (int i = 0; i < stats.size(); i++)
+    {
+      stats.get(i).print(out, labels.get(i));
+    }
+    out.flush();
+    if (out != System.out)
+    {
+      out.close();
+    }
+    System.err.println((points.size() * replicas) + " replicas in " + (duration / 1000000) + " ms");
+  }
+}
@@ -0,0 +1,967 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import ca.uqac.lif.synthia.Picker;
+import virussim.Patient.Health;
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+import virussim.physics.BallMap;
+import virussim.physics.IntList;
+import virussim.physics.StepMetrics;
+import virussim.physics.UniformGrid;
+import virussim.picker.HealthModel;
+
+/**
+ * An {@link Arena} that stores the state of its patients in parallel
+ * arrays of primitive values ("structure of arrays") instead of
+ * individual {@link Patient} objects. Positions, velocities, radii,
+ * the "fixed" flag and the health state of the patient of index
+ * <i>i</i> are found at position <i>i</i> of each array, where patients
+ * are indexed in ascending order of their ID.
+ * <p>
+ * Movement, collisions with walls and collisions between patients are
+ * computed directly on these arrays, and a simulation step allocates no
+ * object. The arithmetic is the same as in {@link Ball#interactWith(Ball)}
+ * and {@link Patient#interactWith(Ball)}, and pairs are visited in the
+ * same order as in {@link Arena#update()}; the two backends therefore
+ * produce the same simulation.
+ * <p>
+ * The map returned by {@link #getBalls()} contains a {@link PatientView}
+ * for each patient, so that functions such as
+ * {@link virussim.cep.DrawArena DrawArena} and
+ * {@link virussim.cep.GetHealth GetHealth} can process this arena like
+ * any other.
+ * <p>
+ * When all the patients share the same {@link HealthModel}, the health
+ * states are not updated one patient at a time: the arena keeps the
+ * indices of the infected patients in a dense list, and computes all
+ * their next states in one batch at the end of each step with
+ * {@link HealthModel#next(int, int[], short[], byte[])}. Since the state
+ * of a patient is never read by the step after the patient's own turn,
+ * this produces the same simulation.
+ */
+public class ArenaState extends Arena
+{
+  /**
+   * The possible health states, indexed by their ordinal
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * The ordinal of the HEALTHY state
+   */
+  protected static final byte HEALTHY = (byte) Health.HEALTHY.ordinal();
+
+  /**
+   * The ordinal of the INFECTED state
+   */
+  protected static final byte INFECTED = (byte) Health.INFECTED.ordinal();
+
+  /**
+   * The number of patients in the arena
+   */
+  protected int m_size;
+
+  /**
+   * The ID of each patient
+   */
+  /*@ non_null @*/ protected int[] m_ids;
+
+  /**
+   * The first coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected double[] m_x;
+
+  /**
+   * The second coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected double[] m_y;
+
+  /**
+   * The first coordinate of the velocity of each patient
+   */
+  /*@ non_null @*/ protected double[] m_vx;
+
+  /**
+   * The second coordinate of the velocity of each patient
+   */
+  /*@ non_null @*/ protected double[] m_vy;
+
+  /**
+   * The radius of each patient
+   */
+  /*@ non_null @*/ protected double[] m_radius;
+
+  /**
+   * Whether each patient is fixed
+   */
+  /*@ non_null @*/ protected boolean[] m_fixed;
+
+  /**
+   * The ordinal of the health state of each patient
+   */
+  /*@ non_null @*/ protected byte[] m_health;
+
+  /**
+   * The picker giving the next health state of each patient
+   */
+  /*@ non_null @*/ protected Picker<Health>[] m_healthPickers;
+
+  /**
+   * The model giving the next health state of each patient, or
+   * <tt>null</tt> for patients using a picker
+   */
+  /*@ non_null @*/ protected HealthModel[] m_healthModels;
+
+  /**
+   * The key of each patient in its health model
+   */
+  /*@ non_null @*/ protected int[] m_healthKeys;
+
+  /**
+   * The number of steps since the infection of each patient, as counted
+   * by its health model (read as an unsigned value)
+   */
+  /*@ non_null @*/ protected short[] m_ticks;
+
+  /**
+   * The number of patients in each health state
+   */
+  /*@ non_null @*/ protected HealthCounts m_counts;
+
+  /**
+   * The health model shared by all the patients, or <tt>null</tt> if
+   * their health states are computed one patient at a time
+   */
+  protected HealthModel m_sharedModel;
+
+  /**
+   * The indices of the patients infected since the last batch of health
+   * updates, or <tt>null</tt> if this arena does not keep this list.
+   * The list may contain patients that are no longer infected.
+   */
+  protected IntList m_infectedList;
+
+  /**
+   * An array where the health keys of the patients of a batch are
+   * gathered
+   */
+  /*@ non_null @*/ protected int[] m_batchKeys = new int[0];
+
+  /**
+   * An array where the ticks of the patients of a batch are gathered
+   */
+  /*@ non_null @*/ protected short[] m_batchTicks = new short[0];
+
+  /**
+   * An array receiving the next health states of the patients of a batch
+   */
+  /*@ non_null @*/ protected byte[] m_batchHealth = new byte[0];
+
+  /**
+   * Creates a new arena from a collection of patients. The state of each
+   * patient is copied into the arena; the patient objects themselves are
+   * no longer used afterwards, except for their health picker or model. If the
+   * patients are attached to {@link HealthCounts}, the arena keeps
+   * updating the counts of the first patient.
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param patients The collection of patients to put inside the arena
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public ArenaState(int width, int height, /*@ non_null @*/ Collection<? extends Patient> patients)
+  {
+    super(width, height, patients);
+    m_size = m_array.length;
+    m_ids = new int[m_size];
+    m_x = new double[m_size];
+    m_y = new double[m_size];
+    m_vx = new double[m_size];
+    m_vy = new double[m_size];
+    m_radius = new double[m_size];
+    m_fixed = new boolean[m_size];
+    m_health = new byte[m_size];
+    m_healthPickers = new Picker[m_size];
+    m_healthModels = new HealthModel[m_size];
+    m_healthKeys = new int[m_size];
+    m_ticks = new short[m_size];
+    m_counts = m_size > 0 ? ((Patient) m_array[0]).getHealthCounts() : null;
+    boolean count = m_counts == null;
+    if (count)
+    {
+      m_counts = new HealthCounts();
+    }
+    for (int i = 0; i < m_size; i++)
+    {
+      Patient p = (Patient) m_array[i];
+      m_ids[i] = p.getId();
+      m_x[i] = p.getPosition().getX();
+      m_y[i] = p.getPosition().getY();
+      m_vx[i] = p.getVelocity().getX();
+      m_vy[i] = p.getVelocity().getY();
+      m_radius[i] = p.getRadius();
+      m_fixed[i] = p.isFixed();
+      m_health[i] = (byte) p.getHealthState().ordinal();
+      m_healthPickers[i] = p.m_healthPicker;
+      m_healthModels[i] = p.m_healthModel;
+      m_healthKeys[i] = p.m_healthKey;
+      m_ticks[i] = p.m_ticks;
+      // The view takes the place of the patient, under the same ID: the
+      // map of balls created by the parent constructor sees the change
+      m_array[i] = new PatientView(this, i, p.getId());
+      if (count)
+      {
+        m_counts.add(p.getHealthState());
+      }
+    }
+    findSharedModel();
+  }
+
+  /**
+   * Creates a new arena from a population stored in arrays. The arrays
+   * of positions, velocities, fixed flags and health states of the
+   * population become those of the arena, without copy, and no
+   * {@link Patient} object is created. All the patients share the same
+   * health model, in which their key is their index in the population.
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param p The population
+   * @param model The health model of the patients
+   * @param counts The counts in which the patients are added, and which
+   * are updated as they change health state, or <tt>null</tt> to use new
+   * counts
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public ArenaState(int width, int height, /*@ non_null @*/ Population p, /*@ non_null @*/ HealthModel model, HealthCounts counts)
+  {
+    super(width, height, Collections.<Patient>emptyList());
+    m_size = p.size();
+    m_ids = new int[m_size];
+    m_x = p.getX();
+    m_y = p.getY();
+    m_vx = p.getVx();
+    m_vy = p.getVy();
+    m_radius = new double[m_size];
+    Arrays.fill(m_radius, Ball.DEFAULT_RADIUS);
+    m_fixed = p.getFixed();
+    m_health = p.getHealth();
+    m_healthPickers = new Picker[m_size];
+    m_healthModels = new HealthModel[m_size];
+    Arrays.fill(m_healthModels, model);
+    m_healthKeys = new int[m_size];
+    m_ticks = new short[m_size];
+    m_array = new Ball[m_size];
+    m_counts = counts == null ? new HealthCounts() : counts;
+    int[] tally = new int[s_healthStates.length];
+    for (int i = 0; i < m_size; i++)
+    {
+      int id = p.getFirstId() + i;
+      m_ids[i] = id;
+      m_healthKeys[i] = i;
+      tally[m_health[i]]++;
+      m_array[i] = new PatientView(this, i, id);
+    }
+    m_balls = new BallMap(m_array);
+    for (Health h : s_healthStates)
+    {
+      m_counts.add(h, tally[h.ordinal()]);
+    }
+    findSharedModel();
+  }
+
+  /**
+   * Determines if all the patients share the same health model, and if
+   * so, starts the list of the patients to update in batch
+   */
+  protected void findSharedModel()
+  {
+    m_sharedModel = m_size > 0 ? m_healthModels[0] : null;
+    for (int i = 1; i < m_size && m_sharedModel != null; i++)
+    {
+      if (m_healthModels[i] != m_sharedModel)
+      {
+        m_sharedModel = null;
+      }
+    }
+    if (m_sharedModel != null)
+    {
+      m_infectedList = new IntList();
+      for (int i = 0; i < m_size; i++)
+      {
+        if (m_health[i] == INFECTED)
+        {
+          m_infectedList.add(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the number of patients in the arena
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Gets the health state of a patient
+   * @param index The index of the patient
+   * @return The health state
+   */
+  public Health getHealthState(int index)
+  {
+    return s_healthStates[m_health[index]];
+  }
+
+  /**
+   * Counts the number of patients in each health state
+   * @param counts An array where the counts are written, indexed by the
+   * ordinal of each health state
+   */
+  public void countHealthStates(/*@ non_null @*/ int[] counts)
+  {
+    m_counts.get(counts);
+  }
+
+  /**
+   * Gets the live count of patients in each health state
+   * @return The counts
+   */
+  public HealthCounts getHealthCounts()
+  {
+    return m_counts;
+  }
+
+  @Override
+  public void update()
+  {
+    if (m_maxSubsteps > 1 || m_continuous)
+    {
+      updateInSubsteps();
+      return;
+    }
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    // Step the position of movable patients based off their velocity
+    for (int i = 0; i < m_size; i++)
+    {
+      if (!m_fixed[i])
+      {
+        m_x[i] += m_vx[i];
+        m_y[i] += m_vy[i];
+      }
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+    }
+    if (m_useGrid)
+    {
+      updateWithGrid();
+    }
+    else
+    {
+      long contacts = 0;
+      for (int i = 0; i < m_size; i++)
+      {
+        bounceOffWalls(i);
+        for (int j = i + 1; j < m_size; j++)
+        {
+          if (interact(i, j))
+          {
+            contacts++;
+            if (m_contactListener != null)
+            {
+              m_contactListener.contact(m_ids[i], m_ids[j]);
+            }
+          }
+        }
+        if (m_infectedList == null)
+        {
+          tick(i);
+        }
+      }
+      long size = m_size;
+      m_pairTests += size * (size - 1) / 2;
+      m_contacts += contacts;
+      if (metrics != null)
+      {
+        // Walls and ticks are handled patient by patient together with
+        // the collisions, and counted with them
+        metrics.lap(StepMetrics.Phase.PAIRS);
+      }
+    }
+    if (m_infectedList != null)
+    {
+      tickInfected();
+      if (metrics != null)
+      {
+        metrics.lap(StepMetrics.Phase.TICK);
+      }
+    }
+    flushPairTests();
+    if (metrics != null)
+    {
+      metrics.endStep();
+    }
+  }
+
+  @Override
+  protected void updateWithGrid()
+  {
+    if (m_grid == null)
+    {
+      // Same cell size as in Arena#updateWithGrid
+      m_grid = new UniformGrid(m_width, m_height, 2 * getMaxRadius() * (1 + 1e-9), m_size);
+    }
+    m_grid.clear();
+    for (int i = 0; i < m_size; i++)
+    {
+      m_grid.insert(i, m_x[i], m_y[i]);
+    }
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+    for (int i = 0; i < m_size; i++)
+    {
+      bounceOffWalls(i);
+      m_grid.move(i, m_x[i], m_y[i]);
+      collideWithGrid(i);
+      if (m_infectedList == null)
+      {
+        tick(i);
+      }
+    }
+    if (metrics != null)
+    {
+      // Walls and ticks are handled patient by patient together with the
+      // collisions, and counted with them
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+  }
+
+  /**
+   * Handles the collisions between a patient and the patients that come
+   * after it, using the spatial hash, in the same way as
+   * {@link Arena#collideWithGrid(int, Ball) Arena.collideWithGrid()}
+   * @param i The index of the patient
+   */
+  protected void collideWithGrid(int i)
+  {
+    int last = i;
+    int tests = 0, contacts = 0;
+    boolean collided = true;
+    while (collided)
+    {
+      collided = false;
+      m_candidates.clear();
+      m_grid.query(m_x[i], m_y[i], last, m_candidates);
+      m_candidates.sort();
+      for (int k = 0; k < m_candidates.size(); k++)
+      {
+        int j = m_candidates.get(k);
+        tests++;
+        if (interact(i, j))
+        {
+          contacts++;
+          if (m_contactListener != null)
+          {
+            m_contactListener.contact(m_ids[i], m_ids[j]);
+          }
+          m_grid.move(i, m_x[i], m_y[i]);
+          m_grid.move(j, m_x[j], m_y[j]);
+          last = j;
+          collided = true;
+          break;
+        }
+      }
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+
+  @Override
+  protected void moveBalls(double dt)
+  {
+    for (int i = 0; i < m_size; i++)
+    {
+      moveBall(i, dt);
+    }
+  }
+
+  /**
+   * Moves a patient by a fraction of its velocity, unless it is fixed
+   * @param i The index of the patient
+   * @param dt The fraction
+   */
+  protected void moveBall(int i, double dt)
+  {
+    if (!m_fixed[i])
+    {
+      m_x[i] += m_vx[i] * dt;
+      m_y[i] += m_vy[i] * dt;
+    }
+  }
+
+  @Override
+  protected void sweep(double dt)
+  {
+    double reach = 2 * (getMaxRadius() + getMaxSpeed() * dt) * (1 + 1e-9);
+    if (m_sweepGrid == null || m_sweepGrid.getCellSize() < reach)
+    {
+      m_sweepGrid = new UniformGrid(m_width, m_height, reach, m_size);
+    }
+    if (m_impactTimes.length < m_size)
+    {
+      m_impactTimes = new double[m_size];
+    }
+    m_sweepGrid.clear();
+    for (int i = 0; i < m_size; i++)
+    {
+      m_sweepGrid.insert(i, m_x[i], m_y[i]);
+    }
+    m_impacts.clear();
+    long tests = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      double u1x = m_fixed[i] ? 0 : m_vx[i] * dt;
+      double u1y = m_fixed[i] ? 0 : m_vy[i] * dt;
+      m_candidates.clear();
+      m_sweepGrid.query(m_x[i], m_y[i], i, m_candidates);
+      m_candidates.sort();
+      for (int k = 0; k < m_candidates.size(); k++)
+      {
+        int j = m_candidates.get(k);
+        double u2x = m_fixed[j] ? 0 : m_vx[j] * dt;
+        double u2y = m_fixed[j] ? 0 : m_vy[j] * dt;
+        double t = Ball.timeOfImpact(m_x[i] - m_x[j], m_y[i] - m_y[j],
+            u1x - u2x, u1y - u2y, m_radius[i] + m_radius[j]);
+        tests++;
+        if (t > 0)
+        {
+          m_impacts.add(t, i, j);
+        }
+      }
+    }
+    m_impacts.sort();
+    Arrays.fill(m_impactTimes, 0, m_size, -1);
+    long contacts = 0;
+    for (int k = 0; k < m_impacts.size(); k++)
+    {
+      int i = m_impacts.getFirst(k), j = m_impacts.getSecond(k);
+      if (m_impactTimes[i] >= 0 || m_impactTimes[j] >= 0)
+      {
+        continue;
+      }
+      double t = m_impacts.getTime(k);
+      moveBall(i, t * dt);
+      moveBall(j, t * dt);
+      m_impactTimes[i] = t;
+      m_impactTimes[j] = t;
+      impact(i, j);
+      contacts++;
+      if (m_contactListener != null)
+      {
+        m_contactListener.contact(m_ids[i], m_ids[j]);
+      }
+    }
+    for (int i = 0; i < m_size; i++)
+    {
+      double t = m_impactTimes[i];
+      moveBall(i, t < 0 ? dt : (1 - t) * dt);
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+
+  @Override
+  protected void collideAll()
+  {
+    StepMetrics metrics = m_metrics;
+    if (m_useGrid)
+    {
+      if (m_grid == null)
+      {
+        m_grid = new UniformGrid(m_width, m_height, 2 * getMaxRadius() * (1 + 1e-9), m_size);
+      }
+      m_grid.clear();
+      for (int i = 0; i < m_size; i++)
+      {
+        m_grid.insert(i, m_x[i], m_y[i]);
+      }
+      if (metrics != null)
+      {
+        metrics.lap(StepMetrics.Phase.PAIRS);
+      }
+    }
+    long tests = 0, contacts = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      bounceOffWalls(i);
+      if (m_useGrid)
+      {
+        m_grid.move(i, m_x[i], m_y[i]);
+        collideWithGrid(i);
+      }
+      else
+      {
+        tests += m_size - i - 1;
+        for (int j = i + 1; j < m_size; j++)
+        {
+          if (interact(i, j))
+          {
+            contacts++;
+            if (m_contactListener != null)
+            {
+              m_contactListener.contact(m_ids[i], m_ids[j]);
+            }
+          }
+        }
+      }
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+    if (metrics != null)
+    {
+      // Walls are handled together with the collisions and counted with them
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+  }
+
+  @Override
+  protected void tickAll()
+  {
+    if (m_infectedList != null)
+    {
+      tickInfected();
+      return;
+    }
+    for (int i = 0; i < m_size; i++)
+    {
+      tick(i);
+    }
+  }
+
+  /**
+   * Checks if a patient collides with one of the walls of the arena, and
+   * updates its position and velocity accordingly
+   * @param i The index of the patient
+   */
+  protected void bounceOffWalls(int i)
+  {
+    double r = m_radius[i];
+    if (m_x[i] - r < 0)
+    {
+      m_x[i] = r;
+      m_vx[i] = -(m_vx[i] * Ball.s_restitution);
+      m_vy[i] = m_vy[i] * Ball.s_restitution;
+    }
+    else if (m_x[i] + r > m_width)
+    {
+      m_x[i] = m_width - r;
+      m_vx[i] = -(m_vx[i] * Ball.s_restitution);
+      m_vy[i] = m_vy[i] * Ball.s_restitution;
+    }
+    if (m_y[i] - r < 0)
+    {
+      m_y[i] = r;
+      m_vy[i] = -(m_vy[i] * Ball.s_restitution);
+      m_vx[i] = m_vx[i] * Ball.s_restitution;
+    }
+    else if (m_y[i] + r > m_height)
+    {
+      m_y[i] = m_height - r;
+      m_vy[i] = -(m_vy[i] * Ball.s_restitution);
+      m_vx[i] = m_vx[i] * Ball.s_restitution;
+    }
+  }
+
+  /**
+   * Manages the interaction between two patients: elastic collision
+   * response, followed by the transmission of the virus if one of them is
+   * infected. This method performs the same computations as
+   * {@link Patient#interactWith(Ball)}, using local variables instead of
+   * {@link virussim.physics.Vector2d Vector2d} objects.
+   * @param i The index of the first patient
+   * @param j The index of the second patient
+   * @return <tt>true</tt> if the two patients are in contact,
+   * <tt>false</tt> otherwise
+   */
+  protected boolean interact(int i, int j)
+  {
+    double dx = m_x[i] - m_x[j], dy = m_y[i] - m_y[j];
+    double r = m_radius[i] + m_radius[j];
+    double dist2 = dx * dx + dy * dy;
+    if (dist2 > r * r)
+    {
+      // No collision
+      return false;
+    }
+    double d = Math.sqrt(dist2);
+    if (d == 0.0d)
+    {
+      // Special case. Patients are exactly on top of each other.
+      d = r - 1.0f;
+      dx = r;
+      dy = 0;
+    }
+    // Minimum translation distance to push patients apart
+    double scale = (r - d) / d;
+    double mtd_x = dx * scale, mtd_y = dy * scale;
+    // Push-pull them apart (both patients have the same mass)
+    m_x[i] += mtd_x * 0.5;
+    m_y[i] += mtd_y * 0.5;
+    m_x[j] -= mtd_x * 0.5;
+    m_y[j] -= mtd_y * 0.5;
+    // Impact speed along the normal
+    double len = Math.sqrt(mtd_x * mtd_x + mtd_y * mtd_y);
+    double n_x = 0, n_y = 0;
+    if (len != 0)
+    {
+      n_x = mtd_x / len;
+      n_y = mtd_y / len;
+    }
+    double vn = (m_vx[i] - m_vx[j]) * n_x + (m_vy[i] - m_vy[j]) * n_y;
+    if (!(vn > 0.0f))
+    {
+      // Collision impulse and change in momentum
+      double imp = (-(1.0f + Ball.s_restitution) * vn) / 2f;
+      m_vx[i] += n_x * imp;
+      m_vy[i] += n_y * imp;
+      m_vx[j] -= n_x * imp;
+      m_vy[j] -= n_y * imp;
+    }
+    // Contagion
+    if (m_health[j] == INFECTED)
+    {
+      infect(i);
+    }
+    if (m_health[i] == INFECTED)
+    {
+      infect(j);
+    }
+    return true;
+  }
+
+  /**
+   * Manages an impact between two patients found by continuous collision
+   * detection. This method performs the same computations as
+   * {@link Patient#impact(Ball)}.
+   * @param i The index of the first patient
+   * @param j The index of the second patient
+   */
+  protected void impact(int i, int j)
+  {
+    double dx = m_x[i] - m_x[j], dy = m_y[i] - m_y[j];
+    double d = Math.sqrt(dx * dx + dy * dy);
+    if (d != 0)
+    {
+      double n_x = dx / d, n_y = dy / d;
+      double vn = (m_vx[i] - m_vx[j]) * n_x + (m_vy[i] - m_vy[j]) * n_y;
+      if (vn < 0)
+      {
+        double imp = (-(1.0f + Ball.s_restitution) * vn) / 2f;
+        m_vx[i] += n_x * imp;
+        m_vy[i] += n_y * imp;
+        m_vx[j] -= n_x * imp;
+        m_vy[j] -= n_y * imp;
+      }
+    }
+    // Contagion
+    if (m_health[j] == INFECTED)
+    {
+      infect(i);
+    }
+    if (m_health[i] == INFECTED)
+    {
+      infect(j);
+    }
+  }
+
+  /**
+   * Sets a patient as infected, if it is currently healthy
+   * @param i The index of the patient
+   */
+  protected void infect(int i)
+  {
+    if (m_health[i] == HEALTHY)
+    {
+      m_health[i] = INFECTED;
+      m_counts.move(Health.HEALTHY, Health.INFECTED);
+      if (m_infectedList != null)
+      {
+        m_infectedList.add(i);
+      }
+    }
+  }
+
+  /**
+   * Updates the health state of a patient for the next iteration
+   * @param i The index of the patient
+   */
+  protected void tick(int i)
+  {
+    if (m_health[i] == INFECTED)
+    {
+      Health h;
+      HealthModel model = m_healthModels[i];
+      if (model != null)
+      {
+        h = model.next(m_healthKeys[i], m_ticks[i] & 0xFFFF);
+        m_ticks[i] = HealthModel.increment(m_ticks[i]);
+      }
+      else
+      {
+        h = m_healthPickers[i].pick();
+      }
+      if (h != Health.INFECTED)
+      {
+        m_counts.move(Health.INFECTED, h);
+      }
+      m_health[i] = (byte) h.ordinal();
+    }
+  }
+
+  /**
+   * Updates the health state of all the patients in the list of infected
+   * patients, and removes from the list those that are no longer infected
+   */
+  protected void tickInfected()
+  {
+    tick(m_infectedList);
+    int kept = 0;
+    for (int k = 0; k < m_infectedList.size(); k++)
+    {
+      int i = m_infectedList.get(k);
+      if (m_health[i] == INFECTED)
+      {
+        m_infectedList.set(kept++, i);
+      }
+    }
+    m_infectedList.truncate(kept);
+  }
+
+  /**
+   * Updates the health state of a list of patients for the next iteration.
+   * The list may contain patients that are not infected, which are left
+   * unchanged, but must not contain the same patient twice. If the
+   * patients share a health model, their keys and ticks are gathered in
+   * dense arrays, their next states are computed in one call to the
+   * model, and the results are scattered back; otherwise each patient is
+   * updated with {@link #tick(int)}.
+   * @param list The indices of the patients
+   */
+  protected void tick(/*@ non_null @*/ IntList list)
+  {
+    HealthModel model = m_sharedModel;
+    if (model == null)
+    {
+      for (int k = 0; k < list.size(); k++)
+      {
+        tick(list.get(k));
+      }
+      return;
+    }
+    int n = list.size();
+    if (m_batchKeys.length < n)
+    {
+      int capacity = Math.max(n, 2 * m_batchKeys.length);
+      m_batchKeys = new int[capacity];
+      m_batchTicks = new short[capacity];
+      m_batchHealth = new byte[capacity];
+    }
+    int[] keys = m_batchKeys;
+    short[] ticks = m_batchTicks;
+    byte[] health = m_batchHealth;
+    int b = 0;
+    for (int k = 0; k < n; k++)
+    {
+      int i = list.get(k);
+      if (m_health[i] == INFECTED)
+      {
+        keys[b] = m_healthKeys[i];
+        ticks[b] = m_ticks[i];
+        b++;
+      }
+    }
+    model.next(b, keys, ticks, health);
+    b = 0;
+    for (int k = 0; k < n; k++)
+    {
+      int i = list.get(k);
+      if (m_health[i] == INFECTED)
+      {
+        byte h = health[b++];
+        m_ticks[i] = HealthModel.increment(m_ticks[i]);
+        if (h != INFECTED)
+        {
+          m_counts.move(Health.INFECTED, s_healthStates[h]);
+          m_health[i] = h;
+        }
+      }
+    }
+  }
+
+  @Override
+  protected double getMaxRadius()
+  {
+    double r = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      r = Math.max(r, m_radius[i]);
+    }
+    return r;
+  }
+
+  @Override
+  protected double getMinRadius()
+  {
+    double r = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < m_size; i++)
+    {
+      r = Math.min(r, m_radius[i]);
+    }
+    return m_size == 0 ? 0 : r;
+  }
+
+  @Override
+  protected double getMaxSpeed()
+  {
+    double v2 = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      if (!m_fixed[i])
+      {
+        v2 = Math.max(v2, m_vx[i] * m_vx[i] + m_vy[i] * m_vy[i]);
+      }
+    }
+    return Math.sqrt(v2);
+  }
+}
@@ -0,0 +1,462 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import ca.uqac.lif.synthia.Picker;
+import virussim.Patient.Health;
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+import virussim.physics.Vector2d;
+import virussim.picker.HealthMarkovChain;
+import virussim.picker.HealthModel;
+import virussim.picker.StepCounter;
+
+/**
+ * The complete state of a simulation at a given step, from which the
+ * simulation can be resumed. A checkpoint holds the parameters of the
+ * {@link Scenario}, the position, velocity, radius, fixed flag and health
+ * state of every patient, the key and step count of every patient in the
+ * health model of the scenario (or the state of its health picker,
+ * including the state of its random source), the next ID to be given to
+ * a ball, and the order of the infected patients in an
+ * {@link EpidemicArena}. The population pickers of the scenario are not
+ * saved: they are only used to create the initial population.
+ * <p>
+ * A checkpoint is taken with {@link #capture(Scenario, Arena, long)}, which
+ * copies the state of the arena, and can then be written while the
+ * simulation goes on. It is written with {@link #write(OutputStream)} in a
+ * binary format that is read sequentially, and read back with
+ * {@link #read(InputStream)}. The arena created from a checkpoint by
+ * {@link #createArena(Scenario, HealthCounts)} continues the simulation exactly as
+ * the original arena would have, provided that the patients use the
+ * health model created by the scenario, as the patients created by
+ * {@link Scenario#createPatients()}, or health pickers that are
+ * {@link StepCounter}s or {@link HealthMarkovChain}s using a
+ * {@link virussim.picker.SeededRandomFloat SeededRandomFloat}.
+ */
+public class Checkpoint
+{
+  /**
+   * The first four bytes of a checkpoint ("VSCP")
+   */
+  public static final int MAGIC = 0x56534350;
+
+  /**
+   * The version of the format
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * The tag of a patient without a health picker
+   */
+  protected static final byte PICKER_NONE = 0;
+
+  /**
+   * The tag of a {@link StepCounter}
+   */
+  protected static final byte PICKER_STEPS = 1;
+
+  /**
+   * The tag of a {@link HealthMarkovChain}
+   */
+  protected static final byte PICKER_MARKOV = 2;
+
+  /**
+   * The tag of a patient using the {@link HealthModel} of the scenario
+   */
+  protected static final byte PICKER_MODEL = 3;
+
+  /**
+   * The possible health states
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * The parameters of the scenario
+   */
+  /*@ non_null @*/ protected List<String> m_arguments;
+
+  /**
+   * The number of steps computed when the checkpoint was taken
+   */
+  protected long m_step;
+
+  /**
+   * The next ID to be given to a ball
+   */
+  protected int m_nextId;
+
+  /**
+   * The patients, in ascending order of ID. Their health pickers are
+   * copies of the pickers of the arena.
+   */
+  /*@ non_null @*/ protected List<Patient> m_patients;
+
+  /**
+   * The IDs of the infected patients of an {@link EpidemicArena}, in the
+   * order in which they are processed, or <tt>null</tt> if the arena is
+   * of another type
+   */
+  protected int[] m_infectedOrder;
+
+  /**
+   * Creates an empty checkpoint
+   */
+  protected Checkpoint()
+  {
+    super();
+  }
+
+  /**
+   * Takes a checkpoint of an arena. The arena must not be updated during
+   * the call; once the method has returned, the checkpoint no longer
+   * depends on the arena.
+   * @param s The scenario of the simulation
+   * @param a The arena
+   * @param step The number of steps computed so far
+   * @return The checkpoint
+   * @throws IllegalArgumentException If a ball of the arena is not a
+   * {@link Patient}
+   */
+  public static Checkpoint capture(/*@ non_null @*/ Scenario s, /*@ non_null @*/ Arena a, long step)
+  {
+    Checkpoint c = new Checkpoint();
+    c.m_arguments = s.getArguments();
+    c.m_step = step;
+    c.m_nextId = Ball.getNextId();
+    if (a instanceof TiledArena)
+    {
+      // The map only holds the patients of the viewport
+      c.m_patients = ((TiledArena) a).getPatients();
+    }
+    else if (a instanceof DistributedArena)
+    {
+      // The patients are held by the workers
+      c.m_patients = ((DistributedArena) a).getPatients();
+    }
+    else if (a instanceof ArenaState)
+    {
+      // Copy the arrays directly; the patients of the map are views
+      ArenaState as = (ArenaState) a;
+      c.m_patients = new ArrayList<Patient>(as.m_size);
+      for (int i = 0; i < as.m_size; i++)
+      {
+        Patient p = new Patient(as.m_ids[i], new Vector2d(as.m_x[i], as.m_y[i]),
+            new Vector2d(as.m_vx[i], as.m_vy[i]), as.m_radius[i], as.m_fixed[i], s_healthStates[as.m_health[i]]);
+        p.m_healthPicker = copy(as.m_healthPickers[i]);
+        p.m_healthModel = as.m_healthModels[i];
+        p.m_healthKey = as.m_healthKeys[i];
+        p.m_ticks = as.m_ticks[i];
+        c.m_patients.add(p);
+      }
+      if (a instanceof EpidemicArena)
+      {
+        c.m_infectedOrder = ((EpidemicArena) a).getInfectedOrder();
+      }
+    }
+    else
+    {
+      c.m_patients = new ArrayList<Patient>(a.getBalls().size());
+      for (Ball b : a.getBalls().values())
+      {
+        if (!(b instanceof Patient))
+        {
+          throw new IllegalArgumentException("Only patients can be saved");
+        }
+        Patient o = (Patient) b;
+        Vector2d pos = o.getPosition(), vel = o.getVelocity();
+        Patient p = new Patient(o.getId(), new Vector2d(pos.getX(), pos.getY()),
+            new Vector2d(vel.getX(), vel.getY()), o.getRadius(), o.isFixed(), o.getHealthState());
+        p.m_healthPicker = copy(o.m_healthPicker);
+        p.m_healthModel = o.m_healthModel;
+        p.m_healthKey = o.m_healthKey;
+        p.m_ticks = o.m_ticks;
+        c.m_patients.add(p);
+      }
+      Collections.sort(c.m_patients, new Comparator<Patient>() {
+        @Override
+        public int compare(Patient p1, Patient p2)
+        {
+          return Integer.compare(p1.getId(), p2.getId());
+        }
+      });
+    }
+    return c;
+  }
+
+  /**
+   * Reads a checkpoint written by {@link #write(OutputStream)}. The stream
+   * is not closed.
+   * @param is The stream to read from
+   * @return The checkpoint
+   * @throws IOException If the stream cannot be read, or does not
+   * contain a checkpoint
+   */
+  public static Checkpoint read(/*@ non_null @*/ InputStream is) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != MAGIC)
+    {
+      throw new IOException("Not a checkpoint");
+    }
+    int version = in.readInt();
+    if (version != VERSION)
+    {
+      throw new IOException("Unsupported checkpoint version " + version);
+    }
+    Checkpoint c = new Checkpoint();
+    c.m_step = in.readLong();
+    c.m_nextId = in.readInt();
+    int num_args = in.readInt();
+    c.m_arguments = new ArrayList<String>(num_args);
+    for (int i = 0; i < num_args; i++)
+    {
+      c.m_arguments.add(in.readUTF());
+    }
+    int n = in.readInt();
+    c.m_patients = new ArrayList<Patient>(n);
+    HealthModel model = null;
+    for (int i = 0; i < n; i++)
+    {
+      int id = in.readInt();
+      double x = in.readDouble(), y = in.readDouble();
+      double vx = in.readDouble(), vy = in.readDouble();
+      double radius = in.readDouble();
+      boolean fixed = in.readBoolean();
+      int h = in.readByte();
+      if (h < 0 || h >= s_healthStates.length)
+      {
+        throw new IOException("Invalid health state " + h);
+      }
+      Patient p = new Patient(id, new Vector2d(x, y), new Vector2d(vx, vy), radius, fixed, s_healthStates[h]);
+      byte tag = in.readByte();
+      if (tag == PICKER_MODEL)
+      {
+        if (model == null)
+        {
+          model = c.getScenario().createHealthModel();
+        }
+        p.m_healthModel = model;
+        p.m_healthKey = in.readInt();
+        p.m_ticks = in.readShort();
+      }
+      else
+      {
+        p.m_healthPicker = readPicker(tag, in);
+      }
+      c.m_patients.add(p);
+    }
+    if (in.readBoolean())
+    {
+      int[] order = new int[in.readInt()];
+      for (int i = 0; i < order.length; i++)
+      {
+        order[i] = in.readInt();
+      }
+      c.m_infectedOrder = order;
+    }
+    return c;
+  }
+
+  /**
+   * Writes the checkpoint. The stream is flushed, but not closed.
+   * @param os The stream to write to
+   * @throws IOException If the stream cannot be written
+   */
+  public void write(/*@ non_null @*/ OutputStream os) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(m_step);
+    out.writeInt(m_nextId);
+    out.writeInt(m_arguments.size());
+    for (String arg : m_arguments)
+    {
+      out.writeUTF(arg);
+    }
+    out.writeInt(m_patients.size());
+    for (Patient p : m_patients)
+    {
+      out.writeInt(p.getId());
+      out.writeDouble(p.getPosition().getX());
+      out.writeDouble(p.getPosition().getY());
+      out.writeDouble(p.getVelocity().getX());
+      out.writeDouble(p.getVelocity().getY());
+      out.writeDouble(p.getRadius());
+      out.writeBoolean(p.isFixed());
+      out.writeByte(p.m_health.ordinal());
+      if (p.m_healthModel != null)
+      {
+        out.writeByte(PICKER_MODEL);
+        out.writeInt(p.m_healthKey);
+        out.writeShort(p.m_ticks);
+      }
+      else
+      {
+        writePicker(out, p.m_healthPicker);
+      }
+    }
+    out.writeBoolean(m_infectedOrder != null);
+    if (m_infectedOrder != null)
+    {
+      out.writeInt(m_infectedOrder.length);
+      for (int id : m_infectedOrder)
+      {
+        out.writeInt(id);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Gets the number of steps computed when the checkpoint was taken
+   * @return The number of steps
+   */
+  public long getStep()
+  {
+    return m_step;
+  }
+
+  /**
+   * Gets the scenario of the simulation
+   * @return A new scenario with the parameters of the simulation
+   */
+  public Scenario getScenario()
+  {
+    Scenario s = new Scenario();
+    s.parse(m_arguments.toArray(new String[m_arguments.size()]));
+    return s;
+  }
+
+  /**
+   * Creates an arena in the state of the checkpoint. The patients and
+   * their pickers are copied, so that the same checkpoint can be used to
+   * create multiple arenas. The counter of ball IDs is set to its saved
+   * value, unless it is already higher.
+   * @param s The scenario giving the engine of the arena, typically the
+   * one returned by {@link #getScenario()}. Any engine continues the
+   * simulation in the same way, except that the epidemic, tiled and
+   * distributed engines differ from the others. A tiled arena resumes from the
+   * positions of all its patients at the time of the checkpoint, and
+   * takes a slightly different course from the original one, whose
+   * inactive tiles were not brought up to date at the same steps.
+   * @param counts The counts updated by the patients of the arena, or
+   * <tt>null</tt> to use no counts
+   * @return The arena
+   */
+  public Arena createArena(/*@ non_null @*/ Scenario s, HealthCounts counts)
+  {
+    List<Patient> players = new ArrayList<Patient>(m_patients.size());
+    for (Patient o : m_patients)
+    {
+      Patient p = new Patient(o.getId(), new Vector2d(o.getPosition().getX(), o.getPosition().getY()),
+          new Vector2d(o.getVelocity().getX(), o.getVelocity().getY()), o.getRadius(), o.isFixed(), o.m_health);
+      p.m_healthPicker = copy(o.m_healthPicker);
+      p.m_healthModel = o.m_healthModel;
+      p.m_healthKey = o.m_healthKey;
+      p.m_ticks = o.m_ticks;
+      players.add(p);
+    }
+    if (Ball.getNextId() < m_nextId)
+    {
+      Ball.setNextId(m_nextId);
+    }
+    Arena a = s.createArena(players, counts);
+    if (m_infectedOrder != null && a instanceof EpidemicArena)
+    {
+      ((EpidemicArena) a).setInfectedOrder(m_infectedOrder);
+    }
+    return a;
+  }
+
+  /**
+   * Copies a health picker with its current state
+   * @param p The picker, or <tt>null</tt>
+   * @return The copy, or <tt>null</tt>
+   */
+  protected static Picker<Health> copy(Picker<Health> p)
+  {
+    return p == null ? null : p.duplicate(true);
+  }
+
+  /**
+   * Writes a health picker
+   * @param out The stream to write to
+   * @param p The picker, or <tt>null</tt>
+   * @throws IOException If the stream cannot be written
+   * @throws IllegalStateException If the state of the picker cannot be
+   * saved
+   */
+  protected static void writePicker(/*@ non_null @*/ DataOutputStream out, Picker<Health> p) throws IOException
+  {
+    if (p == null)
+    {
+      out.writeByte(PICKER_NONE);
+    }
+    else if (p instanceof StepCounter)
+    {
+      out.writeByte(PICKER_STEPS);
+      ((StepCounter) p).writeState(out);
+    }
+    else if (p instanceof HealthMarkovChain)
+    {
+      out.writeByte(PICKER_MARKOV);
+      ((HealthMarkovChain) p).writeState(out);
+    }
+    else
+    {
+      throw new IllegalStateException("The state of a " + p.getClass().getSimpleName() + " cannot be saved");
+    }
+  }
+
+  /**
+   * Reads a health picker written by
+   * {@link #writePicker(DataOutputStream, Picker)}
+   * @param tag The tag of the picker, already read
+   * @param in The stream to read from
+   * @return The picker, or <tt>null</tt>
+   * @throws IOException If the stream cannot be read
+   */
+  protected static Picker<Health> readPicker(byte tag, /*@ non_null @*/ DataInputStream in) throws IOException
+  {
+    switch (tag)
+    {
+    case PICKER_NONE:
+      return null;
+    case PICKER_STEPS:
+      return StepCounter.readState(in);
+    case PICKER_MARKOV:
+      return HealthMarkovChain.readState(in);
+    default:
+      throw new IOException("Invalid picker tag " + tag);
+    }
+  }
+}
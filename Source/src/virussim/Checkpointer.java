@@ -0,0 +1,202 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import virussim.physics.Arena;
+
+/**
+ * Saves checkpoints of a simulation in a file, in the background. A call
+ * to {@link #checkpoint(Arena, long)} only copies the state of the arena;
+ * the checkpoint is then written by another thread while the simulation
+ * goes on. If the previous checkpoint is still being written, the new one
+ * is skipped rather than making the simulation wait.
+ * <p>
+ * Each checkpoint is first written to a temporary file next to the
+ * destination, which then replaces the destination. A simulation that
+ * dies while a checkpoint is written therefore leaves the previous
+ * checkpoint intact.
+ */
+public class Checkpointer implements Closeable
+{
+  /**
+   * The scenario of the simulation
+   */
+  /*@ non_null @*/ protected final Scenario m_scenario;
+
+  /**
+   * The file where checkpoints are saved
+   */
+  /*@ non_null @*/ protected final Path m_file;
+
+  /**
+   * The file where a checkpoint is written before replacing the
+   * destination
+   */
+  /*@ non_null @*/ protected final Path m_tempFile;
+
+  /**
+   * The thread writing the checkpoints
+   */
+  /*@ non_null @*/ protected final ExecutorService m_executor;
+
+  /**
+   * The checkpoint being written, if any
+   */
+  protected Future<Long> m_pending = null;
+
+  /**
+   * The step of the last checkpoint completely written, or -1 if none
+   */
+  protected long m_lastWritten = -1;
+
+  /**
+   * Creates a new checkpointer
+   * @param s The scenario of the simulation
+   * @param file The file where checkpoints are saved
+   */
+  public Checkpointer(/*@ non_null @*/ Scenario s, /*@ non_null @*/ Path file)
+  {
+    super();
+    m_scenario = s;
+    m_file = file;
+    m_tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    m_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "checkpoint-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Takes a checkpoint of the arena and writes it in the background. The
+   * arena must not be updated during the call.
+   * @param a The arena
+   * @param step The number of steps computed so far
+   * @return <tt>true</tt> if the checkpoint was taken, <tt>false</tt> if
+   * it was skipped because the previous one is still being written
+   * @throws IOException If the previous checkpoint could not be written
+   */
+  public boolean checkpoint(/*@ non_null @*/ Arena a, long step) throws IOException
+  {
+    if (m_pending != null)
+    {
+      if (!m_pending.isDone())
+      {
+        return false;
+      }
+      collect();
+    }
+    final Checkpoint c = Checkpoint.capture(m_scenario, a, step);
+    m_pending = m_executor.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException
+      {
+        OutputStream os = Files.newOutputStream(m_tempFile);
+        try
+        {
+          c.write(os);
+        }
+        finally
+        {
+          os.close();
+        }
+        Files.move(m_tempFile, m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return c.getStep();
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Gets the step of the last checkpoint completely written
+   * @return The step, or -1 if no checkpoint has been written yet
+   */
+  public synchronized long getLastWritten()
+  {
+    return m_lastWritten;
+  }
+
+  /**
+   * Waits for the checkpoint being written, if any, and stops the thread
+   * writing the checkpoints
+   * @throws IOException If the last checkpoint could not be written
+   */
+  @Override
+  public void close() throws IOException
+  {
+    try
+    {
+      if (m_pending != null)
+      {
+        collect();
+      }
+    }
+    finally
+    {
+      m_executor.shutdown();
+    }
+  }
+
+  /**
+   * Waits for the checkpoint being written, and records its result
+   * @throws IOException If the checkpoint could not be written
+   */
+  protected void collect() throws IOException
+  {
+    Future<Long> f = m_pending;
+    m_pending = null;
+    try
+    {
+      long step = f.get();
+      synchronized (this)
+      {
+        m_lastWritten = step;
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing a checkpoint");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+}
@@ -0,0 +1,508 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import virussim.Patient.Health;
+import virussim.distributed.Worker;
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+import virussim.physics.ContactListener;
+import virussim.physics.StepMetrics;
+import virussim.physics.Vector2d;
+import virussim.picker.HealthModel;
+
+/**
+ * An {@link Arena} whose patients are computed by several worker
+ * processes running on the local machine. The arena is cut into vertical
+ * strips of equal width, one per worker; each {@link Worker} owns the
+ * patients of its strip (see {@link virussim.distributed.Partition
+ * Partition}) and talks directly with the workers of the neighbouring
+ * strips over a socket.
+ * <p>
+ * At each step, every worker moves its patients, then sends to each
+ * neighbour a copy of the patients that lie within one contact distance
+ * of their common border (the "halo"), computes the contacts among its
+ * own patients and between its patients and the halo it received,
+ * updates the health of its infected patients, and finally hands over to
+ * its neighbours the patients that crossed a border. This object only
+ * coordinates: it tells the workers to compute a step, and merges the
+ * number of patients in each health state they send back into the
+ * {@link HealthCounts} of the arena, from which the plots are drawn.
+ * <p>
+ * The simulation is an approximation of the one computed by
+ * {@link ArenaState}, and does not produce the same results: a contact
+ * across a border is computed on both sides from the positions of the
+ * patients before any collision of the step, and the order in which
+ * contacts are handled is not the same. All the patients must share the
+ * same {@link HealthModel}, as those created by {@link Scenario}; the
+ * workers recreate it from the arguments of the scenario.
+ * <p>
+ * The workers are started with the same Java executable and class path
+ * as the current JVM, and are stopped by {@link #shutdown()}. They also
+ * stop by themselves if this JVM exits.
+ */
+public class DistributedArena extends Arena
+{
+  /**
+   * The number of milliseconds to wait for a worker to connect
+   */
+  protected static final int CONNECT_TIMEOUT = 60000;
+
+  /**
+   * The health states, indexed by their ordinal
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * The processes of the workers
+   */
+  /*@ non_null @*/ protected final List<Process> m_processes = new ArrayList<Process>();
+
+  /**
+   * The connection to each worker, indexed by the position of its strip
+   * from left to right
+   */
+  /*@ non_null @*/ protected final Socket[] m_sockets;
+
+  /**
+   * The stream to read from each worker
+   */
+  /*@ non_null @*/ protected final DataInputStream[] m_inputs;
+
+  /**
+   * The stream to write to each worker
+   */
+  /*@ non_null @*/ protected final DataOutputStream[] m_outputs;
+
+  /**
+   * The health model shared by all the patients
+   */
+  protected HealthModel m_model;
+
+  /**
+   * The number of patients in each health state, merged from the counts
+   * of the workers
+   */
+  /*@ non_null @*/ protected HealthCounts m_counts;
+
+  /**
+   * An array where the counts of the workers are added up
+   */
+  /*@ non_null @*/ protected final int[] m_merged = new int[s_healthStates.length];
+
+  /**
+   * The number of patients in the arena
+   */
+  protected int m_size = 0;
+
+  /**
+   * Whether the workers have been stopped
+   */
+  protected boolean m_stopped = false;
+
+  /**
+   * Creates a new arena from a collection of patients, and starts the
+   * workers. The state of each patient is sent to the worker of its
+   * strip; the patient objects themselves are no longer used afterwards.
+   * If the patients are attached to {@link HealthCounts}, the arena keeps
+   * updating the counts of the first patient.
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param workers The number of workers
+   * @param patients The collection of patients to put inside the arena
+   * @param arguments The arguments of the scenario of the simulation, from
+   * which the workers recreate the health model of the patients
+   * @throws IllegalArgumentException If the patients do not share a
+   * health model, or if a strip is narrower than the contact distance of
+   * two patients
+   * @throws IllegalStateException If the workers cannot be started
+   */
+  public DistributedArena(int width, int height, int workers, /*@ non_null @*/ Collection<? extends Patient> patients, /*@ non_null @*/ List<String> arguments)
+  {
+    super(width, height, Collections.<Patient>emptyList());
+    // The map of balls is filled again at each call to getBalls()
+    m_balls = new HashMap<Integer,Ball>();
+    if (workers < 1)
+    {
+      throw new IllegalArgumentException("There must be at least one worker");
+    }
+    double max_radius = 0;
+    for (Patient p : patients)
+    {
+      max_radius = Math.max(max_radius, p.getRadius());
+      if (p.m_healthModel == null || (m_model != null && p.m_healthModel != m_model))
+      {
+        throw new IllegalArgumentException("The patients of a distributed arena must share a health model");
+      }
+      m_model = p.m_healthModel;
+    }
+    // Same contact distance as in Arena#updateWithGrid
+    double margin = 2 * max_radius * (1 + 1e-9);
+    if ((double) width / workers < margin)
+    {
+      throw new IllegalArgumentException("Strips must be at least " + margin + " wide");
+    }
+    m_sockets = new Socket[workers];
+    m_inputs = new DataInputStream[workers];
+    m_outputs = new DataOutputStream[workers];
+    List<List<Patient>> strips = new ArrayList<List<Patient>>(workers);
+    for (int i = 0; i < workers; i++)
+    {
+      strips.add(new ArrayList<Patient>());
+    }
+    m_counts = null;
+    boolean count = false;
+    for (Patient p : patients)
+    {
+      if (m_counts == null)
+      {
+        m_counts = p.getHealthCounts();
+        count = m_counts == null;
+        if (count)
+        {
+          m_counts = new HealthCounts();
+        }
+      }
+      int strip = (int) (p.getPosition().getX() * workers / width);
+      strips.get(Math.max(0, Math.min(workers - 1, strip))).add(p);
+      if (count)
+      {
+        m_counts.add(p.getHealthState());
+      }
+      m_size++;
+    }
+    if (m_counts == null)
+    {
+      m_counts = new HealthCounts();
+    }
+    try
+    {
+      start(workers, margin, strips, arguments);
+    }
+    catch (IOException e)
+    {
+      shutdown();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Starts the workers, sends each of them the patients of its strip, and
+   * tells each of them how to reach the worker of the strip on its right
+   * @param workers The number of workers
+   * @param margin The largest distance at which two patients can be in
+   * contact
+   * @param strips The patients of each strip
+   * @param arguments The arguments of the scenario of the simulation
+   * @throws IOException If a worker cannot be started or reached
+   */
+  protected void start(int workers, double margin, /*@ non_null @*/ List<List<Patient>> strips, /*@ non_null @*/ List<String> arguments) throws IOException
+  {
+    InetAddress host = InetAddress.getLoopbackAddress();
+    ServerSocket server = new ServerSocket(0, workers, host);
+    try
+    {
+      server.setSoTimeout(CONNECT_TIMEOUT);
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      for (int i = 0; i < workers; i++)
+      {
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            Worker.class.getName(), host.getHostAddress(), Integer.toString(server.getLocalPort()));
+        builder.inheritIO();
+        m_processes.add(builder.start());
+      }
+      // Workers are given strips in the order in which they connect
+      for (int i = 0; i < workers; i++)
+      {
+        m_sockets[i] = server.accept();
+        m_sockets[i].setTcpNoDelay(true);
+        m_inputs[i] = new DataInputStream(new BufferedInputStream(m_sockets[i].getInputStream()));
+        m_outputs[i] = new DataOutputStream(new BufferedOutputStream(m_sockets[i].getOutputStream()));
+      }
+    }
+    finally
+    {
+      server.close();
+    }
+    for (int i = 0; i < workers; i++)
+    {
+      DataOutputStream out = m_outputs[i];
+      out.writeInt(i);
+      out.writeInt(workers);
+      out.writeDouble(m_width);
+      out.writeDouble(m_height);
+      out.writeDouble(left(i, workers));
+      out.writeDouble(i == workers - 1 ? m_width : left(i + 1, workers));
+      out.writeDouble(margin);
+      out.writeInt(arguments.size());
+      for (String arg : arguments)
+      {
+        out.writeUTF(arg);
+      }
+      List<Patient> strip = strips.get(i);
+      out.writeInt(strip.size());
+      for (Patient p : strip)
+      {
+        out.writeInt(p.getId());
+        out.writeDouble(p.getPosition().getX());
+        out.writeDouble(p.getPosition().getY());
+        out.writeDouble(p.getVelocity().getX());
+        out.writeDouble(p.getVelocity().getY());
+        out.writeDouble(p.getRadius());
+        out.writeBoolean(p.isFixed());
+        out.writeByte(p.getHealthState().ordinal());
+        out.writeInt(p.m_healthKey);
+        out.writeShort(p.m_ticks);
+      }
+      out.flush();
+    }
+    // Each worker listens for the worker on its left
+    int[] ports = new int[workers];
+    for (int i = 0; i < workers; i++)
+    {
+      ports[i] = m_inputs[i].readInt();
+    }
+    for (int i = 0; i < workers; i++)
+    {
+      m_outputs[i].writeInt(i == workers - 1 ? -1 : ports[i + 1]);
+      m_outputs[i].flush();
+    }
+  }
+
+  /**
+   * Gets the left border of a strip
+   * @param i The position of the strip
+   * @param workers The number of strips
+   * @return The coordinate of the border
+   */
+  protected double left(int i, int workers)
+  {
+    return i * m_width / workers;
+  }
+
+  /**
+   * Gets the number of patients in the arena
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Gets the number of workers of the arena
+   * @return The number of workers
+   */
+  public int getWorkerCount()
+  {
+    return m_sockets.length;
+  }
+
+  /**
+   * Contacts are found by the workers, in other processes, and cannot be
+   * reported to a listener of this JVM
+   * @throws UnsupportedOperationException If the listener is not
+   * <tt>null</tt>
+   */
+  @Override
+  public void setContactListener(ContactListener l)
+  {
+    if (l != null)
+    {
+      throw new UnsupportedOperationException("The contacts of a distributed arena cannot be listened to");
+    }
+  }
+
+  /**
+   * Gets the live count of patients in each health state
+   * @return The counts
+   */
+  public HealthCounts getHealthCounts()
+  {
+    return m_counts;
+  }
+
+  @Override
+  public void update()
+  {
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    try
+    {
+      for (DataOutputStream out : m_outputs)
+      {
+        out.writeByte(Worker.STEP);
+        out.flush();
+      }
+      for (int h = 0; h < m_merged.length; h++)
+      {
+        m_merged[h] = 0;
+      }
+      for (DataInputStream in : m_inputs)
+      {
+        for (int h = 0; h < m_merged.length; h++)
+        {
+          m_merged[h] += in.readInt();
+        }
+        long tests = in.readLong();
+        long contacts = in.readLong();
+        if (metrics != null)
+        {
+          metrics.pairTests(tests, contacts);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    m_counts.set(m_merged);
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.PAIRS);
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Gets a copy of every patient of the arena, asked to the workers.
+   * Changing the health state of one of these patients does not change
+   * the patient of the arena.
+   * @return A map between patient IDs and patients
+   */
+  @Override
+  public Map<Integer,Ball> getBalls()
+  {
+    m_balls.clear();
+    for (Patient p : getPatients())
+    {
+      m_balls.put(p.getId(), p);
+    }
+    return m_balls;
+  }
+
+  /**
+   * Gets a copy of every patient of the arena, in ascending order of ID.
+   * The copies share the health model of the arena, but are not attached
+   * to its counts.
+   * @return The patients
+   */
+  public List<Patient> getPatients()
+  {
+    List<Patient> patients = new ArrayList<Patient>(m_size);
+    try
+    {
+      for (DataOutputStream out : m_outputs)
+      {
+        out.writeByte(Worker.PATIENTS);
+        out.flush();
+      }
+      for (DataInputStream in : m_inputs)
+      {
+        int n = in.readInt();
+        for (int k = 0; k < n; k++)
+        {
+          int id = in.readInt();
+          Vector2d position = new Vector2d(in.readDouble(), in.readDouble());
+          Vector2d velocity = new Vector2d(in.readDouble(), in.readDouble());
+          double radius = in.readDouble();
+          boolean fixed = in.readBoolean();
+          Patient p = new Patient(id, position, velocity, radius, fixed, s_healthStates[in.readByte()]);
+          p.m_healthModel = m_model;
+          p.m_healthKey = in.readInt();
+          p.m_ticks = in.readShort();
+          patients.add(p);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    Collections.sort(patients, new Comparator<Patient>() {
+      @Override
+      public int compare(Patient p1, Patient p2)
+      {
+        return Integer.compare(p1.getId(), p2.getId());
+      }
+    });
+    return patients;
+  }
+
+  /**
+   * Stops the workers of this arena. The arena can no longer be updated
+   * afterwards.
+   */
+  public void shutdown()
+  {
+    if (m_stopped)
+    {
+      return;
+    }
+    m_stopped = true;
+    for (int i = 0; i < m_sockets.length; i++)
+    {
+      if (m_sockets[i] == null)
+      {
+        continue;
+      }
+      try
+      {
+        m_outputs[i].writeByte(Worker.STOP);
+        m_outputs[i].flush();
+        m_sockets[i].close();
+      }
+      catch (IOException e)
+      {
+        // The worker is already gone
+      }
+    }
+    for (Process p : m_processes)
+    {
+      try
+      {
+        p.waitFor();
+      }
+      catch (InterruptedException e)
+      {
+        p.destroy();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
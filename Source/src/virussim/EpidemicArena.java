@@ -0,0 +1,350 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import virussim.physics.IntList;
+import virussim.physics.StepMetrics;
+import virussim.physics.UniformGrid;
+import virussim.picker.HealthModel;
+
+/**
+ * An {@link ArenaState} that only computes the interactions that can
+ * change the health state of a patient, namely those involving an
+ * infected patient. Patients still move and bounce off the walls, but
+ * collisions between two patients that are not infected are ignored:
+ * these patients simply go through each other. The arena keeps the list
+ * of infected patients, and at each step only looks for contacts in the
+ * neighborhood of these patients; apart from the movement of patients,
+ * which is a few operations on arrays, the cost of a step is therefore
+ * proportional to the number of infected patients rather than to the
+ * size of the population.
+ * <p>
+ * The simulation is an approximation of the one computed by
+ * {@link ArenaState}, and does not produce the same results:
+ * <ul>
+ * <li>the trajectories of patients that do not touch an infected patient
+ * are straight lines between walls;</li>
+ * <li>a patient can only be infected by a patient that was infected at
+ * the beginning of the step.</li>
+ * </ul>
+ * Collisions involving an infected patient can also be disabled with
+ * {@link #setCollisions(boolean)}, in which case infected patients also go
+ * through other patients and only transmit the virus to them.
+ */
+public class EpidemicArena extends ArenaState
+{
+  /**
+   * Whether patients in contact with an infected patient bounce off it
+   */
+  protected boolean m_collisions = true;
+
+  /**
+   * The indices of the patients infected at the beginning of the current
+   * step
+   */
+  /*@ non_null @*/ protected IntList m_infected = new IntList();
+
+  /**
+   * The indices of the patients infected since the beginning of the
+   * current step
+   */
+  /*@ non_null @*/ protected IntList m_newlyInfected = new IntList();
+
+  /**
+   * A list used to compute the infected patients of the next step
+   */
+  /*@ non_null @*/ protected IntList m_stillInfected = new IntList();
+
+  /**
+   * Whether the contacts of each patient have already been computed
+   * during the current step
+   */
+  /*@ non_null @*/ protected boolean[] m_done;
+
+  /**
+   * Creates a new arena from a collection of patients
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param patients The collection of patients to put inside the arena
+   */
+  public EpidemicArena(int width, int height, /*@ non_null @*/ Collection<? extends Patient> patients)
+  {
+    super(width, height, patients);
+    listInfected();
+  }
+
+  /**
+   * Creates a new arena from a population stored in arrays, as with
+   * {@link ArenaState#ArenaState(int, int, Population, HealthModel, HealthCounts)}
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param p The population
+   * @param model The health model of the patients
+   * @param counts The counts in which the patients are added, or
+   * <tt>null</tt> to use new counts
+   */
+  public EpidemicArena(int width, int height, /*@ non_null @*/ Population p, /*@ non_null @*/ HealthModel model, HealthCounts counts)
+  {
+    super(width, height, p, model, counts);
+    listInfected();
+  }
+
+  /**
+   * Starts the lists of infected patients kept by this arena
+   */
+  protected void listInfected()
+  {
+    // This arena keeps its own lists of infected patients
+    m_infectedList = null;
+    m_done = new boolean[m_size];
+    for (int i = 0; i < m_size; i++)
+    {
+      if (m_health[i] == INFECTED)
+      {
+        m_infected.add(i);
+      }
+    }
+  }
+
+  /**
+   * Sets whether patients in contact with an infected patient bounce off
+   * it
+   * @param b <tt>true</tt> to compute these collisions, <tt>false</tt> to
+   * only transmit the virus
+   */
+  public void setCollisions(boolean b)
+  {
+    m_collisions = b;
+  }
+
+  /**
+   * Gets whether patients in contact with an infected patient bounce off
+   * it
+   * @return <tt>true</tt> if these collisions are computed, <tt>false</tt>
+   * otherwise
+   */
+  public boolean hasCollisions()
+  {
+    return m_collisions;
+  }
+
+  /**
+   * Gets the number of patients currently infected
+   * @return The number of patients
+   */
+  public int getInfectedCount()
+  {
+    return m_infected.size() + m_newlyInfected.size();
+  }
+
+  /**
+   * Gets the IDs of the infected patients, in the order in which their
+   * contacts are resolved at the next step
+   * @return The IDs
+   */
+  public int[] getInfectedOrder()
+  {
+    int[] ids = new int[m_infected.size() + m_newlyInfected.size()];
+    int k = 0;
+    for (int c = 0; c < m_infected.size(); c++)
+    {
+      ids[k++] = m_ids[m_infected.get(c)];
+    }
+    for (int c = 0; c < m_newlyInfected.size(); c++)
+    {
+      ids[k++] = m_ids[m_newlyInfected.get(c)];
+    }
+    return ids;
+  }
+
+  /**
+   * Sets the order in which the contacts of the infected patients are
+   * resolved, such as the order saved in a checkpoint. The order does not
+   * change the patients that are infected, but does change which of two
+   * infected patients pushes the other first.
+   * @param ids The IDs of the infected patients, as returned by
+   * {@link #getInfectedOrder()}
+   * @throws IllegalArgumentException If an ID is not that of an infected
+   * patient of the arena
+   */
+  public void setInfectedOrder(/*@ non_null @*/ int[] ids)
+  {
+    m_infected.clear();
+    m_newlyInfected.clear();
+    for (int id : ids)
+    {
+      int i = Arrays.binarySearch(m_ids, 0, m_size, id);
+      if (i < 0 || m_health[i] != INFECTED)
+      {
+        throw new IllegalArgumentException("Patient " + id + " is not infected");
+      }
+      m_infected.add(i);
+    }
+  }
+
+  @Override
+  public void update()
+  {
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    if (m_grid == null)
+    {
+      // Same cell size as in Arena#updateWithGrid
+      m_grid = new UniformGrid(m_width, m_height, 2 * getMaxRadius() * (1 + 1e-9), m_size);
+      for (int i = 0; i < m_size; i++)
+      {
+        m_grid.insert(i, m_x[i], m_y[i]);
+      }
+    }
+    // Patients infected between two steps
+    for (int k = 0; k < m_newlyInfected.size(); k++)
+    {
+      m_infected.add(m_newlyInfected.get(k));
+    }
+    m_newlyInfected.clear();
+    // Move every patient
+    for (int i = 0; i < m_size; i++)
+    {
+      if (!m_fixed[i])
+      {
+        m_x[i] += m_vx[i];
+        m_y[i] += m_vy[i];
+      }
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+    }
+    for (int i = 0; i < m_size; i++)
+    {
+      bounceOffWalls(i);
+      m_grid.move(i, m_x[i], m_y[i]);
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.WALLS);
+    }
+    // Contacts around infected patients
+    long tests = 0, contacts = 0;
+    for (int k = 0; k < m_infected.size(); k++)
+    {
+      int i = m_infected.get(k);
+      m_candidates.clear();
+      m_grid.query(m_x[i], m_y[i], -1, m_candidates);
+      m_candidates.sort();
+      for (int c = 0; c < m_candidates.size(); c++)
+      {
+        int j = m_candidates.get(c);
+        if (j == i || m_done[j])
+        {
+          // A pair of infected patients is only handled once
+          continue;
+        }
+        boolean contact;
+        if (m_collisions)
+        {
+          contact = interact(i, j);
+          if (contact)
+          {
+            m_grid.move(i, m_x[i], m_y[i]);
+            m_grid.move(j, m_x[j], m_y[j]);
+          }
+        }
+        else
+        {
+          contact = inContact(i, j);
+          if (contact)
+          {
+            infect(j);
+          }
+        }
+        tests++;
+        if (contact)
+        {
+          contacts++;
+          if (m_contactListener != null)
+          {
+            m_contactListener.contact(m_ids[i], m_ids[j]);
+          }
+        }
+      }
+      m_done[i] = true;
+    }
+    if (metrics != null)
+    {
+      metrics.pairTests(tests, contacts);
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+    // Health of the patients infected at the beginning of the step
+    tick(m_infected);
+    m_stillInfected.clear();
+    for (int k = 0; k < m_infected.size(); k++)
+    {
+      int i = m_infected.get(k);
+      m_done[i] = false;
+      if (m_health[i] == INFECTED)
+      {
+        m_stillInfected.add(i);
+      }
+    }
+    IntList l = m_infected;
+    m_infected = m_stillInfected;
+    m_stillInfected = l;
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.TICK);
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Sets a patient as infected, if it is currently healthy, and records it
+   * in the list of patients infected during this step
+   * @param i The index of the patient
+   */
+  @Override
+  protected void infect(int i)
+  {
+    if (m_health[i] == HEALTHY)
+    {
+      super.infect(i);
+      m_newlyInfected.add(i);
+    }
+  }
+
+  /**
+   * Determines if two patients are in contact
+   * @param i The index of the first patient
+   * @param j The index of the second patient
+   * @return <tt>true</tt> if the patients are in contact, <tt>false</tt>
+   * otherwise
+   */
+  protected boolean inContact(int i, int j)
+  {
+    double dx = m_x[i] - m_x[j];
+    double dy = m_y[i] - m_y[j];
+    double r = m_radius[i] + m_radius[j];
+    return dx * dx + dy * dy <= r * r;
+  }
+}
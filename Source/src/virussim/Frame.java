@@ -0,0 +1,207 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import virussim.Patient.Health;
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+import virussim.physics.Vector2d;
+
+/**
+ * An immutable snapshot of the patients of an arena after a given step,
+ * holding what is needed to draw them and to plot the epidemic: the
+ * position, radius and health state of each patient, and the number of
+ * patients in each health state. A frame is captured by the thread
+ * running the simulation and can then be read by any number of threads,
+ * without synchronization, while the simulation goes on.
+ */
+public class Frame
+{
+  /**
+   * The health states, indexed by their ordinal
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * The number of steps computed when the frame was captured
+   */
+  protected final long m_step;
+
+  /**
+   * The ID of each patient
+   */
+  /*@ non_null @*/ protected final int[] m_ids;
+
+  /**
+   * The first coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_x;
+
+  /**
+   * The second coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_y;
+
+  /**
+   * The radius of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_radius;
+
+  /**
+   * The ordinal of the health state of each patient
+   */
+  /*@ non_null @*/ protected final byte[] m_health;
+
+  /**
+   * The number of patients in each health state, indexed by the ordinal
+   * of the state
+   */
+  /*@ non_null @*/ protected final int[] m_counts;
+
+  /**
+   * The patients of the frame as a map, created on the first call to
+   * {@link #getBalls()}
+   */
+  protected Map<Integer,Ball> m_balls = null;
+
+  /**
+   * Creates a new frame
+   * @param step The number of steps computed
+   * @param size The number of patients
+   */
+  protected Frame(long step, int size)
+  {
+    super();
+    m_step = step;
+    m_ids = new int[size];
+    m_x = new double[size];
+    m_y = new double[size];
+    m_radius = new double[size];
+    m_health = new byte[size];
+    m_counts = new int[s_healthStates.length];
+  }
+
+  /**
+   * Captures the state of an arena. For arenas that only return some of
+   * their patients with {@link Arena#getBalls()}, such as a
+   * {@link TiledArena}, the frame holds these patients, but the counts
+   * are those of the whole population.
+   * @param a The arena
+   * @param step The number of steps computed by the arena
+   * @param counts The number of patients of the arena in each health
+   * state, or <tt>null</tt> to count the patients of the frame
+   * @return The frame
+   */
+  public static Frame capture(/*@ non_null @*/ Arena a, long step, HealthCounts counts)
+  {
+    Frame f;
+    if (a instanceof ArenaState)
+    {
+      // Copy the arrays directly; the patients of the map are views
+      ArenaState as = (ArenaState) a;
+      f = new Frame(step, as.m_size);
+      System.arraycopy(as.m_ids, 0, f.m_ids, 0, as.m_size);
+      System.arraycopy(as.m_x, 0, f.m_x, 0, as.m_size);
+      System.arraycopy(as.m_y, 0, f.m_y, 0, as.m_size);
+      System.arraycopy(as.m_radius, 0, f.m_radius, 0, as.m_size);
+      System.arraycopy(as.m_health, 0, f.m_health, 0, as.m_size);
+    }
+    else
+    {
+      Map<Integer,Ball> balls = a.getBalls();
+      f = new Frame(step, balls.size());
+      int i = 0;
+      for (Ball b : balls.values())
+      {
+        f.m_ids[i] = b.getId();
+        f.m_x[i] = b.getPosition().getX();
+        f.m_y[i] = b.getPosition().getY();
+        f.m_radius[i] = b.getRadius();
+        f.m_health[i] = (byte) ((Patient) b).getHealthState().ordinal();
+        i++;
+      }
+    }
+    if (counts != null)
+    {
+      counts.get(f.m_counts);
+    }
+    else
+    {
+      for (byte h : f.m_health)
+      {
+        f.m_counts[h]++;
+      }
+    }
+    return f;
+  }
+
+  /**
+   * Gets the number of steps computed when the frame was captured
+   * @return The number of steps
+   */
+  public long getStep()
+  {
+    return m_step;
+  }
+
+  /**
+   * Gets the number of patients of the frame
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_ids.length;
+  }
+
+  /**
+   * Gets the number of patients in a health state
+   * @param h The health state
+   * @return The number of patients
+   */
+  public int getCount(/*@ non_null @*/ Health h)
+  {
+    return m_counts[h.ordinal()];
+  }
+
+  /**
+   * Gets the patients of the frame, as a map that can be given to the
+   * same functions as the output of an {@link virussim.cep.ArenaSource
+   * ArenaSource}, such as {@link virussim.cep.DrawArena DrawArena}. The
+   * map is created on the first call and shared by all the callers; it
+   * cannot be modified, and its patients must not be modified either.
+   * @return A map between patient IDs and patients
+   */
+  public synchronized Map<Integer,Ball> getBalls()
+  {
+    if (m_balls == null)
+    {
+      Map<Integer,Ball> balls = new HashMap<Integer,Ball>(m_ids.length);
+      for (int i = 0; i < m_ids.length; i++)
+      {
+        balls.put(m_ids[i], new Patient(m_ids[i], new Vector2d(m_x[i], m_y[i]),
+            new Vector2d(0, 0), m_radius[i], false, s_healthStates[m_health[i]]));
+      }
+      m_balls = Collections.unmodifiableMap(balls);
+    }
+    return m_balls;
+  }
+}
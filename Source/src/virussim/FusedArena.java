@@ -0,0 +1,273 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.Collection;
+
+import virussim.physics.Ball;
+import virussim.physics.StepMetrics;
+import virussim.physics.UniformGrid;
+import virussim.picker.HealthModel;
+
+/**
+ * An {@link ArenaState} whose step starts with a single pass over the
+ * arrays of the patients. This pass moves each patient, makes it bounce
+ * off the walls and puts it in its cell of the spatial hash, where
+ * {@link ArenaState} walks the patients once to move them, once to fill
+ * the grid, and handles the walls during the collision loop. The collisions
+ * between patients are then computed as in {@link ArenaState}.
+ * <p>
+ * The pass is specialized for the case where all the patients have the
+ * same radius and where the restitution of a collision is 1, which is
+ * the case of every population created by a {@link Scenario}: the bounce
+ * off a wall only flips the sign of one component of the velocity, and
+ * the contact distance is a constant. The pass only reads and writes
+ * primitive arrays, and calls no overridden method. When patients have
+ * different radii, when substeps or continuous collisions are enabled,
+ * or without the spatial hash, the arena computes its steps as an
+ * {@link ArenaState}.
+ * <p>
+ * The simulation is close to the one computed by {@link ArenaState}, but
+ * not identical. A patient that crosses a wall bounces before the
+ * collisions of the step, and not at its own turn: a patient that comes
+ * before it in the collision loop therefore sees it inside the arena. A
+ * patient pushed across a wall by a collision still bounces at its turn,
+ * as in the other engines.
+ */
+public class FusedArena extends ArenaState
+{
+  /**
+   * The radius shared by all the patients, or -1 if the patients have
+   * different radii
+   */
+  protected double m_commonRadius;
+
+  /**
+   * Creates a new arena from a collection of patients
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param patients The collection of patients to put inside the arena
+   */
+  public FusedArena(int width, int height, /*@ non_null @*/ Collection<? extends Patient> patients)
+  {
+    super(width, height, patients);
+    m_commonRadius = findCommonRadius();
+  }
+
+  /**
+   * Creates a new arena from a population stored in arrays, as with
+   * {@link ArenaState#ArenaState(int, int, Population, HealthModel, HealthCounts)}
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param p The population
+   * @param model The health model of the patients
+   * @param counts The counts in which the patients are added, or
+   * <tt>null</tt> to use new counts
+   */
+  public FusedArena(int width, int height, /*@ non_null @*/ Population p, /*@ non_null @*/ HealthModel model, HealthCounts counts)
+  {
+    super(width, height, p, model, counts);
+    m_commonRadius = findCommonRadius();
+  }
+
+  /**
+   * Determines if all the patients have the same radius
+   * @return The radius, or -1 if the patients have different radii
+   */
+  protected double findCommonRadius()
+  {
+    if (m_size == 0)
+    {
+      return -1;
+    }
+    double r = m_radius[0];
+    for (int i = 1; i < m_size; i++)
+    {
+      if (m_radius[i] != r)
+      {
+        return -1;
+      }
+    }
+    return r;
+  }
+
+  @Override
+  public void update()
+  {
+    if (m_commonRadius < 0 || Ball.s_restitution != 1 || !m_useGrid
+        || m_maxSubsteps > 1 || m_continuous)
+    {
+      super.update();
+      return;
+    }
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    if (m_grid == null)
+    {
+      // Same cell size as in Arena#updateWithGrid
+      m_grid = new UniformGrid(m_width, m_height, 2 * m_commonRadius * (1 + 1e-9), m_size);
+    }
+    m_grid.clear();
+    moveAndBin();
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+    }
+    double r = m_commonRadius;
+    for (int i = 0; i < m_size; i++)
+    {
+      // A collision with a patient that comes before may have pushed
+      // this one across a wall
+      double x = m_x[i], y = m_y[i];
+      if (x - r < 0 || x + r > m_width || y - r < 0 || y + r > m_height)
+      {
+        bounceOffWalls(i);
+        m_grid.move(i, m_x[i], m_y[i]);
+      }
+      collideWithGrid(i);
+      if (m_infectedList == null)
+      {
+        tick(i);
+      }
+    }
+    if (metrics != null)
+    {
+      // Walls and ticks are handled patient by patient together with the
+      // collisions, and counted with them
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+    if (m_infectedList != null)
+    {
+      tickInfected();
+      if (metrics != null)
+      {
+        metrics.lap(StepMetrics.Phase.TICK);
+      }
+    }
+    flushPairTests();
+    if (metrics != null)
+    {
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Moves every movable patient, makes it bounce off the walls and puts
+   * it in the grid, in a single pass. With a restitution of 1, a bounce
+   * leaves the component of the velocity parallel to the wall unchanged,
+   * and only reverses the other one.
+   */
+  protected void moveAndBin()
+  {
+    double[] xs = m_x, ys = m_y, vxs = m_vx, vys = m_vy;
+    boolean[] fixed = m_fixed;
+    UniformGrid grid = m_grid;
+    double r = m_commonRadius, w = m_width, h = m_height;
+    int size = m_size;
+    for (int i = 0; i < size; i++)
+    {
+      double x = xs[i], y = ys[i], vx = vxs[i], vy = vys[i];
+      if (!fixed[i])
+      {
+        x += vx;
+        y += vy;
+      }
+      if (x - r < 0)
+      {
+        x = r;
+        vx = -vx;
+      }
+      else if (x + r > w)
+      {
+        x = w - r;
+        vx = -vx;
+      }
+      if (y - r < 0)
+      {
+        y = r;
+        vy = -vy;
+      }
+      else if (y + r > h)
+      {
+        y = h - r;
+        vy = -vy;
+      }
+      xs[i] = x;
+      ys[i] = y;
+      vxs[i] = vx;
+      vys[i] = vy;
+      grid.insert(i, x, y);
+    }
+  }
+
+  /**
+   * Handles the collisions between a patient and the patients that come
+   * after it, as in {@link ArenaState#collideWithGrid(int)}. Since all the
+   * patients have the same radius, the distance between two candidates is
+   * first compared to a constant, and {@link #interact(int, int)} is only
+   * called for the pairs in contact.
+   * @param i The index of the patient
+   */
+  @Override
+  protected void collideWithGrid(int i)
+  {
+    if (m_commonRadius < 0)
+    {
+      super.collideWithGrid(i);
+      return;
+    }
+    double[] xs = m_x, ys = m_y;
+    // Same sum and product as in interact()
+    double r = m_commonRadius + m_commonRadius;
+    double r2 = r * r;
+    int last = i;
+    int tests = 0, contacts = 0;
+    boolean collided = true;
+    while (collided)
+    {
+      collided = false;
+      m_candidates.clear();
+      m_grid.query(xs[i], ys[i], last, m_candidates);
+      m_candidates.sort();
+      for (int k = 0; k < m_candidates.size(); k++)
+      {
+        int j = m_candidates.get(k);
+        double dx = xs[i] - xs[j], dy = ys[i] - ys[j];
+        tests++;
+        if (!(dx * dx + dy * dy > r2) && interact(i, j))
+        {
+          contacts++;
+          if (m_contactListener != null)
+          {
+            m_contactListener.contact(m_ids[i], m_ids[j]);
+          }
+          m_grid.move(i, xs[i], ys[i]);
+          m_grid.move(j, xs[j], ys[j]);
+          last = j;
+          collided = true;
+          break;
+        }
+      }
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+}
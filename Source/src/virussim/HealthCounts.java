@@ -0,0 +1,119 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import virussim.Patient.Health;
+
+/**
+ * Live count of the number of patients in each health state. Patients
+ * attached to an instance of this class with
+ * {@link Patient#setHealthCounts(HealthCounts)} update it whenever their
+ * health state changes, so that the counts can be read at any time
+ * without going through the whole population. Counters are atomic, as
+ * patients may change state from multiple threads.
+ */
+public class HealthCounts
+{
+  /**
+   * The number of patients in each health state, indexed by the ordinal
+   * of the state
+   */
+  /*@ non_null @*/ protected final AtomicIntegerArray m_counts = new AtomicIntegerArray(Health.values().length);
+
+  /**
+   * Adds a patient in a given health state
+   * @param h The health state
+   */
+  public void add(/*@ non_null @*/ Health h)
+  {
+    m_counts.incrementAndGet(h.ordinal());
+  }
+
+  /**
+   * Adds several patients in a given health state
+   * @param h The health state
+   * @param n The number of patients
+   */
+  public void add(/*@ non_null @*/ Health h, int n)
+  {
+    m_counts.addAndGet(h.ordinal(), n);
+  }
+
+  /**
+   * Removes a patient in a given health state
+   * @param h The health state
+   */
+  public void remove(/*@ non_null @*/ Health h)
+  {
+    m_counts.decrementAndGet(h.ordinal());
+  }
+
+  /**
+   * Records that a patient changed health state
+   * @param from The previous health state
+   * @param to The new health state
+   */
+  public void move(/*@ non_null @*/ Health from, /*@ non_null @*/ Health to)
+  {
+    m_counts.decrementAndGet(from.ordinal());
+    m_counts.incrementAndGet(to.ordinal());
+  }
+
+  /**
+   * Gets the number of patients in a health state
+   * @param h The health state
+   * @return The number of patients
+   */
+  public int get(/*@ non_null @*/ Health h)
+  {
+    return m_counts.get(h.ordinal());
+  }
+
+  /**
+   * Copies the number of patients in each health state into an array
+   * @param counts The array, indexed by the ordinal of each health state
+   */
+  public void get(/*@ non_null @*/ int[] counts)
+  {
+    for (int i = 0; i < counts.length; i++)
+    {
+      counts[i] = m_counts.get(i);
+    }
+  }
+
+  /**
+   * Replaces the number of patients in each health state
+   * @param counts The new counts, indexed by the ordinal of each health
+   * state
+   */
+  public void set(/*@ non_null @*/ int[] counts)
+  {
+    for (int i = 0; i < counts.length; i++)
+    {
+      m_counts.set(i, counts[i]);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return m_counts.toString();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import virussim.Patient.Health;
+import virussim.physics.StepMetrics;
+
+/**
+ * {@link StepMetrics} that also count the new infections at each step,
+ * from the decrease of the number of healthy patients in live
+ * {@link HealthCounts}. A step where some patients become healthy again
+ * while others get infected therefore undercounts the infections.
+ */
+public class HealthMetrics extends StepMetrics
+{
+  /**
+   * The counts read by the metrics
+   */
+  /*@ non_null @*/ protected final HealthCounts m_counts;
+
+  /**
+   * The number of healthy patients when the current step started
+   */
+  protected int m_healthyStart;
+
+  /**
+   * Creates a new set of metrics
+   * @param counts The counts read by the metrics; they must be those of
+   * the patients in the arena
+   */
+  public HealthMetrics(/*@ non_null @*/ HealthCounts counts)
+  {
+    super();
+    m_counts = counts;
+  }
+
+  @Override
+  public void startStep()
+  {
+    m_healthyStart = m_counts.get(Health.HEALTHY);
+    super.startStep();
+  }
+
+  @Override
+  protected long countInfections()
+  {
+    return Math.max(0, m_healthyStart - m_counts.get(Health.HEALTHY));
+  }
+}
@@ -20,6 +20,7 @@ package virussim;
 import ca.uqac.lif.synthia.Picker;
 import virussim.physics.Ball;
 import virussim.physics.Vector2d;
+import virussim.picker.HealthModel;
 
 /**
  * A special type of {@link Ball} that can catch a virus when in contact
@@ -41,6 +42,29 @@ public class Patient extends Ball
    * The player's picker for its health state
    */
   protected Picker<Health> m_healthPicker;
+  
+  /**
+   * The model giving the health state of the player, shared with other
+   * players, or <tt>null</tt> to use the picker
+   */
+  protected HealthModel m_healthModel = null;
+  
+  /**
+   * The key of the player in its health model
+   */
+  protected int m_healthKey = 0;
+  
+  /**
+   * The number of steps since the player was infected, as counted by its
+   * health model (read as an unsigned value)
+   */
+  protected short m_ticks = 0;
+  
+  /**
+   * The counts updated when the health state of the player changes, if
+   * any
+   */
+  protected HealthCounts m_counts = null;
 
   public Patient(Vector2d position, Vector2d velocity, boolean is_moving) 
   {
@@ -57,6 +81,43 @@ public class Patient extends Ball
     m_health = Health.HEALTHY;
   }
   
+  /**
+   * Creates a new patient with a given ID. This constructor does not
+   * consume an ID from the global counter; it is used by objects that
+   * stand for an existing patient, such as a {@link PatientView}.
+   * @param id The ID of the patient
+   */
+  protected Patient(int id)
+  {
+    super();
+    m_id = id;
+    m_position = new Vector2d(0, 0);
+    m_velocity = new Vector2d(0, 0);
+    m_health = Health.HEALTHY;
+  }
+  
+  /**
+   * Creates a patient in a given state, such as a patient read from a
+   * checkpoint. As with {@link #Patient(int)}, this constructor does not
+   * consume an ID from the global counter.
+   * @param id The ID of the patient
+   * @param position The position of the patient
+   * @param velocity The velocity of the patient
+   * @param radius The radius of the patient
+   * @param fixed Whether the patient is fixed
+   * @param h The health state of the patient
+   */
+  protected Patient(int id, /*@ non_null @*/ Vector2d position, /*@ non_null @*/ Vector2d velocity, double radius, boolean fixed, /*@ non_null @*/ Health h)
+  {
+    super();
+    m_id = id;
+    m_position = position;
+    m_velocity = velocity;
+    m_radius = radius;
+    m_fixed = fixed;
+    m_health = h;
+  }
+  
   /**
    * Sets the picker defining the health status of this
    * patient.
@@ -67,6 +128,20 @@ public class Patient extends Ball
     m_healthPicker = p;
   }
 
+  /**
+   * Sets the model defining the health status of this patient, in place
+   * of a picker. The model can be shared by any number of patients.
+   * @param m The model, or <tt>null</tt> to use the picker of the patient
+   * @param key The key of the patient in the model, typically its index
+   * in the population; patients sharing a model should have distinct keys
+   */
+  public void setHealthModel(HealthModel m, int key)
+  {
+    m_healthModel = m;
+    m_healthKey = key;
+    m_ticks = 0;
+  }
+
   /**
    * Gets the player's health state
    * @return The health state
@@ -85,9 +160,43 @@ public class Patient extends Ball
     if (m_health == Health.HEALTHY && s == Health.INFECTED)
     {
       m_health = Health.INFECTED;
+      if (m_counts != null)
+      {
+        m_counts.move(Health.HEALTHY, Health.INFECTED);
+      }
+    }
+  }
+  
+  /**
+   * Attaches the player to a set of health counts. The player is counted
+   * in its current health state, and the counts are updated whenever
+   * this state changes. If the player was attached to other counts, it is
+   * removed from them.
+   * @param c The counts, or <tt>null</tt> to detach the player
+   */
+  public void setHealthCounts(HealthCounts c)
+  {
+    if (m_counts != null)
+    {
+      m_counts.remove(m_health);
+    }
+    m_counts = c;
+    if (m_counts != null)
+    {
+      m_counts.add(m_health);
     }
   }
   
+  /**
+   * Gets the health counts the player is attached to
+   * @return The counts, or <tt>null</tt> if the player is not attached to
+   * any
+   */
+  public HealthCounts getHealthCounts()
+  {
+    return m_counts;
+  }
+  
   /**
    * Updates the state of the player for the next iteration
    */
@@ -96,7 +205,21 @@ public class Patient extends Ball
     // If infected, pick next state in Markov chain
     if (m_health == Health.INFECTED)
     {
-      m_health = m_healthPicker.pick();
+      Health h;
+      if (m_healthModel != null)
+      {
+        h = m_healthModel.next(m_healthKey, m_ticks & 0xFFFF);
+        m_ticks = HealthModel.increment(m_ticks);
+      }
+      else
+      {
+        h = m_healthPicker.pick();
+      }
+      if (h != m_health && m_counts != null)
+      {
+        m_counts.move(m_health, h);
+      }
+      m_health = h;
     }
   }
 
@@ -104,6 +227,8 @@ public class Patient extends Ball
    * Manages the interaction between the current player and
    * another one
    * @param b The other player
+   * @return <tt>true</tt> if the two players are in contact, <tt>false</tt>
+   * otherwise
    */
   @Override
   public boolean interactWith(Ball b)
@@ -112,15 +237,40 @@ public class Patient extends Ball
     if (super.interactWith(p))
     {
       // Collision
-      if (p.getHealthState() == Health.INFECTED)
-      {
-        setHealthState(Health.INFECTED);
-      }
-      if (m_health == Health.INFECTED)
-      {
-        p.setHealthState(Health.INFECTED);
-      }
+      transmit(p);
+      return true;
     }
     return false;
   }
+
+  /**
+   * Manages an impact between the current player and another one, found
+   * by continuous collision detection. The virus is transmitted as in
+   * {@link #interactWith(Ball)}.
+   * @param b The other player
+   */
+  @Override
+  public void impact(Ball b)
+  {
+    Patient p = (Patient) b;
+    super.impact(p);
+    transmit(p);
+  }
+
+  /**
+   * Transmits the virus between the current player and another one in
+   * contact, if one of them is infected
+   * @param p The other player
+   */
+  protected void transmit(/*@ non_null @*/ Patient p)
+  {
+    if (p.getHealthState() == Health.INFECTED)
+    {
+      setHealthState(Health.INFECTED);
+    }
+    if (m_health == Health.INFECTED)
+    {
+      p.setHealthState(Health.INFECTED);
+    }
+  }
 }
@@ -0,0 +1,142 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import virussim.physics.Ball;
+import virussim.physics.Vector2d;
+
+/**
+ * A {@link Patient} whose state is read from the arrays of an
+ * {@link ArenaState}. A view holds no state of its own besides its index
+ * in the arena; the vectors returned by {@link #getPosition()} and
+ * {@link #getVelocity()} are refilled with the current values of the
+ * arena on every call, and modifying them has no effect on the arena.
+ */
+public class PatientView extends Patient
+{
+  /**
+   * The arena holding the state of the patient
+   */
+  /*@ non_null @*/ protected ArenaState m_state;
+
+  /**
+   * The index of the patient in the arrays of the arena
+   */
+  protected int m_index;
+
+  /**
+   * Creates a new view of a patient
+   * @param state The arena holding the state of the patient
+   * @param index The index of the patient in the arrays of the arena
+   * @param id The ID of the patient
+   */
+  protected PatientView(/*@ non_null @*/ ArenaState state, int index, int id)
+  {
+    super(id);
+    m_state = state;
+    m_index = index;
+  }
+
+  @Override
+  public Vector2d getPosition()
+  {
+    return m_position.setX(m_state.m_x[m_index]).setY(m_state.m_y[m_index]);
+  }
+
+  @Override
+  public void setPosition(/*@ non_null @*/ Vector2d p)
+  {
+    m_state.m_x[m_index] = p.getX();
+    m_state.m_y[m_index] = p.getY();
+  }
+
+  @Override
+  public Vector2d getVelocity()
+  {
+    return m_velocity.setX(m_state.m_vx[m_index]).setY(m_state.m_vy[m_index]);
+  }
+
+  @Override
+  public void setVelocity(/*@ non_null @*/ Vector2d v)
+  {
+    m_state.m_vx[m_index] = v.getX();
+    m_state.m_vy[m_index] = v.getY();
+  }
+
+  @Override
+  public double getRadius()
+  {
+    return m_state.m_radius[m_index];
+  }
+
+  @Override
+  public boolean isFixed()
+  {
+    return m_state.m_fixed[m_index];
+  }
+
+  @Override
+  public void setFixed(boolean b)
+  {
+    m_state.m_fixed[m_index] = b;
+  }
+
+  @Override
+  public Health getHealthState()
+  {
+    return m_state.getHealthState(m_index);
+  }
+
+  @Override
+  public void setHealthState(Health s)
+  {
+    if (s == Health.INFECTED)
+    {
+      m_state.infect(m_index);
+    }
+  }
+
+  /**
+   * Views are updated by their arena; calling this method has no effect
+   */
+  @Override
+  public void tick()
+  {
+    // Nothing to do
+  }
+
+  /**
+   * Interactions between patients are computed by their arena; calling
+   * this method on a view is not supported
+   */
+  @Override
+  public boolean interactWith(Ball b)
+  {
+    throw new UnsupportedOperationException("Interactions are computed by the arena");
+  }
+
+  /**
+   * Impacts between patients are computed by their arena; calling this
+   * method on a view is not supported
+   */
+  @Override
+  public void impact(Ball b)
+  {
+    throw new UnsupportedOperationException("Interactions are computed by the arena");
+  }
+}
@@ -0,0 +1,194 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import virussim.Patient.Health;
+import virussim.physics.Ball;
+import virussim.physics.Vector2d;
+import virussim.picker.HealthModel;
+import virussim.picker.PopulationGenerator;
+
+/**
+ * The initial state of a population of patients, stored in parallel
+ * arrays of primitive values instead of one object per patient. The
+ * patients have consecutive IDs, and the default radius of a
+ * {@link Ball}. A population is produced by a {@link PopulationGenerator};
+ * an {@link ArenaState} can take its arrays as they are, and other arenas
+ * are given the patients built by {@link #createPatients(HealthModel)}.
+ * <p>
+ * The arrays are exposed as they are, without copy, so that they can be
+ * handed over to an arena; a population should therefore be given to a
+ * single arena.
+ */
+public class Population
+{
+  /**
+   * The ID of the first patient
+   */
+  protected final int m_firstId;
+
+  /**
+   * The number of patients
+   */
+  protected final int m_size;
+
+  /**
+   * The first coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_x;
+
+  /**
+   * The second coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_y;
+
+  /**
+   * The first coordinate of the velocity of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_vx;
+
+  /**
+   * The second coordinate of the velocity of each patient
+   */
+  /*@ non_null @*/ protected final double[] m_vy;
+
+  /**
+   * Whether each patient is fixed
+   */
+  /*@ non_null @*/ protected final boolean[] m_fixed;
+
+  /**
+   * The ordinal of the health state of each patient
+   */
+  /*@ non_null @*/ protected final byte[] m_health;
+
+  /**
+   * Creates a population of healthy patients, all at the origin and
+   * with a null velocity
+   * @param first_id The ID of the first patient
+   * @param size The number of patients
+   */
+  public Population(int first_id, int size)
+  {
+    super();
+    m_firstId = first_id;
+    m_size = size;
+    m_x = new double[size];
+    m_y = new double[size];
+    m_vx = new double[size];
+    m_vy = new double[size];
+    m_fixed = new boolean[size];
+    m_health = new byte[size];
+  }
+
+  /**
+   * Gets the number of patients
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Gets the ID of the first patient; the patient at index <i>i</i> has
+   * the ID <tt>getFirstId() + <i>i</i></tt>
+   * @return The ID
+   */
+  public int getFirstId()
+  {
+    return m_firstId;
+  }
+
+  /**
+   * Gets the first coordinate of the position of each patient
+   * @return The array of coordinates
+   */
+  public double[] getX()
+  {
+    return m_x;
+  }
+
+  /**
+   * Gets the second coordinate of the position of each patient
+   * @return The array of coordinates
+   */
+  public double[] getY()
+  {
+    return m_y;
+  }
+
+  /**
+   * Gets the first coordinate of the velocity of each patient
+   * @return The array of coordinates
+   */
+  public double[] getVx()
+  {
+    return m_vx;
+  }
+
+  /**
+   * Gets the second coordinate of the velocity of each patient
+   * @return The array of coordinates
+   */
+  public double[] getVy()
+  {
+    return m_vy;
+  }
+
+  /**
+   * Gets whether each patient is fixed
+   * @return The array of flags
+   */
+  public boolean[] getFixed()
+  {
+    return m_fixed;
+  }
+
+  /**
+   * Gets the ordinal of the health state of each patient
+   * @return The array of ordinals
+   */
+  public byte[] getHealth()
+  {
+    return m_health;
+  }
+
+  /**
+   * Creates one {@link Patient} object for each patient of the
+   * population. The patients are given their index in the population as
+   * their key in the health model, as in {@link Scenario#createPatients()}.
+   * @param model The health model shared by the patients
+   * @return The patients, in ascending order of ID
+   */
+  public List<Patient> createPatients(/*@ non_null @*/ HealthModel model)
+  {
+    Health[] states = Health.values();
+    List<Patient> patients = new ArrayList<Patient>(m_size);
+    for (int i = 0; i < m_size; i++)
+    {
+      Patient p = new Patient(m_firstId + i, new Vector2d(m_x[i], m_y[i]), new Vector2d(m_vx[i], m_vy[i]), Ball.DEFAULT_RADIUS, m_fixed[i], states[m_health[i]]);
+      p.setHealthModel(model, i);
+      patients.add(p);
+    }
+    return patients;
+  }
+}
@@ -0,0 +1,574 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+import virussim.physics.ParallelArena;
+import virussim.picker.FixedRecoveryModel;
+import virussim.picker.HealthModel;
+import virussim.picker.MarkovHealthModel;
+import virussim.picker.PopulationGenerator;
+
+/**
+ * The set of parameters defining a simulation, and the code that creates
+ * the corresponding arena. Each parameter has a default value, and can be
+ * changed by name with {@link #set(String, String)}, which makes it
+ * possible to read a scenario from command line arguments of the form
+ * <tt>name=value</tt>.
+ */
+public class Scenario
+{
+  /**
+   * The name of the engine based on {@link Arena}
+   */
+  public static final String ENGINE_GENERIC = "generic";
+
+  /**
+   * The name of the engine based on {@link ArenaState}
+   */
+  public static final String ENGINE_SOA = "soa";
+
+  /**
+   * The name of the engine based on {@link FusedArena}
+   */
+  public static final String ENGINE_FUSED = "fused";
+
+  /**
+   * The name of the engine based on {@link ParallelArena}
+   */
+  public static final String ENGINE_PARALLEL = "parallel";
+
+  /**
+   * The name of the engine based on {@link EpidemicArena}
+   */
+  public static final String ENGINE_EPIDEMIC = "epidemic";
+
+  /**
+   * The name of the engine based on {@link TiledArena}
+   */
+  public static final String ENGINE_TILED = "tiled";
+
+  /**
+   * The name of the engine based on {@link DistributedArena}
+   */
+  public static final String ENGINE_DISTRIBUTED = "distributed";
+
+  /**
+   * The starting seed for all RNGs
+   */
+  protected int m_seed = 0;
+
+  /**
+   * Whether to use the Markov model for patients, or a fixed number of
+   * steps
+   */
+  protected boolean m_useMarkov = false;
+
+  /**
+   * Whether to use a Gaussian distribution for patient positions, or a
+   * uniform distribution
+   */
+  protected boolean m_gaussianPositions = false;
+
+  /**
+   * The width of the arena
+   */
+  protected int m_width = 640;
+
+  /**
+   * The height of the arena
+   */
+  protected int m_height = 320;
+
+  /**
+   * The initial velocity of each player
+   */
+  protected float m_velocity = 3;
+
+  /**
+   * The number of players in the arena
+   */
+  protected int m_numPlayers = 200;
+
+  /**
+   * The probability of a player being movable
+   */
+  protected float m_movableProbability = 1f;
+
+  /**
+   * The number of simulation steps after which a player recovers (in the
+   * fixed model)
+   */
+  protected int m_recoverySteps = 75;
+
+  /**
+   * The probability of dying when infected (in the Markov model)
+   */
+  protected float m_pDie = 0.001f;
+
+  /**
+   * The probability of staying infected (in the Markov model)
+   */
+  protected float m_pInfected = 0.995f;
+
+  /**
+   * The arena implementation used to run the simulation
+   */
+  /*@ non_null @*/ protected String m_engine = ENGINE_GENERIC;
+
+  /**
+   * The number of threads used by the parallel engine and to generate the
+   * population
+   */
+  protected int m_threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The side of a tile of the tiled engine
+   */
+  protected int m_tileSize = 512;
+
+  /**
+   * The number of worker processes used by the distributed engine
+   */
+  protected int m_processes = 2;
+
+  /**
+   * The largest number of substeps in which a step can be divided
+   */
+  protected int m_maxSubsteps = 1;
+
+  /**
+   * Whether contacts are found by sweeping the patients along their
+   * trajectory
+   */
+  protected boolean m_continuous = false;
+
+  /**
+   * Lock held while the IDs of a population are reserved. Patients take
+   * their ID from a counter shared by the whole JVM, which is not
+   * thread-safe.
+   */
+  /*@ non_null @*/ protected static final Object s_populationLock = new Object();
+
+  /**
+   * Creates a copy of this scenario
+   * @return The copy
+   */
+  public Scenario duplicate()
+  {
+    Scenario s = new Scenario();
+    s.m_seed = m_seed;
+    s.m_useMarkov = m_useMarkov;
+    s.m_gaussianPositions = m_gaussianPositions;
+    s.m_width = m_width;
+    s.m_height = m_height;
+    s.m_velocity = m_velocity;
+    s.m_numPlayers = m_numPlayers;
+    s.m_movableProbability = m_movableProbability;
+    s.m_recoverySteps = m_recoverySteps;
+    s.m_pDie = m_pDie;
+    s.m_pInfected = m_pInfected;
+    s.m_engine = m_engine;
+    s.m_threads = m_threads;
+    s.m_tileSize = m_tileSize;
+    s.m_processes = m_processes;
+    s.m_maxSubsteps = m_maxSubsteps;
+    s.m_continuous = m_continuous;
+    return s;
+  }
+
+  /**
+   * Sets the value of a parameter of the scenario
+   * @param name The name of the parameter
+   * @param value The value of the parameter, as a string
+   * @throws IllegalArgumentException If no parameter has this name, or if
+   * the value cannot be parsed
+   */
+  public void set(/*@ non_null @*/ String name, /*@ non_null @*/ String value)
+  {
+    try
+    {
+      if (name.equals("seed"))
+      {
+        m_seed = Integer.parseInt(value);
+      }
+      else if (name.equals("use_markov"))
+      {
+        m_useMarkov = Boolean.parseBoolean(value);
+      }
+      else if (name.equals("gaussian_positions"))
+      {
+        m_gaussianPositions = Boolean.parseBoolean(value);
+      }
+      else if (name.equals("width"))
+      {
+        m_width = Integer.parseInt(value);
+      }
+      else if (name.equals("height"))
+      {
+        m_height = Integer.parseInt(value);
+      }
+      else if (name.equals("velocity"))
+      {
+        m_velocity = Float.parseFloat(value);
+      }
+      else if (name.equals("num_players"))
+      {
+        m_numPlayers = Integer.parseInt(value);
+      }
+      else if (name.equals("movable_probability"))
+      {
+        m_movableProbability = Float.parseFloat(value);
+      }
+      else if (name.equals("recovery_steps"))
+      {
+        m_recoverySteps = Integer.parseInt(value);
+      }
+      else if (name.equals("p_die"))
+      {
+        m_pDie = Float.parseFloat(value);
+      }
+      else if (name.equals("p_infected"))
+      {
+        m_pInfected = Float.parseFloat(value);
+      }
+      else if (name.equals("engine"))
+      {
+        if (!value.equals(ENGINE_GENERIC) && !value.equals(ENGINE_SOA)
+            && !value.equals(ENGINE_FUSED) && !value.equals(ENGINE_PARALLEL) && !value.equals(ENGINE_EPIDEMIC)
+            && !value.equals(ENGINE_TILED) && !value.equals(ENGINE_DISTRIBUTED))
+        {
+          throw new IllegalArgumentException("Unknown engine: " + value);
+        }
+        m_engine = value;
+      }
+      else if (name.equals("threads"))
+      {
+        int threads = Integer.parseInt(value);
+        if (threads < 1)
+        {
+          throw new IllegalArgumentException("Invalid value for threads: " + value + " (must be at least 1)");
+        }
+        m_threads = threads;
+      }
+      else if (name.equals("tile_size"))
+      {
+        m_tileSize = Integer.parseInt(value);
+      }
+      else if (name.equals("processes"))
+      {
+        m_processes = Integer.parseInt(value);
+      }
+      else if (name.equals("max_substeps"))
+      {
+        m_maxSubsteps = Integer.parseInt(value);
+      }
+      else if (name.equals("continuous"))
+      {
+        m_continuous = Boolean.parseBoolean(value);
+      }
+      else
+      {
+        throw new IllegalArgumentException("Unknown parameter: " + name);
+      }
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+    }
+  }
+
+  /**
+   * Sets parameters of the scenario from a list of strings of the form
+   * <tt>name=value</tt>. Strings that do not contain an equal sign are
+   * ignored.
+   * @param args The strings
+   * @return The strings that were ignored
+   * @throws IllegalArgumentException If a parameter is invalid
+   */
+  public List<String> parse(/*@ non_null @*/ String ... args)
+  {
+    List<String> others = new ArrayList<String>();
+    for (String arg : args)
+    {
+      int pos = arg.indexOf('=');
+      if (pos < 0)
+      {
+        others.add(arg);
+        continue;
+      }
+      set(arg.substring(0, pos).trim(), arg.substring(pos + 1).trim());
+    }
+    return others;
+  }
+
+  /**
+   * Gets the value of every parameter of the scenario, as strings of the
+   * form <tt>name=value</tt> that can be given to {@link #parse(String...)}
+   * to obtain the same scenario
+   * @return The strings
+   */
+  public List<String> getArguments()
+  {
+    List<String> args = new ArrayList<String>();
+    args.add("seed=" + m_seed);
+    args.add("use_markov=" + m_useMarkov);
+    args.add("gaussian_positions=" + m_gaussianPositions);
+    args.add("width=" + m_width);
+    args.add("height=" + m_height);
+    args.add("velocity=" + m_velocity);
+    args.add("num_players=" + m_numPlayers);
+    args.add("movable_probability=" + m_movableProbability);
+    args.add("recovery_steps=" + m_recoverySteps);
+    args.add("p_die=" + m_pDie);
+    args.add("p_infected=" + m_pInfected);
+    args.add("engine=" + m_engine);
+    args.add("threads=" + m_threads);
+    args.add("tile_size=" + m_tileSize);
+    args.add("processes=" + m_processes);
+    args.add("max_substeps=" + m_maxSubsteps);
+    args.add("continuous=" + m_continuous);
+    return args;
+  }
+
+  /**
+   * Gets the starting seed for all RNGs
+   * @return The seed
+   */
+  public int getSeed()
+  {
+    return m_seed;
+  }
+
+  /**
+   * Sets the starting seed for all RNGs
+   * @param seed The seed
+   */
+  public void setSeed(int seed)
+  {
+    m_seed = seed;
+  }
+
+  /**
+   * Gets the name of the engine used to run the simulation
+   * @return The name of the engine
+   */
+  public String getEngine()
+  {
+    return m_engine;
+  }
+
+  /**
+   * Gets the width of the arena
+   * @return The width
+   */
+  public int getWidth()
+  {
+    return m_width;
+  }
+
+  /**
+   * Gets the height of the arena
+   * @return The height
+   */
+  public int getHeight()
+  {
+    return m_height;
+  }
+
+  /**
+   * Gets the number of players in the arena
+   * @return The number of players
+   */
+  public int getNumPlayers()
+  {
+    return m_numPlayers;
+  }
+
+  /**
+   * Creates the population of patients of this scenario. Populations can
+   * be created from multiple threads; the initial state of each patient
+   * and the random values of the health model depend only on the seed of
+   * the scenario and the index of the patient, so that the same scenario
+   * always produces the same simulation.
+   * @return The patients
+   */
+  public List<Patient> createPatients()
+  {
+    return createPopulation().createPatients(createHealthModel());
+  }
+
+  /**
+   * Generates the population of this scenario in bulk, as arrays of
+   * primitive values. The population depends only on the seed and the
+   * other parameters of the scenario, and not on the number of threads
+   * used to generate it. Only the reservation of the IDs of its patients
+   * is done under {@link #s_populationLock}, so that populations can be
+   * generated concurrently.
+   * @return The population
+   */
+  public Population createPopulation()
+  {
+    int first_id;
+    synchronized (s_populationLock)
+    {
+      first_id = Ball.getNextId();
+      Ball.setNextId(first_id + m_numPlayers);
+    }
+    PopulationGenerator gen = new PopulationGenerator(m_seed, m_width, m_height, m_velocity, m_movableProbability);
+    gen.setGaussianPositions(m_gaussianPositions).setThreads(m_threads);
+    return gen.generate(m_numPlayers, first_id);
+  }
+
+  /**
+   * Creates the model giving the evolution of the health state of the
+   * patients of this scenario. All the patients share the same model,
+   * and are given their index in the population as their key.
+   * @return The model
+   */
+  public HealthModel createHealthModel()
+  {
+    if (m_useMarkov)
+    {
+      return new MarkovHealthModel(m_pInfected, m_pDie, m_seed);
+    }
+    return new FixedRecoveryModel(m_recoverySteps);
+  }
+
+  /**
+   * Creates an arena containing the population of this scenario, using
+   * the engine selected by the "engine" parameter
+   * @return The arena
+   */
+  public Arena createArena()
+  {
+    return createArena(null);
+  }
+
+  /**
+   * Creates an arena containing the population of this scenario, using
+   * the engine selected by the "engine" parameter, and whose patients
+   * update a set of health counts
+   * @param counts The counts updated by the patients of the arena, or
+   * <tt>null</tt> to use no counts
+   * @return The arena
+   */
+  public Arena createArena(HealthCounts counts)
+  {
+    if (m_engine.equals(ENGINE_SOA) || m_engine.equals(ENGINE_FUSED) || m_engine.equals(ENGINE_EPIDEMIC))
+    {
+      // These engines store patients in arrays, and take the generated
+      // population as is, without creating patient objects
+      checkStepping();
+      Population p = createPopulation();
+      if (m_engine.equals(ENGINE_SOA))
+      {
+        return setStepping(new ArenaState(m_width, m_height, p, createHealthModel(), counts));
+      }
+      if (m_engine.equals(ENGINE_FUSED))
+      {
+        return setStepping(new FusedArena(m_width, m_height, p, createHealthModel(), counts));
+      }
+      return new EpidemicArena(m_width, m_height, p, createHealthModel(), counts);
+    }
+    return createArena(createPatients(), counts);
+  }
+
+  /**
+   * Creates an arena containing a given population, using the engine
+   * selected by the "engine" parameter, and whose patients update a set
+   * of health counts. This is used to put back in an arena patients that
+   * were created elsewhere, such as patients read from a checkpoint.
+   * @param players The patients, which must have distinct IDs
+   * @param counts The counts updated by the patients of the arena, or
+   * <tt>null</tt> to use no counts
+   * @return The arena
+   * @throws IllegalArgumentException If substeps or continuous collisions
+   * are asked for with an engine other than the generic, SoA and fused
+   * engines, or if two patients have the same ID
+   */
+  public Arena createArena(/*@ non_null @*/ List<Patient> players, HealthCounts counts)
+  {
+    if (counts != null)
+    {
+      for (Patient p : players)
+      {
+        p.setHealthCounts(counts);
+      }
+    }
+    checkStepping();
+    if (m_engine.equals(ENGINE_SOA))
+    {
+      return setStepping(new ArenaState(m_width, m_height, players));
+    }
+    if (m_engine.equals(ENGINE_FUSED))
+    {
+      return setStepping(new FusedArena(m_width, m_height, players));
+    }
+    if (m_engine.equals(ENGINE_EPIDEMIC))
+    {
+      return new EpidemicArena(m_width, m_height, players);
+    }
+    if (m_engine.equals(ENGINE_PARALLEL))
+    {
+      return new ParallelArena(m_width, m_height, players, m_threads);
+    }
+    if (m_engine.equals(ENGINE_TILED))
+    {
+      return new TiledArena(m_width, m_height, m_tileSize, players);
+    }
+    if (m_engine.equals(ENGINE_DISTRIBUTED))
+    {
+      return new DistributedArena(m_width, m_height, m_processes, players, getArguments());
+    }
+    return setStepping(new Arena(m_width, m_height, players));
+  }
+
+  /**
+   * Applies the substeps and continuous collisions of this scenario to an
+   * arena
+   * @param a The arena
+   * @return The arena
+   */
+  protected Arena setStepping(/*@ non_null @*/ Arena a)
+  {
+    a.setMaxSubsteps(m_maxSubsteps);
+    a.setContinuousCollisions(m_continuous);
+    return a;
+  }
+
+  /**
+   * Checks that the engine of this scenario supports its substeps and
+   * continuous collisions
+   * @throws IllegalArgumentException If substeps or continuous collisions
+   * are asked for with an engine other than the generic, SoA and fused
+   * engines
+   */
+  protected void checkStepping()
+  {
+    if ((m_maxSubsteps > 1 || m_continuous) && !m_engine.equals(ENGINE_GENERIC)
+        && !m_engine.equals(ENGINE_SOA) && !m_engine.equals(ENGINE_FUSED))
+    {
+      throw new IllegalArgumentException("Substeps and continuous collisions require the " + ENGINE_GENERIC + ", " + ENGINE_SOA + " or " + ENGINE_FUSED + " engine");
+    }
+  }
+}
@@ -0,0 +1,1316 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import virussim.Patient.Health;
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+import virussim.physics.IntList;
+import virussim.physics.StepMetrics;
+import virussim.physics.UniformGrid;
+import virussim.physics.Vector2d;
+import virussim.picker.HealthModel;
+
+/**
+ * An {@link Arena} divided into square tiles, meant for populations too
+ * large to be stepped as a whole at each step. Each tile owns its
+ * patients, stored in parallel arrays of primitive values as in
+ * {@link ArenaState}; a patient that crosses the border of its tile is
+ * moved to the tile it entered at the end of the step.
+ * <p>
+ * Only the <em>active</em> tiles are computed at each step: the tiles
+ * containing an infected patient, and their eight neighbours. In these
+ * tiles, patients move, bounce off the walls and off each other, and
+ * the virus is transmitted; contacts across the border of two active
+ * tiles are found by looking at the "halo" of patients of the neighbouring
+ * tile that lie within one contact distance of the border. The other
+ * tiles are left untouched: since they contain no infected patient and
+ * are not next to one, no infection can occur in them. Their patients are
+ * only brought up to date every few steps (see
+ * {@link #setLazyInterval(int)}), when the tile becomes active again, or
+ * when they are asked for, by moving each patient in a straight line for
+ * the number of steps missed and reflecting it off the walls. A patient
+ * entering a tile that is behind is moved back along its trajectory by
+ * the same number of steps, so that it reaches the right place when the
+ * tile is brought up to date. The cost of a step therefore depends on the
+ * size of the region around the infected patients, and only for a small
+ * part on the size of the world.
+ * <p>
+ * The simulation is an approximation of the one computed by
+ * {@link ArenaState}, and does not produce the same results:
+ * <ul>
+ * <li>patients in inactive tiles go through each other, as do patients on
+ * both sides of the border between an active and an inactive tile;</li>
+ * <li>each pair of patients is tested once per step, without looking for
+ * new contacts after a collision;</li>
+ * <li>the trajectory of a patient whose tile is skipped is computed in
+ * one go, which is exact up to rounding errors.</li>
+ * </ul>
+ * All the patients must share the same {@link HealthModel}, as those
+ * created by {@link Scenario}; the health states of the infected patients
+ * of a tile are computed in one batch at the end of each step.
+ * <p>
+ * Since the population can be very large, {@link #getBalls()} does not
+ * return all the patients, but only those in a viewport set with
+ * {@link #setViewport(double, double, double, double) setViewport()}
+ * (by default, the whole arena). The tiles under the viewport are brought
+ * up to date on each call. The map is rebuilt on each call, and its
+ * contents are only valid until the next step. {@link #getPatients()}
+ * gives a copy of the whole population instead. The arena always uses
+ * a spatial hash; {@link #setSpatialHashing(boolean)} has no effect.
+ */
+public class TiledArena extends Arena
+{
+  /**
+   * The possible health states, indexed by their ordinal
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * The ordinal of the HEALTHY state
+   */
+  protected static final byte HEALTHY = (byte) Health.HEALTHY.ordinal();
+
+  /**
+   * The ordinal of the INFECTED state
+   */
+  protected static final byte INFECTED = (byte) Health.INFECTED.ordinal();
+
+  /**
+   * The side of a tile
+   */
+  protected double m_tileSize;
+
+  /**
+   * The number of tiles along the horizontal axis
+   */
+  protected int m_columns;
+
+  /**
+   * The number of tiles along the vertical axis
+   */
+  protected int m_rows;
+
+  /**
+   * The tiles, in row-major order
+   */
+  /*@ non_null @*/ protected Tile[] m_tiles;
+
+  /**
+   * The largest distance at which two patients can be in contact, made
+   * very slightly larger so that rounding errors cannot hide a contact
+   */
+  protected double m_margin;
+
+  /**
+   * The number of patients in the arena
+   */
+  protected int m_size;
+
+  /**
+   * The number of steps computed so far
+   */
+  protected long m_step = 0;
+
+  /**
+   * The number of steps between two updates of the inactive tiles
+   */
+  protected int m_lazyInterval = 16;
+
+  /**
+   * The health model shared by all the patients
+   */
+  protected HealthModel m_model;
+
+  /**
+   * The number of patients in each health state
+   */
+  /*@ non_null @*/ protected HealthCounts m_counts;
+
+  /**
+   * Whether each tile is active during the current step
+   */
+  /*@ non_null @*/ protected boolean[] m_active;
+
+  /**
+   * The indices of the active tiles, in ascending order
+   */
+  /*@ non_null @*/ protected IntList m_activeTiles = new IntList();
+
+  /**
+   * The indices of the tiles whose patients may have left the tile
+   */
+  /*@ non_null @*/ protected IntList m_pending = new IntList();
+
+  /**
+   * The tile of each patient of the halo of the tile being computed
+   */
+  /*@ non_null @*/ protected IntList m_haloTiles = new IntList();
+
+  /**
+   * The index of each patient of the halo in its tile
+   */
+  /*@ non_null @*/ protected IntList m_haloIndices = new IntList();
+
+  /**
+   * The number of elements the spatial hash can hold
+   */
+  protected int m_gridCapacity = 0;
+
+  /**
+   * The indices of the infected patients of the tile being updated
+   */
+  /*@ non_null @*/ protected IntList m_batch = new IntList();
+
+  /**
+   * An array where the health keys of the patients of a batch are
+   * gathered
+   */
+  /*@ non_null @*/ protected int[] m_batchKeys = new int[0];
+
+  /**
+   * An array where the ticks of the patients of a batch are gathered
+   */
+  /*@ non_null @*/ protected short[] m_batchTicks = new short[0];
+
+  /**
+   * An array receiving the next health states of the patients of a batch
+   */
+  /*@ non_null @*/ protected byte[] m_batchHealth = new byte[0];
+
+  /**
+   * The first coordinate of the top-left corner of the viewport
+   */
+  protected double m_viewX = 0;
+
+  /**
+   * The second coordinate of the top-left corner of the viewport
+   */
+  protected double m_viewY = 0;
+
+  /**
+   * The width of the viewport
+   */
+  protected double m_viewWidth;
+
+  /**
+   * The height of the viewport
+   */
+  protected double m_viewHeight;
+
+  /**
+   * The views of the patients of the viewport, reused from one call to
+   * {@link #getBalls()} to the next
+   */
+  /*@ non_null @*/ protected List<TileView> m_views = new ArrayList<TileView>();
+
+  /**
+   * Creates a new arena from a collection of patients. The state of each
+   * patient is copied into its tile; the patient objects themselves are
+   * no longer used afterwards. If the patients are attached to
+   * {@link HealthCounts}, the arena keeps updating the counts of the first
+   * patient.
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param tile_size The side of a tile
+   * @param patients The collection of patients to put inside the arena
+   * @throws IllegalArgumentException If the patients do not share a
+   * health model, or if a tile is smaller than the contact distance of
+   * two patients
+   */
+  public TiledArena(int width, int height, double tile_size, /*@ non_null @*/ Collection<? extends Patient> patients)
+  {
+    super(width, height, Collections.<Patient>emptyList());
+    // The map of balls is filled again at each call to getBalls()
+    m_balls = new HashMap<Integer,Ball>();
+    double max_radius = 0;
+    for (Patient p : patients)
+    {
+      max_radius = Math.max(max_radius, p.getRadius());
+      if (p.m_healthModel == null || (m_model != null && p.m_healthModel != m_model))
+      {
+        throw new IllegalArgumentException("The patients of a tiled arena must share a health model");
+      }
+      m_model = p.m_healthModel;
+    }
+    // Same contact distance as in Arena#updateWithGrid
+    m_margin = 2 * max_radius * (1 + 1e-9);
+    if (tile_size < m_margin)
+    {
+      throw new IllegalArgumentException("Tiles must be at least " + m_margin + " wide");
+    }
+    m_tileSize = tile_size;
+    m_columns = Math.max(1, (int) Math.ceil(width / tile_size));
+    m_rows = Math.max(1, (int) Math.ceil(height / tile_size));
+    m_tiles = new Tile[m_columns * m_rows];
+    for (int r = 0; r < m_rows; r++)
+    {
+      for (int c = 0; c < m_columns; c++)
+      {
+        m_tiles[r * m_columns + c] = new Tile(c * tile_size, r * tile_size);
+      }
+    }
+    m_active = new boolean[m_tiles.length];
+    m_size = patients.size();
+    m_counts = null;
+    boolean count = true;
+    for (Patient p : patients)
+    {
+      if (m_counts == null)
+      {
+        m_counts = p.getHealthCounts();
+        count = m_counts == null;
+        if (count)
+        {
+          m_counts = new HealthCounts();
+        }
+      }
+      Tile t = m_tiles[tileOf(p.getPosition().getX(), p.getPosition().getY())];
+      t.add(p.getId(), p.getPosition().getX(), p.getPosition().getY(),
+          p.getVelocity().getX(), p.getVelocity().getY(), p.getRadius(), p.isFixed(),
+          (byte) p.getHealthState().ordinal(), p.m_healthKey, p.m_ticks);
+      if (p.getHealthState() == Health.INFECTED)
+      {
+        t.m_infected++;
+      }
+      if (count)
+      {
+        m_counts.add(p.getHealthState());
+      }
+    }
+    if (m_counts == null)
+    {
+      m_counts = new HealthCounts();
+    }
+    m_viewWidth = width;
+    m_viewHeight = height;
+  }
+
+  /**
+   * Gets the number of patients in the arena
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Gets the number of tiles of the arena
+   * @return The number of tiles
+   */
+  public int getTileCount()
+  {
+    return m_tiles.length;
+  }
+
+  /**
+   * Gets the number of tiles computed at the last step
+   * @return The number of tiles
+   */
+  public int getActiveTileCount()
+  {
+    return m_activeTiles.size();
+  }
+
+  /**
+   * Sets the number of steps between two updates of the tiles that are
+   * not active. Larger values make steps faster on average, but let the
+   * patients of these tiles lag further behind the rest of the arena.
+   * @param interval The number of steps, at least 1
+   * @throws IllegalArgumentException If the interval is not positive
+   */
+  public void setLazyInterval(int interval)
+  {
+    if (interval < 1)
+    {
+      throw new IllegalArgumentException("The interval must be positive");
+    }
+    m_lazyInterval = interval;
+  }
+
+  /**
+   * Gets the live count of patients in each health state
+   * @return The counts
+   */
+  public HealthCounts getHealthCounts()
+  {
+    return m_counts;
+  }
+
+  /**
+   * Sets the region of the arena whose patients are returned by
+   * {@link #getBalls()}
+   * @param x The first coordinate of the top-left corner of the region
+   * @param y The second coordinate of the top-left corner of the region
+   * @param width The width of the region
+   * @param height The height of the region
+   */
+  public void setViewport(double x, double y, double width, double height)
+  {
+    m_viewX = x;
+    m_viewY = y;
+    m_viewWidth = width;
+    m_viewHeight = height;
+  }
+
+  /**
+   * Gets the patients that are visible, even partially, in the viewport.
+   * The positions of the patients are given relative to the top-left
+   * corner of the viewport, so that the map can be drawn directly on an
+   * image of the size of the viewport. Infecting one of these patients
+   * with {@link Patient#setHealthState(Health)} infects the patient of the
+   * arena.
+   * @return A map between patient IDs and patients
+   */
+  @Override
+  public Map<Integer,Ball> getBalls()
+  {
+    int c0 = column(m_viewX - m_margin), c1 = column(m_viewX + m_viewWidth + m_margin);
+    int r0 = row(m_viewY - m_margin), r1 = row(m_viewY + m_viewHeight + m_margin);
+    for (int r = r0; r <= r1; r++)
+    {
+      for (int c = c0; c <= c1; c++)
+      {
+        int index = r * m_columns + c;
+        if (advance(m_tiles[index], m_step))
+        {
+          m_pending.add(index);
+        }
+      }
+    }
+    migrate();
+    m_balls.clear();
+    int v = 0;
+    for (int r = r0; r <= r1; r++)
+    {
+      for (int c = c0; c <= c1; c++)
+      {
+        Tile t = m_tiles[r * m_columns + c];
+        for (int i = 0; i < t.m_size; i++)
+        {
+          double rad = t.m_radius[i];
+          if (t.m_x[i] + rad < m_viewX || t.m_x[i] - rad > m_viewX + m_viewWidth
+              || t.m_y[i] + rad < m_viewY || t.m_y[i] - rad > m_viewY + m_viewHeight)
+          {
+            continue;
+          }
+          if (v == m_views.size())
+          {
+            m_views.add(new TileView(this));
+          }
+          TileView view = m_views.get(v++);
+          view.set(t, i);
+          m_balls.put(view.getId(), view);
+        }
+      }
+    }
+    return m_balls;
+  }
+
+  /**
+   * Gets a copy of every patient of the arena, in ascending order of ID.
+   * All the tiles are brought up to date first. The copies share the
+   * health model of the arena, but are not attached to its counts.
+   * @return The patients
+   */
+  public List<Patient> getPatients()
+  {
+    for (int index = 0; index < m_tiles.length; index++)
+    {
+      if (advance(m_tiles[index], m_step))
+      {
+        m_pending.add(index);
+      }
+    }
+    migrate();
+    List<Patient> patients = new ArrayList<Patient>(m_size);
+    for (Tile t : m_tiles)
+    {
+      for (int i = 0; i < t.m_size; i++)
+      {
+        Patient p = new Patient(t.m_ids[i], new Vector2d(t.m_x[i], t.m_y[i]),
+            new Vector2d(t.m_vx[i], t.m_vy[i]), t.m_radius[i], t.m_fixed[i], s_healthStates[t.m_health[i]]);
+        p.m_healthModel = m_model;
+        p.m_healthKey = t.m_keys[i];
+        p.m_ticks = t.m_ticks[i];
+        patients.add(p);
+      }
+    }
+    Collections.sort(patients, new Comparator<Patient>() {
+      @Override
+      public int compare(Patient p1, Patient p2)
+      {
+        return Integer.compare(p1.getId(), p2.getId());
+      }
+    });
+    return patients;
+  }
+
+  @Override
+  public void update()
+  {
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    findActiveTiles();
+    // Bring the tiles that were skipped up to date
+    for (int k = 0; k < m_activeTiles.size(); k++)
+    {
+      int index = m_activeTiles.get(k);
+      if (advance(m_tiles[index], m_step))
+      {
+        m_pending.add(index);
+      }
+    }
+    migrate();
+    long next = m_step + 1;
+    for (int k = 0; k < m_activeTiles.size(); k++)
+    {
+      Tile t = m_tiles[m_activeTiles.get(k)];
+      for (int i = 0; i < t.m_size; i++)
+      {
+        if (!t.m_fixed[i])
+        {
+          t.m_x[i] += t.m_vx[i];
+          t.m_y[i] += t.m_vy[i];
+        }
+      }
+      t.m_time = next;
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+    }
+    for (int k = 0; k < m_activeTiles.size(); k++)
+    {
+      Tile t = m_tiles[m_activeTiles.get(k)];
+      for (int i = 0; i < t.m_size; i++)
+      {
+        bounceOffWalls(t, i);
+      }
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.WALLS);
+    }
+    for (int k = 0; k < m_activeTiles.size(); k++)
+    {
+      collide(m_activeTiles.get(k));
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+    for (int k = 0; k < m_activeTiles.size(); k++)
+    {
+      tick(m_tiles[m_activeTiles.get(k)]);
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.TICK);
+    }
+    m_step = next;
+    if (m_step % m_lazyInterval == 0)
+    {
+      for (int index = 0; index < m_tiles.length; index++)
+      {
+        advance(m_tiles[index], m_step);
+        m_pending.add(index);
+      }
+    }
+    else
+    {
+      for (int k = 0; k < m_activeTiles.size(); k++)
+      {
+        m_pending.add(m_activeTiles.get(k));
+      }
+    }
+    migrate();
+    flushPairTests();
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Computes the list of the tiles that are active at this step: the
+   * tiles containing an infected patient, and their neighbours
+   */
+  protected void findActiveTiles()
+  {
+    Arrays.fill(m_active, false);
+    for (int index = 0; index < m_tiles.length; index++)
+    {
+      if (m_tiles[index].m_infected == 0)
+      {
+        continue;
+      }
+      int c = index % m_columns, r = index / m_columns;
+      for (int rr = Math.max(0, r - 1); rr <= Math.min(m_rows - 1, r + 1); rr++)
+      {
+        for (int cc = Math.max(0, c - 1); cc <= Math.min(m_columns - 1, c + 1); cc++)
+        {
+          m_active[rr * m_columns + cc] = true;
+        }
+      }
+    }
+    m_activeTiles.clear();
+    for (int index = 0; index < m_tiles.length; index++)
+    {
+      if (m_active[index])
+      {
+        m_activeTiles.add(index);
+      }
+    }
+  }
+
+  /**
+   * Brings the patients of a tile to a given step, by moving them in a
+   * straight line and reflecting them off the walls. Patients may end up
+   * outside of the tile; the caller must then give the tile to
+   * {@link #migrate()}.
+   * @param t The tile
+   * @param time The step
+   * @return <tt>true</tt> if the patients of the tile have moved,
+   * <tt>false</tt> if the tile was already at that step
+   */
+  protected boolean advance(/*@ non_null @*/ Tile t, long time)
+  {
+    long k = time - t.m_time;
+    if (k <= 0)
+    {
+      return false;
+    }
+    for (int i = 0; i < t.m_size; i++)
+    {
+      if (t.m_fixed[i])
+      {
+        continue;
+      }
+      double r = t.m_radius[i];
+      double length = m_width - 2 * r;
+      if (length > 0)
+      {
+        double u = t.m_x[i] - r + k * t.m_vx[i];
+        double n = Math.floor(u / length);
+        double rest = u - n * length;
+        if (n % 2 == 0)
+        {
+          t.m_x[i] = r + rest;
+        }
+        else
+        {
+          t.m_x[i] = m_width - r - rest;
+          t.m_vx[i] = -t.m_vx[i];
+        }
+      }
+      length = m_height - 2 * r;
+      if (length > 0)
+      {
+        double u = t.m_y[i] - r + k * t.m_vy[i];
+        double n = Math.floor(u / length);
+        double rest = u - n * length;
+        if (n % 2 == 0)
+        {
+          t.m_y[i] = r + rest;
+        }
+        else
+        {
+          t.m_y[i] = m_height - r - rest;
+          t.m_vy[i] = -t.m_vy[i];
+        }
+      }
+    }
+    t.m_time = time;
+    return true;
+  }
+
+  /**
+   * Moves the patients that have left the tiles of the pending list to
+   * the tile they are in. The tiles of the list must be up to date. A
+   * patient entering a tile that is behind is moved back by the number of
+   * steps the tile is missing.
+   */
+  protected void migrate()
+  {
+    while (m_pending.size() > 0)
+    {
+      int index = m_pending.get(m_pending.size() - 1);
+      m_pending.truncate(m_pending.size() - 1);
+      Tile t = m_tiles[index];
+      int i = 0;
+      while (i < t.m_size)
+      {
+        int dest = tileOf(t.m_x[i], t.m_y[i]);
+        if (dest == index)
+        {
+          i++;
+          continue;
+        }
+        Tile d = m_tiles[dest];
+        d.add(t, i);
+        long lag = m_step - d.m_time;
+        if (lag > 0 && !t.m_fixed[i])
+        {
+          int last = d.m_size - 1;
+          d.m_x[last] -= lag * d.m_vx[last];
+          d.m_y[last] -= lag * d.m_vy[last];
+        }
+        if (t.m_health[i] == INFECTED)
+        {
+          t.m_infected--;
+          d.m_infected++;
+        }
+        // The last patient of the tile takes the place of this one
+        t.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Handles the collisions between the patients of a tile, and between
+   * these patients and the halo of the active tiles that come after it.
+   * Pairs with a tile that comes before are handled by that tile.
+   * @param index The index of the tile
+   */
+  protected void collide(int index)
+  {
+    Tile t = m_tiles[index];
+    int n = t.m_size;
+    double x0 = t.m_left - m_margin, y0 = t.m_top - m_margin;
+    double x1 = t.m_left + m_tileSize + m_margin, y1 = t.m_top + m_tileSize + m_margin;
+    m_haloTiles.clear();
+    m_haloIndices.clear();
+    int c = index % m_columns, r = index / m_columns;
+    addHalo(c + 1, r, x0, y0, x1, y1);
+    addHalo(c - 1, r + 1, x0, y0, x1, y1);
+    addHalo(c, r + 1, x0, y0, x1, y1);
+    addHalo(c + 1, r + 1, x0, y0, x1, y1);
+    int total = n + m_haloTiles.size();
+    if (m_grid == null || m_gridCapacity < total)
+    {
+      m_gridCapacity = Math.max(total, 2 * m_gridCapacity);
+      m_grid = new UniformGrid(m_tileSize + 2 * m_margin, m_tileSize + 2 * m_margin, m_margin, m_gridCapacity);
+    }
+    m_grid.clear();
+    for (int i = 0; i < n; i++)
+    {
+      m_grid.insert(i, t.m_x[i] - x0, t.m_y[i] - y0);
+    }
+    for (int h = 0; h < m_haloTiles.size(); h++)
+    {
+      Tile u = m_tiles[m_haloTiles.get(h)];
+      int j = m_haloIndices.get(h);
+      m_grid.insert(n + h, u.m_x[j] - x0, u.m_y[j] - y0);
+    }
+    long tests = 0, contacts = 0;
+    for (int i = 0; i < n; i++)
+    {
+      m_candidates.clear();
+      m_grid.query(t.m_x[i] - x0, t.m_y[i] - y0, i, m_candidates);
+      m_candidates.sort();
+      for (int k = 0; k < m_candidates.size(); k++)
+      {
+        int e = m_candidates.get(k);
+        Tile u = t;
+        int j = e;
+        if (e >= n)
+        {
+          u = m_tiles[m_haloTiles.get(e - n)];
+          j = m_haloIndices.get(e - n);
+        }
+        tests++;
+        if (interact(t, i, u, j))
+        {
+          contacts++;
+          if (m_contactListener != null)
+          {
+            m_contactListener.contact(t.m_ids[i], u.m_ids[j]);
+          }
+          m_grid.move(i, t.m_x[i] - x0, t.m_y[i] - y0);
+          m_grid.move(e, u.m_x[j] - x0, u.m_y[j] - y0);
+        }
+      }
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+
+  /**
+   * Adds to the halo the patients of an active tile that lie in a given
+   * region
+   * @param c The column of the tile
+   * @param r The row of the tile
+   * @param x0 The left side of the region
+   * @param y0 The top side of the region
+   * @param x1 The right side of the region
+   * @param y1 The bottom side of the region
+   */
+  protected void addHalo(int c, int r, double x0, double y0, double x1, double y1)
+  {
+    if (c < 0 || c >= m_columns || r >= m_rows)
+    {
+      return;
+    }
+    int index = r * m_columns + c;
+    if (!m_active[index])
+    {
+      return;
+    }
+    Tile u = m_tiles[index];
+    for (int j = 0; j < u.m_size; j++)
+    {
+      if (u.m_x[j] >= x0 && u.m_x[j] < x1 && u.m_y[j] >= y0 && u.m_y[j] < y1)
+      {
+        m_haloTiles.add(index);
+        m_haloIndices.add(j);
+      }
+    }
+  }
+
+  /**
+   * Checks if a patient collides with one of the walls of the arena, and
+   * updates its position and velocity accordingly. This method performs
+   * the same computations as {@link ArenaState#bounceOffWalls(int)}.
+   * @param t The tile of the patient
+   * @param i The index of the patient in the tile
+   */
+  protected void bounceOffWalls(/*@ non_null @*/ Tile t, int i)
+  {
+    double r = t.m_radius[i];
+    if (t.m_x[i] - r < 0)
+    {
+      t.m_x[i] = r;
+      t.m_vx[i] = -(t.m_vx[i] * Ball.s_restitution);
+      t.m_vy[i] = t.m_vy[i] * Ball.s_restitution;
+    }
+    else if (t.m_x[i] + r > m_width)
+    {
+      t.m_x[i] = m_width - r;
+      t.m_vx[i] = -(t.m_vx[i] * Ball.s_restitution);
+      t.m_vy[i] = t.m_vy[i] * Ball.s_restitution;
+    }
+    if (t.m_y[i] - r < 0)
+    {
+      t.m_y[i] = r;
+      t.m_vy[i] = -(t.m_vy[i] * Ball.s_restitution);
+      t.m_vx[i] = t.m_vx[i] * Ball.s_restitution;
+    }
+    else if (t.m_y[i] + r > m_height)
+    {
+      t.m_y[i] = m_height - r;
+      t.m_vy[i] = -(t.m_vy[i] * Ball.s_restitution);
+      t.m_vx[i] = t.m_vx[i] * Ball.s_restitution;
+    }
+  }
+
+  /**
+   * Manages the interaction between two patients: elastic collision
+   * response, followed by the transmission of the virus if one of them is
+   * infected. This method performs the same computations as
+   * {@link ArenaState#interact(int, int)}.
+   * @param a The tile of the first patient
+   * @param i The index of the first patient in its tile
+   * @param b The tile of the second patient
+   * @param j The index of the second patient in its tile
+   * @return <tt>true</tt> if the two patients are in contact,
+   * <tt>false</tt> otherwise
+   */
+  protected boolean interact(/*@ non_null @*/ Tile a, int i, /*@ non_null @*/ Tile b, int j)
+  {
+    double dx = a.m_x[i] - b.m_x[j], dy = a.m_y[i] - b.m_y[j];
+    double r = a.m_radius[i] + b.m_radius[j];
+    double dist2 = dx * dx + dy * dy;
+    if (dist2 > r * r)
+    {
+      // No collision
+      return false;
+    }
+    double d = Math.sqrt(dist2);
+    if (d == 0.0d)
+    {
+      // Special case. Patients are exactly on top of each other.
+      d = r - 1.0f;
+      dx = r;
+      dy = 0;
+    }
+    // Minimum translation distance to push patients apart
+    double scale = (r - d) / d;
+    double mtd_x = dx * scale, mtd_y = dy * scale;
+    // Push-pull them apart (both patients have the same mass)
+    a.m_x[i] += mtd_x * 0.5;
+    a.m_y[i] += mtd_y * 0.5;
+    b.m_x[j] -= mtd_x * 0.5;
+    b.m_y[j] -= mtd_y * 0.5;
+    // Impact speed along the normal
+    double len = Math.sqrt(mtd_x * mtd_x + mtd_y * mtd_y);
+    double n_x = 0, n_y = 0;
+    if (len != 0)
+    {
+      n_x = mtd_x / len;
+      n_y = mtd_y / len;
+    }
+    double vn = (a.m_vx[i] - b.m_vx[j]) * n_x + (a.m_vy[i] - b.m_vy[j]) * n_y;
+    if (!(vn > 0.0f))
+    {
+      // Collision impulse and change in momentum
+      double imp = (-(1.0f + Ball.s_restitution) * vn) / 2f;
+      a.m_vx[i] += n_x * imp;
+      a.m_vy[i] += n_y * imp;
+      b.m_vx[j] -= n_x * imp;
+      b.m_vy[j] -= n_y * imp;
+    }
+    // Contagion
+    if (b.m_health[j] == INFECTED)
+    {
+      infect(a, i);
+    }
+    if (a.m_health[i] == INFECTED)
+    {
+      infect(b, j);
+    }
+    return true;
+  }
+
+  /**
+   * Sets a patient as infected, if it is currently healthy
+   * @param t The tile of the patient
+   * @param i The index of the patient in the tile
+   */
+  protected void infect(/*@ non_null @*/ Tile t, int i)
+  {
+    if (t.m_health[i] == HEALTHY)
+    {
+      t.m_health[i] = INFECTED;
+      t.m_infected++;
+      m_counts.move(Health.HEALTHY, Health.INFECTED);
+    }
+  }
+
+  /**
+   * Updates the health state of the infected patients of a tile, in one
+   * call to the health model
+   * @param t The tile
+   */
+  protected void tick(/*@ non_null @*/ Tile t)
+  {
+    if (t.m_infected == 0)
+    {
+      return;
+    }
+    m_batch.clear();
+    for (int i = 0; i < t.m_size; i++)
+    {
+      if (t.m_health[i] == INFECTED)
+      {
+        m_batch.add(i);
+      }
+    }
+    int n = m_batch.size();
+    if (m_batchKeys.length < n)
+    {
+      int capacity = Math.max(n, 2 * m_batchKeys.length);
+      m_batchKeys = new int[capacity];
+      m_batchTicks = new short[capacity];
+      m_batchHealth = new byte[capacity];
+    }
+    for (int k = 0; k < n; k++)
+    {
+      int i = m_batch.get(k);
+      m_batchKeys[k] = t.m_keys[i];
+      m_batchTicks[k] = t.m_ticks[i];
+    }
+    m_model.next(n, m_batchKeys, m_batchTicks, m_batchHealth);
+    for (int k = 0; k < n; k++)
+    {
+      int i = m_batch.get(k);
+      byte h = m_batchHealth[k];
+      t.m_ticks[i] = HealthModel.increment(t.m_ticks[i]);
+      if (h != INFECTED)
+      {
+        m_counts.move(Health.INFECTED, s_healthStates[h]);
+        t.m_health[i] = h;
+        t.m_infected--;
+      }
+    }
+  }
+
+  /**
+   * Gets the tile containing a position
+   * @param x The first coordinate of the position
+   * @param y The second coordinate of the position
+   * @return The index of the tile; positions outside of the arena belong
+   * to the closest tile
+   */
+  protected int tileOf(double x, double y)
+  {
+    return row(y) * m_columns + column(x);
+  }
+
+  /**
+   * Gets the column of the tiles containing a coordinate
+   * @param x The first coordinate of a position
+   * @return The column
+   */
+  protected int column(double x)
+  {
+    int c = (int) (x / m_tileSize);
+    return c < 0 ? 0 : (c >= m_columns ? m_columns - 1 : c);
+  }
+
+  /**
+   * Gets the row of the tiles containing a coordinate
+   * @param y The second coordinate of a position
+   * @return The row
+   */
+  protected int row(double y)
+  {
+    int r = (int) (y / m_tileSize);
+    return r < 0 ? 0 : (r >= m_rows ? m_rows - 1 : r);
+  }
+
+  @Override
+  protected double getMaxRadius()
+  {
+    double r = 0;
+    for (Tile t : m_tiles)
+    {
+      for (int i = 0; i < t.m_size; i++)
+      {
+        r = Math.max(r, t.m_radius[i]);
+      }
+    }
+    return r;
+  }
+
+  /**
+   * A square region of the arena, and the patients it contains. The state
+   * of the patients is stored in parallel arrays, which grow as patients
+   * enter the tile; a patient that leaves the tile is replaced by the
+   * last one.
+   */
+  protected static class Tile
+  {
+    /**
+     * The first coordinate of the top-left corner of the tile
+     */
+    protected final double m_left;
+
+    /**
+     * The second coordinate of the top-left corner of the tile
+     */
+    protected final double m_top;
+
+    /**
+     * The step at which the positions of the patients were last computed
+     */
+    protected long m_time = 0;
+
+    /**
+     * The number of patients in the tile
+     */
+    protected int m_size = 0;
+
+    /**
+     * The number of infected patients in the tile
+     */
+    protected int m_infected = 0;
+
+    /**
+     * The ID of each patient
+     */
+    /*@ non_null @*/ protected int[] m_ids = new int[0];
+
+    /**
+     * The first coordinate of the position of each patient
+     */
+    /*@ non_null @*/ protected double[] m_x = new double[0];
+
+    /**
+     * The second coordinate of the position of each patient
+     */
+    /*@ non_null @*/ protected double[] m_y = new double[0];
+
+    /**
+     * The first coordinate of the velocity of each patient
+     */
+    /*@ non_null @*/ protected double[] m_vx = new double[0];
+
+    /**
+     * The second coordinate of the velocity of each patient
+     */
+    /*@ non_null @*/ protected double[] m_vy = new double[0];
+
+    /**
+     * The radius of each patient
+     */
+    /*@ non_null @*/ protected double[] m_radius = new double[0];
+
+    /**
+     * Whether each patient is fixed
+     */
+    /*@ non_null @*/ protected boolean[] m_fixed = new boolean[0];
+
+    /**
+     * The ordinal of the health state of each patient
+     */
+    /*@ non_null @*/ protected byte[] m_health = new byte[0];
+
+    /**
+     * The key of each patient in the health model
+     */
+    /*@ non_null @*/ protected int[] m_keys = new int[0];
+
+    /**
+     * The number of steps since the infection of each patient (read as an
+     * unsigned value)
+     */
+    /*@ non_null @*/ protected short[] m_ticks = new short[0];
+
+    /**
+     * Creates a new empty tile
+     * @param left The first coordinate of the top-left corner of the tile
+     * @param top The second coordinate of the top-left corner of the tile
+     */
+    protected Tile(double left, double top)
+    {
+      super();
+      m_left = left;
+      m_top = top;
+    }
+
+    /**
+     * Adds a patient to the tile
+     * @param id The ID of the patient
+     * @param x The first coordinate of the position of the patient
+     * @param y The second coordinate of the position of the patient
+     * @param vx The first coordinate of the velocity of the patient
+     * @param vy The second coordinate of the velocity of the patient
+     * @param radius The radius of the patient
+     * @param fixed Whether the patient is fixed
+     * @param health The ordinal of the health state of the patient
+     * @param key The key of the patient in the health model
+     * @param ticks The number of steps since the infection of the patient
+     */
+    protected void add(int id, double x, double y, double vx, double vy, double radius, boolean fixed, byte health, int key, short ticks)
+    {
+      if (m_size == m_ids.length)
+      {
+        int capacity = Math.max(16, 2 * m_size);
+        m_ids = Arrays.copyOf(m_ids, capacity);
+        m_x = Arrays.copyOf(m_x, capacity);
+        m_y = Arrays.copyOf(m_y, capacity);
+        m_vx = Arrays.copyOf(m_vx, capacity);
+        m_vy = Arrays.copyOf(m_vy, capacity);
+        m_radius = Arrays.copyOf(m_radius, capacity);
+        m_fixed = Arrays.copyOf(m_fixed, capacity);
+        m_health = Arrays.copyOf(m_health, capacity);
+        m_keys = Arrays.copyOf(m_keys, capacity);
+        m_ticks = Arrays.copyOf(m_ticks, capacity);
+      }
+      m_ids[m_size] = id;
+      m_x[m_size] = x;
+      m_y[m_size] = y;
+      m_vx[m_size] = vx;
+      m_vy[m_size] = vy;
+      m_radius[m_size] = radius;
+      m_fixed[m_size] = fixed;
+      m_health[m_size] = health;
+      m_keys[m_size] = key;
+      m_ticks[m_size] = ticks;
+      m_size++;
+    }
+
+    /**
+     * Adds a copy of a patient of another tile to this tile
+     * @param t The other tile
+     * @param i The index of the patient in the other tile
+     */
+    protected void add(/*@ non_null @*/ Tile t, int i)
+    {
+      add(t.m_ids[i], t.m_x[i], t.m_y[i], t.m_vx[i], t.m_vy[i], t.m_radius[i], t.m_fixed[i], t.m_health[i], t.m_keys[i], t.m_ticks[i]);
+    }
+
+    /**
+     * Removes a patient from the tile. The last patient of the tile takes
+     * its index.
+     * @param i The index of the patient
+     */
+    protected void remove(int i)
+    {
+      int last = --m_size;
+      m_ids[i] = m_ids[last];
+      m_x[i] = m_x[last];
+      m_y[i] = m_y[last];
+      m_vx[i] = m_vx[last];
+      m_vy[i] = m_vy[last];
+      m_radius[i] = m_radius[last];
+      m_fixed[i] = m_fixed[last];
+      m_health[i] = m_health[last];
+      m_keys[i] = m_keys[last];
+      m_ticks[i] = m_ticks[last];
+    }
+  }
+
+  /**
+   * A {@link Patient} whose state is read from the arrays of a tile, as
+   * returned by {@link TiledArena#getBalls()}. Its position is relative to
+   * the viewport of the arena.
+   */
+  protected static class TileView extends Patient
+  {
+    /**
+     * The arena of the patient
+     */
+    /*@ non_null @*/ protected final TiledArena m_arena;
+
+    /**
+     * The tile holding the state of the patient
+     */
+    protected Tile m_tile;
+
+    /**
+     * The index of the patient in its tile
+     */
+    protected int m_index;
+
+    /**
+     * Creates a new view
+     * @param arena The arena of the patients viewed
+     */
+    protected TileView(/*@ non_null @*/ TiledArena arena)
+    {
+      super(-1);
+      m_arena = arena;
+    }
+
+    /**
+     * Makes the view show a patient
+     * @param t The tile holding the state of the patient
+     * @param index The index of the patient in the tile
+     */
+    protected void set(/*@ non_null @*/ Tile t, int index)
+    {
+      m_tile = t;
+      m_index = index;
+      m_id = t.m_ids[index];
+    }
+
+    @Override
+    public Vector2d getPosition()
+    {
+      return m_position.setX(m_tile.m_x[m_index] - m_arena.m_viewX).setY(m_tile.m_y[m_index] - m_arena.m_viewY);
+    }
+
+    @Override
+    public void setPosition(/*@ non_null @*/ Vector2d p)
+    {
+      m_tile.m_x[m_index] = p.getX() + m_arena.m_viewX;
+      m_tile.m_y[m_index] = p.getY() + m_arena.m_viewY;
+    }
+
+    @Override
+    public Vector2d getVelocity()
+    {
+      return m_velocity.setX(m_tile.m_vx[m_index]).setY(m_tile.m_vy[m_index]);
+    }
+
+    @Override
+    public void setVelocity(/*@ non_null @*/ Vector2d v)
+    {
+      m_tile.m_vx[m_index] = v.getX();
+      m_tile.m_vy[m_index] = v.getY();
+    }
+
+    @Override
+    public double getRadius()
+    {
+      return m_tile.m_radius[m_index];
+    }
+
+    @Override
+    public boolean isFixed()
+    {
+      return m_tile.m_fixed[m_index];
+    }
+
+    @Override
+    public void setFixed(boolean b)
+    {
+      m_tile.m_fixed[m_index] = b;
+    }
+
+    @Override
+    public Health getHealthState()
+    {
+      return s_healthStates[m_tile.m_health[m_index]];
+    }
+
+    @Override
+    public void setHealthState(Health s)
+    {
+      if (s == Health.INFECTED)
+      {
+        m_arena.infect(m_tile, m_index);
+      }
+    }
+
+    /**
+     * Views are updated by their arena; calling this method has no effect
+     */
+    @Override
+    public void tick()
+    {
+      // Nothing to do
+    }
+
+    /**
+     * Interactions between patients are computed by their arena; calling
+     * this method on a view is not supported
+     */
+    @Override
+    public boolean interactWith(Ball b)
+    {
+      throw new UnsupportedOperationException("Interactions are computed by the arena");
+    }
+
+    /**
+     * Impacts between patients are computed by their arena; calling this
+     * method on a view is not supported
+     */
+    @Override
+    public void impact(Ball b)
+    {
+      throw new UnsupportedOperationException("Interactions are computed by the arena");
+    }
+  }
+}
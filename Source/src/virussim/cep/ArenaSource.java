@@ -17,11 +17,15 @@
  */
 package virussim.cep;
 
+import java.io.IOException;
 import java.util.Queue;
 
 import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.tmf.Source;
 import virussim.physics.Arena;
+import virussim.physics.StepMetrics;
+import virussim.record.TrajectoryWriter;
 
 public class ArenaSource extends Source
 {
@@ -29,6 +33,17 @@ public class ArenaSource extends Source
    * The arena to use as a source
    */
   /*@ non_null @*/ protected Arena m_arena;
+
+  /**
+   * The time at which the last step of the arena ended, or -1 if no step
+   * has been computed yet
+   */
+  protected long m_lastStepEnd = -1;
+
+  /**
+   * The writer recording each step of the arena, if any
+   */
+  protected TrajectoryWriter m_recorder = null;
   
   /**
    * Creates a new arena source
@@ -40,11 +55,45 @@ public class ArenaSource extends Source
     m_arena = a;
   }
 
+  /**
+   * Sets a writer recording each step of the arena. The state of the
+   * arena is recorded after each update, which is the state seen by the
+   * processors downstream once the output of the source is pushed to
+   * them; replaying the file therefore produces the same frames.
+   * @param w The writer, or <tt>null</tt> to stop recording. Closing the
+   * writer is left to the caller.
+   */
+  public void setRecorder(TrajectoryWriter w)
+  {
+    m_recorder = w;
+  }
+
   @Override
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
+    StepMetrics metrics = m_arena.getMetrics();
+    if (metrics != null && m_lastStepEnd >= 0)
+    {
+      // Time spent downstream of the source since the last step
+      metrics.record(StepMetrics.Phase.PIPELINE, System.nanoTime() - m_lastStepEnd);
+    }
     outputs.add(new Object[] {m_arena.getBalls()});
     m_arena.update();
+    if (m_recorder != null)
+    {
+      try
+      {
+        m_recorder.write();
+      }
+      catch (IOException e)
+      {
+        throw new ProcessorException(e);
+      }
+    }
+    if (metrics != null)
+    {
+      m_lastStepEnd = System.nanoTime();
+    }
     return true;
   }
 
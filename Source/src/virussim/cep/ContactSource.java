@@ -0,0 +1,82 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.io.IOException;
+import java.util.Queue;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.tmf.Source;
+import ca.uqac.lif.cep.tuples.TupleMap;
+import virussim.record.ContactReader;
+
+/**
+ * Source that produces the contacts recorded by a
+ * {@link virussim.record.ContactWriter ContactWriter}. Each event is a
+ * tuple with the step of the contact (field <tt>t</tt>), the IDs of the
+ * two patients (fields <tt>id1</tt> and <tt>id2</tt>), and whether the
+ * virus was transmitted (field <tt>transmitted</tt>). The source stops
+ * producing events at the end of the file.
+ */
+public class ContactSource extends Source
+{
+  /**
+   * The reader of the recorded contacts
+   */
+  /*@ non_null @*/ protected ContactReader m_reader;
+
+  /**
+   * Creates a new contact source
+   * @param r The reader of the recorded contacts
+   */
+  public ContactSource(/*@ non_null @*/ ContactReader r)
+  {
+    super(1);
+    m_reader = r;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    try
+    {
+      if (!m_reader.next())
+      {
+        return false;
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+    TupleMap t = new TupleMap();
+    t.put("t", m_reader.getStep());
+    t.put("id1", m_reader.getFirst());
+    t.put("id2", m_reader.getSecond());
+    t.put("transmitted", m_reader.isTransmitted());
+    outputs.add(new Object[] {t});
+    return true;
+  }
+
+  @Override
+  public Processor duplicate(boolean with_state)
+  {
+    throw new UnsupportedOperationException("This source cannot be duplicated");
+  }
+}
@@ -0,0 +1,312 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+/**
+ * A summary of a set of time series of bounded size, meant to be plotted
+ * on a fixed number of pixel columns. The points appended to the series
+ * are grouped into consecutive columns of equal length; for each series,
+ * a column keeps the smallest, largest, first and last value of its
+ * points. When all the columns are full, adjacent columns are merged two
+ * by two, which halves the number of columns and doubles the number of
+ * points in each of them.
+ * <p>
+ * Appending a point therefore takes constant amortized time, the summary
+ * never takes more memory than its capacity, and drawing it takes time
+ * proportional to its capacity, regardless of the number of points that
+ * have been appended. The summary is exact at the scale of a column: no
+ * peak is lost, even when a column stands for thousands of points.
+ */
+public class CurveBuffer
+{
+  /**
+   * The maximum number of columns
+   */
+  protected final int m_capacity;
+
+  /**
+   * The number of series
+   */
+  protected final int m_numSeries;
+
+  /**
+   * The smallest value of each series in each column, indexed by
+   * <tt>column * m_numSeries + series</tt>
+   */
+  /*@ non_null @*/ protected final double[] m_min;
+
+  /**
+   * The largest value of each series in each column, indexed like
+   * {@link #m_min}
+   */
+  /*@ non_null @*/ protected final double[] m_max;
+
+  /**
+   * The first value of each series in each column, indexed like
+   * {@link #m_min}
+   */
+  /*@ non_null @*/ protected final double[] m_first;
+
+  /**
+   * The last value of each series in each column, indexed like
+   * {@link #m_min}
+   */
+  /*@ non_null @*/ protected final double[] m_last;
+
+  /**
+   * The number of columns in use
+   */
+  protected int m_columns = 0;
+
+  /**
+   * The number of points in a full column
+   */
+  protected long m_span = 1;
+
+  /**
+   * The number of points in the last column
+   */
+  protected long m_fill = 0;
+
+  /**
+   * The abscissa of the first point
+   */
+  protected double m_firstX = 0;
+
+  /**
+   * The abscissa of the last point
+   */
+  protected double m_lastX = 0;
+
+  /**
+   * The largest value of all the series
+   */
+  protected double m_top = 0;
+
+  /**
+   * Creates a new empty buffer
+   * @param capacity The maximum number of columns; it must be even and
+   * positive
+   * @param num_series The number of series
+   */
+  public CurveBuffer(int capacity, int num_series)
+  {
+    super();
+    if (capacity <= 0 || capacity % 2 != 0)
+    {
+      throw new IllegalArgumentException("The capacity must be even and positive");
+    }
+    m_capacity = capacity;
+    m_numSeries = num_series;
+    m_min = new double[capacity * num_series];
+    m_max = new double[capacity * num_series];
+    m_first = new double[capacity * num_series];
+    m_last = new double[capacity * num_series];
+  }
+
+  /**
+   * Appends a point to each series
+   * @param x The abscissa of the points; it is expected to increase from
+   * one call to the next
+   * @param values The value of each series
+   */
+  public void append(double x, /*@ non_null @*/ double[] values)
+  {
+    if (m_columns == 0)
+    {
+      m_firstX = x;
+    }
+    m_lastX = x;
+    if (m_columns == 0 || m_fill == m_span)
+    {
+      if (m_columns == m_capacity)
+      {
+        compact();
+      }
+      int base = m_columns * m_numSeries;
+      for (int s = 0; s < m_numSeries; s++)
+      {
+        double v = values[s];
+        m_min[base + s] = v;
+        m_max[base + s] = v;
+        m_first[base + s] = v;
+        m_last[base + s] = v;
+        m_top = Math.max(m_top, v);
+      }
+      m_columns++;
+      m_fill = 1;
+      return;
+    }
+    int base = (m_columns - 1) * m_numSeries;
+    for (int s = 0; s < m_numSeries; s++)
+    {
+      double v = values[s];
+      m_min[base + s] = Math.min(m_min[base + s], v);
+      m_max[base + s] = Math.max(m_max[base + s], v);
+      m_last[base + s] = v;
+      m_top = Math.max(m_top, v);
+    }
+    m_fill++;
+  }
+
+  /**
+   * Merges adjacent columns two by two. This is only called when all the
+   * columns are full, so that all the merged columns are full as well.
+   */
+  protected void compact()
+  {
+    int half = m_capacity / 2;
+    for (int c = 0; c < half; c++)
+    {
+      int to = c * m_numSeries;
+      int left = 2 * c * m_numSeries;
+      int right = left + m_numSeries;
+      for (int s = 0; s < m_numSeries; s++)
+      {
+        m_min[to + s] = Math.min(m_min[left + s], m_min[right + s]);
+        m_max[to + s] = Math.max(m_max[left + s], m_max[right + s]);
+        m_first[to + s] = m_first[left + s];
+        m_last[to + s] = m_last[right + s];
+      }
+    }
+    m_columns = half;
+    m_span *= 2;
+    m_fill = m_span;
+  }
+
+  /**
+   * Removes all the points
+   */
+  public void clear()
+  {
+    m_columns = 0;
+    m_span = 1;
+    m_fill = 0;
+    m_firstX = 0;
+    m_lastX = 0;
+    m_top = 0;
+  }
+
+  /**
+   * Gets the maximum number of columns
+   * @return The number of columns
+   */
+  public int getCapacity()
+  {
+    return m_capacity;
+  }
+
+  /**
+   * Gets the number of series
+   * @return The number of series
+   */
+  public int getNumSeries()
+  {
+    return m_numSeries;
+  }
+
+  /**
+   * Gets the number of columns in use
+   * @return The number of columns
+   */
+  public int getColumns()
+  {
+    return m_columns;
+  }
+
+  /**
+   * Gets the number of points in a full column
+   * @return The number of points
+   */
+  public long getSpan()
+  {
+    return m_span;
+  }
+
+  /**
+   * Gets the abscissa of the first point
+   * @return The abscissa, or 0 if the buffer is empty
+   */
+  public double getFirstX()
+  {
+    return m_firstX;
+  }
+
+  /**
+   * Gets the abscissa of the last point
+   * @return The abscissa, or 0 if the buffer is empty
+   */
+  public double getLastX()
+  {
+    return m_lastX;
+  }
+
+  /**
+   * Gets the largest value of all the series
+   * @return The value, or 0 if the buffer is empty or all the values are
+   * negative
+   */
+  public double getTop()
+  {
+    return m_top;
+  }
+
+  /**
+   * Gets the smallest value of a series in a column
+   * @param column The column
+   * @param series The series
+   * @return The value
+   */
+  public double getMin(int column, int series)
+  {
+    return m_min[column * m_numSeries + series];
+  }
+
+  /**
+   * Gets the largest value of a series in a column
+   * @param column The column
+   * @param series The series
+   * @return The value
+   */
+  public double getMax(int column, int series)
+  {
+    return m_max[column * m_numSeries + series];
+  }
+
+  /**
+   * Gets the first value of a series in a column
+   * @param column The column
+   * @param series The series
+   * @return The value
+   */
+  public double getFirst(int column, int series)
+  {
+    return m_first[column * m_numSeries + series];
+  }
+
+  /**
+   * Gets the last value of a series in a column
+   * @param column The column
+   * @param series The series
+   * @return The value
+   */
+  public double getLast(int column, int series)
+  {
+    return m_last[column * m_numSeries + series];
+  }
+}
@@ -24,6 +24,7 @@ import java.util.Map;
 
 import ca.uqac.lif.cep.functions.UnaryFunction;
 import virussim.Patient;
+import virussim.physics.StepMetrics;
 
 /**
  * From a map of players, a BeepBeep {@link Function} object that produces 
@@ -57,6 +58,12 @@ public class DrawArena extends UnaryFunction<Map,BufferedImage>
    */
   protected static Color s_recoveredColor = new Color(194, 142, 190);
 
+  /**
+   * The metrics in which the rendering time of each frame is recorded, or
+   * <tt>null</tt> to not measure it
+   */
+  protected StepMetrics m_metrics = null;
+
   /**
    * Creates a new instance of the function for a specific width and height.
    * @param width The width of the image
@@ -69,8 +76,37 @@ public class DrawArena extends UnaryFunction<Map,BufferedImage>
     m_height = height;
   }
 
+  /**
+   * Sets the metrics in which the rendering time of each frame is
+   * recorded, as the {@link StepMetrics.Phase#RENDER RENDER} phase
+   * @param metrics The metrics, or <tt>null</tt> to not measure the
+   * rendering time
+   */
+  public void setMetrics(StepMetrics metrics)
+  {
+    m_metrics = metrics;
+  }
+
   @Override
   public BufferedImage getValue(Map x)
+  {
+    StepMetrics metrics = m_metrics;
+    if (metrics == null)
+    {
+      return draw(x);
+    }
+    long start = System.nanoTime();
+    BufferedImage img = draw(x);
+    metrics.record(StepMetrics.Phase.RENDER, System.nanoTime() - start);
+    return img;
+  }
+
+  /**
+   * Draws the image of a map of players
+   * @param x The map of players
+   * @return The image
+   */
+  protected BufferedImage draw(Map x)
   {
     BufferedImage img = new BufferedImage(m_width, m_height, BufferedImage.TYPE_INT_RGB);
     Graphics2D g2 = (Graphics2D) img.getGraphics();
@@ -80,6 +116,7 @@ public class DrawArena extends UnaryFunction<Map,BufferedImage>
     {
       render(g2, (Patient) o);
     }
+    g2.dispose();
     return img;
   }
 
@@ -0,0 +1,285 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import ca.uqac.lif.cep.tuples.Tuple;
+
+/**
+ * Function that plots the fields of a stream of tuples as curves, drawn
+ * with Java2D. Each tuple received adds one point to each curve, with
+ * one field as the abscissa; the function returns an image of all the
+ * points received so far.
+ * <p>
+ * Unlike a plot that keeps a table of all the points and draws it from
+ * scratch at every update, the function keeps the curves in a
+ * {@link CurveBuffer} with one column per pixel of the plot area: each
+ * column is drawn as a vertical segment covering the smallest and largest
+ * value of its points. The time and memory taken by a frame are therefore
+ * the same after a million points as after ten, and no external program
+ * is needed.
+ * <p>
+ * As with {@link RasterDrawArena}, the function renders alternately into
+ * two pre-allocated images.
+ */
+public class DrawCurves extends UnaryFunction<Tuple,BufferedImage>
+{
+  /**
+   * The space left around the plot area, in pixels, for the labels
+   */
+  protected static final int LEFT = 60, RIGHT = 10, TOP = 10, BOTTOM = 30;
+
+  /**
+   * The colors given by default to the curves, in order
+   */
+  protected static final Color[] s_defaultColors = {Color.BLUE, Color.RED, Color.GREEN.darker(), Color.BLACK, Color.MAGENTA, Color.ORANGE};
+
+  /**
+   * The color of the axes and labels
+   */
+  protected static final Color s_axisColor = Color.GRAY;
+
+  /**
+   * The width of the image
+   */
+  protected final int m_width;
+
+  /**
+   * The height of the image
+   */
+  protected final int m_height;
+
+  /**
+   * The name of the field giving the abscissa of a point
+   */
+  /*@ non_null @*/ protected final String m_xName;
+
+  /**
+   * The names of the fields plotted as curves
+   */
+  /*@ non_null @*/ protected final String[] m_names;
+
+  /**
+   * The color of each curve
+   */
+  /*@ non_null @*/ protected final Color[] m_colors;
+
+  /**
+   * The points of the curves
+   */
+  /*@ non_null @*/ protected final CurveBuffer m_buffer;
+
+  /**
+   * The values of the point being added, reused from one tuple to the
+   * next
+   */
+  /*@ non_null @*/ protected final double[] m_values;
+
+  /**
+   * The two images rendered alternately
+   */
+  /*@ non_null @*/ protected final BufferedImage[] m_images;
+
+  /**
+   * The index of the image rendered by the next call to
+   * {@link #getValue(Tuple)}
+   */
+  protected int m_next = 0;
+
+  /**
+   * Creates a new instance of the function
+   * @param width The width of the image
+   * @param height The height of the image
+   * @param x_name The name of the field giving the abscissa of a point
+   * @param names The names of the fields plotted as curves
+   */
+  public DrawCurves(int width, int height, /*@ non_null @*/ String x_name, /*@ non_null @*/ String ... names)
+  {
+    super(Tuple.class, BufferedImage.class);
+    m_width = width;
+    m_height = height;
+    m_xName = x_name;
+    m_names = names;
+    m_colors = new Color[names.length];
+    for (int i = 0; i < names.length; i++)
+    {
+      m_colors[i] = s_defaultColors[i % s_defaultColors.length];
+    }
+    // One column per pixel, rounded down to an even number
+    int columns = Math.max(2, (width - LEFT - RIGHT) & ~1);
+    m_buffer = new CurveBuffer(columns, names.length);
+    m_values = new double[names.length];
+    m_images = new BufferedImage[2];
+    for (int i = 0; i < 2; i++)
+    {
+      m_images[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+  }
+
+  /**
+   * Sets the color of a curve
+   * @param name The name of the field plotted by the curve
+   * @param c The color
+   * @return This function
+   */
+  public DrawCurves setColor(/*@ non_null @*/ String name, /*@ non_null @*/ Color c)
+  {
+    for (int i = 0; i < m_names.length; i++)
+    {
+      if (m_names[i].equals(name))
+      {
+        m_colors[i] = c;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Gets the buffer holding the points of the curves
+   * @return The buffer
+   */
+  public CurveBuffer getBuffer()
+  {
+    return m_buffer;
+  }
+
+  @Override
+  public BufferedImage getValue(Tuple t)
+  {
+    for (int i = 0; i < m_names.length; i++)
+    {
+      m_values[i] = getNumber(t, m_names[i]);
+    }
+    m_buffer.append(getNumber(t, m_xName), m_values);
+    BufferedImage img = m_images[m_next];
+    m_next = 1 - m_next;
+    Graphics2D g2 = img.createGraphics();
+    draw(g2);
+    g2.dispose();
+    return img;
+  }
+
+  /**
+   * Draws the axes and the curves
+   * @param g2 The graphics to draw on
+   */
+  protected void draw(/*@ non_null @*/ Graphics2D g2)
+  {
+    int plot_w = m_width - LEFT - RIGHT;
+    int plot_h = m_height - TOP - BOTTOM;
+    int bottom = TOP + plot_h - 1;
+    double top = Math.max(1, m_buffer.getTop());
+    g2.setColor(Color.WHITE);
+    g2.fillRect(0, 0, m_width, m_height);
+    g2.setColor(s_axisColor);
+    g2.drawRect(LEFT - 1, TOP - 1, plot_w + 1, plot_h + 1);
+    int text_y = bottom + g2.getFontMetrics().getAscent() + 4;
+    g2.drawString(format(m_buffer.getFirstX()), LEFT, text_y);
+    String last_x = format(m_buffer.getLastX());
+    g2.drawString(last_x, LEFT + plot_w - g2.getFontMetrics().stringWidth(last_x), text_y);
+    String top_y = format(top);
+    g2.drawString(top_y, LEFT - 4 - g2.getFontMetrics().stringWidth(top_y), TOP + g2.getFontMetrics().getAscent());
+    g2.drawString("0", LEFT - 4 - g2.getFontMetrics().stringWidth("0"), bottom);
+    int columns = m_buffer.getColumns();
+    double y_scale = (plot_h - 1) / top;
+    for (int s = 0; s < m_names.length; s++)
+    {
+      g2.setColor(m_colors[s]);
+      int prev_x = -1, prev_y = 0;
+      for (int c = 0; c < columns; c++)
+      {
+        // The columns in use are stretched over the whole width
+        int x = LEFT + (columns == 1 ? 0 : (int) ((long) c * (plot_w - 1) / (columns - 1)));
+        int y_first = bottom - (int) (m_buffer.getFirst(c, s) * y_scale);
+        if (prev_x >= 0)
+        {
+          g2.drawLine(prev_x, prev_y, x, y_first);
+        }
+        g2.drawLine(x, bottom - (int) (m_buffer.getMin(c, s) * y_scale), x, bottom - (int) (m_buffer.getMax(c, s) * y_scale));
+        prev_x = x;
+        prev_y = bottom - (int) (m_buffer.getLast(c, s) * y_scale);
+      }
+    }
+    drawLegend(g2, LEFT + plot_w - 8, TOP + 4);
+  }
+
+  /**
+   * Draws the name and color of each curve in a box
+   * @param g2 The graphics to draw on
+   * @param right The abscissa of the right side of the box
+   * @param top The ordinate of the top of the box
+   */
+  protected void drawLegend(/*@ non_null @*/ Graphics2D g2, int right, int top)
+  {
+    FontMetrics fm = g2.getFontMetrics();
+    int text_w = 0;
+    for (String name : m_names)
+    {
+      text_w = Math.max(text_w, fm.stringWidth(name));
+    }
+    int line_h = fm.getHeight();
+    int box_w = text_w + 34;
+    g2.setColor(Color.WHITE);
+    g2.fillRect(right - box_w, top, box_w, m_names.length * line_h + 6);
+    g2.setColor(s_axisColor);
+    g2.drawRect(right - box_w, top, box_w, m_names.length * line_h + 6);
+    for (int s = 0; s < m_names.length; s++)
+    {
+      int y = top + 3 + s * line_h + fm.getAscent();
+      int x = right - 4 - fm.stringWidth(m_names[s]);
+      g2.setColor(m_colors[s]);
+      g2.drawString(m_names[s], x, y);
+      g2.drawLine(right - box_w + 4, y - fm.getAscent() / 2, right - text_w - 10, y - fm.getAscent() / 2);
+    }
+  }
+
+  /**
+   * Gets the numerical value of a field of a tuple
+   * @param t The tuple
+   * @param name The name of the field
+   * @return The value, or 0 if the field is missing or not a number
+   */
+  protected static double getNumber(/*@ non_null @*/ Tuple t, /*@ non_null @*/ String name)
+  {
+    Object o = t.get(name);
+    if (o instanceof Number)
+    {
+      return ((Number) o).doubleValue();
+    }
+    return 0;
+  }
+
+  /**
+   * Formats a value for a label
+   * @param v The value
+   * @return The label
+   */
+  protected static String format(double v)
+  {
+    if (Math.abs(v) >= 100 && Math.abs(v) < 1e15)
+    {
+      return Long.toString(Math.round(v));
+    }
+    return String.format("%.2f", v);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import virussim.Frame;
+
+/**
+ * A single-slot mailbox through which the thread running a simulation
+ * hands {@link Frame}s to the threads that display them. The slot only
+ * holds the latest frame: publishing a frame replaces the previous one,
+ * whether it has been read or not, and reading a frame does not remove
+ * it. Neither operation ever blocks.
+ * <p>
+ * Capturing a frame has a cost, so the simulation only does it when a
+ * frame is wanted: a reader that calls {@link #get()} asks for a newer
+ * frame than the one it received, and the simulation captures one at the
+ * end of its next step. Readers that sample the slot at a low rate
+ * therefore cost nothing to the steps in between.
+ */
+public class FrameSlot
+{
+  /**
+   * The latest frame published, or <tt>null</tt> if none has been
+   * published yet
+   */
+  /*@ non_null @*/ protected final AtomicReference<Frame> m_frame = new AtomicReference<Frame>();
+
+  /**
+   * Whether a reader wants a newer frame than the latest one
+   */
+  /*@ non_null @*/ protected final AtomicBoolean m_wanted = new AtomicBoolean(true);
+
+  /**
+   * The number of frames published
+   */
+  /*@ non_null @*/ protected final AtomicLong m_published = new AtomicLong();
+
+  /**
+   * Publishes a frame, replacing the latest one
+   * @param f The frame
+   */
+  public void publish(/*@ non_null @*/ Frame f)
+  {
+    m_wanted.set(false);
+    m_frame.set(f);
+    m_published.incrementAndGet();
+  }
+
+  /**
+   * Determines if a reader wants a newer frame than the latest one
+   * @return <tt>true</tt> if a frame should be published
+   */
+  public boolean isWanted()
+  {
+    return m_wanted.get();
+  }
+
+  /**
+   * Gets the latest frame, and asks for a newer one
+   * @return The frame, or <tt>null</tt> if none has been published yet
+   */
+  public Frame get()
+  {
+    Frame f = m_frame.get();
+    m_wanted.set(true);
+    return f;
+  }
+
+  /**
+   * Gets the number of frames published
+   * @return The number of frames
+   */
+  public long getPublished()
+  {
+    return m_published.get();
+  }
+}
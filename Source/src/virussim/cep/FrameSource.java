@@ -0,0 +1,91 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.util.Queue;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.tmf.Source;
+import virussim.Frame;
+
+/**
+ * Source that produces the latest {@link Frame} published in a
+ * {@link FrameSlot}. Frames published since the last one produced are
+ * skipped; if no frame has been published since then, the source waits
+ * for the next one by polling the slot. Driven by a
+ * {@link ca.uqac.lif.cep.tmf.Pump Pump}, the source therefore samples a
+ * {@link SimulationLoop} at the rate of the pump, or at the rate of the
+ * simulation if it is slower.
+ */
+public class FrameSource extends Source
+{
+  /**
+   * The slot read by the source
+   */
+  /*@ non_null @*/ protected final FrameSlot m_slot;
+
+  /**
+   * The number of milliseconds between two readings of the slot while
+   * waiting for a frame
+   */
+  protected static final long POLL_INTERVAL = 5;
+
+  /**
+   * The last frame produced, or <tt>null</tt> if none has been produced
+   */
+  protected Frame m_last = null;
+
+  /**
+   * Creates a new frame source
+   * @param slot The slot read by the source
+   */
+  public FrameSource(/*@ non_null @*/ FrameSlot slot)
+  {
+    super(1);
+    m_slot = slot;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    Frame f = m_slot.get();
+    if (f != null && f != m_last)
+    {
+      m_last = f;
+      outputs.add(new Object[] {f});
+      return true;
+    }
+    try
+    {
+      // Nothing new: the caller asks again until a frame is produced
+      Thread.sleep(POLL_INTERVAL);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public Processor duplicate(boolean with_state)
+  {
+    throw new UnsupportedOperationException("This source cannot be duplicated");
+  }
+}
@@ -0,0 +1,46 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.util.Map;
+
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import virussim.Frame;
+
+/**
+ * Function that produces the map of patients of a {@link Frame}, which
+ * can be given to the same functions as the output of an
+ * {@link ArenaSource}, such as {@link DrawArena}.
+ */
+@SuppressWarnings("rawtypes")
+public class GetFrameBalls extends UnaryFunction<Frame,Map>
+{
+  /**
+   * Creates a new instance of the function
+   */
+  public GetFrameBalls()
+  {
+    super(Frame.class, Map.class);
+  }
+
+  @Override
+  public Map getValue(Frame x)
+  {
+    return x.getBalls();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import ca.uqac.lif.cep.tuples.Tuple;
+import ca.uqac.lif.cep.tuples.TupleMap;
+import virussim.Frame;
+import virussim.Patient.Health;
+
+/**
+ * Function that produces a tuple with the number of patients in each
+ * health state in a {@link Frame}. The tuple has the same fields as that
+ * of {@link CountHealth}.
+ */
+public class GetFrameCounts extends UnaryFunction<Frame,Tuple>
+{
+  /**
+   * The possible health states
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * Creates a new instance of the function
+   */
+  public GetFrameCounts()
+  {
+    super(Frame.class, Tuple.class);
+  }
+
+  @Override
+  public Tuple getValue(Frame x)
+  {
+    TupleMap t = new TupleMap();
+    for (Health h : s_healthStates)
+    {
+      t.put(h.toString(), x.getCount(h));
+    }
+    return t;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import virussim.Frame;
+
+/**
+ * Function that produces the number of steps computed when a
+ * {@link Frame} was captured. Since frames may be skipped, this number
+ * replaces the count of events used to number the steps of an
+ * {@link ArenaSource}.
+ */
+public class GetFrameStep extends UnaryFunction<Frame,Number>
+{
+  /**
+   * Creates a new instance of the function
+   */
+  public GetFrameStep()
+  {
+    super(Frame.class, Number.class);
+  }
+
+  @Override
+  public Number getValue(Frame x)
+  {
+    return x.getStep();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import ca.uqac.lif.cep.tuples.Tuple;
+import ca.uqac.lif.cep.tuples.TupleMap;
+import virussim.physics.StepMetrics;
+
+/**
+ * Function that produces a tuple with the measurements of the last step
+ * of a simulation, read from {@link StepMetrics}. As with
+ * {@link CountHealth}, the input of the function is ignored, so that the
+ * function can be applied to the output of an {@link ArenaSource} and
+ * its tuples merged with the epidemic curves. The tuple has the following
+ * fields:
+ * <ul>
+ * <li><tt>UPDATE_US</tt>: the duration of the step, in microseconds</li>
+ * <li><tt>RENDER_US</tt>: the duration of the last frame rendered, in
+ * microseconds</li>
+ * <li><tt>PAIRS</tt>: the number of pairs of patients tested</li>
+ * <li><tt>CONTACTS</tt>: the number of contacts</li>
+ * <li><tt>INFECTIONS</tt>: the number of new infections</li>
+ * <li><tt>ALLOCATED_KB</tt>: the memory allocated by the step, in
+ * kilobytes, or -1 if it cannot be measured</li>
+ * </ul>
+ */
+public class GetMetrics extends UnaryFunction<Object,Tuple>
+{
+  /**
+   * The metrics read by the function
+   */
+  /*@ non_null @*/ protected StepMetrics m_metrics;
+
+  /**
+   * Creates a new instance of the function
+   * @param metrics The metrics read by the function
+   */
+  public GetMetrics(/*@ non_null @*/ StepMetrics metrics)
+  {
+    super(Object.class, Tuple.class);
+    m_metrics = metrics;
+  }
+
+  @Override
+  public Tuple getValue(Object x)
+  {
+    TupleMap t = new TupleMap();
+    t.put("UPDATE_US", m_metrics.getLastNanos(StepMetrics.Phase.UPDATE) / 1000);
+    t.put("RENDER_US", m_metrics.getLastNanos(StepMetrics.Phase.RENDER) / 1000);
+    t.put("PAIRS", m_metrics.getPairTests());
+    t.put("CONTACTS", m_metrics.getContacts());
+    t.put("INFECTIONS", m_metrics.getNewInfections());
+    long allocated = m_metrics.getAllocatedBytes();
+    t.put("ALLOCATED_KB", allocated < 0 ? -1 : allocated / 1024);
+    return t;
+  }
+}
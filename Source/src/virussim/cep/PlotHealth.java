@@ -0,0 +1,45 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.awt.Color;
+
+import virussim.Patient.Health;
+
+/**
+ * A {@link DrawCurves} that plots the tuples produced by
+ * {@link CountHealth} against a field named <tt>t</tt>, with one curve
+ * per health state. The curves have the colors of the players in
+ * {@link DrawArena}.
+ */
+public class PlotHealth extends DrawCurves
+{
+  /**
+   * Creates a new instance of the function
+   * @param width The width of the image
+   * @param height The height of the image
+   */
+  public PlotHealth(int width, int height)
+  {
+    super(width, height, "t", Health.HEALTHY.toString(), Health.INFECTED.toString(), Health.RECOVERED.toString(), Health.DEAD.toString());
+    setColor(Health.HEALTHY.toString(), DrawArena.s_healthyColor);
+    setColor(Health.INFECTED.toString(), DrawArena.s_infectedColor);
+    setColor(Health.RECOVERED.toString(), DrawArena.s_recoveredColor);
+    setColor(Health.DEAD.toString(), Color.BLACK);
+  }
+}
@@ -0,0 +1,200 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Map;
+
+import virussim.Patient;
+
+/**
+ * A {@link DrawArena} that renders into a pair of pre-allocated images
+ * instead of creating a new image for each frame. Players are drawn by
+ * writing their pixels directly into the <tt>int</tt> raster of the image:
+ * the disc covered by a player is computed once for each diameter (as a
+ * list of horizontal spans), and then stamped with the color of the
+ * player's health state. A frame therefore allocates no object, and
+ * produces the same pixels as {@link DrawArena}.
+ * <p>
+ * The two images are used alternately: the image returned by a call to
+ * {@link #getValue(Map) getValue()} is not modified until the next call
+ * has returned, which leaves the time of a full frame to the component
+ * that displays it (such as a {@link ca.uqac.lif.cep.widgets.WidgetSink
+ * WidgetSink}). A receiver that keeps an image longer must copy it.
+ */
+@SuppressWarnings("rawtypes")
+public class RasterDrawArena extends DrawArena
+{
+  /**
+   * The RGB value of the background
+   */
+  protected static final int s_backgroundRgb = Color.WHITE.getRGB();
+
+  /**
+   * The two images rendered alternately
+   */
+  /*@ non_null @*/ protected final BufferedImage[] m_images;
+
+  /**
+   * The rasters of the two images
+   */
+  /*@ non_null @*/ protected final int[][] m_rasters;
+
+  /**
+   * The index of the image rendered by the next call to
+   * {@link #getValue(Map)}
+   */
+  protected int m_next = 0;
+
+  /**
+   * The spans of the disc of each diameter, or <tt>null</tt> if the disc
+   * of that diameter has not been computed yet. Element <i>y</i> of the
+   * array of diameter <i>d</i> gives the first and last horizontal offset
+   * (inclusive) covered by the disc on its <i>y</i>-th row, packed as
+   * <tt>(first &lt;&lt; 16) | last</tt>, or -1 if the row is empty.
+   */
+  /*@ non_null @*/ protected int[][] m_sprites = new int[16][];
+
+  /**
+   * Creates a new instance of the function for a specific width and height.
+   * @param width The width of the image
+   * @param height The height of the image
+   */
+  public RasterDrawArena(int width, int height)
+  {
+    super(width, height);
+    m_images = new BufferedImage[2];
+    m_rasters = new int[2][];
+    for (int i = 0; i < 2; i++)
+    {
+      m_images[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      m_rasters[i] = ((DataBufferInt) m_images[i].getRaster().getDataBuffer()).getData();
+    }
+  }
+
+  @Override
+  protected BufferedImage draw(Map x)
+  {
+    int[] raster = m_rasters[m_next];
+    Arrays.fill(raster, s_backgroundRgb);
+    for (Object o : x.values())
+    {
+      render(raster, (Patient) o);
+    }
+    BufferedImage img = m_images[m_next];
+    m_next = 1 - m_next;
+    return img;
+  }
+
+  /**
+   * Draws a player on a raster
+   * @param raster The raster
+   * @param p The player to draw
+   */
+  protected void render(/*@ non_null @*/ int[] raster, /*@ non_null @*/ Patient p)
+  {
+    int rgb;
+    switch (p.getHealthState())
+    {
+    case HEALTHY:
+      rgb = s_healthyColor.getRGB();
+      break;
+    case INFECTED:
+      rgb = s_infectedColor.getRGB();
+      break;
+    case DEAD:
+      // Dead dots disappear
+      return;
+    default:
+      rgb = s_recoveredColor.getRGB();
+      break;
+    }
+    // Same bounding box as in DrawArena#render
+    double r = p.getRadius();
+    int left = (int) (p.getPosition().getX() - r);
+    int top = (int) (p.getPosition().getY() - r);
+    int[] spans = getSprite((int) (2 * r));
+    int y_start = Math.max(0, -top);
+    int y_end = Math.min(spans.length, m_height - top);
+    for (int dy = y_start; dy < y_end; dy++)
+    {
+      int span = spans[dy];
+      if (span < 0)
+      {
+        continue;
+      }
+      int x1 = Math.max(0, left + (span >>> 16));
+      int x2 = Math.min(m_width - 1, left + (span & 0xFFFF));
+      if (x1 <= x2)
+      {
+        int row = (top + dy) * m_width;
+        Arrays.fill(raster, row + x1, row + x2 + 1, rgb);
+      }
+    }
+  }
+
+  /**
+   * Gets the spans of the disc of a given diameter, computing them if
+   * necessary. The disc is obtained by drawing it once with
+   * {@link java.awt.Graphics#fillOval(int, int, int, int) fillOval} on a
+   * small image, so that players look exactly as with {@link DrawArena}.
+   * @param d The diameter
+   * @return The spans
+   */
+  protected int[] getSprite(int d)
+  {
+    if (d >= m_sprites.length)
+    {
+      m_sprites = Arrays.copyOf(m_sprites, Math.max(d + 1, 2 * m_sprites.length));
+    }
+    int[] spans = m_sprites[d];
+    if (spans == null)
+    {
+      // The oval may cover one more pixel than its diameter
+      int size = d + 1;
+      BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g2 = img.createGraphics();
+      g2.setColor(Color.WHITE);
+      g2.fillOval(0, 0, d, d);
+      g2.dispose();
+      spans = new int[size];
+      for (int y = 0; y < size; y++)
+      {
+        int first = -1, last = -1;
+        for (int x = 0; x < size; x++)
+        {
+          if (img.getRGB(x, y) == s_backgroundRgb)
+          {
+            if (first < 0)
+            {
+              first = x;
+            }
+            last = x;
+          }
+        }
+        spans[y] = first < 0 ? -1 : (first << 16) | last;
+      }
+      m_sprites[d] = spans;
+    }
+    return spans;
+  }
+}
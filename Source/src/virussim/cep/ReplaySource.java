@@ -0,0 +1,77 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.io.IOException;
+import java.util.Queue;
+
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.tmf.Source;
+import virussim.record.TrajectoryReader;
+
+/**
+ * Source that replays a simulation recorded by an {@link ArenaSource}.
+ * Each event is the map of patients of a {@link TrajectoryReader}, in the
+ * state of the next frame of the file; it can be sent to the same
+ * processors as the output of an {@link ArenaSource}, such as
+ * {@link DrawArena}, or {@link CountHealth} given the counts of the reader.
+ * No physics is computed. The source stops producing events at the end of
+ * the file.
+ */
+public class ReplaySource extends Source
+{
+  /**
+   * The reader of the recorded simulation
+   */
+  /*@ non_null @*/ protected TrajectoryReader m_reader;
+
+  /**
+   * Creates a new replay source
+   * @param r The reader of the recorded simulation
+   */
+  public ReplaySource(/*@ non_null @*/ TrajectoryReader r)
+  {
+    super(1);
+    m_reader = r;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    try
+    {
+      if (!m_reader.next())
+      {
+        return false;
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+    outputs.add(new Object[] {m_reader.getPatients()});
+    return true;
+  }
+
+  @Override
+  public Processor duplicate(boolean with_state)
+  {
+    throw new UnsupportedOperationException("This source cannot be duplicated");
+  }
+}
@@ -0,0 +1,251 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.cep;
+
+import java.io.IOException;
+
+import virussim.Frame;
+import virussim.HealthCounts;
+import virussim.physics.Arena;
+import virussim.physics.StepMetrics;
+import virussim.record.TrajectoryWriter;
+
+/**
+ * Runs a simulation on its own thread, independently of the processors
+ * that display it. The loop updates an arena step after step and
+ * publishes {@link Frame}s in a {@link FrameSlot} whenever one is wanted;
+ * the displays read the slot at their own pace with a {@link FrameSource},
+ * so that a slow rendering or plotting only drops frames instead of
+ * slowing down the simulation.
+ * <p>
+ * The loop starts paused, and is paused and resumed with
+ * {@link #setPaused(boolean)}.
+ */
+public class SimulationLoop implements Runnable
+{
+  /**
+   * The arena of the simulation
+   */
+  /*@ non_null @*/ protected final Arena m_arena;
+
+  /**
+   * The slot where frames are published
+   */
+  /*@ non_null @*/ protected final FrameSlot m_slot;
+
+  /**
+   * The counts of patients in each health state copied in each frame, or
+   * <tt>null</tt> to count the patients of the frame
+   */
+  protected final HealthCounts m_counts;
+
+  /**
+   * The least number of milliseconds between the start of two steps
+   */
+  protected final long m_period;
+
+  /**
+   * The writer recording each step of the arena, if any
+   */
+  protected TrajectoryWriter m_recorder = null;
+
+  /**
+   * The number of steps computed
+   */
+  protected long m_step = 0;
+
+  /**
+   * Whether the loop is paused
+   */
+  protected boolean m_paused = true;
+
+  /**
+   * Whether the loop has been stopped
+   */
+  protected boolean m_stopped = false;
+
+  /**
+   * The thread running the loop, or <tt>null</tt> if it has not been
+   * started
+   */
+  protected Thread m_thread = null;
+
+  /**
+   * Creates a new simulation loop
+   * @param a The arena of the simulation
+   * @param slot The slot where frames are published
+   * @param counts The counts of patients in each health state copied in
+   * each frame, or <tt>null</tt> to count the patients of the frame
+   * @param period The least number of milliseconds between the start of
+   * two steps, or 0 to run the simulation as fast as possible
+   */
+  public SimulationLoop(/*@ non_null @*/ Arena a, /*@ non_null @*/ FrameSlot slot, HealthCounts counts, long period)
+  {
+    super();
+    m_arena = a;
+    m_slot = slot;
+    m_counts = counts;
+    m_period = period;
+  }
+
+  /**
+   * Gets the slot where frames are published
+   * @return The slot
+   */
+  public FrameSlot getSlot()
+  {
+    return m_slot;
+  }
+
+  /**
+   * Sets a writer recording each step of the arena
+   * @param w The writer, or <tt>null</tt> to stop recording. Closing the
+   * writer is left to the caller.
+   */
+  public void setRecorder(TrajectoryWriter w)
+  {
+    m_recorder = w;
+  }
+
+  /**
+   * Starts the thread running the loop. The initial state of the arena is
+   * published first, so that it can be displayed while the loop is
+   * paused.
+   */
+  public synchronized void start()
+  {
+    if (m_thread != null)
+    {
+      return;
+    }
+    m_slot.publish(Frame.capture(m_arena, m_step, m_counts));
+    m_thread = new Thread(this, "Simulation");
+    m_thread.setDaemon(true);
+    m_thread.start();
+  }
+
+  /**
+   * Pauses or resumes the loop. A step in progress is completed before
+   * the loop pauses.
+   * @param b <tt>true</tt> to pause the loop, <tt>false</tt> to resume it
+   */
+  public synchronized void setPaused(boolean b)
+  {
+    m_paused = b;
+    notifyAll();
+  }
+
+  /**
+   * Determines if the loop is paused
+   * @return <tt>true</tt> if the loop is paused, <tt>false</tt> otherwise
+   */
+  public synchronized boolean isPaused()
+  {
+    return m_paused;
+  }
+
+  /**
+   * Stops the loop. A step in progress is completed before the loop
+   * stops.
+   */
+  public synchronized void stop()
+  {
+    m_stopped = true;
+    notifyAll();
+  }
+
+  /**
+   * Gets the number of steps computed
+   * @return The number of steps
+   */
+  public synchronized long getStep()
+  {
+    return m_step;
+  }
+
+  @Override
+  public void run()
+  {
+    long next = System.currentTimeMillis();
+    while (true)
+    {
+      synchronized (this)
+      {
+        try
+        {
+          while (m_paused && !m_stopped)
+          {
+            wait();
+          }
+          if (m_stopped)
+          {
+            return;
+          }
+          long now = System.currentTimeMillis();
+          if (now < next)
+          {
+            // Wait for the next period, unless paused or stopped meanwhile
+            wait(next - now);
+            continue;
+          }
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+      }
+      next = System.currentTimeMillis() + m_period;
+      step();
+    }
+  }
+
+  /**
+   * Computes a step of the simulation, records it, and publishes a frame
+   * if one is wanted
+   */
+  protected void step()
+  {
+    m_arena.update();
+    synchronized (this)
+    {
+      m_step++;
+    }
+    if (m_recorder != null)
+    {
+      try
+      {
+        m_recorder.write();
+      }
+      catch (IOException e)
+      {
+        System.err.println("Cannot record the simulation: " + e.getMessage());
+        m_recorder = null;
+      }
+    }
+    if (m_slot.isWanted())
+    {
+      StepMetrics metrics = m_arena.getMetrics();
+      long start = metrics == null ? 0 : System.nanoTime();
+      m_slot.publish(Frame.capture(m_arena, m_step, m_counts));
+      if (metrics != null)
+      {
+        metrics.record(StepMetrics.Phase.PIPELINE, System.nanoTime() - start);
+      }
+    }
+  }
+}
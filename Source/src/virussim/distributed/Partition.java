@@ -0,0 +1,803 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import virussim.Patient.Health;
+import virussim.physics.Ball;
+import virussim.physics.IntList;
+import virussim.physics.UniformGrid;
+import virussim.picker.HealthModel;
+
+/**
+ * The patients of a vertical strip of the arena, as computed by a
+ * {@link Worker}. The strip owns its patients, stored in parallel arrays
+ * of primitive values, and receives at each step a read-only copy of the
+ * patients of the neighbouring strips that lie within one contact
+ * distance of its borders (its "halo"). Patients that cross a border
+ * are removed from the strip and written to the neighbour.
+ * <p>
+ * A contact between a patient of the strip and a patient of the halo only
+ * changes the patient of the strip: the other one is changed by its own
+ * strip, which sees the first patient in its halo. The arithmetic is
+ * otherwise the same as in {@link virussim.ArenaState ArenaState}.
+ */
+public class Partition
+{
+  /**
+   * The ordinal of the HEALTHY state
+   */
+  protected static final byte HEALTHY = (byte) Health.HEALTHY.ordinal();
+
+  /**
+   * The ordinal of the INFECTED state
+   */
+  protected static final byte INFECTED = (byte) Health.INFECTED.ordinal();
+
+  /**
+   * The width of the arena
+   */
+  protected final double m_width;
+
+  /**
+   * The height of the arena
+   */
+  protected final double m_height;
+
+  /**
+   * The left border of the strip
+   */
+  protected final double m_left;
+
+  /**
+   * The right border of the strip
+   */
+  protected final double m_right;
+
+  /**
+   * The largest distance at which two patients can be in contact
+   */
+  protected final double m_margin;
+
+  /**
+   * The health model shared by all the patients
+   */
+  /*@ non_null @*/ protected final HealthModel m_model;
+
+  /**
+   * The number of patients of the strip in each health state, indexed by
+   * the ordinal of the state
+   */
+  /*@ non_null @*/ protected final int[] m_counts = new int[Health.values().length];
+
+  /**
+   * The number of patients of the strip
+   */
+  protected int m_size = 0;
+
+  /**
+   * The ID of each patient
+   */
+  /*@ non_null @*/ protected int[] m_ids = new int[0];
+
+  /**
+   * The first coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected double[] m_x = new double[0];
+
+  /**
+   * The second coordinate of the position of each patient
+   */
+  /*@ non_null @*/ protected double[] m_y = new double[0];
+
+  /**
+   * The first coordinate of the velocity of each patient
+   */
+  /*@ non_null @*/ protected double[] m_vx = new double[0];
+
+  /**
+   * The second coordinate of the velocity of each patient
+   */
+  /*@ non_null @*/ protected double[] m_vy = new double[0];
+
+  /**
+   * The radius of each patient
+   */
+  /*@ non_null @*/ protected double[] m_radius = new double[0];
+
+  /**
+   * Whether each patient is fixed
+   */
+  /*@ non_null @*/ protected boolean[] m_fixed = new boolean[0];
+
+  /**
+   * The ordinal of the health state of each patient
+   */
+  /*@ non_null @*/ protected byte[] m_health = new byte[0];
+
+  /**
+   * The key of each patient in the health model
+   */
+  /*@ non_null @*/ protected int[] m_keys = new int[0];
+
+  /**
+   * The number of steps since the infection of each patient (read as an
+   * unsigned value)
+   */
+  /*@ non_null @*/ protected short[] m_ticks = new short[0];
+
+  /**
+   * The number of patients in the halo
+   */
+  protected int m_haloSize = 0;
+
+  /**
+   * The first coordinate of the position of each patient of the halo
+   */
+  /*@ non_null @*/ protected double[] m_haloX = new double[0];
+
+  /**
+   * The second coordinate of the position of each patient of the halo
+   */
+  /*@ non_null @*/ protected double[] m_haloY = new double[0];
+
+  /**
+   * The first coordinate of the velocity of each patient of the halo
+   */
+  /*@ non_null @*/ protected double[] m_haloVx = new double[0];
+
+  /**
+   * The second coordinate of the velocity of each patient of the halo
+   */
+  /*@ non_null @*/ protected double[] m_haloVy = new double[0];
+
+  /**
+   * The radius of each patient of the halo
+   */
+  /*@ non_null @*/ protected double[] m_haloRadius = new double[0];
+
+  /**
+   * The ordinal of the health state of each patient of the halo
+   */
+  /*@ non_null @*/ protected byte[] m_haloHealth = new byte[0];
+
+  /**
+   * The spatial hash used to find the pairs of patients that may be in
+   * contact
+   */
+  protected UniformGrid m_grid = null;
+
+  /**
+   * The number of elements the spatial hash can hold
+   */
+  protected int m_gridCapacity = 0;
+
+  /**
+   * A list used to collect the candidates for a contact with a patient
+   */
+  /*@ non_null @*/ protected IntList m_candidates = new IntList();
+
+  /**
+   * The indices of the infected patients, gathered to update their health
+   */
+  /*@ non_null @*/ protected IntList m_batch = new IntList();
+
+  /**
+   * An array where the health keys of the patients of a batch are
+   * gathered
+   */
+  /*@ non_null @*/ protected int[] m_batchKeys = new int[0];
+
+  /**
+   * An array where the ticks of the patients of a batch are gathered
+   */
+  /*@ non_null @*/ protected short[] m_batchTicks = new short[0];
+
+  /**
+   * An array receiving the next health states of the patients of a batch
+   */
+  /*@ non_null @*/ protected byte[] m_batchHealth = new byte[0];
+
+  /**
+   * The number of pairs of patients tested during the last step
+   */
+  protected long m_pairTests = 0;
+
+  /**
+   * The number of contacts during the last step
+   */
+  protected long m_contacts = 0;
+
+  /**
+   * Creates a new empty strip
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param left The left border of the strip
+   * @param right The right border of the strip
+   * @param margin The largest distance at which two patients can be in
+   * contact
+   * @param model The health model shared by all the patients
+   */
+  public Partition(double width, double height, double left, double right, double margin, /*@ non_null @*/ HealthModel model)
+  {
+    super();
+    m_width = width;
+    m_height = height;
+    m_left = left;
+    m_right = right;
+    m_margin = margin;
+    m_model = model;
+  }
+
+  /**
+   * Gets the number of patients of the strip
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Copies the number of patients of the strip in each health state into
+   * an array
+   * @param counts The array, indexed by the ordinal of each health state
+   */
+  public void getCounts(/*@ non_null @*/ int[] counts)
+  {
+    System.arraycopy(m_counts, 0, counts, 0, m_counts.length);
+  }
+
+  /**
+   * Gets the number of pairs of patients tested during the last step
+   * @return The number of pairs
+   */
+  public long getPairTests()
+  {
+    return m_pairTests;
+  }
+
+  /**
+   * Gets the number of contacts during the last step
+   * @return The number of contacts
+   */
+  public long getContacts()
+  {
+    return m_contacts;
+  }
+
+  /**
+   * Moves the patients of the strip and makes them bounce off the walls of
+   * the arena
+   */
+  public void move()
+  {
+    for (int i = 0; i < m_size; i++)
+    {
+      if (!m_fixed[i])
+      {
+        m_x[i] += m_vx[i];
+        m_y[i] += m_vy[i];
+      }
+      bounceOffWalls(i);
+    }
+  }
+
+  /**
+   * Handles the contacts between the patients of the strip, and between
+   * these patients and those of the halo
+   */
+  public void collide()
+  {
+    int total = m_size + m_haloSize;
+    double x0 = m_left - m_margin;
+    if (m_grid == null || m_gridCapacity < total)
+    {
+      m_gridCapacity = Math.max(total, 2 * m_gridCapacity);
+      m_grid = new UniformGrid(m_right - m_left + 2 * m_margin, m_height, m_margin, m_gridCapacity);
+    }
+    m_grid.clear();
+    for (int i = 0; i < m_size; i++)
+    {
+      m_grid.insert(i, m_x[i] - x0, m_y[i]);
+    }
+    for (int h = 0; h < m_haloSize; h++)
+    {
+      m_grid.insert(m_size + h, m_haloX[h] - x0, m_haloY[h]);
+    }
+    m_pairTests = 0;
+    m_contacts = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      int last = i;
+      boolean collided = true;
+      while (collided)
+      {
+        collided = false;
+        m_candidates.clear();
+        m_grid.query(m_x[i] - x0, m_y[i], last, m_candidates);
+        m_candidates.sort();
+        for (int k = 0; k < m_candidates.size(); k++)
+        {
+          int j = m_candidates.get(k);
+          boolean contact = j < m_size ? interact(i, j) : interactWithHalo(i, j - m_size);
+          m_pairTests++;
+          if (contact)
+          {
+            m_contacts++;
+            m_grid.move(i, m_x[i] - x0, m_y[i]);
+            if (j < m_size)
+            {
+              m_grid.move(j, m_x[j] - x0, m_y[j]);
+            }
+            last = j;
+            collided = true;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the health state of the infected patients of the strip, in one
+   * call to the health model
+   */
+  public void tick()
+  {
+    m_batch.clear();
+    for (int i = 0; i < m_size; i++)
+    {
+      if (m_health[i] == INFECTED)
+      {
+        m_batch.add(i);
+      }
+    }
+    int n = m_batch.size();
+    if (m_batchKeys.length < n)
+    {
+      int capacity = Math.max(n, 2 * m_batchKeys.length);
+      m_batchKeys = new int[capacity];
+      m_batchTicks = new short[capacity];
+      m_batchHealth = new byte[capacity];
+    }
+    for (int k = 0; k < n; k++)
+    {
+      int i = m_batch.get(k);
+      m_batchKeys[k] = m_keys[i];
+      m_batchTicks[k] = m_ticks[i];
+    }
+    m_model.next(n, m_batchKeys, m_batchTicks, m_batchHealth);
+    for (int k = 0; k < n; k++)
+    {
+      int i = m_batch.get(k);
+      byte h = m_batchHealth[k];
+      m_ticks[i] = HealthModel.increment(m_ticks[i]);
+      if (h != INFECTED)
+      {
+        m_counts[INFECTED]--;
+        m_counts[h]++;
+        m_health[i] = h;
+      }
+    }
+  }
+
+  /**
+   * Adds a patient to the strip
+   * @param id The ID of the patient
+   * @param x The first coordinate of the position of the patient
+   * @param y The second coordinate of the position of the patient
+   * @param vx The first coordinate of the velocity of the patient
+   * @param vy The second coordinate of the velocity of the patient
+   * @param radius The radius of the patient
+   * @param fixed Whether the patient is fixed
+   * @param health The ordinal of the health state of the patient
+   * @param key The key of the patient in the health model
+   * @param ticks The number of steps since the infection of the patient
+   */
+  public void add(int id, double x, double y, double vx, double vy, double radius, boolean fixed, byte health, int key, short ticks)
+  {
+    if (m_size == m_ids.length)
+    {
+      int capacity = Math.max(16, 2 * m_size);
+      m_ids = Arrays.copyOf(m_ids, capacity);
+      m_x = Arrays.copyOf(m_x, capacity);
+      m_y = Arrays.copyOf(m_y, capacity);
+      m_vx = Arrays.copyOf(m_vx, capacity);
+      m_vy = Arrays.copyOf(m_vy, capacity);
+      m_radius = Arrays.copyOf(m_radius, capacity);
+      m_fixed = Arrays.copyOf(m_fixed, capacity);
+      m_health = Arrays.copyOf(m_health, capacity);
+      m_keys = Arrays.copyOf(m_keys, capacity);
+      m_ticks = Arrays.copyOf(m_ticks, capacity);
+    }
+    m_ids[m_size] = id;
+    m_x[m_size] = x;
+    m_y[m_size] = y;
+    m_vx[m_size] = vx;
+    m_vy[m_size] = vy;
+    m_radius[m_size] = radius;
+    m_fixed[m_size] = fixed;
+    m_health[m_size] = health;
+    m_keys[m_size] = key;
+    m_ticks[m_size] = ticks;
+    m_counts[health]++;
+    m_size++;
+  }
+
+  /**
+   * Removes a patient from the strip. The last patient of the strip takes
+   * its index.
+   * @param i The index of the patient
+   */
+  protected void remove(int i)
+  {
+    m_counts[m_health[i]]--;
+    int last = --m_size;
+    m_ids[i] = m_ids[last];
+    m_x[i] = m_x[last];
+    m_y[i] = m_y[last];
+    m_vx[i] = m_vx[last];
+    m_vy[i] = m_vy[last];
+    m_radius[i] = m_radius[last];
+    m_fixed[i] = m_fixed[last];
+    m_health[i] = m_health[last];
+    m_keys[i] = m_keys[last];
+    m_ticks[i] = m_ticks[last];
+  }
+
+  /**
+   * Writes the patients of the strip
+   * @param out The stream to write to
+   * @throws IOException If the stream cannot be written
+   */
+  public void writePatients(/*@ non_null @*/ DataOutputStream out) throws IOException
+  {
+    out.writeInt(m_size);
+    for (int i = 0; i < m_size; i++)
+    {
+      writePatient(out, i);
+    }
+  }
+
+  /**
+   * Reads patients and adds them to the strip
+   * @param in The stream to read from
+   * @throws IOException If the stream cannot be read
+   */
+  public void readPatients(/*@ non_null @*/ DataInputStream in) throws IOException
+  {
+    int n = in.readInt();
+    for (int k = 0; k < n; k++)
+    {
+      add(in.readInt(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+          in.readDouble(), in.readBoolean(), in.readByte(), in.readInt(), in.readShort());
+    }
+  }
+
+  /**
+   * Writes the patients that have crossed one of the borders of the strip,
+   * and removes them from the strip
+   * @param out The stream to write to
+   * @param left <tt>true</tt> for the patients that have crossed the left
+   * border, <tt>false</tt> for those that have crossed the right border
+   * @throws IOException If the stream cannot be written
+   */
+  public void writeEmigrants(/*@ non_null @*/ DataOutputStream out, boolean left) throws IOException
+  {
+    int n = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      if (left ? m_x[i] < m_left : m_x[i] >= m_right)
+      {
+        n++;
+      }
+    }
+    out.writeInt(n);
+    int i = 0;
+    while (i < m_size)
+    {
+      if (left ? m_x[i] < m_left : m_x[i] >= m_right)
+      {
+        writePatient(out, i);
+        // The last patient of the strip takes the place of this one
+        remove(i);
+      }
+      else
+      {
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Empties the halo of the strip
+   */
+  public void clearHalo()
+  {
+    m_haloSize = 0;
+  }
+
+  /**
+   * Writes the patients of the strip that lie within one contact distance
+   * of one of its borders, as the halo of the neighbouring strip
+   * @param out The stream to write to
+   * @param left <tt>true</tt> for the patients close to the left border,
+   * <tt>false</tt> for those close to the right border
+   * @throws IOException If the stream cannot be written
+   */
+  public void writeHalo(/*@ non_null @*/ DataOutputStream out, boolean left) throws IOException
+  {
+    int n = 0;
+    for (int i = 0; i < m_size; i++)
+    {
+      if (inHalo(i, left))
+      {
+        n++;
+      }
+    }
+    out.writeInt(n);
+    for (int i = 0; i < m_size; i++)
+    {
+      if (inHalo(i, left))
+      {
+        out.writeDouble(m_x[i]);
+        out.writeDouble(m_y[i]);
+        out.writeDouble(m_vx[i]);
+        out.writeDouble(m_vy[i]);
+        out.writeDouble(m_radius[i]);
+        out.writeByte(m_health[i]);
+      }
+    }
+  }
+
+  /**
+   * Reads patients of a neighbouring strip and adds them to the halo
+   * @param in The stream to read from
+   * @throws IOException If the stream cannot be read
+   */
+  public void readHalo(/*@ non_null @*/ DataInputStream in) throws IOException
+  {
+    int n = in.readInt();
+    if (m_haloSize + n > m_haloX.length)
+    {
+      int capacity = Math.max(m_haloSize + n, 2 * m_haloX.length);
+      m_haloX = Arrays.copyOf(m_haloX, capacity);
+      m_haloY = Arrays.copyOf(m_haloY, capacity);
+      m_haloVx = Arrays.copyOf(m_haloVx, capacity);
+      m_haloVy = Arrays.copyOf(m_haloVy, capacity);
+      m_haloRadius = Arrays.copyOf(m_haloRadius, capacity);
+      m_haloHealth = Arrays.copyOf(m_haloHealth, capacity);
+    }
+    for (int k = 0; k < n; k++)
+    {
+      int h = m_haloSize++;
+      m_haloX[h] = in.readDouble();
+      m_haloY[h] = in.readDouble();
+      m_haloVx[h] = in.readDouble();
+      m_haloVy[h] = in.readDouble();
+      m_haloRadius[h] = in.readDouble();
+      m_haloHealth[h] = in.readByte();
+    }
+  }
+
+  /**
+   * Determines if a patient lies within one contact distance of one of
+   * the borders of the strip
+   * @param i The index of the patient
+   * @param left <tt>true</tt> for the left border, <tt>false</tt> for the
+   * right border
+   * @return <tt>true</tt> if the patient is close to the border,
+   * <tt>false</tt> otherwise
+   */
+  protected boolean inHalo(int i, boolean left)
+  {
+    return left ? m_x[i] < m_left + m_margin : m_x[i] >= m_right - m_margin;
+  }
+
+  /**
+   * Writes a patient of the strip
+   * @param out The stream to write to
+   * @param i The index of the patient
+   * @throws IOException If the stream cannot be written
+   */
+  protected void writePatient(/*@ non_null @*/ DataOutputStream out, int i) throws IOException
+  {
+    out.writeInt(m_ids[i]);
+    out.writeDouble(m_x[i]);
+    out.writeDouble(m_y[i]);
+    out.writeDouble(m_vx[i]);
+    out.writeDouble(m_vy[i]);
+    out.writeDouble(m_radius[i]);
+    out.writeBoolean(m_fixed[i]);
+    out.writeByte(m_health[i]);
+    out.writeInt(m_keys[i]);
+    out.writeShort(m_ticks[i]);
+  }
+
+  /**
+   * Checks if a patient collides with one of the walls of the arena, and
+   * updates its position and velocity accordingly
+   * @param i The index of the patient
+   */
+  protected void bounceOffWalls(int i)
+  {
+    double r = m_radius[i];
+    if (m_x[i] - r < 0)
+    {
+      m_x[i] = r;
+      m_vx[i] = -(m_vx[i] * Ball.s_restitution);
+      m_vy[i] = m_vy[i] * Ball.s_restitution;
+    }
+    else if (m_x[i] + r > m_width)
+    {
+      m_x[i] = m_width - r;
+      m_vx[i] = -(m_vx[i] * Ball.s_restitution);
+      m_vy[i] = m_vy[i] * Ball.s_restitution;
+    }
+    if (m_y[i] - r < 0)
+    {
+      m_y[i] = r;
+      m_vy[i] = -(m_vy[i] * Ball.s_restitution);
+      m_vx[i] = m_vx[i] * Ball.s_restitution;
+    }
+    else if (m_y[i] + r > m_height)
+    {
+      m_y[i] = m_height - r;
+      m_vy[i] = -(m_vy[i] * Ball.s_restitution);
+      m_vx[i] = m_vx[i] * Ball.s_restitution;
+    }
+  }
+
+  /**
+   * Manages the interaction between two patients of the strip: elastic
+   * collision response, followed by the transmission of the virus if one
+   * of them is infected
+   * @param i The index of the first patient
+   * @param j The index of the second patient
+   * @return <tt>true</tt> if the two patients are in contact,
+   * <tt>false</tt> otherwise
+   */
+  protected boolean interact(int i, int j)
+  {
+    double dx = m_x[i] - m_x[j], dy = m_y[i] - m_y[j];
+    double r = m_radius[i] + m_radius[j];
+    double dist2 = dx * dx + dy * dy;
+    if (dist2 > r * r)
+    {
+      // No collision
+      return false;
+    }
+    double d = Math.sqrt(dist2);
+    if (d == 0.0d)
+    {
+      // Special case. Patients are exactly on top of each other.
+      d = r - 1.0f;
+      dx = r;
+      dy = 0;
+    }
+    // Minimum translation distance to push patients apart
+    double scale = (r - d) / d;
+    double mtd_x = dx * scale, mtd_y = dy * scale;
+    // Push-pull them apart (both patients have the same mass)
+    m_x[i] += mtd_x * 0.5;
+    m_y[i] += mtd_y * 0.5;
+    m_x[j] -= mtd_x * 0.5;
+    m_y[j] -= mtd_y * 0.5;
+    // Impact speed along the normal
+    double len = Math.sqrt(mtd_x * mtd_x + mtd_y * mtd_y);
+    double n_x = 0, n_y = 0;
+    if (len != 0)
+    {
+      n_x = mtd_x / len;
+      n_y = mtd_y / len;
+    }
+    double vn = (m_vx[i] - m_vx[j]) * n_x + (m_vy[i] - m_vy[j]) * n_y;
+    if (!(vn > 0.0f))
+    {
+      // Collision impulse and change in momentum
+      double imp = (-(1.0f + Ball.s_restitution) * vn) / 2f;
+      m_vx[i] += n_x * imp;
+      m_vy[i] += n_y * imp;
+      m_vx[j] -= n_x * imp;
+      m_vy[j] -= n_y * imp;
+    }
+    // Contagion
+    if (m_health[j] == INFECTED)
+    {
+      infect(i);
+    }
+    if (m_health[i] == INFECTED)
+    {
+      infect(j);
+    }
+    return true;
+  }
+
+  /**
+   * Manages the interaction between a patient of the strip and a patient
+   * of the halo. The computation is the same as in
+   * {@link #interact(int, int)}, but only the patient of the strip is
+   * changed.
+   * @param i The index of the patient of the strip
+   * @param h The index of the patient of the halo
+   * @return <tt>true</tt> if the two patients are in contact,
+   * <tt>false</tt> otherwise
+   */
+  protected boolean interactWithHalo(int i, int h)
+  {
+    double dx = m_x[i] - m_haloX[h], dy = m_y[i] - m_haloY[h];
+    double r = m_radius[i] + m_haloRadius[h];
+    double dist2 = dx * dx + dy * dy;
+    if (dist2 > r * r)
+    {
+      // No collision
+      return false;
+    }
+    double d = Math.sqrt(dist2);
+    if (d == 0.0d)
+    {
+      // Special case. Patients are exactly on top of each other.
+      d = r - 1.0f;
+      dx = r;
+      dy = 0;
+    }
+    double scale = (r - d) / d;
+    double mtd_x = dx * scale, mtd_y = dy * scale;
+    m_x[i] += mtd_x * 0.5;
+    m_y[i] += mtd_y * 0.5;
+    double len = Math.sqrt(mtd_x * mtd_x + mtd_y * mtd_y);
+    double n_x = 0, n_y = 0;
+    if (len != 0)
+    {
+      n_x = mtd_x / len;
+      n_y = mtd_y / len;
+    }
+    double vn = (m_vx[i] - m_haloVx[h]) * n_x + (m_vy[i] - m_haloVy[h]) * n_y;
+    if (!(vn > 0.0f))
+    {
+      double imp = (-(1.0f + Ball.s_restitution) * vn) / 2f;
+      m_vx[i] += n_x * imp;
+      m_vy[i] += n_y * imp;
+    }
+    // The patient of the halo is infected by its own strip
+    if (m_haloHealth[h] == INFECTED)
+    {
+      infect(i);
+    }
+    return true;
+  }
+
+  /**
+   * Sets a patient of the strip as infected, if it is currently healthy
+   * @param i The index of the patient
+   */
+  protected void infect(int i)
+  {
+    if (m_health[i] == HEALTHY)
+    {
+      m_health[i] = INFECTED;
+      m_counts[HEALTHY]--;
+      m_counts[INFECTED]++;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import virussim.Patient.Health;
+import virussim.Scenario;
+
+/**
+ * A process computing one vertical strip of a
+ * {@link virussim.DistributedArena DistributedArena}. The worker is
+ * started by the arena with the address of a socket to connect to, and
+ * receives from it the bounds of its strip, the arguments of the
+ * scenario and the patients of the strip. It then connects to the worker
+ * of the strip on its right, accepts the connection of the worker of the
+ * strip on its left, and computes a step each time the arena asks for
+ * one.
+ * <p>
+ * The exchanges between neighbours always go the same way: a worker first
+ * writes to its right neighbour and reads its answer, then reads from its
+ * left neighbour and answers it. The worker of the rightmost strip starts
+ * by reading, so that no two workers ever wait for each other.
+ */
+public class Worker
+{
+  /**
+   * The command asking for the computation of a step
+   */
+  public static final byte STEP = 1;
+
+  /**
+   * The command asking for the patients of the strip
+   */
+  public static final byte PATIENTS = 2;
+
+  /**
+   * The command stopping the worker
+   */
+  public static final byte STOP = 3;
+
+  /**
+   * The patients of the strip
+   */
+  /*@ non_null @*/ protected final Partition m_partition;
+
+  /**
+   * The stream to read the commands of the arena from
+   */
+  /*@ non_null @*/ protected final DataInputStream m_in;
+
+  /**
+   * The stream to write the answers to the arena to
+   */
+  /*@ non_null @*/ protected final DataOutputStream m_out;
+
+  /**
+   * The stream to read from the worker of the strip on the left, or
+   * <tt>null</tt> if this strip is the leftmost
+   */
+  protected DataInputStream m_leftIn = null;
+
+  /**
+   * The stream to write to the worker of the strip on the left, or
+   * <tt>null</tt> if this strip is the leftmost
+   */
+  protected DataOutputStream m_leftOut = null;
+
+  /**
+   * The stream to read from the worker of the strip on the right, or
+   * <tt>null</tt> if this strip is the rightmost
+   */
+  protected DataInputStream m_rightIn = null;
+
+  /**
+   * The stream to write to the worker of the strip on the right, or
+   * <tt>null</tt> if this strip is the rightmost
+   */
+  protected DataOutputStream m_rightOut = null;
+
+  /**
+   * An array where the counts of the strip are copied
+   */
+  /*@ non_null @*/ protected final int[] m_counts = new int[Health.values().length];
+
+  /**
+   * Starts a worker
+   * @param args The address and the port of the socket of the arena
+   * @throws IOException If the arena or another worker cannot be reached
+   */
+  public static void main(String[] args) throws IOException
+  {
+    Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+    socket.setTcpNoDelay(true);
+    Worker w = new Worker(socket);
+    w.run();
+    socket.close();
+  }
+
+  /**
+   * Creates a worker, reads the strip it computes and connects it to its
+   * neighbours
+   * @param socket The connection to the arena
+   * @throws IOException If the arena or another worker cannot be reached
+   */
+  public Worker(/*@ non_null @*/ Socket socket) throws IOException
+  {
+    super();
+    m_in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    m_out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    int index = m_in.readInt();
+    m_in.readInt(); // Number of workers
+    double width = m_in.readDouble();
+    double height = m_in.readDouble();
+    double left = m_in.readDouble();
+    double right = m_in.readDouble();
+    double margin = m_in.readDouble();
+    String[] arguments = new String[m_in.readInt()];
+    for (int i = 0; i < arguments.length; i++)
+    {
+      arguments[i] = m_in.readUTF();
+    }
+    Scenario s = new Scenario();
+    s.parse(arguments);
+    m_partition = new Partition(width, height, left, right, margin, s.createHealthModel());
+    m_partition.readPatients(m_in);
+    // Connect to the neighbours; a connection is accepted by the system
+    // before the call to accept, so connecting first cannot block
+    ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    m_out.writeInt(server.getLocalPort());
+    m_out.flush();
+    int right_port = m_in.readInt();
+    if (right_port >= 0)
+    {
+      Socket s_right = new Socket(InetAddress.getLoopbackAddress(), right_port);
+      s_right.setTcpNoDelay(true);
+      m_rightIn = new DataInputStream(new BufferedInputStream(s_right.getInputStream()));
+      m_rightOut = new DataOutputStream(new BufferedOutputStream(s_right.getOutputStream()));
+    }
+    if (index > 0)
+    {
+      Socket s_left = server.accept();
+      s_left.setTcpNoDelay(true);
+      m_leftIn = new DataInputStream(new BufferedInputStream(s_left.getInputStream()));
+      m_leftOut = new DataOutputStream(new BufferedOutputStream(s_left.getOutputStream()));
+    }
+    server.close();
+  }
+
+  /**
+   * Answers the commands of the arena until it asks the worker to stop,
+   * or closes the connection
+   * @throws IOException If the arena or another worker cannot be reached
+   */
+  public void run() throws IOException
+  {
+    while (true)
+    {
+      byte command;
+      try
+      {
+        command = m_in.readByte();
+      }
+      catch (EOFException e)
+      {
+        return;
+      }
+      switch (command)
+      {
+      case STEP:
+        step();
+        break;
+      case PATIENTS:
+        m_partition.writePatients(m_out);
+        m_out.flush();
+        break;
+      default:
+        return;
+      }
+    }
+  }
+
+  /**
+   * Computes a step of the simulation in the strip, and sends the counts
+   * of the strip to the arena
+   * @throws IOException If the arena or another worker cannot be reached
+   */
+  protected void step() throws IOException
+  {
+    Partition p = m_partition;
+    p.move();
+    // Exchange the halos
+    p.clearHalo();
+    if (m_rightOut != null)
+    {
+      p.writeHalo(m_rightOut, false);
+      m_rightOut.flush();
+      p.readHalo(m_rightIn);
+    }
+    if (m_leftOut != null)
+    {
+      p.readHalo(m_leftIn);
+      p.writeHalo(m_leftOut, true);
+      m_leftOut.flush();
+    }
+    p.collide();
+    p.tick();
+    // Exchange the patients that crossed a border
+    if (m_rightOut != null)
+    {
+      p.writeEmigrants(m_rightOut, false);
+      m_rightOut.flush();
+      p.readPatients(m_rightIn);
+    }
+    if (m_leftOut != null)
+    {
+      p.readPatients(m_leftIn);
+      p.writeEmigrants(m_leftOut, true);
+      m_leftOut.flush();
+    }
+    p.getCounts(m_counts);
+    for (int c : m_counts)
+    {
+      m_out.writeInt(c);
+    }
+    m_out.writeLong(p.getPairTests());
+    m_out.writeLong(p.getContacts());
+    m_out.flush();
+  }
+}
@@ -0,0 +1,189 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.ensemble;
+
+import java.io.PrintStream;
+
+import virussim.Patient.Health;
+
+/**
+ * Aggregates the compartment curves of multiple replicas of a simulation.
+ * A curve gives, for a fixed number of samples in time, the number of
+ * patients in each health state. For each sample and each health state,
+ * this object maintains the running mean of the values seen, and an
+ * estimate of a few quantiles. Curves are added one at a time and are not
+ * kept, so the memory used does not depend on the number of replicas.
+ */
+public class CurveStatistics
+{
+  /**
+   * The number of health states
+   */
+  protected static final int NUM_STATES = Health.values().length;
+
+  /**
+   * The number of steps between two samples
+   */
+  protected final int m_interval;
+
+  /**
+   * The quantiles estimated for each sample
+   */
+  /*@ non_null @*/ protected final double[] m_quantiles;
+
+  /**
+   * The number of curves added so far
+   */
+  protected int m_count = 0;
+
+  /**
+   * The running mean of each sample and each health state
+   */
+  /*@ non_null @*/ protected final double[][] m_means;
+
+  /**
+   * The quantile estimators of each sample and each health state
+   */
+  /*@ non_null @*/ protected final P2Quantile[][][] m_estimators;
+
+  /**
+   * Creates a new empty set of statistics
+   * @param samples The number of samples in each curve
+   * @param interval The number of steps between two samples
+   * @param quantiles The quantiles to estimate, each between 0 and 1
+   */
+  public CurveStatistics(int samples, int interval, /*@ non_null @*/ double ... quantiles)
+  {
+    super();
+    m_interval = interval;
+    m_quantiles = quantiles;
+    m_means = new double[samples][NUM_STATES];
+    m_estimators = new P2Quantile[samples][NUM_STATES][quantiles.length];
+    for (int i = 0; i < samples; i++)
+    {
+      for (int s = 0; s < NUM_STATES; s++)
+      {
+        for (int q = 0; q < quantiles.length; q++)
+        {
+          m_estimators[i][s][q] = new P2Quantile(quantiles[q]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the curve of a replica to the statistics
+   * @param curve The curve, giving for each sample the number of patients
+   * in each health state (indexed by the ordinal of the state)
+   */
+  public void add(/*@ non_null @*/ int[][] curve)
+  {
+    m_count++;
+    for (int i = 0; i < m_means.length; i++)
+    {
+      for (int s = 0; s < NUM_STATES; s++)
+      {
+        int x = curve[i][s];
+        m_means[i][s] += (x - m_means[i][s]) / m_count;
+        for (P2Quantile e : m_estimators[i][s])
+        {
+          e.add(x);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the number of curves added so far
+   * @return The number of curves
+   */
+  public int getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * Gets the mean number of patients in a health state at a given sample
+   * @param sample The index of the sample
+   * @param h The health state
+   * @return The mean
+   */
+  public double getMean(int sample, /*@ non_null @*/ Health h)
+  {
+    return m_means[sample][h.ordinal()];
+  }
+
+  /**
+   * Gets the estimate of a quantile of the number of patients in a health
+   * state at a given sample
+   * @param sample The index of the sample
+   * @param h The health state
+   * @param q The index of the quantile, in the order given to the
+   * constructor
+   * @return The estimate
+   */
+  public double getQuantile(int sample, /*@ non_null @*/ Health h, int q)
+  {
+    return m_estimators[sample][h.ordinal()][q].getValue();
+  }
+
+  /**
+   * Prints the column names of the table produced by
+   * {@link #print(PrintStream, String)}
+   * @param out The stream where to print
+   * @param prefix The names of the columns that come before the
+   * statistics, separated by commas
+   */
+  public void printHeader(/*@ non_null @*/ PrintStream out, /*@ non_null @*/ String prefix)
+  {
+    out.print(prefix);
+    out.print("t");
+    for (Health h : Health.values())
+    {
+      out.print("," + h + "_mean");
+      for (double q : m_quantiles)
+      {
+        out.print("," + h + "_q" + q);
+      }
+    }
+    out.println();
+  }
+
+  /**
+   * Prints the statistics as a CSV table, with one line per sample
+   * @param out The stream where to print
+   * @param prefix A string printed at the beginning of each line
+   */
+  public void print(/*@ non_null @*/ PrintStream out, /*@ non_null @*/ String prefix)
+  {
+    for (int i = 0; i < m_means.length; i++)
+    {
+      out.print(prefix);
+      out.print((long) i * m_interval);
+      for (Health h : Health.values())
+      {
+        out.print("," + getMean(i, h));
+        for (int q = 0; q < m_quantiles.length; q++)
+        {
+          out.print("," + getQuantile(i, h, q));
+        }
+      }
+      out.println();
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.ensemble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import virussim.ArenaState;
+import virussim.Patient.Health;
+import virussim.Scenario;
+import virussim.picker.Seeds;
+
+/**
+ * Runs many replicas of a set of scenarios concurrently, and aggregates
+ * their compartment curves. Each scenario (a "point" of a parameter grid)
+ * is replicated a given number of times; replica <i>r</i> of a point uses
+ * a seed derived from the seed of the point and <i>r</i> with
+ * {@link Seeds#derive(long, long) Seeds.derive}, so that results are
+ * reproducible and do not depend on the number of threads.
+ * <p>
+ * Replicas are independent arenas run on a fixed-size thread pool. The
+ * curve of a replica is merged into the {@link CurveStatistics} of its
+ * point as soon as it and the replicas submitted before it are finished,
+ * and is then discarded. At most {@link #TASKS_PER_THREAD} replicas per
+ * thread are submitted and not yet merged at any time, and a replica only
+ * allocates its curve when it starts; the memory used therefore depends on
+ * the number of threads, not on the number of replicas.
+ * <p>
+ * Replicas are run with the {@link ArenaState} engine, which does not
+ * depend on the numbering of patient IDs (IDs are shared by all the arenas
+ * of a JVM), unless the scenario uses the
+ * {@link virussim.EpidemicArena EpidemicArena} or
+ * {@link virussim.FusedArena FusedArena} engine, which are also based on
+ * {@link ArenaState}.
+ */
+public class Ensemble
+{
+  /**
+   * The number of health states
+   */
+  protected static final int NUM_STATES = Health.values().length;
+
+  /**
+   * The number of replicas that can be submitted and not yet merged, for
+   * each thread of the pool
+   */
+  protected static final int TASKS_PER_THREAD = 2;
+
+  /**
+   * The scenarios to replicate
+   */
+  /*@ non_null @*/ protected final List<Scenario> m_points;
+
+  /**
+   * The number of replicas of each scenario
+   */
+  protected final int m_replicas;
+
+  /**
+   * The number of steps of each replica
+   */
+  protected final int m_steps;
+
+  /**
+   * The number of steps between two samples of a curve
+   */
+  protected final int m_interval;
+
+  /**
+   * The quantiles to estimate
+   */
+  /*@ non_null @*/ protected final double[] m_quantiles;
+
+  /**
+   * Creates a new ensemble
+   * @param points The scenarios to replicate
+   * @param replicas The number of replicas of each scenario
+   * @param steps The number of steps of each replica
+   * @param interval The number of steps between two samples of a curve
+   * @param quantiles The quantiles to estimate, each between 0 and 1
+   */
+  public Ensemble(/*@ non_null @*/ List<Scenario> points, int replicas, int steps, int interval, /*@ non_null @*/ double ... quantiles)
+  {
+    super();
+    m_points = points;
+    m_replicas = replicas;
+    m_steps = steps;
+    m_interval = interval;
+    m_quantiles = quantiles;
+  }
+
+  /**
+   * Runs all the replicas of all the scenarios
+   * @param threads The number of replicas run at the same time
+   * @return The statistics of each scenario, in the same order as the
+   * list of scenarios given to the constructor
+   * @throws InterruptedException If the computation is interrupted
+   * @throws ExecutionException If a replica throws an exception
+   */
+  public List<CurveStatistics> run(int threads) throws InterruptedException, ExecutionException
+  {
+    int samples = m_steps / m_interval + 1;
+    List<CurveStatistics> stats = new ArrayList<CurveStatistics>(m_points.size());
+    for (int i = 0; i < m_points.size(); i++)
+    {
+      stats.add(new CurveStatistics(samples, m_interval, m_quantiles));
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try
+    {
+      CompletionService<Replica> service = new ExecutorCompletionService<Replica>(pool);
+      int total = m_points.size() * m_replicas;
+      int limit = threads * TASKS_PER_THREAD;
+      int submitted = 0;
+      // Replicas are merged in the order they were submitted, so that the
+      // statistics do not depend on the scheduling of the threads
+      Map<Integer,Replica> pending = new HashMap<Integer,Replica>();
+      int next = 0;
+      while (next < total)
+      {
+        // The replicas submitted and not yet merged are either running or
+        // waiting in the pending map
+        while (submitted < total && submitted - next < limit)
+        {
+          service.submit(new Replica(submitted / m_replicas, submitted % m_replicas, samples));
+          submitted++;
+        }
+        Future<Replica> f = service.take();
+        Replica rep = f.get();
+        pending.put(rep.m_point * m_replicas + rep.m_replica, rep);
+        while (pending.containsKey(next))
+        {
+          rep = pending.remove(next++);
+          stats.get(rep.m_point).add(rep.m_curve);
+        }
+      }
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+    return stats;
+  }
+
+  /**
+   * The computation of a single replica of a scenario
+   */
+  protected class Replica implements Callable<Replica>
+  {
+    /**
+     * The index of the scenario
+     */
+    protected final int m_point;
+
+    /**
+     * The index of the replica
+     */
+    protected final int m_replica;
+
+    /**
+     * The number of samples in the curve
+     */
+    protected final int m_samples;
+
+    /**
+     * The curve of the replica, created and filled when the replica is
+     * run
+     */
+    protected int[][] m_curve = null;
+
+    /**
+     * Creates a new replica
+     * @param point The index of the scenario
+     * @param replica The index of the replica
+     * @param samples The number of samples in the curve
+     */
+    public Replica(int point, int replica, int samples)
+    {
+      super();
+      m_point = point;
+      m_replica = replica;
+      m_samples = samples;
+    }
+
+    @Override
+    public Replica call()
+    {
+      Scenario s = m_points.get(m_point).duplicate();
+      s.setSeed(Seeds.derive(s.getSeed(), m_replica));
+      // The replicas already keep every thread of the pool busy
+      s.set("threads", "1");
+      if (!s.getEngine().equals(Scenario.ENGINE_EPIDEMIC) && !s.getEngine().equals(Scenario.ENGINE_FUSED))
+      {
+        s.set("engine", Scenario.ENGINE_SOA);
+      }
+      ArenaState arena = (ArenaState) s.createArena();
+      m_curve = new int[m_samples][NUM_STATES];
+      int sample = 0;
+      arena.countHealthStates(m_curve[sample++]);
+      for (int step = 1; sample < m_curve.length; step++)
+      {
+        if (m_curve[sample - 1][Health.INFECTED.ordinal()] == 0)
+        {
+          // Nobody is infected: the health states no longer change
+          System.arraycopy(m_curve[sample - 1], 0, m_curve[sample], 0, NUM_STATES);
+          sample++;
+          continue;
+        }
+        arena.update();
+        if (step % m_interval == 0)
+        {
+          arena.countHealthStates(m_curve[sample++]);
+        }
+      }
+      return this;
+    }
+  }
+}
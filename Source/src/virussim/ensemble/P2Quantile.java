@@ -0,0 +1,210 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.ensemble;
+
+/**
+ * Estimates a quantile of a stream of values without storing them, using
+ * the P<sup>2</sup> algorithm of Jain and Chlamtac (<i>Communications of
+ * the ACM</i> 28(10), 1985). The estimator keeps five markers whose
+ * heights are adjusted with a piecewise-parabolic interpolation as values
+ * come in; its memory footprint is constant. The value is exact as long as
+ * at most five values have been seen.
+ */
+public class P2Quantile
+{
+  /**
+   * The quantile to estimate, between 0 and 1
+   */
+  protected final double m_p;
+
+  /**
+   * The heights of the markers
+   */
+  /*@ non_null @*/ protected final double[] m_heights = new double[5];
+
+  /**
+   * The actual positions of the markers
+   */
+  /*@ non_null @*/ protected final int[] m_positions = new int[5];
+
+  /**
+   * The desired positions of the markers
+   */
+  /*@ non_null @*/ protected final double[] m_desired = new double[5];
+
+  /**
+   * The increments of the desired positions of the markers
+   */
+  /*@ non_null @*/ protected final double[] m_increments = new double[5];
+
+  /**
+   * The number of values seen so far
+   */
+  protected int m_count = 0;
+
+  /**
+   * Creates a new estimator
+   * @param p The quantile to estimate, between 0 and 1
+   */
+  public P2Quantile(double p)
+  {
+    super();
+    m_p = p;
+    m_desired[0] = 1;
+    m_desired[1] = 1 + 2 * p;
+    m_desired[2] = 1 + 4 * p;
+    m_desired[3] = 3 + 2 * p;
+    m_desired[4] = 5;
+    m_increments[0] = 0;
+    m_increments[1] = p / 2;
+    m_increments[2] = p;
+    m_increments[3] = (1 + p) / 2;
+    m_increments[4] = 1;
+  }
+
+  /**
+   * Adds a value to the stream
+   * @param x The value
+   */
+  public void add(double x)
+  {
+    if (m_count < 5)
+    {
+      // Insertion sort of the first five values
+      int i = m_count++;
+      while (i > 0 && m_heights[i - 1] > x)
+      {
+        m_heights[i] = m_heights[i - 1];
+        i--;
+      }
+      m_heights[i] = x;
+      if (m_count == 5)
+      {
+        for (int j = 0; j < 5; j++)
+        {
+          m_positions[j] = j + 1;
+        }
+      }
+      return;
+    }
+    m_count++;
+    // Find the cell containing x, and adjust the extreme markers
+    int k;
+    if (x < m_heights[0])
+    {
+      m_heights[0] = x;
+      k = 0;
+    }
+    else if (x >= m_heights[4])
+    {
+      m_heights[4] = x;
+      k = 3;
+    }
+    else
+    {
+      k = 0;
+      while (x >= m_heights[k + 1])
+      {
+        k++;
+      }
+    }
+    for (int i = k + 1; i < 5; i++)
+    {
+      m_positions[i]++;
+    }
+    for (int i = 0; i < 5; i++)
+    {
+      m_desired[i] += m_increments[i];
+    }
+    // Adjust the heights of the middle markers if necessary
+    for (int i = 1; i <= 3; i++)
+    {
+      double d = m_desired[i] - m_positions[i];
+      if ((d >= 1 && m_positions[i + 1] - m_positions[i] > 1)
+          || (d <= -1 && m_positions[i - 1] - m_positions[i] < -1))
+      {
+        int s = d >= 0 ? 1 : -1;
+        double h = parabolic(i, s);
+        if (m_heights[i - 1] < h && h < m_heights[i + 1])
+        {
+          m_heights[i] = h;
+        }
+        else
+        {
+          m_heights[i] = linear(i, s);
+        }
+        m_positions[i] += s;
+      }
+    }
+  }
+
+  /**
+   * Gets the current estimate of the quantile
+   * @return The estimate, or {@link Double#NaN} if no value has been seen
+   */
+  public double getValue()
+  {
+    if (m_count == 0)
+    {
+      return Double.NaN;
+    }
+    if (m_count <= 5)
+    {
+      // Exact quantile of the values seen, by linear interpolation
+      double pos = m_p * (m_count - 1);
+      int lo = (int) Math.floor(pos);
+      int hi = Math.min(lo + 1, m_count - 1);
+      return m_heights[lo] + (pos - lo) * (m_heights[hi] - m_heights[lo]);
+    }
+    return m_heights[2];
+  }
+
+  /**
+   * Gets the number of values seen so far
+   * @return The number of values
+   */
+  public int getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * Computes the piecewise-parabolic prediction of the height of a marker
+   * @param i The index of the marker
+   * @param s The direction of the adjustment (-1 or 1)
+   * @return The predicted height
+   */
+  protected double parabolic(int i, int s)
+  {
+    double n_prev = m_positions[i - 1], n = m_positions[i], n_next = m_positions[i + 1];
+    return m_heights[i] + s / (n_next - n_prev)
+        * ((n - n_prev + s) * (m_heights[i + 1] - m_heights[i]) / (n_next - n)
+            + (n_next - n - s) * (m_heights[i] - m_heights[i - 1]) / (n - n_prev));
+  }
+
+  /**
+   * Computes the linear prediction of the height of a marker
+   * @param i The index of the marker
+   * @param s The direction of the adjustment (-1 or 1)
+   * @return The predicted height
+   */
+  protected double linear(int i, int s)
+  {
+    return m_heights[i] + s * (m_heights[i + s] - m_heights[i]) / (m_positions[i + s] - m_positions[i]);
+  }
+}
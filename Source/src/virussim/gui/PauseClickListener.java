@@ -0,0 +1,74 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.gui;
+
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+
+import virussim.cep.SimulationLoop;
+
+/**
+ * Click listener that pauses and resumes a {@link SimulationLoop}
+ */
+public class PauseClickListener implements MouseListener
+{
+  /**
+   * The loop to pause and resume when the mouse is clicked
+   */
+  /*@ non_null @*/ protected final SimulationLoop m_loop;
+
+  /**
+   * Creates a new listener
+   * @param loop The loop to pause and resume when the mouse is clicked
+   */
+  public PauseClickListener(/*@ non_null @*/ SimulationLoop loop)
+  {
+    super();
+    m_loop = loop;
+  }
+
+  @Override
+  public void mouseClicked(MouseEvent e)
+  {
+    m_loop.setPaused(!m_loop.isPaused());
+  }
+
+  @Override
+  public void mousePressed(MouseEvent e)
+  {
+    // Nothing to do
+  }
+
+  @Override
+  public void mouseReleased(MouseEvent e)
+  {
+    // Nothing to do
+  }
+
+  @Override
+  public void mouseEntered(MouseEvent e)
+  {
+    // Nothing to do
+  }
+
+  @Override
+  public void mouseExited(MouseEvent e)
+  {
+    // Nothing to do
+  }
+}
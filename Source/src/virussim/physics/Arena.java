@@ -17,8 +17,9 @@
  */
 package virussim.physics;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.Map;
 
 /**
@@ -30,7 +31,14 @@ import java.util.Map;
 public class Arena
 {
   /**
-   * The set of players in the arena
+   * The balls in the arena, sorted by ID. In the computation of a step, a
+   * ball is designated by its index in this array.
+   */
+  /*@ non_null @*/ protected Ball[] m_array;
+
+  /**
+   * A map between ball IDs and balls, as returned by {@link #getBalls()}.
+   * In this class it is an unmodifiable view of {@link #m_array}.
    */
   /*@ non_null @*/ protected Map<Integer,Ball> m_balls;
 
@@ -44,22 +52,99 @@ public class Arena
    */
   protected double m_height;
 
+  /**
+   * Whether to use a spatial hash to find the pairs of balls that may
+   * be in contact
+   */
+  protected boolean m_useGrid = true;
+
+  /**
+   * The spatial hash used to find the pairs of balls that may be in
+   * contact. It is created on the first call to {@link #update()}.
+   */
+  protected UniformGrid m_grid = null;
+
+  /**
+   * A list used to collect the candidates for a collision with a given
+   * ball
+   */
+  /*@ non_null @*/ protected IntList m_candidates = new IntList();
+
+  /**
+   * The metrics updated at each step, or <tt>null</tt> to take no
+   * measurement
+   */
+  protected StepMetrics m_metrics = null;
+
+  /**
+   * The number of pairs of balls tested during the current step. The
+   * counts are kept in the arena and added to the metrics once, at the end
+   * of the step.
+   */
+  protected long m_pairTests = 0;
+
+  /**
+   * The number of contacts found during the current step
+   */
+  protected long m_contacts = 0;
+
+  /**
+   * The listener notified of each contact between two balls, or
+   * <tt>null</tt> to notify no one
+   */
+  protected ContactListener m_contactListener = null;
+
+  /**
+   * The largest number of substeps in which a step can be divided
+   */
+  protected int m_maxSubsteps = 1;
+
+  /**
+   * Whether contacts are found by sweeping the balls along their
+   * trajectory, instead of only looking at their final positions
+   */
+  protected boolean m_continuous = false;
+
+  /**
+   * The spatial hash used to find the pairs of balls whose trajectories
+   * may cross during a substep
+   */
+  protected UniformGrid m_sweepGrid = null;
+
+  /**
+   * The impacts found during a substep
+   */
+  /*@ non_null @*/ protected ImpactList m_impacts = new ImpactList();
+
+  /**
+   * The moment of the impact of each ball during the current substep, or
+   * -1 for balls that had no impact
+   */
+  /*@ non_null @*/ protected double[] m_impactTimes = new double[0];
+
   /**
    * Creates a new arena
    * @param width The width of the arena
    * @param height The height of the arena
-   * @param balls The collection of players to put inside the arena
+   * @param balls The collection of players to put inside the arena. The
+   * balls are handled in ascending order of ID, whatever the order of the
+   * collection.
+   * @throws IllegalArgumentException If two balls have the same ID
    */
   public Arena(int width, int height, /*@ non_null @*/ Collection<? extends Ball> balls)
   {
     super();
     m_width = width;
     m_height = height;
-    m_balls = new HashMap<Integer,Ball>(balls.size());
-    for (Ball b : balls)
-    {
-      m_balls.put(b.m_id, (Ball) b);
-    }
+    m_array = balls.toArray(new Ball[balls.size()]);
+    Arrays.sort(m_array, new Comparator<Ball>() {
+      @Override
+      public int compare(Ball b1, Ball b2)
+      {
+        return b1.m_id < b2.m_id ? -1 : (b1.m_id == b2.m_id ? 0 : 1);
+      }
+    });
+    m_balls = new BallMap(m_array);
   }
 
   /**
@@ -84,63 +169,650 @@ public class Arena
 
   /**
    * Gets the current state of each ball in the arena
-   * @return A map between ball IDs and ball instances
+   * @return A map between ball IDs and ball instances, which cannot be
+   * modified
    */
   public Map<Integer,Ball> getBalls()
   {
     return m_balls;
   }
 
+  /**
+   * Sets whether the arena uses a spatial hash to find the pairs of balls
+   * that may be in contact. When disabled, every ball is tested against
+   * every other ball, which takes a time quadratic in the number of balls.
+   * Both methods produce the same collisions.
+   * @param b <tt>true</tt> to use the spatial hash, <tt>false</tt> to
+   * test all pairs of balls
+   */
+  public void setSpatialHashing(boolean b)
+  {
+    m_useGrid = b;
+  }
+
+  /**
+   * Determines if the arena uses a spatial hash to find the pairs of balls
+   * that may be in contact
+   * @return <tt>true</tt> if the spatial hash is used, <tt>false</tt>
+   * otherwise
+   */
+  public boolean usesSpatialHashing()
+  {
+    return m_useGrid;
+  }
+
+  /**
+   * Sets the metrics updated at each step
+   * @param m The metrics, or <tt>null</tt> to take no measurement
+   */
+  public void setMetrics(StepMetrics m)
+  {
+    m_metrics = m;
+  }
+
+  /**
+   * Gets the metrics updated at each step
+   * @return The metrics, or <tt>null</tt> if no measurement is taken
+   */
+  public StepMetrics getMetrics()
+  {
+    return m_metrics;
+  }
+
+  /**
+   * Adds the pairs of balls tested and the contacts found during the
+   * current step to the metrics, if any, and resets both counts
+   */
+  protected void flushPairTests()
+  {
+    if (m_metrics != null)
+    {
+      m_metrics.pairTests(m_pairTests, m_contacts);
+    }
+    m_pairTests = 0;
+    m_contacts = 0;
+  }
+
+  /**
+   * Sets the listener notified of each contact between two balls. The
+   * listener sees the contacts handled by the arena, including those
+   * found by continuous collision detection; it does not change the
+   * outcome of the simulation.
+   * @param l The listener, or <tt>null</tt> to notify no one
+   */
+  public void setContactListener(ContactListener l)
+  {
+    m_contactListener = l;
+  }
+
+  /**
+   * Gets the listener notified of each contact between two balls
+   * @return The listener, or <tt>null</tt> if no one is notified
+   */
+  public ContactListener getContactListener()
+  {
+    return m_contactListener;
+  }
+
+  /**
+   * Sets the largest number of substeps in which a step can be divided.
+   * At each step, the arena chooses the number of substeps so that no
+   * ball moves by more than the radius of the smallest ball in a substep,
+   * which prevents two balls from going through each other. Balls move,
+   * bounce and collide at each substep, but their internal state is
+   * updated once per step. With a single substep (the default), a step is
+   * computed as a whole.
+   * @param n The number of substeps
+   * @throws IllegalArgumentException If the number is not positive
+   */
+  public void setMaxSubsteps(int n)
+  {
+    if (n < 1)
+    {
+      throw new IllegalArgumentException("The number of substeps must be positive");
+    }
+    m_maxSubsteps = n;
+  }
+
+  /**
+   * Gets the largest number of substeps in which a step can be divided
+   * @return The number of substeps
+   */
+  public int getMaxSubsteps()
+  {
+    return m_maxSubsteps;
+  }
+
+  /**
+   * Sets whether contacts are found by sweeping the balls along their
+   * trajectory. When enabled, the arena computes for each pair of nearby
+   * balls the moment during the (sub)step at which they first touch, and
+   * handles these impacts in chronological order before moving the balls
+   * to their final position: two fast balls that cross each other's path
+   * within a step are therefore seen in contact, even if they do not
+   * overlap at the end of the step. A ball takes part in at most one
+   * impact per substep; the overlaps that remain are handled as usual.
+   * @param b <tt>true</tt> to sweep the balls, <tt>false</tt> to only
+   * look at their final positions (the default)
+   */
+  public void setContinuousCollisions(boolean b)
+  {
+    m_continuous = b;
+  }
+
+  /**
+   * Determines if contacts are found by sweeping the balls along their
+   * trajectory
+   * @return <tt>true</tt> if the balls are swept, <tt>false</tt>
+   * otherwise
+   */
+  public boolean usesContinuousCollisions()
+  {
+    return m_continuous;
+  }
+
   /**
    * Updates the state of each ball in the arena
    */
   public void update()
   {
+    if (m_maxSubsteps > 1 || m_continuous)
+    {
+      updateInSubsteps();
+      return;
+    }
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
     // Step the position of movable objects based off their velocity/gravity and elapsedTime
-    for (int i = 0; i < m_balls.size(); i++)
+    for (int i = 0; i < m_array.length; i++)
     {
-      Ball p1 = m_balls.get(i);
+      Ball p1 = m_array[i];
       if (!p1.isFixed())
       {
-        p1.getPosition().setX(p1.getPosition().getX() + p1.getVelocity().getX());
-        p1.getPosition().setY(p1.getPosition().getY() + p1.getVelocity().getY());
+        p1.getPosition().addInPlace(p1.getVelocity());
+      }
+    }
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+    }
+    if (m_useGrid)
+    {
+      updateWithGrid();
+    }
+    else
+    {
+      long contacts = 0;
+      for (int i = 0; i < m_array.length; i++)
+      {
+        Ball p1 = m_array[i];
+        // Check for collision with walls
+        bounceOffWalls(p1);
+        // Player to player collision
+        for (int j = i + 1; j < m_array.length; j++)
+        {
+          Ball p2 = m_array[j];
+          if (p1.interactWith(p2))
+          {
+            contacts++;
+            if (m_contactListener != null)
+            {
+              m_contactListener.contact(p1.getId(), p2.getId());
+            }
+          }
+        }
+        p1.tick();
+      }
+      long size = m_array.length;
+      m_pairTests += size * (size - 1) / 2;
+      m_contacts += contacts;
+      if (metrics != null)
+      {
+        // Walls and ticks are handled ball by ball together with the
+        // collisions, and counted with them
+        metrics.lap(StepMetrics.Phase.PAIRS);
+      }
+    }
+    flushPairTests();
+    if (metrics != null)
+    {
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Handles the collisions with walls and between balls by only testing
+   * the pairs of balls located in the same or in neighbouring cells of
+   * a {@link UniformGrid}. The grid is kept up to date every time a ball
+   * is moved, and the candidates of a ball are collected again after each
+   * of its collisions. The pairs are therefore visited in exactly the same
+   * order, and with the same positions, as in the all-pairs loop of
+   * {@link #update()}.
+   */
+  protected void updateWithGrid()
+  {
+    int size = m_array.length;
+    if (m_grid == null)
+    {
+      // Cells are made very slightly larger than the largest contact
+      // distance, so that rounding errors cannot hide a contact
+      m_grid = new UniformGrid(m_width, m_height, 2 * getMaxRadius() * (1 + 1e-9), size);
+    }
+    m_grid.clear();
+    for (int i = 0; i < size; i++)
+    {
+      Vector2d pos = m_array[i].getPosition();
+      m_grid.insert(i, pos.getX(), pos.getY());
+    }
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+    for (int i = 0; i < size; i++)
+    {
+      Ball p1 = m_array[i];
+      // Check for collision with walls
+      bounceOffWalls(p1);
+      moved(i, p1);
+      // Player to player collision
+      collideWithGrid(i, p1);
+      p1.tick();
+    }
+    if (metrics != null)
+    {
+      // Walls and ticks are handled ball by ball together with the
+      // collisions, and counted with them
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+  }
+
+  /**
+   * Updates the state of each ball in the arena, as a sequence of
+   * substeps. Each substep moves the balls by a fraction of their
+   * velocity, or sweeps them if continuous collision detection is
+   * enabled, and then handles the collisions with walls and between
+   * balls. The internal state of the balls is updated at the end of the
+   * step.
+   */
+  protected void updateInSubsteps()
+  {
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    int n = countSubsteps();
+    double dt = 1d / n;
+    for (int s = 0; s < n; s++)
+    {
+      if (m_continuous)
+      {
+        sweep(dt);
+      }
+      else
+      {
+        moveBalls(dt);
+      }
+      if (metrics != null)
+      {
+        metrics.lap(StepMetrics.Phase.MOVE);
       }
+      collideAll();
     }
-    // Check for collision with walls
-    for (int i = 0; i < m_balls.size(); i++)
+    tickAll();
+    flushPairTests();
+    if (metrics != null)
     {
-      Ball p1 = m_balls.get(i);
-      if (p1.getPosition().getX() - p1.getRadius() < 0)
+      metrics.lap(StepMetrics.Phase.TICK);
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Computes the number of substeps of the current step, such that no
+   * ball moves by more than the radius of the smallest ball in a substep
+   * @return The number of substeps, between 1 and the maximum set with
+   * {@link #setMaxSubsteps(int)}
+   */
+  protected int countSubsteps()
+  {
+    double v = getMaxSpeed();
+    if (m_maxSubsteps <= 1 || v == 0)
+    {
+      return 1;
+    }
+    double r = getMinRadius();
+    if (r <= 0)
+    {
+      return m_maxSubsteps;
+    }
+    return (int) Math.min(m_maxSubsteps, Math.max(1, Math.ceil(v / r)));
+  }
+
+  /**
+   * Moves every movable ball by a fraction of its velocity
+   * @param dt The fraction
+   */
+  protected void moveBalls(double dt)
+  {
+    for (int i = 0; i < m_array.length; i++)
+    {
+      moveBall(m_array[i], dt);
+    }
+  }
+
+  /**
+   * Moves a ball by a fraction of its velocity, unless it is fixed
+   * @param b The ball
+   * @param dt The fraction
+   */
+  protected static void moveBall(/*@ non_null @*/ Ball b, double dt)
+  {
+    if (!b.isFixed())
+    {
+      b.getPosition().addScaled(b.getVelocity(), dt);
+    }
+  }
+
+  /**
+   * Moves every movable ball by a fraction of its velocity, handling the
+   * impacts between balls along the way. The moment at which each pair
+   * of nearby balls first touches is computed with
+   * {@link Ball#timeOfImpact(double, double, double, double, double)
+   * Ball.timeOfImpact()}; the impacts are then taken in chronological
+   * order, moving both balls to the point of impact and calling
+   * {@link Ball#impact(Ball)}. An impact involving a ball whose trajectory
+   * has already been changed by an earlier impact is skipped. Finally,
+   * every ball moves for the rest of the substep with its new velocity.
+   * @param dt The fraction of the velocity
+   */
+  protected void sweep(double dt)
+  {
+    int size = m_array.length;
+    // Two balls can touch if they are closer than their radii plus
+    // their displacements
+    double reach = 2 * (getMaxRadius() + getMaxSpeed() * dt) * (1 + 1e-9);
+    if (m_sweepGrid == null || m_sweepGrid.getCellSize() < reach)
+    {
+      m_sweepGrid = new UniformGrid(m_width, m_height, reach, size);
+    }
+    if (m_impactTimes.length < size)
+    {
+      m_impactTimes = new double[size];
+    }
+    m_sweepGrid.clear();
+    for (int i = 0; i < size; i++)
+    {
+      Vector2d pos = m_array[i].getPosition();
+      m_sweepGrid.insert(i, pos.getX(), pos.getY());
+    }
+    m_impacts.clear();
+    long tests = 0;
+    for (int i = 0; i < size; i++)
+    {
+      Ball p1 = m_array[i];
+      double x1 = p1.getPosition().getX(), y1 = p1.getPosition().getY();
+      double u1x = p1.isFixed() ? 0 : p1.getVelocity().getX() * dt;
+      double u1y = p1.isFixed() ? 0 : p1.getVelocity().getY() * dt;
+      m_candidates.clear();
+      m_sweepGrid.query(x1, y1, i, m_candidates);
+      m_candidates.sort();
+      for (int k = 0; k < m_candidates.size(); k++)
       {
-        p1.getPosition().setX(p1.getRadius()); // Place ball against edge
-        p1.getVelocity().setX(-(p1.getVelocity().getX() * Ball.s_restitution)); // Reverse direction and account for friction
-        p1.getVelocity().setY(p1.getVelocity().getY() * Ball.s_restitution);
+        int j = m_candidates.get(k);
+        Ball p2 = m_array[j];
+        double u2x = p2.isFixed() ? 0 : p2.getVelocity().getX() * dt;
+        double u2y = p2.isFixed() ? 0 : p2.getVelocity().getY() * dt;
+        double t = Ball.timeOfImpact(x1 - p2.getPosition().getX(), y1 - p2.getPosition().getY(),
+            u1x - u2x, u1y - u2y, p1.getRadius() + p2.getRadius());
+        tests++;
+        if (t > 0)
+        {
+          // Pairs already overlapping (t = 0) are left to the collisions
+          m_impacts.add(t, i, j);
+        }
       }
-      else if (p1.getPosition().getX() + p1.getRadius() > getWidth()) // Right Wall
+    }
+    m_impacts.sort();
+    Arrays.fill(m_impactTimes, 0, size, -1);
+    long contacts = 0;
+    for (int k = 0; k < m_impacts.size(); k++)
+    {
+      int i = m_impacts.getFirst(k), j = m_impacts.getSecond(k);
+      if (m_impactTimes[i] >= 0 || m_impactTimes[j] >= 0)
       {
-        p1.getPosition().setX(getWidth() - p1.getRadius());   // Place ball against edge
-        p1.getVelocity().setX(-(p1.getVelocity().getX() * Ball.s_restitution)); // Reverse direction and account for friction
-        p1.getVelocity().setY((p1.getVelocity().getY() * Ball.s_restitution));
+        continue;
       }
-      if (p1.getPosition().getY() - p1.getRadius() < 0)       // Top Wall
+      double t = m_impacts.getTime(k);
+      Ball p1 = m_array[i], p2 = m_array[j];
+      moveBall(p1, t * dt);
+      moveBall(p2, t * dt);
+      m_impactTimes[i] = t;
+      m_impactTimes[j] = t;
+      p1.impact(p2);
+      contacts++;
+      if (m_contactListener != null)
       {
-        p1.getPosition().setY(p1.getRadius());        // Place ball against edge
-        p1.getVelocity().setY(-(p1.getVelocity().getY() * Ball.s_restitution)); // Reverse direction and account for friction
-        p1.getVelocity().setX((p1.getVelocity().getX() * Ball.s_restitution));
+        m_contactListener.contact(p1.getId(), p2.getId());
       }
-      else if (p1.getPosition().getY() + p1.getRadius() > getHeight()) // Bottom Wall
+    }
+    for (int i = 0; i < size; i++)
+    {
+      double t = m_impactTimes[i];
+      moveBall(m_array[i], t < 0 ? dt : (1 - t) * dt);
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+
+  /**
+   * Handles the collisions of every ball with the walls and with the
+   * other balls, without updating their internal state
+   */
+  protected void collideAll()
+  {
+    int size = m_array.length;
+    StepMetrics metrics = m_metrics;
+    if (m_useGrid)
+    {
+      if (m_grid == null)
       {
-        p1.getPosition().setY(getHeight() - p1.getRadius());    // Place ball against edge
-        p1.getVelocity().setY(-(p1.getVelocity().getY() * Ball.s_restitution));    // Reverse direction and account for friction
-        p1.getVelocity().setX((p1.getVelocity().getX() * Ball.s_restitution));
+        // Same cell size as in updateWithGrid
+        m_grid = new UniformGrid(m_width, m_height, 2 * getMaxRadius() * (1 + 1e-9), size);
       }
-      // Player to player collision
-      for (int j = 1 + 1; j < m_balls.size(); j++)
+      m_grid.clear();
+      for (int i = 0; i < size; i++)
       {
-        Ball p2 = m_balls.get(j);
-        p1.interactWith(p2);
+        Vector2d pos = m_array[i].getPosition();
+        m_grid.insert(i, pos.getX(), pos.getY());
+      }
+      if (metrics != null)
+      {
+        metrics.lap(StepMetrics.Phase.PAIRS);
+      }
+    }
+    long tests = 0, contacts = 0;
+    for (int i = 0; i < size; i++)
+    {
+      Ball p1 = m_array[i];
+      bounceOffWalls(p1);
+      if (m_useGrid)
+      {
+        moved(i, p1);
+        collideWithGrid(i, p1);
+      }
+      else
+      {
+        tests += size - i - 1;
+        for (int j = i + 1; j < size; j++)
+        {
+          Ball p2 = m_array[j];
+          if (p1.interactWith(p2))
+          {
+            contacts++;
+            if (m_contactListener != null)
+            {
+              m_contactListener.contact(p1.getId(), p2.getId());
+            }
+          }
+        }
+      }
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+    if (metrics != null)
+    {
+      // Walls are handled together with the collisions and counted with them
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+  }
+
+  /**
+   * Updates the internal state of every ball for the next step
+   */
+  protected void tickAll()
+  {
+    for (int i = 0; i < m_array.length; i++)
+    {
+      m_array[i].tick();
+    }
+  }
+
+  /**
+   * Handles the collisions between a ball and the balls that come after
+   * it, using the spatial hash. The candidates of the ball are collected
+   * again after each of its collisions, since both balls involved have
+   * moved.
+   * @param i The index of the ball
+   * @param p1 The ball
+   */
+  protected void collideWithGrid(int i, /*@ non_null @*/ Ball p1)
+  {
+    int last = i;
+    int tests = 0, contacts = 0;
+    boolean collided = true;
+    while (collided)
+    {
+      collided = false;
+      m_candidates.clear();
+      m_grid.query(p1.getPosition().getX(), p1.getPosition().getY(), last, m_candidates);
+      m_candidates.sort();
+      for (int k = 0; k < m_candidates.size(); k++)
+      {
+        int j = m_candidates.get(k);
+        Ball p2 = m_array[j];
+        tests++;
+        if (p1.interactWith(p2))
+        {
+          contacts++;
+          if (m_contactListener != null)
+          {
+            m_contactListener.contact(p1.getId(), p2.getId());
+          }
+          // Both balls have moved: update the grid and look again for
+          // the candidates that come after p2
+          moved(i, p1);
+          moved(j, p2);
+          last = j;
+          collided = true;
+          break;
+        }
+      }
+    }
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+
+  /**
+   * Notifies the spatial hash that a ball has moved
+   * @param i The index of the ball
+   * @param b The ball
+   */
+  protected void moved(int i, /*@ non_null @*/ Ball b)
+  {
+    m_grid.move(i, b.getPosition().getX(), b.getPosition().getY());
+  }
+
+  /**
+   * Checks if a ball collides with one of the walls of the arena, and
+   * updates its position and velocity accordingly
+   * @param p1 The ball
+   */
+  protected void bounceOffWalls(/*@ non_null @*/ Ball p1)
+  {
+    if (p1.getPosition().getX() - p1.getRadius() < 0)
+    {
+      p1.getPosition().setX(p1.getRadius()); // Place ball against edge
+      p1.getVelocity().setX(-(p1.getVelocity().getX() * Ball.s_restitution)); // Reverse direction and account for friction
+      p1.getVelocity().setY(p1.getVelocity().getY() * Ball.s_restitution);
+    }
+    else if (p1.getPosition().getX() + p1.getRadius() > getWidth()) // Right Wall
+    {
+      p1.getPosition().setX(getWidth() - p1.getRadius());   // Place ball against edge
+      p1.getVelocity().setX(-(p1.getVelocity().getX() * Ball.s_restitution)); // Reverse direction and account for friction
+      p1.getVelocity().setY((p1.getVelocity().getY() * Ball.s_restitution));
+    }
+    if (p1.getPosition().getY() - p1.getRadius() < 0)       // Top Wall
+    {
+      p1.getPosition().setY(p1.getRadius());        // Place ball against edge
+      p1.getVelocity().setY(-(p1.getVelocity().getY() * Ball.s_restitution)); // Reverse direction and account for friction
+      p1.getVelocity().setX((p1.getVelocity().getX() * Ball.s_restitution));
+    }
+    else if (p1.getPosition().getY() + p1.getRadius() > getHeight()) // Bottom Wall
+    {
+      p1.getPosition().setY(getHeight() - p1.getRadius());    // Place ball against edge
+      p1.getVelocity().setY(-(p1.getVelocity().getY() * Ball.s_restitution));    // Reverse direction and account for friction
+      p1.getVelocity().setX((p1.getVelocity().getX() * Ball.s_restitution));
+    }
+  }
+
+  /**
+   * Gets the largest radius among the balls of the arena
+   * @return The radius
+   */
+  protected double getMaxRadius()
+  {
+    double r = 0;
+    for (Ball b : m_array)
+    {
+      r = Math.max(r, b.getRadius());
+    }
+    return r;
+  }
+
+  /**
+   * Gets the smallest radius among the balls of the arena
+   * @return The radius, or 0 if the arena is empty
+   */
+  protected double getMinRadius()
+  {
+    double r = Double.POSITIVE_INFINITY;
+    for (Ball b : m_array)
+    {
+      r = Math.min(r, b.getRadius());
+    }
+    return m_array.length == 0 ? 0 : r;
+  }
+
+  /**
+   * Gets the largest speed among the movable balls of the arena
+   * @return The speed
+   */
+  protected double getMaxSpeed()
+  {
+    double v2 = 0;
+    for (Ball b : m_array)
+    {
+      if (!b.isFixed())
+      {
+        double vx = b.getVelocity().getX(), vy = b.getVelocity().getY();
+        v2 = Math.max(v2, vx * vx + vy * vy);
       }
-      p1.tick();
     }
+    return Math.sqrt(v2);
   }
 }
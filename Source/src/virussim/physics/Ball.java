@@ -28,6 +28,11 @@ public class Ball
    */
   public static final double s_restitution = 1d;
 
+  /**
+   * The radius given to balls by default
+   */
+  public static final double DEFAULT_RADIUS = 5d;
+
   /**
    * A counter to give each player a unique ID
    */
@@ -51,13 +56,42 @@ public class Ball
   /**
    * The radius of the player when displayed as a ball
    */
-  protected double m_radius = 5d;
+  protected double m_radius = DEFAULT_RADIUS;
   
   /**
    * Whether this ball is fixed in the arena
    */
   protected boolean m_fixed = false;
   
+  /**
+   * Gets the ID that will be given to the next ball created
+   * @return The ID
+   */
+  public static int getNextId()
+  {
+    return s_idCounter;
+  }
+
+  /**
+   * Sets the ID that will be given to the next ball created. This is used
+   * when restoring a simulation, so that the balls created afterwards get
+   * the same IDs as in the original run.
+   * @param id The ID
+   */
+  public static void setNextId(int id)
+  {
+    s_idCounter = id;
+  }
+
+  /**
+   * Gets the ball's unique ID
+   * @return The ID
+   */
+  public int getId()
+  {
+    return m_id;
+  }
+  
   /**
    * Gets the player's radius when displayed as a ball
    * @return The radius
@@ -96,7 +130,8 @@ public class Ball
   }
   
   /**
-   * Sets the ball's position
+   * Sets the ball's position. The ball keeps the vector and modifies it
+   * as it moves; the vector should not be shared with another ball.
    * @param p The position
    */
   public void setPosition(/*@ non_null @*/ Vector2d p)
@@ -114,7 +149,8 @@ public class Ball
   }
   
   /**
-   * Sets the ball's velocity
+   * Sets the ball's velocity. The ball keeps the vector and modifies it
+   * when it bounces; the vector should not be shared with another ball.
    * @param v The velocity
    */
   public void setVelocity(/*@ non_null @*/ Vector2d v)
@@ -124,43 +160,56 @@ public class Ball
   
   /**
    * Manages the interaction between the current ball and
-   * another one
+   * another one. The position and velocity vectors of both balls are
+   * updated in place, and the method allocates no object.
    * @param p The other player
+   * @return <tt>true</tt> if the two balls are in contact, <tt>false</tt>
+   * otherwise
    */
   public boolean interactWith(Ball p)
   {
-    Vector2d delta = Vector2d.subtract(m_position, p.getPosition());
+    double dx = m_position.getX() - p.m_position.getX();
+    double dy = m_position.getY() - p.m_position.getY();
     double r = getRadius() + p.getRadius();
-    double dist2 = Vector2d.dotProduct(delta, delta);
+    double dist2 = dx * dx + dy * dy;
     if (dist2 > r * r)
     {
       // No collision
       return false;
     }
     // Update physics
-    double d = delta.getModulus();
-    Vector2d mtd;
+    double d = Math.sqrt(dist2);
+    // minimum translation distance to push balls apart after intersecting
+    double mtd_x, mtd_y;
     if (d != 0.0d)
     {
-      // minimum translation distance to push balls apart after intersecting
-      mtd = Vector2d.multiply(delta, ((getRadius() + p.getRadius())-d)/d);
+      double s = (r - d) / d;
+      mtd_x = dx * s;
+      mtd_y = dy * s;
     }
     else
     {
       // Special case. Balls are exactly on top of eachother.  Don't want to divide by zero.
-      d = p.getRadius() + getRadius() - 1.0f;
-      delta = new Vector2d(p.getRadius() + getRadius(), 0.0f);
-      mtd = Vector2d.multiply(delta, ((getRadius() + p.getRadius())-d)/d);
+      d = r - 1.0f;
+      double s = (r - d) / d;
+      mtd_x = r * s;
+      mtd_y = 0;
     }
     // resolve intersection
     float im1 = 1;
     float im2 = 1;
     // push-pull them apart
-    m_position = Vector2d.add(m_position, Vector2d.multiply(mtd, im1 / (im1 + im2)));
-    p.m_position = Vector2d.subtract(p.m_position, Vector2d.multiply(mtd, im2 / (im1 + im2)));
-    // impact speed
-    Vector2d v = Vector2d.subtract(m_velocity, p.m_velocity);
-    double vn = Vector2d.dotProduct(v, mtd.normalize());
+    m_position.addScaled(mtd_x, mtd_y, im1 / (im1 + im2));
+    p.m_position.addScaled(mtd_x, mtd_y, -(im2 / (im1 + im2)));
+    // impact speed, along the normal of the contact
+    double len = Math.sqrt(mtd_x * mtd_x + mtd_y * mtd_y);
+    double n_x = 0, n_y = 0;
+    if (len != 0f)
+    {
+      n_x = mtd_x / len;
+      n_y = mtd_y / len;
+    }
+    double vn = (m_velocity.getX() - p.m_velocity.getX()) * n_x + (m_velocity.getY() - p.m_velocity.getY()) * n_y;
     // sphere intersecting but moving away from each other already
     if (vn > 0.0f)
     {
@@ -168,13 +217,78 @@ public class Ball
     }
     // collision impulse
     double i = (-(1.0f + s_restitution) * vn) / (im1 + im2);
-    Vector2d impulse = Vector2d.multiply(mtd, i);
     // change in momentum
-    m_velocity = Vector2d.add(m_velocity, Vector2d.multiply(impulse, im1));
-    p.m_velocity = Vector2d.subtract(p.m_velocity, Vector2d.multiply(impulse, im2));
+    m_velocity.addScaled(n_x, n_y, i * im1);
+    p.m_velocity.addScaled(n_x, n_y, -(i * im2));
     return true;
   }
   
+  /**
+   * Manages an impact between the current ball and another one, found by
+   * continuous collision detection. The two balls are assumed to be
+   * touching; unlike {@link #interactWith(Ball)}, their positions are not
+   * changed, and only the normal components of their velocities are
+   * exchanged.
+   * @param p The other ball
+   */
+  public void impact(/*@ non_null @*/ Ball p)
+  {
+    double dx = m_position.getX() - p.m_position.getX();
+    double dy = m_position.getY() - p.m_position.getY();
+    double d = Math.sqrt(dx * dx + dy * dy);
+    if (d == 0)
+    {
+      return;
+    }
+    double n_x = dx / d, n_y = dy / d;
+    double vn = (m_velocity.getX() - p.m_velocity.getX()) * n_x + (m_velocity.getY() - p.m_velocity.getY()) * n_y;
+    if (vn < 0)
+    {
+      double imp = (-(1.0f + s_restitution) * vn) / 2f;
+      m_velocity.addScaled(n_x, n_y, imp);
+      p.m_velocity.addScaled(n_x, n_y, -imp);
+    }
+  }
+
+  /**
+   * Computes the moment at which two balls moving in a straight line
+   * first touch. The balls are described by the difference between their
+   * positions, and by the difference between their displacements during
+   * the period considered.
+   * @param dx The first coordinate of the difference between the positions
+   * @param dy The second coordinate of the difference between the positions
+   * @param ux The first coordinate of the difference between the
+   * displacements
+   * @param uy The second coordinate of the difference between the
+   * displacements
+   * @param r The sum of the radii of the two balls
+   * @return The fraction of the period after which the balls touch, 0 if
+   * they already overlap, or -1 if they do not touch during the period
+   */
+  public static double timeOfImpact(double dx, double dy, double ux, double uy, double r)
+  {
+    double c = dx * dx + dy * dy - r * r;
+    if (c <= 0)
+    {
+      return 0;
+    }
+    double a = ux * ux + uy * uy;
+    double b = dx * ux + dy * uy;
+    if (a == 0 || b >= 0)
+    {
+      // Not getting closer
+      return -1;
+    }
+    double disc = b * b - a * c;
+    if (disc < 0)
+    {
+      // The balls pass each other without touching
+      return -1;
+    }
+    double t = (-b - Math.sqrt(disc)) / a;
+    return t <= 1 ? t : -1;
+  }
+
   /**
    * Updates the internal state of the ball for the next iteration
    */
@@ -0,0 +1,235 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An unmodifiable map between ball IDs and balls, backed by an array of
+ * balls sorted by ID. The arena works on the array, where a ball is
+ * designated by its index; the map only exists for the code that looks
+ * up balls by ID or iterates over them, such as the processors that draw
+ * the arena. When the IDs are contiguous, as for a population created at
+ * once, a lookup is a subtraction; otherwise it is a binary search.
+ * Iterating over the map visits the balls in ascending order of ID.
+ * <p>
+ * The map reflects the array: the balls it returns are those currently
+ * in the array, and their state is the current state of the arena.
+ */
+public class BallMap extends AbstractMap<Integer,Ball>
+{
+  /**
+   * The balls, sorted by ID
+   */
+  /*@ non_null @*/ protected final Ball[] m_balls;
+
+  /**
+   * The ID of each ball of the array
+   */
+  /*@ non_null @*/ protected final int[] m_ids;
+
+  /**
+   * Whether the IDs are contiguous, in which case the index of a ball is
+   * its ID minus the first ID
+   */
+  protected final boolean m_contiguous;
+
+  /**
+   * The set of entries of the map, created on the first call to
+   * {@link #entrySet()}
+   */
+  protected Set<Map.Entry<Integer,Ball>> m_entries = null;
+
+  /**
+   * The collection of balls of the map, created on the first call to
+   * {@link #values()}
+   */
+  protected Collection<Ball> m_values = null;
+
+  /**
+   * Creates a new map
+   * @param balls The balls, sorted by ID. The array is not copied.
+   * @throws IllegalArgumentException If the balls are not sorted by ID,
+   * or if two balls have the same ID
+   */
+  public BallMap(/*@ non_null @*/ Ball[] balls)
+  {
+    super();
+    m_balls = balls;
+    m_ids = new int[balls.length];
+    for (int i = 0; i < balls.length; i++)
+    {
+      m_ids[i] = balls[i].getId();
+      if (i > 0 && m_ids[i] <= m_ids[i - 1])
+      {
+        throw new IllegalArgumentException("Balls must have distinct IDs and be sorted by ID");
+      }
+    }
+    m_contiguous = balls.length == 0 || m_ids[balls.length - 1] - m_ids[0] == balls.length - 1;
+  }
+
+  /**
+   * Gets the index of a ball in the array
+   * @param id The ID of the ball
+   * @return The index, or -1 if no ball has this ID
+   */
+  public int indexOf(int id)
+  {
+    if (m_contiguous)
+    {
+      int i = m_balls.length == 0 ? -1 : id - m_ids[0];
+      return i >= 0 && i < m_balls.length ? i : -1;
+    }
+    int i = Arrays.binarySearch(m_ids, id);
+    return i >= 0 ? i : -1;
+  }
+
+  @Override
+  public int size()
+  {
+    return m_balls.length;
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return m_balls.length == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    return key instanceof Integer && indexOf((Integer) key) >= 0;
+  }
+
+  @Override
+  public Ball get(Object key)
+  {
+    if (!(key instanceof Integer))
+    {
+      return null;
+    }
+    int i = indexOf((Integer) key);
+    return i < 0 ? null : m_balls[i];
+  }
+
+  @Override
+  public Collection<Ball> values()
+  {
+    if (m_values == null)
+    {
+      m_values = new AbstractCollection<Ball>() {
+        @Override
+        public Iterator<Ball> iterator()
+        {
+          return new BallIterator();
+        }
+
+        @Override
+        public int size()
+        {
+          return m_balls.length;
+        }
+      };
+    }
+    return m_values;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer,Ball>> entrySet()
+  {
+    if (m_entries == null)
+    {
+      m_entries = new AbstractSet<Map.Entry<Integer,Ball>>() {
+        @Override
+        public Iterator<Map.Entry<Integer,Ball>> iterator()
+        {
+          final BallIterator it = new BallIterator();
+          return new Iterator<Map.Entry<Integer,Ball>>() {
+            @Override
+            public boolean hasNext()
+            {
+              return it.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Integer,Ball> next()
+            {
+              Ball b = it.next();
+              return new AbstractMap.SimpleImmutableEntry<Integer,Ball>(b.getId(), b);
+            }
+
+            @Override
+            public void remove()
+            {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size()
+        {
+          return m_balls.length;
+        }
+      };
+    }
+    return m_entries;
+  }
+
+  /**
+   * An iterator over the balls of the array, in ascending order of ID
+   */
+  protected class BallIterator implements Iterator<Ball>
+  {
+    /**
+     * The index of the next ball
+     */
+    protected int m_next = 0;
+
+    @Override
+    public boolean hasNext()
+    {
+      return m_next < m_balls.length;
+    }
+
+    @Override
+    public Ball next()
+    {
+      if (m_next >= m_balls.length)
+      {
+        throw new NoSuchElementException();
+      }
+      return m_balls[m_next++];
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
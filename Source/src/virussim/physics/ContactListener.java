@@ -0,0 +1,37 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+/**
+ * An object notified of each contact between two balls handled by an
+ * {@link Arena}, given to the arena with
+ * {@link Arena#setContactListener(ContactListener)}. The listener is
+ * called by the thread computing the step, in the order in which the
+ * contacts are handled, right after the balls involved have been updated.
+ * It should return quickly, since it can be called millions of times per
+ * step.
+ */
+public interface ContactListener
+{
+  /**
+   * Signals a contact between two balls
+   * @param id1 The ID of the ball being visited
+   * @param id2 The ID of the other ball
+   */
+  public void contact(int id1, int id2);
+}
@@ -0,0 +1,200 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import java.util.Arrays;
+
+/**
+ * A list of impacts between pairs of balls during a step, each given by
+ * the fraction of the step at which it occurs. The impacts are stored in
+ * parallel arrays of primitive values, so that the list can be filled and
+ * sorted at every step without creating objects.
+ */
+public class ImpactList
+{
+  /**
+   * The moment of each impact
+   */
+  /*@ non_null @*/ protected double[] m_times;
+
+  /**
+   * The index of the first ball of each impact
+   */
+  /*@ non_null @*/ protected int[] m_first;
+
+  /**
+   * The index of the second ball of each impact
+   */
+  /*@ non_null @*/ protected int[] m_second;
+
+  /**
+   * The positions of the impacts, in the order given by {@link #sort()}
+   */
+  /*@ non_null @*/ protected int[] m_order;
+
+  /**
+   * An array used by the merge sort
+   */
+  /*@ non_null @*/ protected int[] m_scratch;
+
+  /**
+   * The number of impacts in the list
+   */
+  protected int m_size = 0;
+
+  /**
+   * Creates a new empty list
+   */
+  public ImpactList()
+  {
+    super();
+    m_times = new double[16];
+    m_first = new int[16];
+    m_second = new int[16];
+    m_order = new int[16];
+    m_scratch = new int[16];
+  }
+
+  /**
+   * Adds an impact at the end of the list
+   * @param t The moment of the impact
+   * @param i The index of the first ball
+   * @param j The index of the second ball
+   */
+  public void add(double t, int i, int j)
+  {
+    if (m_size == m_times.length)
+    {
+      int capacity = 2 * m_size;
+      m_times = Arrays.copyOf(m_times, capacity);
+      m_first = Arrays.copyOf(m_first, capacity);
+      m_second = Arrays.copyOf(m_second, capacity);
+      m_order = Arrays.copyOf(m_order, capacity);
+      m_scratch = new int[capacity];
+    }
+    m_times[m_size] = t;
+    m_first[m_size] = i;
+    m_second[m_size] = j;
+    m_order[m_size] = m_size;
+    m_size++;
+  }
+
+  /**
+   * Gets the number of impacts in the list
+   * @return The number of impacts
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Removes all the impacts of the list
+   */
+  public void clear()
+  {
+    m_size = 0;
+  }
+
+  /**
+   * Gets the moment of an impact
+   * @param k The position of the impact, in the order given by
+   * {@link #sort()}
+   * @return The moment
+   */
+  public double getTime(int k)
+  {
+    return m_times[m_order[k]];
+  }
+
+  /**
+   * Gets the index of the first ball of an impact
+   * @param k The position of the impact, in the order given by
+   * {@link #sort()}
+   * @return The index
+   */
+  public int getFirst(int k)
+  {
+    return m_first[m_order[k]];
+  }
+
+  /**
+   * Gets the index of the second ball of an impact
+   * @param k The position of the impact, in the order given by
+   * {@link #sort()}
+   * @return The index
+   */
+  public int getSecond(int k)
+  {
+    return m_second[m_order[k]];
+  }
+
+  /**
+   * Sorts the impacts by their moment. Impacts occurring at the same
+   * moment are sorted by the indices of their balls, so that the order
+   * does not depend on the order in which they were added.
+   */
+  public void sort()
+  {
+    int[] src = m_order, dst = m_scratch;
+    for (int width = 1; width < m_size; width *= 2)
+    {
+      for (int lo = 0; lo < m_size; lo += 2 * width)
+      {
+        int mid = Math.min(lo + width, m_size), hi = Math.min(lo + 2 * width, m_size);
+        int a = lo, b = mid;
+        for (int k = lo; k < hi; k++)
+        {
+          if (a < mid && (b >= hi || compare(src[a], src[b]) <= 0))
+          {
+            dst[k] = src[a++];
+          }
+          else
+          {
+            dst[k] = src[b++];
+          }
+        }
+      }
+      int[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+    m_order = src;
+    m_scratch = dst;
+  }
+
+  /**
+   * Compares two impacts
+   * @param x The position of the first impact, in the order they were
+   * added
+   * @param y The position of the second impact, in the order they were
+   * added
+   * @return A negative number, zero or a positive number if the first
+   * impact comes before, at the same place or after the second
+   */
+  protected int compare(int x, int y)
+  {
+    int c = Double.compare(m_times[x], m_times[y]);
+    if (c != 0)
+    {
+      return c;
+    }
+    c = Integer.compare(m_first[x], m_first[y]);
+    return c != 0 ? c : Integer.compare(m_second[x], m_second[y]);
+  }
+}
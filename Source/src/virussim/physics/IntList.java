@@ -0,0 +1,126 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive integers. Contrary to a
+ * <tt>List&lt;Integer&gt;</tt>, adding elements to this list does not box
+ * them, and clearing it keeps the underlying array so that it can be
+ * reused on the next simulation step without allocating.
+ */
+public class IntList
+{
+  /**
+   * The array containing the elements of the list
+   */
+  /*@ non_null @*/ protected int[] m_elements;
+
+  /**
+   * The number of elements in the list
+   */
+  protected int m_size = 0;
+
+  /**
+   * Creates a new empty list
+   * @param capacity The initial capacity of the list
+   */
+  public IntList(int capacity)
+  {
+    super();
+    m_elements = new int[Math.max(capacity, 4)];
+  }
+
+  /**
+   * Creates a new empty list with a default capacity
+   */
+  public IntList()
+  {
+    this(16);
+  }
+
+  /**
+   * Adds an element at the end of the list
+   * @param x The element
+   */
+  public void add(int x)
+  {
+    if (m_size == m_elements.length)
+    {
+      m_elements = Arrays.copyOf(m_elements, 2 * m_elements.length);
+    }
+    m_elements[m_size++] = x;
+  }
+
+  /**
+   * Gets the element at a given position in the list
+   * @param index The position
+   * @return The element
+   */
+  public int get(int index)
+  {
+    return m_elements[index];
+  }
+
+  /**
+   * Replaces the element at a given position in the list
+   * @param index The position
+   * @param x The new element
+   */
+  public void set(int index, int x)
+  {
+    m_elements[index] = x;
+  }
+
+  /**
+   * Gets the number of elements in the list
+   * @return The number of elements
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Removes all the elements of the list, without releasing its
+   * underlying storage
+   */
+  public void clear()
+  {
+    m_size = 0;
+  }
+
+  /**
+   * Keeps only the first elements of the list
+   * @param size The number of elements to keep, at most the size of the
+   * list
+   */
+  public void truncate(int size)
+  {
+    m_size = size;
+  }
+
+  /**
+   * Sorts the elements of the list in ascending order
+   */
+  public void sort()
+  {
+    Arrays.sort(m_elements, 0, m_size);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+/**
+ * A histogram of non-negative values whose buckets grow as powers of two:
+ * bucket <i>b</i> counts the values between 2<sup><i>b</i></sup> and
+ * 2<sup><i>b</i>+1</sup>-1 (bucket 0 also counts 0). Recording a value
+ * takes constant time and the histogram has a fixed size, which makes it
+ * suitable for timings taken at every step of a simulation. Percentiles
+ * are approximate, within a factor of two of the exact value.
+ */
+public class LogHistogram
+{
+  /**
+   * The number of buckets
+   */
+  protected static final int NUM_BUCKETS = 64;
+
+  /**
+   * The number of values in each bucket
+   */
+  /*@ non_null @*/ protected final long[] m_buckets = new long[NUM_BUCKETS];
+
+  /**
+   * The number of values recorded
+   */
+  protected long m_count = 0;
+
+  /**
+   * The sum of the values recorded
+   */
+  protected long m_sum = 0;
+
+  /**
+   * The largest value recorded
+   */
+  protected long m_max = 0;
+
+  /**
+   * Records a value
+   * @param value The value; negative values are counted as 0
+   */
+  public void record(long value)
+  {
+    if (value < 0)
+    {
+      value = 0;
+    }
+    m_buckets[bucketOf(value)]++;
+    m_count++;
+    m_sum += value;
+    if (value > m_max)
+    {
+      m_max = value;
+    }
+  }
+
+  /**
+   * Gets the number of values recorded
+   * @return The number of values
+   */
+  public long getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * Gets the sum of the values recorded
+   * @return The sum
+   */
+  public long getSum()
+  {
+    return m_sum;
+  }
+
+  /**
+   * Gets the mean of the values recorded
+   * @return The mean, or 0 if no value has been recorded
+   */
+  public double getMean()
+  {
+    return m_count == 0 ? 0 : (double) m_sum / m_count;
+  }
+
+  /**
+   * Gets the largest value recorded
+   * @return The value, or 0 if no value has been recorded
+   */
+  public long getMax()
+  {
+    return m_max;
+  }
+
+  /**
+   * Gets an upper bound of a percentile of the values recorded
+   * @param p The percentile, between 0 and 1
+   * @return The largest value of the bucket containing the percentile,
+   * or 0 if no value has been recorded
+   */
+  public long getPercentile(double p)
+  {
+    long rank = (long) Math.ceil(p * m_count);
+    long seen = 0;
+    for (int b = 0; b < NUM_BUCKETS; b++)
+    {
+      seen += m_buckets[b];
+      if (seen >= rank && seen > 0)
+      {
+        return Math.min(m_max, b == NUM_BUCKETS - 1 ? Long.MAX_VALUE : (2L << b) - 1);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the number of values in each bucket
+   * @return A copy of the counts, indexed by bucket
+   */
+  public long[] getBuckets()
+  {
+    return m_buckets.clone();
+  }
+
+  /**
+   * Removes all the values recorded
+   */
+  public void clear()
+  {
+    for (int b = 0; b < NUM_BUCKETS; b++)
+    {
+      m_buckets[b] = 0;
+    }
+    m_count = 0;
+    m_sum = 0;
+    m_max = 0;
+  }
+
+  /**
+   * Gets the bucket of a value
+   * @param value The value
+   * @return The bucket
+   */
+  protected static int bucketOf(long value)
+  {
+    return value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+  }
+}
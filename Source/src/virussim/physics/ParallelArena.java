@@ -0,0 +1,500 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An {@link Arena} that spreads the computation of a simulation step
+ * over multiple threads, while producing exactly the same result as the
+ * sequential {@link Arena#update()}, regardless of the number of threads.
+ * <p>
+ * A step is made of four stages:
+ * <ol>
+ * <li>The position of every ball is updated from its velocity. Balls are
+ * independent, so this is done in parallel.</li>
+ * <li>Assuming that no ball has yet been pushed by a collision, every ball
+ * is checked (in parallel) for a contact with a ball that comes after it.
+ * This is the expensive part of the step, and for most balls the answer
+ * is "no".</li>
+ * <li>Balls are visited in ascending order of index, as in the sequential
+ * loop. A ball that has not been pushed, that was found to have no
+ * contact, and that has no pushed ball in its neighbourhood, is known to
+ * have no collision in the sequential loop either: only its bounce off the
+ * walls needs to be computed. Every other ball goes through exactly the
+ * same collision code as in {@link Arena}.</li>
+ * <li>Once a ball has been visited, its health is no longer read by any
+ * other ball during the step. The calls to {@link Ball#tick()} are
+ * therefore deferred and done in parallel at the end of the step. This
+ * requires that balls do not share the objects they use in their
+ * <tt>tick</tt> method (such as a health picker).</li>
+ * </ol>
+ * The contagion itself is resolved in the ordered pass, so the
+ * infections are also identical to the sequential mode.
+ */
+public class ParallelArena extends Arena
+{
+  /**
+   * The number of tasks each parallel stage is split into, for each
+   * thread of the pool
+   */
+  protected static final int TASKS_PER_THREAD = 4;
+
+  /**
+   * The pool of threads used to compute the parallel stages
+   */
+  /*@ non_null @*/ protected ForkJoinPool m_pool;
+
+  /**
+   * For each ball, whether it has a contact with a ball that comes after
+   * it, provided no ball has yet been pushed
+   */
+  /*@ non_null @*/ protected boolean[] m_contact;
+
+  /**
+   * For each ball, whether it has been pushed by a collision during the
+   * current step and has not been visited yet
+   */
+  /*@ non_null @*/ protected boolean[] m_pushed;
+
+  /**
+   * For each cell of the spatial hash, the number of pushed balls it
+   * contains
+   */
+  protected int[] m_pushedInCell;
+
+  /**
+   * One list of collision candidates for each parallel task
+   */
+  protected IntList[] m_taskCandidates;
+
+  /**
+   * The number of bytes allocated by each parallel task during a stage,
+   * when the arena has metrics
+   */
+  protected long[] m_taskAllocated;
+
+  /**
+   * Creates a new arena
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param balls The collection of players to put inside the arena
+   * @param threads The number of threads used to compute a step
+   */
+  public ParallelArena(int width, int height, /*@ non_null @*/ Collection<? extends Ball> balls, int threads)
+  {
+    super(width, height, balls);
+    m_pool = new ForkJoinPool(threads);
+    int size = m_array.length;
+    m_contact = new boolean[size];
+    m_pushed = new boolean[size];
+  }
+
+  /**
+   * Gets the number of threads used to compute a step
+   * @return The number of threads
+   */
+  public int getThreads()
+  {
+    return m_pool.getParallelism();
+  }
+
+  /**
+   * Stops the threads used by this arena. The arena can no longer be
+   * updated afterwards.
+   */
+  public void shutdown()
+  {
+    m_pool.shutdown();
+  }
+
+  /**
+   * Sets whether the arena uses a spatial hash. The parallel stages
+   * require it, so this arena ignores a request to disable it.
+   */
+  @Override
+  public void setSpatialHashing(boolean b)
+  {
+    // Always on
+  }
+
+  @Override
+  public void update()
+  {
+    final int size = m_array.length;
+    StepMetrics metrics = m_metrics;
+    if (metrics != null)
+    {
+      metrics.startStep();
+    }
+    if (m_grid == null)
+    {
+      // Same cell size as in Arena#updateWithGrid
+      m_grid = new UniformGrid(m_width, m_height, 2 * getMaxRadius() * (1 + 1e-9), size);
+      m_pushedInCell = new int[m_grid.getColumns() * m_grid.getRows()];
+      int tasks = m_pool.getParallelism() * TASKS_PER_THREAD;
+      m_taskCandidates = new IntList[tasks];
+      for (int t = 0; t < tasks; t++)
+      {
+        m_taskCandidates[t] = new IntList();
+      }
+      m_taskAllocated = new long[tasks];
+    }
+    // Stage 1: movement
+    runInParallel(new Stage() {
+      @Override
+      public void compute(int task, int from, int to)
+      {
+        for (int i = from; i < to; i++)
+        {
+          Ball p1 = m_array[i];
+          if (!p1.isFixed())
+          {
+            p1.getPosition().addInPlace(p1.getVelocity());
+          }
+        }
+      }
+    });
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.MOVE);
+    }
+    m_grid.clear();
+    for (int i = 0; i < size; i++)
+    {
+      Vector2d pos = m_array[i].getPosition();
+      m_grid.insert(i, pos.getX(), pos.getY());
+    }
+    // Stage 2: contact detection on the unpushed positions
+    runInParallel(new Stage() {
+      @Override
+      public void compute(int task, int from, int to)
+      {
+        IntList candidates = m_taskCandidates[task];
+        for (int i = from; i < to; i++)
+        {
+          m_contact[i] = hasContact(i, candidates);
+        }
+      }
+    });
+    // Stage 3: walls and collisions, in sequential order
+    for (int i = 0; i < size; i++)
+    {
+      Ball p1 = m_array[i];
+      if (!m_pushed[i] && !m_contact[i])
+      {
+        double x = clampX(p1), y = clampY(p1);
+        if (!pushedAround(m_grid.cellOf(x, y)))
+        {
+          bounceOffWalls(p1);
+          m_grid.move(i, x, y);
+          continue;
+        }
+      }
+      bounceOffWalls(p1);
+      moved(i, p1);
+      collideWithGrid(i, p1);
+      if (m_pushed[i])
+      {
+        m_pushed[i] = false;
+        m_pushedInCell[m_grid.getCell(i)]--;
+      }
+    }
+    if (metrics != null)
+    {
+      // Walls are handled together with the collisions and counted with them
+      metrics.lap(StepMetrics.Phase.PAIRS);
+    }
+    // Stage 4: health
+    runInParallel(new Stage() {
+      @Override
+      public void compute(int task, int from, int to)
+      {
+        for (int i = from; i < to; i++)
+        {
+          m_array[i].tick();
+        }
+      }
+    });
+    flushPairTests();
+    if (metrics != null)
+    {
+      metrics.lap(StepMetrics.Phase.TICK);
+      metrics.endStep();
+    }
+  }
+
+  /**
+   * Keeps track of the balls pushed by a collision, in addition to
+   * updating the spatial hash
+   */
+  @Override
+  protected void moved(int i, /*@ non_null @*/ Ball b)
+  {
+    int old_cell = m_grid.getCell(i);
+    super.moved(i, b);
+    int new_cell = m_grid.getCell(i);
+    if (!m_pushed[i])
+    {
+      m_pushed[i] = true;
+      m_pushedInCell[new_cell]++;
+    }
+    else if (old_cell != new_cell)
+    {
+      m_pushedInCell[old_cell]--;
+      m_pushedInCell[new_cell]++;
+    }
+  }
+
+  /**
+   * Determines if a ball, once placed against the walls, is in contact
+   * with a ball that comes after it, using the current positions of the
+   * other balls. The test is the same as the one performed by
+   * {@link Ball#interactWith(Ball)}.
+   * @param i The index of the ball
+   * @param candidates A list used to collect the candidates
+   * @return <tt>true</tt> if there is a contact, <tt>false</tt> otherwise
+   */
+  protected boolean hasContact(int i, /*@ non_null @*/ IntList candidates)
+  {
+    Ball p1 = m_array[i];
+    double x = clampX(p1), y = clampY(p1);
+    candidates.clear();
+    m_grid.query(x, y, i, candidates);
+    for (int k = 0; k < candidates.size(); k++)
+    {
+      Ball p2 = m_array[candidates.get(k)];
+      double dx = x - p2.getPosition().getX();
+      double dy = y - p2.getPosition().getY();
+      double r = p1.getRadius() + p2.getRadius();
+      if (!(dx * dx + dy * dy > r * r))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determines if a pushed ball lies in a cell or in one of its
+   * neighbours
+   * @param cell The cell
+   * @return <tt>true</tt> if a pushed ball is in the vicinity of the cell,
+   * <tt>false</tt> otherwise
+   */
+  protected boolean pushedAround(int cell)
+  {
+    int columns = m_grid.getColumns(), rows = m_grid.getRows();
+    int cx = cell % columns, cy = cell / columns;
+    for (int j = Math.max(0, cy - 1); j <= Math.min(rows - 1, cy + 1); j++)
+    {
+      for (int i = Math.max(0, cx - 1); i <= Math.min(columns - 1, cx + 1); i++)
+      {
+        if (m_pushedInCell[j * columns + i] > 0)
+        {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Computes the first coordinate of a ball once placed against the walls,
+   * as done by {@link #bounceOffWalls(Ball)}, without modifying the ball
+   * @param p1 The ball
+   * @return The coordinate
+   */
+  protected double clampX(/*@ non_null @*/ Ball p1)
+  {
+    double x = p1.getPosition().getX();
+    if (x - p1.getRadius() < 0)
+    {
+      return p1.getRadius();
+    }
+    if (x + p1.getRadius() > getWidth())
+    {
+      return getWidth() - p1.getRadius();
+    }
+    return x;
+  }
+
+  /**
+   * Computes the second coordinate of a ball once placed against the
+   * walls, as done by {@link #bounceOffWalls(Ball)}, without modifying
+   * the ball
+   * @param p1 The ball
+   * @return The coordinate
+   */
+  protected double clampY(/*@ non_null @*/ Ball p1)
+  {
+    double y = p1.getPosition().getY();
+    if (y - p1.getRadius() < 0)
+    {
+      return p1.getRadius();
+    }
+    if (y + p1.getRadius() > getHeight())
+    {
+      return getHeight() - p1.getRadius();
+    }
+    return y;
+  }
+
+  /**
+   * Splits the balls of the arena into contiguous ranges and processes
+   * them in the thread pool. The call returns when all the ranges have
+   * been processed. If the arena has metrics, the memory allocated by the
+   * threads of the pool is added to that of the current step.
+   * @param s The computation to apply on each range
+   */
+  protected void runInParallel(/*@ non_null @*/ Stage s)
+  {
+    StepMetrics metrics = m_metrics;
+    long[] allocated = metrics == null ? null : m_taskAllocated;
+    m_pool.invoke(new RangeTask(s, allocated, m_taskCandidates.length, m_array.length));
+    if (allocated != null)
+    {
+      long total = 0;
+      for (int t = 0; t < allocated.length; t++)
+      {
+        total += allocated[t];
+        allocated[t] = 0;
+      }
+      metrics.addAllocatedBytes(total);
+    }
+  }
+
+  /**
+   * A computation applied on a contiguous range of balls
+   */
+  protected abstract static class Stage
+  {
+    /**
+     * Processes a range of balls
+     * @param task The index of the task processing the range
+     * @param from The index of the first ball of the range (inclusive)
+     * @param to The index of the last ball of the range (exclusive)
+     */
+    public abstract void compute(int task, int from, int to);
+  }
+
+  /**
+   * A fork-join task that recursively splits a range of tasks in two
+   */
+  protected static class RangeTask extends RecursiveAction
+  {
+    /**
+     * Dummy UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The computation to apply
+     */
+    protected final Stage m_stage;
+
+    /**
+     * The array where each task writes the number of bytes it allocates,
+     * or <tt>null</tt> to not measure them
+     */
+    protected final long[] m_allocated;
+
+    /**
+     * The index of the first task handled by this object (inclusive)
+     */
+    protected final int m_from;
+
+    /**
+     * The index of the last task handled by this object (exclusive)
+     */
+    protected final int m_to;
+
+    /**
+     * The total number of tasks
+     */
+    protected final int m_tasks;
+
+    /**
+     * The number of balls to process
+     */
+    protected final int m_size;
+
+    /**
+     * Creates a new range task
+     * @param s The computation to apply
+     * @param allocated The array where each task writes the number of
+     * bytes it allocates, or <tt>null</tt> to not measure them
+     * @param tasks The total number of tasks
+     * @param size The number of balls to process
+     */
+    public RangeTask(Stage s, long[] allocated, int tasks, int size)
+    {
+      this(s, allocated, 0, tasks, tasks, size);
+    }
+
+    /**
+     * Creates a new range task
+     * @param s The computation to apply
+     * @param allocated The array where each task writes the number of
+     * bytes it allocates, or <tt>null</tt> to not measure them
+     * @param from The index of the first task (inclusive)
+     * @param to The index of the last task (exclusive)
+     * @param tasks The total number of tasks
+     * @param size The number of balls to process
+     */
+    protected RangeTask(Stage s, long[] allocated, int from, int to, int tasks, int size)
+    {
+      super();
+      m_stage = s;
+      m_allocated = allocated;
+      m_from = from;
+      m_to = to;
+      m_tasks = tasks;
+      m_size = size;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (m_to - m_from > 1)
+      {
+        int middle = (m_from + m_to) >>> 1;
+        invokeAll(new RangeTask(m_stage, m_allocated, m_from, middle, m_tasks, m_size),
+            new RangeTask(m_stage, m_allocated, middle, m_to, m_tasks, m_size));
+        return;
+      }
+      int from = (int) ((long) m_size * m_from / m_tasks);
+      int to = (int) ((long) m_size * m_to / m_tasks);
+      if (m_allocated == null || !inForkJoinPool())
+      {
+        // The thread running the step is already measured by the metrics
+        m_stage.compute(m_from, from, to);
+        return;
+      }
+      long start = StepMetrics.allocatedBytes();
+      m_stage.compute(m_from, from, to);
+      long end = StepMetrics.allocatedBytes();
+      if (start >= 0 && end >= 0)
+      {
+        m_allocated[m_from] = end - start;
+      }
+    }
+  }
+}
@@ -0,0 +1,542 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Measurements taken at each step of a simulation. An {@link Arena}
+ * given an instance of this class with {@link Arena#setMetrics(StepMetrics)}
+ * times the phases of each step, and counts the pairs of balls it tests
+ * and the contacts it finds. Other components can time phases that take
+ * place outside of a step, such as the rendering of a frame.
+ * <p>
+ * The duration of each phase is accumulated during a step, and recorded
+ * in a {@link LogHistogram} when the step ends. An arena reads the clock
+ * once at the end of each pass over its balls, and adds the pairs it
+ * tested and the contacts it found once per step, so that the cost of the
+ * measurements does not grow with the number of balls; arenas without
+ * metrics do not read the clock at all. When walls, contacts and ticks
+ * are handled ball by ball in the same pass, the whole pass is counted in
+ * {@link Phase#PAIRS}.
+ * <p>
+ * The memory allocated during a step is that of the thread running the
+ * step, plus the bytes added by {@link #addAllocatedBytes(long)} for the
+ * other threads that take part in it.
+ * <p>
+ * The metrics are updated by the thread running the simulation, and can
+ * be read from any thread, for example through JMX after a call to
+ * {@link #register(String)}.
+ */
+public class StepMetrics implements StepMetricsMBean
+{
+  /**
+   * The phases that are timed
+   */
+  public enum Phase
+  {
+    /**
+     * A whole call to {@link Arena#update()}
+     */
+    UPDATE,
+    /**
+     * The movement of balls
+     */
+    MOVE,
+    /**
+     * The collisions with walls
+     */
+    WALLS,
+    /**
+     * The collisions between balls, including the search for candidate
+     * pairs
+     */
+    PAIRS,
+    /**
+     * The update of the internal state of balls
+     */
+    TICK,
+    /**
+     * The rendering of a frame
+     */
+    RENDER,
+    /**
+     * The time spent outside of the simulation between two steps
+     */
+    PIPELINE
+  }
+
+  /**
+   * The phases, indexed by their ordinal
+   */
+  protected static final Phase[] s_phases = Phase.values();
+
+  /**
+   * The MX bean used to measure allocations, or <tt>null</tt> if the JVM
+   * does not provide it
+   */
+  protected static final com.sun.management.ThreadMXBean s_threadBean = getThreadBean();
+
+  /**
+   * The histogram of the durations of each phase
+   */
+  /*@ non_null @*/ protected final LogHistogram[] m_histograms;
+
+  /**
+   * The duration of each phase during the current step
+   */
+  /*@ non_null @*/ protected final long[] m_current = new long[s_phases.length];
+
+  /**
+   * The duration of each phase during the last step
+   */
+  /*@ non_null @*/ protected final long[] m_last = new long[s_phases.length];
+
+  /**
+   * The time at which the current step started
+   */
+  protected long m_stepStart;
+
+  /**
+   * The time of the last call to {@link #lap(Phase)}
+   */
+  protected long m_lapStart;
+
+  /**
+   * The number of bytes allocated by the current thread when the current
+   * step started
+   */
+  protected long m_allocationStart;
+
+  /**
+   * The number of bytes allocated during the current step by threads
+   * other than the one running the step
+   */
+  protected long m_otherAllocated = 0;
+
+  /**
+   * The number of steps recorded
+   */
+  protected long m_steps = 0;
+
+  /**
+   * The number of pairs tested during the current step
+   */
+  protected long m_pairTests = 0;
+
+  /**
+   * The number of contacts during the current step
+   */
+  protected long m_contacts = 0;
+
+  /**
+   * The number of pairs tested during the last step
+   */
+  protected long m_lastPairTests = 0;
+
+  /**
+   * The number of contacts during the last step
+   */
+  protected long m_lastContacts = 0;
+
+  /**
+   * The number of new infections during the last step
+   */
+  protected long m_lastInfections = 0;
+
+  /**
+   * The number of bytes allocated during the last step
+   */
+  protected long m_lastAllocated = 0;
+
+  /**
+   * The number of pairs tested since the beginning
+   */
+  protected long m_totalPairTests = 0;
+
+  /**
+   * The number of contacts since the beginning
+   */
+  protected long m_totalContacts = 0;
+
+  /**
+   * The number of new infections since the beginning
+   */
+  protected long m_totalInfections = 0;
+
+  /**
+   * The number of bytes allocated since the beginning
+   */
+  protected long m_totalAllocated = 0;
+
+  /**
+   * Creates a new empty set of metrics
+   */
+  public StepMetrics()
+  {
+    super();
+    m_histograms = new LogHistogram[s_phases.length];
+    for (int i = 0; i < s_phases.length; i++)
+    {
+      m_histograms[i] = new LogHistogram();
+    }
+  }
+
+  /**
+   * Signals the beginning of a step
+   */
+  public void startStep()
+  {
+    m_allocationStart = allocatedBytes();
+    m_stepStart = System.nanoTime();
+    m_lapStart = m_stepStart;
+  }
+
+  /**
+   * Adds the time elapsed since the last lap (or since the beginning of
+   * the step) to the duration of a phase
+   * @param p The phase
+   */
+  public void lap(/*@ non_null @*/ Phase p)
+  {
+    long now = System.nanoTime();
+    m_current[p.ordinal()] += now - m_lapStart;
+    m_lapStart = now;
+  }
+
+  /**
+   * Counts a pair of balls tested for a contact
+   * @param contact Whether the two balls are in contact
+   */
+  public void pairTest(boolean contact)
+  {
+    m_pairTests++;
+    if (contact)
+    {
+      m_contacts++;
+    }
+  }
+
+  /**
+   * Counts pairs of balls tested for a contact
+   * @param tests The number of pairs
+   * @param contacts The number of these pairs that are in contact
+   */
+  public void pairTests(long tests, long contacts)
+  {
+    m_pairTests += tests;
+    m_contacts += contacts;
+  }
+
+  /**
+   * Adds to the current step the bytes allocated by a thread other than the
+   * one running the step, such as a thread of a pool computing part of the
+   * step
+   * @param bytes The number of bytes
+   */
+  public void addAllocatedBytes(long bytes)
+  {
+    m_otherAllocated += bytes;
+  }
+
+  /**
+   * Signals the end of a step, and records the measurements taken during
+   * the step
+   */
+  public void endStep()
+  {
+    long now = System.nanoTime();
+    long allocated = allocatedBytes();
+    long infections = countInfections();
+    synchronized (this)
+    {
+      m_current[Phase.UPDATE.ordinal()] = now - m_stepStart;
+      for (Phase p : s_phases)
+      {
+        if (p == Phase.RENDER || p == Phase.PIPELINE)
+        {
+          // Recorded separately
+          continue;
+        }
+        int i = p.ordinal();
+        m_histograms[i].record(m_current[i]);
+        m_last[i] = m_current[i];
+        m_current[i] = 0;
+      }
+      m_steps++;
+      m_lastPairTests = m_pairTests;
+      m_lastContacts = m_contacts;
+      m_lastInfections = infections;
+      m_totalPairTests += m_pairTests;
+      m_totalContacts += m_contacts;
+      m_totalInfections += infections;
+      m_pairTests = 0;
+      m_contacts = 0;
+      if (allocated >= 0 && m_allocationStart >= 0)
+      {
+        m_lastAllocated = allocated - m_allocationStart + m_otherAllocated;
+        m_totalAllocated += m_lastAllocated;
+      }
+      else
+      {
+        m_lastAllocated = -1;
+        m_totalAllocated = -1;
+      }
+      m_otherAllocated = 0;
+    }
+  }
+
+  /**
+   * Records the duration of a phase that takes place outside of a step
+   * @param p The phase
+   * @param nanos The duration
+   */
+  public synchronized void record(/*@ non_null @*/ Phase p, long nanos)
+  {
+    m_histograms[p.ordinal()].record(nanos);
+    m_last[p.ordinal()] = nanos;
+  }
+
+  /**
+   * Counts the new infections of the step that just ended. This class
+   * knows nothing about infections and returns 0; descendants can
+   * override this method.
+   * @return The number of infections
+   */
+  protected long countInfections()
+  {
+    return 0;
+  }
+
+  /**
+   * Gets the histogram of the durations of a phase. The histogram is
+   * updated as the simulation runs.
+   * @param p The phase
+   * @return The histogram
+   */
+  public LogHistogram getHistogram(/*@ non_null @*/ Phase p)
+  {
+    return m_histograms[p.ordinal()];
+  }
+
+  /**
+   * Gets the duration of a phase during the last step
+   * @param p The phase
+   * @return The duration
+   */
+  public synchronized long getLastNanos(/*@ non_null @*/ Phase p)
+  {
+    return m_last[p.ordinal()];
+  }
+
+  /**
+   * Registers these metrics in the platform MBean server
+   * @param name The name of the metrics, used in their object name
+   * <tt>virussim:type=StepMetrics,name=<i>name</i></tt>
+   * @throws IllegalStateException If the metrics cannot be registered
+   */
+  public void register(/*@ non_null @*/ String name)
+  {
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("virussim:type=StepMetrics,name=" + ObjectName.quote(name)));
+    }
+    catch (JMException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public synchronized long getSteps()
+  {
+    return m_steps;
+  }
+
+  @Override
+  public String[] getPhases()
+  {
+    String[] names = new String[s_phases.length];
+    for (int i = 0; i < names.length; i++)
+    {
+      names[i] = s_phases[i].toString();
+    }
+    return names;
+  }
+
+  @Override
+  public synchronized double[] getMeanNanos()
+  {
+    double[] values = new double[s_phases.length];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = m_histograms[i].getMean();
+    }
+    return values;
+  }
+
+  @Override
+  public synchronized long[] getMedianNanos()
+  {
+    return getPercentiles(0.5);
+  }
+
+  @Override
+  public synchronized long[] getP99Nanos()
+  {
+    return getPercentiles(0.99);
+  }
+
+  @Override
+  public synchronized long[] getMaxNanos()
+  {
+    long[] values = new long[s_phases.length];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = m_histograms[i].getMax();
+    }
+    return values;
+  }
+
+  @Override
+  public synchronized long[] getLastNanos()
+  {
+    return m_last.clone();
+  }
+
+  @Override
+  public synchronized long getPairTests()
+  {
+    return m_lastPairTests;
+  }
+
+  @Override
+  public synchronized long getContacts()
+  {
+    return m_lastContacts;
+  }
+
+  @Override
+  public synchronized long getNewInfections()
+  {
+    return m_lastInfections;
+  }
+
+  @Override
+  public synchronized long getAllocatedBytes()
+  {
+    return m_lastAllocated;
+  }
+
+  @Override
+  public synchronized long getTotalPairTests()
+  {
+    return m_totalPairTests;
+  }
+
+  @Override
+  public synchronized long getTotalContacts()
+  {
+    return m_totalContacts;
+  }
+
+  @Override
+  public synchronized long getTotalNewInfections()
+  {
+    return m_totalInfections;
+  }
+
+  @Override
+  public synchronized long getTotalAllocatedBytes()
+  {
+    return m_totalAllocated;
+  }
+
+  @Override
+  public synchronized void reset()
+  {
+    for (int i = 0; i < s_phases.length; i++)
+    {
+      m_histograms[i].clear();
+      m_last[i] = 0;
+    }
+    m_steps = 0;
+    m_lastPairTests = 0;
+    m_lastContacts = 0;
+    m_lastInfections = 0;
+    m_lastAllocated = 0;
+    m_totalPairTests = 0;
+    m_totalContacts = 0;
+    m_totalInfections = 0;
+    m_totalAllocated = 0;
+  }
+
+  /**
+   * Gets a percentile of the duration of each phase
+   * @param p The percentile, between 0 and 1
+   * @return The durations
+   */
+  protected long[] getPercentiles(double p)
+  {
+    long[] values = new long[s_phases.length];
+    for (int i = 0; i < values.length; i++)
+    {
+      values[i] = m_histograms[i].getPercentile(p);
+    }
+    return values;
+  }
+
+  /**
+   * Gets the number of bytes allocated by the current thread since it
+   * started
+   * @return The number of bytes, or -1 if the JVM cannot measure it
+   */
+  public static long allocatedBytes()
+  {
+    if (s_threadBean == null)
+    {
+      return -1;
+    }
+    return s_threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Gets the MX bean used to measure allocations
+   * @return The bean, or <tt>null</tt> if the JVM does not provide it or
+   * does not support the measurement
+   */
+  protected static com.sun.management.ThreadMXBean getThreadBean()
+  {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean))
+    {
+      return null;
+    }
+    com.sun.management.ThreadMXBean sun_bean = (com.sun.management.ThreadMXBean) bean;
+    if (!sun_bean.isThreadAllocatedMemorySupported())
+    {
+      return null;
+    }
+    sun_bean.setThreadAllocatedMemoryEnabled(true);
+    return sun_bean;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+/**
+ * The management interface of {@link StepMetrics}, as exposed through
+ * JMX. Arrays of per-phase values are indexed in the order given by
+ * {@link #getPhases()}; timings are in nanoseconds.
+ */
+public interface StepMetricsMBean
+{
+  /**
+   * Gets the number of steps recorded
+   * @return The number of steps
+   */
+  public long getSteps();
+
+  /**
+   * Gets the names of the phases that are timed
+   * @return The names
+   */
+  public String[] getPhases();
+
+  /**
+   * Gets the mean duration of each phase
+   * @return The durations
+   */
+  public double[] getMeanNanos();
+
+  /**
+   * Gets an upper bound of the median duration of each phase
+   * @return The durations
+   */
+  public long[] getMedianNanos();
+
+  /**
+   * Gets an upper bound of the 99th percentile of the duration of each
+   * phase
+   * @return The durations
+   */
+  public long[] getP99Nanos();
+
+  /**
+   * Gets the longest duration of each phase
+   * @return The durations
+   */
+  public long[] getMaxNanos();
+
+  /**
+   * Gets the duration of each phase during the last step
+   * @return The durations
+   */
+  public long[] getLastNanos();
+
+  /**
+   * Gets the number of pairs of balls tested for a contact during the last
+   * step
+   * @return The number of pairs
+   */
+  public long getPairTests();
+
+  /**
+   * Gets the number of contacts between balls during the last step
+   * @return The number of contacts
+   */
+  public long getContacts();
+
+  /**
+   * Gets the number of new infections during the last step
+   * @return The number of infections
+   */
+  public long getNewInfections();
+
+  /**
+   * Gets the number of bytes allocated by the threads running the
+   * simulation during the last step
+   * @return The number of bytes, or -1 if the JVM cannot measure it
+   */
+  public long getAllocatedBytes();
+
+  /**
+   * Gets the number of pairs of balls tested for a contact since the
+   * beginning
+   * @return The number of pairs
+   */
+  public long getTotalPairTests();
+
+  /**
+   * Gets the number of contacts between balls since the beginning
+   * @return The number of contacts
+   */
+  public long getTotalContacts();
+
+  /**
+   * Gets the number of new infections since the beginning
+   * @return The number of infections
+   */
+  public long getTotalNewInfections();
+
+  /**
+   * Gets the number of bytes allocated by the threads running the
+   * simulation since the beginning
+   * @return The number of bytes, or -1 if the JVM cannot measure it
+   */
+  public long getTotalAllocatedBytes();
+
+  /**
+   * Clears all the metrics
+   */
+  public void reset();
+}
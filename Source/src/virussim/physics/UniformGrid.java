@@ -0,0 +1,283 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.physics;
+
+import java.util.Arrays;
+
+/**
+ * A spatial hash dividing a rectangular region into square cells of equal
+ * size. Each element (designated by an integer index) is stored in the cell
+ * that contains its position. When the size of a cell is at least the
+ * largest possible contact distance between two elements, any pair of
+ * elements in contact is guaranteed to lie in the same cell or in two
+ * neighbouring cells; the grid can therefore be used to restrict collision
+ * tests to a handful of candidates instead of all the other elements.
+ * <p>
+ * The contents of each cell are kept as a doubly-linked list stored in
+ * primitive arrays, so that inserting an element or moving it from one
+ * cell to another is done in constant time and without allocating any
+ * object. Positions outside of the region are clamped into the border
+ * cells.
+ */
+public class UniformGrid
+{
+  /**
+   * The side of a cell
+   */
+  protected double m_cellSize;
+
+  /**
+   * The number of cells along the horizontal axis
+   */
+  protected int m_columns;
+
+  /**
+   * The number of cells along the vertical axis
+   */
+  protected int m_rows;
+
+  /**
+   * For each cell, the index of the first element it contains, or -1 if
+   * the cell is empty
+   */
+  /*@ non_null @*/ protected int[] m_heads;
+
+  /**
+   * For each element, the index of the next element in the same cell,
+   * or -1
+   */
+  /*@ non_null @*/ protected int[] m_next;
+
+  /**
+   * For each element, the index of the previous element in the same cell,
+   * or -1
+   */
+  /*@ non_null @*/ protected int[] m_previous;
+
+  /**
+   * For each element, the cell that contains it, or -1 if the element is
+   * not in the grid
+   */
+  /*@ non_null @*/ protected int[] m_cells;
+
+  /**
+   * Creates a new empty grid
+   * @param width The width of the region covered by the grid
+   * @param height The height of the region covered by the grid
+   * @param cell_size The side of a cell. A side that is not positive, as
+   * obtained for an empty population or balls of radius 0, makes the whole
+   * region a single cell.
+   * @param capacity The number of elements the grid can hold; valid
+   * indices range from 0 to <tt>capacity</tt> - 1
+   */
+  public UniformGrid(double width, double height, double cell_size, int capacity)
+  {
+    super();
+    m_cellSize = cell_size > 0 ? cell_size : Double.POSITIVE_INFINITY;
+    m_columns = Math.max(1, (int) Math.ceil(width / m_cellSize));
+    m_rows = Math.max(1, (int) Math.ceil(height / m_cellSize));
+    m_heads = new int[m_columns * m_rows];
+    m_next = new int[capacity];
+    m_previous = new int[capacity];
+    m_cells = new int[capacity];
+    clear();
+  }
+
+  /**
+   * Gets the side of a cell
+   * @return The side
+   */
+  public double getCellSize()
+  {
+    return m_cellSize;
+  }
+
+  /**
+   * Gets the number of cells along the horizontal axis
+   * @return The number of columns
+   */
+  public int getColumns()
+  {
+    return m_columns;
+  }
+
+  /**
+   * Gets the number of cells along the vertical axis
+   * @return The number of rows
+   */
+  public int getRows()
+  {
+    return m_rows;
+  }
+
+  /**
+   * Gets the cell that currently contains an element
+   * @param index The index of the element
+   * @return The index of the cell, or -1 if the element is not in the grid
+   */
+  public int getCell(int index)
+  {
+    return m_cells[index];
+  }
+
+  /**
+   * Removes all the elements from the grid
+   */
+  public void clear()
+  {
+    Arrays.fill(m_heads, -1);
+    Arrays.fill(m_cells, -1);
+  }
+
+  /**
+   * Puts an element in the cell corresponding to a position
+   * @param index The index of the element
+   * @param x The first coordinate of the element's position
+   * @param y The second coordinate of the element's position
+   */
+  public void insert(int index, double x, double y)
+  {
+    link(index, cellOf(x, y));
+  }
+
+  /**
+   * Notifies the grid that an element has moved to a new position. The
+   * element is transferred to another cell only if the new position lies
+   * outside of its current cell.
+   * @param index The index of the element
+   * @param x The first coordinate of the element's new position
+   * @param y The second coordinate of the element's new position
+   */
+  public void move(int index, double x, double y)
+  {
+    int cell = cellOf(x, y);
+    if (cell != m_cells[index])
+    {
+      if (m_cells[index] >= 0)
+      {
+        unlink(index);
+      }
+      link(index, cell);
+    }
+  }
+
+  /**
+   * Collects the elements contained in the cell of a given position and
+   * in its eight neighbouring cells.
+   * @param x The first coordinate of the position
+   * @param y The second coordinate of the position
+   * @param above Only elements whose index is strictly greater than this
+   * value are collected
+   * @param out The list where the indices of the elements are added. The
+   * list is not cleared beforehand, and the indices are added in no
+   * particular order.
+   */
+  public void query(double x, double y, int above, /*@ non_null @*/ IntList out)
+  {
+    int cx = column(x), cy = row(y);
+    int min_x = Math.max(0, cx - 1), max_x = Math.min(m_columns - 1, cx + 1);
+    int min_y = Math.max(0, cy - 1), max_y = Math.min(m_rows - 1, cy + 1);
+    for (int j = min_y; j <= max_y; j++)
+    {
+      for (int i = min_x; i <= max_x; i++)
+      {
+        for (int e = m_heads[j * m_columns + i]; e >= 0; e = m_next[e])
+        {
+          if (e > above)
+          {
+            out.add(e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the cell containing a position
+   * @param x The first coordinate of the position
+   * @param y The second coordinate of the position
+   * @return The index of the cell, equal to <i>row</i> &times; <i>columns</i>
+   * + <i>column</i>
+   */
+  public int cellOf(double x, double y)
+  {
+    return row(y) * m_columns + column(x);
+  }
+
+  /**
+   * Gets the column of the cell containing a coordinate
+   * @param x The first coordinate of a position
+   * @return The column
+   */
+  protected int column(double x)
+  {
+    int c = (int) (x / m_cellSize);
+    return c < 0 ? 0 : (c >= m_columns ? m_columns - 1 : c);
+  }
+
+  /**
+   * Gets the row of the cell containing a coordinate
+   * @param y The second coordinate of a position
+   * @return The row
+   */
+  protected int row(double y)
+  {
+    int r = (int) (y / m_cellSize);
+    return r < 0 ? 0 : (r >= m_rows ? m_rows - 1 : r);
+  }
+
+  /**
+   * Adds an element at the head of a cell's list
+   * @param index The index of the element
+   * @param cell The cell
+   */
+  protected void link(int index, int cell)
+  {
+    int head = m_heads[cell];
+    m_next[index] = head;
+    m_previous[index] = -1;
+    if (head >= 0)
+    {
+      m_previous[head] = index;
+    }
+    m_heads[cell] = index;
+    m_cells[index] = cell;
+  }
+
+  /**
+   * Removes an element from the list of its current cell
+   * @param index The index of the element
+   */
+  protected void unlink(int index)
+  {
+    int prev = m_previous[index], next = m_next[index];
+    if (prev >= 0)
+    {
+      m_next[prev] = next;
+    }
+    else
+    {
+      m_heads[m_cells[index]] = next;
+    }
+    if (next >= 0)
+    {
+      m_previous[next] = prev;
+    }
+    m_cells[index] = -1;
+  }
+}
@@ -19,6 +19,16 @@ package virussim.physics;
 
 /**
  * A two-dimensional vector that implements elementary operations.
+ * <p>
+ * The static methods {@link #add(Vector2d, Vector2d) add()},
+ * {@link #subtract(Vector2d, Vector2d) subtract()} and
+ * {@link #multiply(Vector2d, double) multiply()} return a new vector. The
+ * code that runs at every step of a simulation rather uses the methods
+ * that write their result into an existing vector, such as
+ * {@link #addInPlace(Vector2d)} or {@link #addInto(Vector2d, Vector2d, Vector2d)
+ * addInto()}, and therefore allocate nothing. All these methods round
+ * their results in the same way: an operation gives the same value
+ * whichever form is used.
  */
 public class Vector2d
 {
@@ -98,13 +108,48 @@ public class Vector2d
     return this;
   }
   
+  /**
+   * Sets both coordinates of the vector
+   * @param x The first coordinate
+   * @param y The second coordinate
+   * @return This vector
+   */
+  public Vector2d set(double x, double y)
+  {
+    m_x = x;
+    m_y = y;
+    return this;
+  }
+
+  /**
+   * Copies the coordinates of another vector into this vector
+   * @param v The other vector
+   * @return This vector
+   */
+  public Vector2d set(/*@ non_null @*/ Vector2d v)
+  {
+    m_x = v.m_x;
+    m_y = v.m_y;
+    return this;
+  }
+
   /**
    * Gets the modulus of this vector
    * @return The modulus
    */
   public double getModulus()
   {
-    return Math.sqrt(Math.pow(m_x, 2) + Math.pow(m_y, 2));
+    return Math.sqrt(m_x * m_x + m_y * m_y);
+  }
+
+  /**
+   * Gets the square of the modulus of this vector. Comparing squared
+   * moduli avoids computing a square root.
+   * @return The squared modulus
+   */
+  public double getSquaredModulus()
+  {
+    return m_x * m_x + m_y * m_y;
   }
   
   /**
@@ -127,26 +172,133 @@ public class Vector2d
     return this;
   }
   
+  /**
+   * Adds another vector to this vector
+   * @param v The other vector
+   * @return This vector
+   */
+  public Vector2d addInPlace(/*@ non_null @*/ Vector2d v)
+  {
+    m_x += v.m_x;
+    m_y += v.m_y;
+    return this;
+  }
+
+  /**
+   * Adds a vector given by its coordinates to this vector
+   * @param x The first coordinate of the other vector
+   * @param y The second coordinate of the other vector
+   * @return This vector
+   */
+  public Vector2d addInPlace(double x, double y)
+  {
+    m_x += x;
+    m_y += y;
+    return this;
+  }
+
+  /**
+   * Subtracts another vector from this vector
+   * @param v The other vector
+   * @return This vector
+   */
+  public Vector2d subtractInPlace(/*@ non_null @*/ Vector2d v)
+  {
+    m_x -= v.m_x;
+    m_y -= v.m_y;
+    return this;
+  }
+
+  /**
+   * Multiplies this vector by a scalar
+   * @param scale The scalar
+   * @return This vector
+   */
+  public Vector2d scaleInPlace(double scale)
+  {
+    m_x *= scale;
+    m_y *= scale;
+    return this;
+  }
+
+  /**
+   * Adds a multiple of another vector to this vector, in a single call.
+   * The product and the sum are rounded separately, as in
+   * <tt>v1 + v2 * scale</tt>, and not as a single fused operation.
+   * @param v The other vector
+   * @param scale The multiple
+   * @return This vector
+   */
+  public Vector2d addScaled(/*@ non_null @*/ Vector2d v, double scale)
+  {
+    m_x += v.m_x * scale;
+    m_y += v.m_y * scale;
+    return this;
+  }
+
+  /**
+   * Adds a multiple of a vector given by its coordinates to this vector
+   * @param x The first coordinate of the other vector
+   * @param y The second coordinate of the other vector
+   * @param scale The multiple
+   * @return This vector
+   * @see #addScaled(Vector2d, double)
+   */
+  public Vector2d addScaled(double x, double y, double scale)
+  {
+    m_x += x * scale;
+    m_y += y * scale;
+    return this;
+  }
+
   /**
    * Adds two vectors
    * @param v1 The first vector
    * @param v2 The second vector
+   * @return The new vector
    */
   public static Vector2d add(Vector2d v1, Vector2d v2)
   {
     return new Vector2d(v1.m_x + v2.m_x, v1.m_y + v2.m_y);
   }
   
+  /**
+   * Adds two vectors and writes the result into a third one
+   * @param v1 The first vector
+   * @param v2 The second vector
+   * @param dest The vector receiving the result, which can be one of the
+   * two others
+   * @return The vector <tt>dest</tt>
+   */
+  public static Vector2d addInto(/*@ non_null @*/ Vector2d v1, /*@ non_null @*/ Vector2d v2, /*@ non_null @*/ Vector2d dest)
+  {
+    return dest.set(v1.m_x + v2.m_x, v1.m_y + v2.m_y);
+  }
+
   /**
    * Subtracts two vectors
    * @param v1 The first vector
    * @param v2 The second vector
+   * @return The new vector
    */
   public static Vector2d subtract(Vector2d v1, Vector2d v2)
   {
     return new Vector2d(v1.m_x - v2.m_x, v1.m_y - v2.m_y);
   }
   
+  /**
+   * Subtracts two vectors and writes the result into a third one
+   * @param v1 The first vector
+   * @param v2 The second vector
+   * @param dest The vector receiving the result, which can be one of the
+   * two others
+   * @return The vector <tt>dest</tt>
+   */
+  public static Vector2d subtractInto(/*@ non_null @*/ Vector2d v1, /*@ non_null @*/ Vector2d v2, /*@ non_null @*/ Vector2d dest)
+  {
+    return dest.set(v1.m_x - v2.m_x, v1.m_y - v2.m_y);
+  }
+
   /**
    * Multiplies a vector by a scalar
    * @param v The vector
@@ -158,6 +310,20 @@ public class Vector2d
     return new Vector2d(v.m_x * scale, v.m_y * scale);
   }
 
+  /**
+   * Multiplies a vector by a scalar and writes the result into another
+   * vector
+   * @param v The vector
+   * @param scale The scalar
+   * @param dest The vector receiving the result, which can be
+   * <tt>v</tt>
+   * @return The vector <tt>dest</tt>
+   */
+  public static Vector2d multiplyInto(/*@ non_null @*/ Vector2d v, double scale, /*@ non_null @*/ Vector2d dest)
+  {
+    return dest.set(v.m_x * scale, v.m_y * scale);
+  }
+
   /**
    * Returns the Euclidean distance between two vectors
    * @param v1 The other vector
@@ -166,7 +332,19 @@ public class Vector2d
    */
   public static double distance(Vector2d v1, Vector2d v2)
   {
-    return Math.sqrt(Math.pow(v1.m_x - v2.m_x, 2) + Math.pow(v1.m_y - v2.m_y, 2));
+    return Math.sqrt(squaredDistance(v1, v2));
+  }
+
+  /**
+   * Returns the square of the Euclidean distance between two vectors
+   * @param v1 The other vector
+   * @param v2 The other vector
+   * @return The squared distance
+   */
+  public static double squaredDistance(/*@ non_null @*/ Vector2d v1, /*@ non_null @*/ Vector2d v2)
+  {
+    double dx = v1.m_x - v2.m_x, dy = v1.m_y - v2.m_y;
+    return dx * dx + dy * dy;
   }
   
   /**
@@ -0,0 +1,137 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+/**
+ * A counter-based source of random values. A sequential generator draws
+ * its values one after the other from a state that it updates; here, the
+ * value of index <i>n</i> is instead computed directly from a key and
+ * <i>n</i>, by scrambling <i>key</i>&nbsp;+&nbsp;(<i>n</i>+1)&gamma; with
+ * the SplitMix64 finalizer of {@link Seeds}. An instance is immutable:
+ * any thread can draw any value, in any order, and the same index always
+ * gives the same value.
+ * <p>
+ * Independent streams are obtained with {@link #split(long)}: a scenario
+ * typically splits its seed into one stream per quantity to draw, such as
+ * the first coordinate of the positions, and indexes each stream by
+ * patient, or by patient and step with {@link #index(int, int)}. A
+ * simulation computed in parallel, in several processes or from a
+ * checkpoint therefore draws exactly the same values as a sequential
+ * one.
+ */
+public class CounterRandom
+{
+  /**
+   * The key of the stream, mixed
+   */
+  protected final long m_key;
+
+  /**
+   * Creates a new stream
+   * @param seed The seed of the stream
+   */
+  public CounterRandom(long seed)
+  {
+    super();
+    m_key = Seeds.mix(seed);
+  }
+
+  /**
+   * Creates a stream independent from this one
+   * @param index The index of the new stream; different indices give
+   * different streams
+   * @return The new stream
+   */
+  public CounterRandom split(long index)
+  {
+    return new CounterRandom(nextLong(index));
+  }
+
+  /**
+   * Gets the 64 random bits of a given index. For a stream created with a
+   * seed <i>s</i>, these are the bits returned by
+   * {@link Seeds#deriveLong(long, long) Seeds.deriveLong(<i>s</i>, index)}.
+   * @param index The index
+   * @return The bits
+   */
+  public long nextLong(long index)
+  {
+    return Seeds.mix(m_key + (index + 1) * Seeds.GOLDEN_GAMMA);
+  }
+
+  /**
+   * Gets the value of a given index, uniform between 0 (inclusive) and 1
+   * (exclusive), with 53 bits of precision
+   * @param index The index
+   * @return The value
+   */
+  public double nextDouble(long index)
+  {
+    return (nextLong(index) >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Gets the value of a given index, uniform between 0 (inclusive) and 1
+   * (exclusive), with 24 bits of precision
+   * @param index The index
+   * @return The value
+   */
+  public float nextFloat(long index)
+  {
+    return (nextLong(index) >>> 40) * 0x1.0p-24f;
+  }
+
+  /**
+   * Gets the value of a given index from a Bernoulli distribution
+   * @param p The probability of <tt>true</tt>
+   * @param index The index
+   * @return The value
+   */
+  public boolean nextBoolean(double p, long index)
+  {
+    return nextDouble(index) < p;
+  }
+
+  /**
+   * Gets the value of a given index from the standard normal
+   * distribution, with the Box-Muller transform. The value uses the
+   * uniform values of indices 2&times;<tt>index</tt> and
+   * 2&times;<tt>index</tt>+1.
+   * @param index The index
+   * @return The value
+   */
+  public double nextGaussian(long index)
+  {
+    // 1 - u lies in (0, 1], whose logarithm is finite
+    double u = 1 - nextDouble(2 * index);
+    double v = nextDouble(2 * index + 1);
+    return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+  }
+
+  /**
+   * Combines two 32-bit counters, such as a patient and a step, into an
+   * index
+   * @param high The first counter
+   * @param low The second counter
+   * @return The index
+   */
+  public static long index(int high, int low)
+  {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+import virussim.Patient.Health;
+
+/**
+ * A {@link HealthModel} where every infected patient recovers after the
+ * same number of steps. The model holds a single table giving the health
+ * state of a patient after each step of its infection, which replaces the
+ * {@link StepCounter} of each patient.
+ */
+public class FixedRecoveryModel extends HealthModel
+{
+  /**
+   * The health state of a patient at each step of its infection
+   */
+  /*@ non_null @*/ protected final Health[] m_table;
+
+  /**
+   * The ordinal of each health state of {@link #m_table}
+   */
+  /*@ non_null @*/ protected final byte[] m_ordinals;
+
+  /**
+   * Creates a new model
+   * @param num_steps The number of steps after which a patient recovers
+   * @throws IllegalArgumentException If the number of steps is not
+   * between 1 and {@link HealthModel#MAX_TICKS}
+   */
+  public FixedRecoveryModel(int num_steps)
+  {
+    super();
+    if (num_steps < 1 || num_steps > MAX_TICKS)
+    {
+      throw new IllegalArgumentException("The number of recovery steps must be between 1 and " + MAX_TICKS);
+    }
+    m_table = new Health[num_steps];
+    for (int i = 0; i < num_steps - 1; i++)
+    {
+      m_table[i] = Health.INFECTED;
+    }
+    m_table[num_steps - 1] = Health.RECOVERED;
+    m_ordinals = new byte[num_steps];
+    for (int i = 0; i < num_steps; i++)
+    {
+      m_ordinals[i] = (byte) m_table[i].ordinal();
+    }
+  }
+
+  /**
+   * Gets the number of steps after which a patient recovers
+   * @return The number of steps
+   */
+  public int getNumSteps()
+  {
+    return m_table.length;
+  }
+
+  @Override
+  public Health next(int key, int ticks)
+  {
+    return m_table[ticks % m_table.length];
+  }
+
+  @Override
+  public void next(int n, /*@ non_null @*/ int[] keys, /*@ non_null @*/ short[] ticks, /*@ non_null @*/ byte[] out)
+  {
+    int length = m_ordinals.length;
+    for (int k = 0; k < n; k++)
+    {
+      out[k] = m_ordinals[(ticks[k] & 0xFFFF) % length];
+    }
+  }
+}
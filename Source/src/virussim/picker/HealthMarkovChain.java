@@ -17,33 +17,55 @@
  */
 package virussim.picker;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import ca.uqac.lif.synthia.Picker;
-import ca.uqac.lif.synthia.sequence.MarkovChain;
-import ca.uqac.lif.synthia.util.Constant;
 import virussim.Patient;
 
-public class HealthMarkovChain extends MarkovChain<Patient.Health>
+public class HealthMarkovChain implements Picker<Patient.Health>
 {
   /**
-   * The constant picker representing the "INFECTED" health state
+   * The state in which the patient is infected
    */
-  protected static final Constant<Patient.Health> s_infected = new Constant<Patient.Health>(Patient.Health.INFECTED);
-  
+  protected static final int INFECTED = 0;
+
+  /**
+   * The state in which the patient has recovered
+   */
+  protected static final int RECOVERED = 1;
+
   /**
-   * The constant picker representing the "HEALTHY" health state
+   * The state in which the patient is dead
    */
-  protected static final Constant<Patient.Health> s_healthy = new Constant<Patient.Health>(Patient.Health.HEALTHY);
-  
+  protected static final int DEAD = 2;
+
   /**
-   * The constant picker representing the "RECOVERED" health state
+   * The health state associated to each state of the chain
    */
-  protected static final Constant<Patient.Health> s_recovered = new Constant<Patient.Health>(Patient.Health.RECOVERED);
-  
+  protected static final Patient.Health[] s_labels = {Patient.Health.INFECTED, Patient.Health.RECOVERED, Patient.Health.DEAD};
+
   /**
-   * The constant picker representing the "DEAD" health state
+   * The probability of staying infected in the next iteration
    */
-  protected static final Constant<Patient.Health> s_dead = new Constant<Patient.Health>(Patient.Health.DEAD);
-  
+  protected final float m_pInfected;
+
+  /**
+   * The probability of dying in the next iteration
+   */
+  protected final float m_pDead;
+
+  /**
+   * The random source used to pick the transitions
+   */
+  /*@ non_null @*/ protected final Picker<Float> m_floatSource;
+
+  /**
+   * The current state of the chain
+   */
+  protected int m_currentState = INFECTED;
+
   /**
    * Creates a new instance of the health Markov chain
    * @param p_infected The probability of staying infected in the
@@ -53,15 +75,95 @@ public class HealthMarkovChain extends MarkovChain<Patient.Health>
    */
   public HealthMarkovChain(float p_infected, float p_dead, Picker<Float> float_source)
   {
-    super(float_source);
-    add(0, s_infected);
-    add(1, s_recovered);
-    add(2, s_dead);
-    add(0, 0, p_infected);
-    add(0, 2, p_dead);
-    add(0, 1, 1 - p_infected - p_dead);
-    add(1, 1, 1);
-    add(2, 2, 1);
+    super();
+    m_pInfected = p_infected;
+    m_pDead = p_dead;
+    m_floatSource = float_source;
   }
 
+  /**
+   * Moves to the next state of the chain, and returns the health state
+   * associated to it. The recovered and dead states are absorbing; from
+   * the infected state, the transitions to the infected, dead and
+   * recovered states are tried in this order.
+   */
+  @Override
+  public Patient.Health pick()
+  {
+    float f = m_floatSource.pick();
+    if (m_currentState == INFECTED)
+    {
+      if (f < m_pInfected)
+      {
+        m_currentState = INFECTED;
+      }
+      else if (f < m_pInfected + m_pDead)
+      {
+        m_currentState = DEAD;
+      }
+      else
+      {
+        m_currentState = RECOVERED;
+      }
+    }
+    return s_labels[m_currentState];
+  }
+
+  @Override
+  public void reset()
+  {
+    m_currentState = INFECTED;
+    m_floatSource.reset();
+  }
+
+  @Override
+  public HealthMarkovChain duplicate(boolean with_state)
+  {
+    HealthMarkovChain hmc = new HealthMarkovChain(m_pInfected, m_pDead, m_floatSource.duplicate(with_state));
+    if (with_state)
+    {
+      hmc.m_currentState = m_currentState;
+    }
+    return hmc;
+  }
+
+  /**
+   * Writes the parameters and the current state of this chain, including
+   * the state of its random source
+   * @param out The output to write to
+   * @throws IOException If the state cannot be written
+   * @throws IllegalStateException If the random source is not a
+   * {@link SeededRandomFloat}, whose state cannot be saved
+   */
+  public void writeState(/*@ non_null @*/ DataOutput out) throws IOException
+  {
+    if (!(m_floatSource instanceof SeededRandomFloat))
+    {
+      throw new IllegalStateException("The state of the random source cannot be saved");
+    }
+    SeededRandomFloat rf = (SeededRandomFloat) m_floatSource;
+    out.writeFloat(m_pInfected);
+    out.writeFloat(m_pDead);
+    out.writeInt(m_currentState);
+    out.writeLong(rf.m_seed);
+    out.writeLong(rf.getState());
+  }
+
+  /**
+   * Creates a chain from a state written by {@link #writeState(DataOutput)}
+   * @param in The input to read from
+   * @return The chain
+   * @throws IOException If the state cannot be read
+   */
+  public static HealthMarkovChain readState(/*@ non_null @*/ DataInput in) throws IOException
+  {
+    float p_infected = in.readFloat();
+    float p_dead = in.readFloat();
+    int state = in.readInt();
+    SeededRandomFloat rf = new SeededRandomFloat(in.readLong());
+    rf.setState(in.readLong());
+    HealthMarkovChain hmc = new HealthMarkovChain(p_infected, p_dead, rf);
+    hmc.m_currentState = state;
+    return hmc;
+  }
 }
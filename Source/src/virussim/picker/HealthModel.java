@@ -0,0 +1,82 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+import virussim.Patient.Health;
+
+/**
+ * The evolution of the health state of infected patients, shared by all
+ * the patients of a scenario. A model is immutable: the only state kept
+ * for each patient is the number of steps since its infection, and a key
+ * identifying the patient. Where the model needs randomness, the
+ * <i>n</i>-th value of a patient is computed from the seed of the model,
+ * the key of the patient and <i>n</i>, rather than drawn from a
+ * generator owned by the patient. The result therefore does not depend on
+ * the order in which patients are updated, nor on the thread that updates
+ * them.
+ */
+public abstract class HealthModel
+{
+  /**
+   * The largest number of steps since infection that is counted for a
+   * patient; the count of a patient infected for longer stays at this
+   * value
+   */
+  public static final int MAX_TICKS = 0xFFFF;
+
+  /**
+   * Gets the health state of an infected patient at the next step
+   * @param key The key of the patient
+   * @param ticks The number of times this method has already been called
+   * for the patient since its infection, at most {@link #MAX_TICKS}
+   * @return The health state
+   */
+  public abstract Health next(int key, int ticks);
+
+  /**
+   * Gets the health state of several infected patients at the next step.
+   * The arguments are dense arrays, so that descendants can compute all
+   * the states in one tight loop; this implementation simply calls
+   * {@link #next(int, int)} for each patient.
+   * @param n The number of patients
+   * @param keys The key of each patient
+   * @param ticks The number of steps since the infection of each patient,
+   * read as unsigned values
+   * @param out An array where the ordinal of the health state of each
+   * patient is written
+   */
+  public void next(int n, /*@ non_null @*/ int[] keys, /*@ non_null @*/ short[] ticks, /*@ non_null @*/ byte[] out)
+  {
+    for (int k = 0; k < n; k++)
+    {
+      out[k] = (byte) next(keys[k], ticks[k] & 0xFFFF).ordinal();
+    }
+  }
+
+  /**
+   * Increments a number of steps since infection stored in a
+   * <tt>short</tt>, which is read as an unsigned value and saturates at
+   * {@link #MAX_TICKS}
+   * @param ticks The number of steps
+   * @return The incremented number
+   */
+  public static short increment(short ticks)
+  {
+    return (ticks & 0xFFFF) == MAX_TICKS ? ticks : (short) (ticks + 1);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+import virussim.Patient.Health;
+
+/**
+ * A {@link HealthModel} where an infected patient stays infected, dies or
+ * recovers at each step with fixed probabilities, as in a
+ * {@link HealthMarkovChain}. Since the dead and recovered states are
+ * absorbing and only infected patients are updated, the state of the
+ * chain of a patient is given by its health state, and the model only
+ * needs the transitions out of the infected state. These are kept in a
+ * table of cumulative probabilities shared by all patients.
+ * <p>
+ * The value drawn for the <i>n</i>-th step of the infection of the patient
+ * with key <i>k</i> is the value of index (<i>k</i>, <i>n</i>) of a
+ * {@link CounterRandom} created from the seed. Any patient and any step
+ * can therefore be computed independently.
+ */
+public class MarkovHealthModel extends HealthModel
+{
+  /**
+   * The cumulative probabilities of the transitions out of the infected
+   * state
+   */
+  /*@ non_null @*/ protected final float[] m_thresholds;
+
+  /**
+   * The destination of each transition out of the infected state
+   */
+  /*@ non_null @*/ protected final Health[] m_targets;
+
+  /**
+   * The ordinal of the destination of each transition
+   */
+  /*@ non_null @*/ protected final byte[] m_targetOrdinals;
+
+  /**
+   * The source of the random values
+   */
+  /*@ non_null @*/ protected final CounterRandom m_random;
+
+  /**
+   * Creates a new model
+   * @param p_infected The probability of staying infected at the next step
+   * @param p_dead The probability of dying at the next step
+   * @param seed The seed of the random values
+   */
+  public MarkovHealthModel(float p_infected, float p_dead, long seed)
+  {
+    super();
+    // Same transitions, in the same order, as in HealthMarkovChain
+    m_thresholds = new float[] {p_infected, p_infected + p_dead};
+    m_targets = new Health[] {Health.INFECTED, Health.DEAD, Health.RECOVERED};
+    m_targetOrdinals = new byte[m_targets.length];
+    for (int t = 0; t < m_targets.length; t++)
+    {
+      m_targetOrdinals[t] = (byte) m_targets[t].ordinal();
+    }
+    m_random = new CounterRandom(seed);
+  }
+
+  @Override
+  public Health next(int key, int ticks)
+  {
+    float f = uniform(key, ticks);
+    int t = 0;
+    while (t < m_thresholds.length && f >= m_thresholds[t])
+    {
+      t++;
+    }
+    return m_targets[t];
+  }
+
+  /**
+   * Gets the health state of several infected patients at the next step.
+   * Since the cumulative probabilities are increasing, the transition
+   * taken is the number of thresholds below the value drawn, which is
+   * computed without branches.
+   */
+  @Override
+  public void next(int n, /*@ non_null @*/ int[] keys, /*@ non_null @*/ short[] ticks, /*@ non_null @*/ byte[] out)
+  {
+    float t0 = m_thresholds[0], t1 = m_thresholds[1];
+    for (int k = 0; k < n; k++)
+    {
+      float f = uniform(keys[k], ticks[k] & 0xFFFF);
+      int t = (f >= t0 ? 1 : 0) + (f >= t1 ? 1 : 0);
+      out[k] = m_targetOrdinals[t];
+    }
+  }
+
+  /**
+   * Gets a value drawn uniformly between 0 and 1
+   * @param key The key of the patient
+   * @param ticks The index of the value for this patient
+   * @return The value
+   */
+  protected float uniform(int key, int ticks)
+  {
+    return m_random.nextFloat(CounterRandom.index(key, ticks));
+  }
+}
@@ -0,0 +1,263 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import virussim.Patient.Health;
+import virussim.Population;
+
+/**
+ * Generates the initial state of a population of patients in bulk,
+ * directly into the arrays of a {@link Population}: a position uniform
+ * over the arena (or Gaussian around its center), a velocity of fixed
+ * norm in a uniform direction, and a probability of being movable. The
+ * first patient is infected.
+ * <p>
+ * Each of these quantities is drawn from its own {@link CounterRandom}
+ * stream, split from the seed, at the index of the patient in the
+ * population. The state of a patient therefore depends only on the seed
+ * and on its index: the population is cut into chunks of
+ * {@value #CHUNK_SIZE} patients, which are filled by any number of
+ * threads, in any order, and always give the same population.
+ */
+public class PopulationGenerator
+{
+  /**
+   * The number of patients of a chunk
+   */
+  public static final int CHUNK_SIZE = 1 << 14;
+
+  /**
+   * The ordinal of the INFECTED state
+   */
+  protected static final byte INFECTED = (byte) Health.INFECTED.ordinal();
+
+  /**
+   * The index of the stream of the first coordinate of the positions
+   */
+  protected static final int STREAM_X = 0;
+
+  /**
+   * The index of the stream of the second coordinate of the positions
+   */
+  protected static final int STREAM_Y = 1;
+
+  /**
+   * The index of the stream of the direction of the velocities
+   */
+  protected static final int STREAM_ANGLE = 2;
+
+  /**
+   * The index of the stream of the movable flags
+   */
+  protected static final int STREAM_MOVABLE = 3;
+
+  /**
+   * The stream of the first coordinate of the positions
+   */
+  /*@ non_null @*/ protected final CounterRandom m_x;
+
+  /**
+   * The stream of the second coordinate of the positions
+   */
+  /*@ non_null @*/ protected final CounterRandom m_y;
+
+  /**
+   * The stream of the direction of the velocities
+   */
+  /*@ non_null @*/ protected final CounterRandom m_angle;
+
+  /**
+   * The stream of the movable flags
+   */
+  /*@ non_null @*/ protected final CounterRandom m_movable;
+
+  /**
+   * The width of the arena
+   */
+  protected final double m_width;
+
+  /**
+   * The height of the arena
+   */
+  protected final double m_height;
+
+  /**
+   * The norm of the velocity of each patient
+   */
+  protected final double m_velocity;
+
+  /**
+   * The probability of a patient being movable
+   */
+  protected final double m_movableProbability;
+
+  /**
+   * Whether positions follow a Gaussian distribution around the center of
+   * the arena, instead of a uniform distribution
+   */
+  protected boolean m_gaussian = false;
+
+  /**
+   * The number of threads filling the chunks
+   */
+  protected int m_threads = 1;
+
+  /**
+   * Creates a new generator
+   * @param seed The seed of the generator
+   * @param width The width of the arena
+   * @param height The height of the arena
+   * @param velocity The norm of the velocity of each patient
+   * @param movable_probability The probability of a patient being movable
+   */
+  public PopulationGenerator(long seed, double width, double height, double velocity, double movable_probability)
+  {
+    super();
+    CounterRandom r = new CounterRandom(seed);
+    m_x = r.split(STREAM_X);
+    m_y = r.split(STREAM_Y);
+    m_angle = r.split(STREAM_ANGLE);
+    m_movable = r.split(STREAM_MOVABLE);
+    m_width = width;
+    m_height = height;
+    m_velocity = velocity;
+    m_movableProbability = movable_probability;
+  }
+
+  /**
+   * Sets whether positions follow a Gaussian distribution around the
+   * center of the arena, with a standard deviation of a sixth of its
+   * width and height, instead of a uniform distribution
+   * @param b <tt>true</tt> for a Gaussian distribution, <tt>false</tt>
+   * for a uniform distribution (the default)
+   * @return This generator
+   */
+  public PopulationGenerator setGaussianPositions(boolean b)
+  {
+    m_gaussian = b;
+    return this;
+  }
+
+  /**
+   * Sets the number of threads filling the chunks. The population does
+   * not depend on this number.
+   * @param threads The number of threads
+   * @return This generator
+   * @throws IllegalArgumentException If the number is not positive
+   */
+  public PopulationGenerator setThreads(int threads)
+  {
+    if (threads < 1)
+    {
+      throw new IllegalArgumentException("The number of threads must be positive");
+    }
+    m_threads = threads;
+    return this;
+  }
+
+  /**
+   * Generates a population
+   * @param size The number of patients
+   * @param first_id The ID of the first patient
+   * @return The population
+   */
+  public Population generate(int size, int first_id)
+  {
+    final Population p = new Population(first_id, size);
+    final int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int threads = Math.min(m_threads, chunks);
+    if (threads <= 1)
+    {
+      for (int c = 0; c < chunks; c++)
+      {
+        fill(p, c);
+      }
+    }
+    else
+    {
+      // Each thread takes the next chunk that nobody has taken
+      final AtomicInteger next = new AtomicInteger();
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; t++)
+      {
+        workers[t] = new Thread("population-" + t) {
+          @Override
+          public void run()
+          {
+            int c;
+            while ((c = next.getAndIncrement()) < chunks)
+            {
+              fill(p, c);
+            }
+          }
+        };
+        workers[t].start();
+      }
+      try
+      {
+        for (Thread w : workers)
+        {
+          w.join();
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while generating a population");
+      }
+    }
+    if (size > 0)
+    {
+      // Set a single patient as infected
+      p.getHealth()[0] = INFECTED;
+    }
+    return p;
+  }
+
+  /**
+   * Fills the patients of a chunk
+   * @param p The population
+   * @param chunk The index of the chunk
+   */
+  protected void fill(/*@ non_null @*/ Population p, int chunk)
+  {
+    double[] x = p.getX(), y = p.getY(), vx = p.getVx(), vy = p.getVy();
+    boolean[] fixed = p.getFixed();
+    int from = chunk * CHUNK_SIZE;
+    int to = Math.min(p.size(), from + CHUNK_SIZE);
+    for (int i = from; i < to; i++)
+    {
+      if (m_gaussian)
+      {
+        x[i] = m_x.nextGaussian(i) * m_width / 6 + m_width / 2;
+        y[i] = m_y.nextGaussian(i) * m_height / 6 + m_height / 2;
+      }
+      else
+      {
+        x[i] = m_x.nextDouble(i) * m_width;
+        y[i] = m_y.nextDouble(i) * m_height;
+      }
+      double angle = m_angle.nextDouble(i) * 2 * Math.PI;
+      vx[i] = m_velocity * Math.cos(angle);
+      vy[i] = m_velocity * Math.sin(angle);
+      fixed[i] = !m_movable.nextBoolean(m_movableProbability, i);
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+import ca.uqac.lif.synthia.Picker;
+
+/**
+ * Picks floats uniformly between 0 and 1, with the same sequence as a
+ * {@link ca.uqac.lif.synthia.random.RandomFloat RandomFloat} given the
+ * same seed. The generator is the linear congruential generator of
+ * {@link java.util.Random}, reimplemented so that its state can be read
+ * and restored, for example when saving a simulation in a checkpoint.
+ */
+public class SeededRandomFloat implements Picker<Float>
+{
+  /**
+   * The multiplier of the generator
+   */
+  protected static final long MULTIPLIER = 0x5DEECE66DL;
+
+  /**
+   * The increment of the generator
+   */
+  protected static final long ADDEND = 0xBL;
+
+  /**
+   * The mask keeping the 48 bits of the state
+   */
+  protected static final long MASK = (1L << 48) - 1;
+
+  /**
+   * The seed given to the picker
+   */
+  protected long m_seed;
+
+  /**
+   * The current state of the generator
+   */
+  protected long m_state;
+
+  /**
+   * Creates a new picker
+   * @param seed The seed
+   */
+  public SeededRandomFloat(long seed)
+  {
+    super();
+    setSeed(seed);
+  }
+
+  /**
+   * Sets the seed of the picker, and restarts its sequence
+   * @param seed The seed
+   */
+  public void setSeed(long seed)
+  {
+    m_seed = seed;
+    m_state = (seed ^ MULTIPLIER) & MASK;
+  }
+
+  /**
+   * Gets the current state of the generator
+   * @return The state
+   */
+  public long getState()
+  {
+    return m_state;
+  }
+
+  /**
+   * Sets the current state of the generator
+   * @param state A state returned by {@link #getState()}
+   */
+  public void setState(long state)
+  {
+    m_state = state & MASK;
+  }
+
+  @Override
+  public Float pick()
+  {
+    m_state = (m_state * MULTIPLIER + ADDEND) & MASK;
+    return (int) (m_state >>> 24) / (float) (1 << 24);
+  }
+
+  @Override
+  public void reset()
+  {
+    setSeed(m_seed);
+  }
+
+  @Override
+  public SeededRandomFloat duplicate(boolean with_state)
+  {
+    SeededRandomFloat rf = new SeededRandomFloat(m_seed);
+    if (with_state)
+    {
+      rf.m_state = m_state;
+    }
+    return rf;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.picker;
+
+/**
+ * Derives independent seeds from a master seed. Consecutive seeds such as
+ * 0, 1, 2 produce correlated streams in some generators; the seeds
+ * returned here are instead scrambled with the finalizer of the SplitMix64
+ * generator, so that the seed derived for each index looks unrelated to
+ * the others, while always being the same for a given master seed and
+ * index.
+ */
+public class Seeds
+{
+  /**
+   * The increment of the SplitMix64 generator (the golden ratio)
+   */
+  protected static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Private constructor; this class only has static methods
+   */
+  private Seeds()
+  {
+    super();
+  }
+
+  /**
+   * Scrambles a 64-bit value with the SplitMix64 finalizer
+   * @param z The value
+   * @return The scrambled value
+   */
+  public static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Derives a seed from a master seed and an index
+   * @param seed The master seed
+   * @param index The index
+   * @return The derived seed
+   */
+  public static int derive(long seed, long index)
+  {
+    return (int) (deriveLong(seed, index) >>> 32);
+  }
+
+  /**
+   * Derives a 64-bit seed from a master seed and an index
+   * @param seed The master seed
+   * @param index The index
+   * @return The derived seed; its upper 32 bits are the seed returned by
+   * {@link #derive(long, long)}
+   */
+  public static long deriveLong(long seed, long index)
+  {
+    return mix(mix(seed) + (index + 1) * GOLDEN_GAMMA);
+  }
+}
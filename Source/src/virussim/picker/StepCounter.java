@@ -17,25 +17,90 @@
  */
 package virussim.picker;
 
-import ca.uqac.lif.synthia.replay.Playback;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ca.uqac.lif.synthia.Picker;
 import virussim.Patient;
 import virussim.Patient.Health;
 
-public class StepCounter extends Playback<Patient.Health>
+public class StepCounter implements Picker<Patient.Health>
 {
+  /**
+   * The number of steps after which the patient recovers
+   */
+  protected final int m_numSteps;
+
+  /**
+   * The number of values picked since the last reset, modulo the number
+   * of steps
+   */
+  protected int m_index = 0;
+
   public StepCounter(int num_steps)
   {
-    super(createArray(num_steps));
+    super();
+    m_numSteps = num_steps;
+  }
+
+  /**
+   * Gets the number of steps after which the patient recovers
+   * @return The number of steps
+   */
+  public int getNumSteps()
+  {
+    return m_numSteps;
   }
-  
-  protected static Patient.Health[] createArray(int num_steps)
+
+  @Override
+  public Patient.Health pick()
+  {
+    // Same sequence as a playback of num_steps - 1 INFECTED followed by
+    // RECOVERED, looping at the end
+    Patient.Health h = m_index == m_numSteps - 1 ? Health.RECOVERED : Health.INFECTED;
+    m_index = (m_index + 1) % m_numSteps;
+    return h;
+  }
+
+  @Override
+  public void reset()
   {
-    Patient.Health[] out = new Patient.Health[num_steps];
-    for (int i = 0; i < num_steps - 1; i++)
+    m_index = 0;
+  }
+
+  @Override
+  public StepCounter duplicate(boolean with_state)
+  {
+    StepCounter sc = new StepCounter(m_numSteps);
+    if (with_state)
     {
-      out[i] = Health.INFECTED;
+      sc.m_index = m_index;
     }
-    out[num_steps - 1] = Health.RECOVERED;
-    return out;
+    return sc;
+  }
+
+  /**
+   * Writes the parameters and the current state of this picker
+   * @param out The output to write to
+   * @throws IOException If the state cannot be written
+   */
+  public void writeState(/*@ non_null @*/ DataOutput out) throws IOException
+  {
+    out.writeInt(m_numSteps);
+    out.writeInt(m_index);
+  }
+
+  /**
+   * Creates a picker from a state written by {@link #writeState(DataOutput)}
+   * @param in The input to read from
+   * @return The picker
+   * @throws IOException If the state cannot be read
+   */
+  public static StepCounter readState(/*@ non_null @*/ DataInput in) throws IOException
+  {
+    StepCounter sc = new StepCounter(in.readInt());
+    sc.m_index = in.readInt();
+    return sc;
   }
 }
@@ -0,0 +1,339 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.record;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by a {@link ContactWriter}, one contact at a time.
+ * The file is read one block at a time: each block is decompressed and
+ * decoded into arrays of primitive values, from which the contacts are
+ * then read without allocating any object.
+ */
+public class ContactReader implements Closeable
+{
+  /**
+   * The channel to the file
+   */
+  /*@ non_null @*/ protected final FileChannel m_channel;
+
+  /**
+   * The buffer where the header of a block is read
+   */
+  /*@ non_null @*/ protected final ByteBuffer m_header = ByteBuffer.allocate(ContactWriter.BLOCK_HEADER_SIZE);
+
+  /**
+   * The compressed columns of the current block
+   */
+  /*@ non_null @*/ protected byte[] m_compressed = new byte[0];
+
+  /**
+   * The columns of the current block, after decompression
+   */
+  /*@ non_null @*/ protected byte[] m_raw = new byte[0];
+
+  /**
+   * The decompressor of the blocks
+   */
+  /*@ non_null @*/ protected final Inflater m_inflater = new Inflater();
+
+  /**
+   * The step of each contact of the current block
+   */
+  /*@ non_null @*/ protected final long[] m_steps = new long[ContactWriter.BLOCK_SIZE];
+
+  /**
+   * The first ID of each contact of the current block
+   */
+  /*@ non_null @*/ protected final int[] m_first = new int[ContactWriter.BLOCK_SIZE];
+
+  /**
+   * The second ID of each contact of the current block
+   */
+  /*@ non_null @*/ protected final int[] m_second = new int[ContactWriter.BLOCK_SIZE];
+
+  /**
+   * The transmission of each contact of the current block, as a bitset
+   */
+  /*@ non_null @*/ protected final long[] m_transmitted = new long[ContactWriter.BLOCK_SIZE / 64];
+
+  /**
+   * The number of contacts in the current block
+   */
+  protected int m_size = 0;
+
+  /**
+   * The index of the current contact in its block
+   */
+  protected int m_index = -1;
+
+  /**
+   * The number of contacts read
+   */
+  protected long m_count = 0;
+
+  /**
+   * Opens a file and reads its header
+   * @param file The file
+   * @throws IOException If the file cannot be read, or is not a contact
+   * file
+   */
+  public ContactReader(/*@ non_null @*/ Path file) throws IOException
+  {
+    super();
+    m_channel = FileChannel.open(file, StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(8);
+    if (!readFully(header))
+    {
+      m_channel.close();
+      throw new IOException("Not a contact file");
+    }
+    header.flip();
+    if (header.getInt() != ContactWriter.MAGIC)
+    {
+      m_channel.close();
+      throw new IOException("Not a contact file");
+    }
+    int version = header.getInt();
+    if (version != ContactWriter.VERSION)
+    {
+      m_channel.close();
+      throw new IOException("Unsupported version of the contact file: " + version);
+    }
+  }
+
+  /**
+   * Moves to the next contact
+   * @return <tt>true</tt> if there is a next contact, <tt>false</tt> if
+   * the end of the file has been reached
+   * @throws IOException If the file cannot be read or is corrupted
+   */
+  public boolean next() throws IOException
+  {
+    m_index++;
+    while (m_index >= m_size)
+    {
+      if (!readBlock())
+      {
+        m_index = m_size;
+        return false;
+      }
+      m_index = 0;
+    }
+    m_count++;
+    return true;
+  }
+
+  /**
+   * Gets the step of the current contact
+   * @return The step
+   */
+  public long getStep()
+  {
+    return m_steps[m_index];
+  }
+
+  /**
+   * Gets the ID of the first patient of the current contact, which is
+   * the patient that was being visited by the arena
+   * @return The ID
+   */
+  public int getFirst()
+  {
+    return m_first[m_index];
+  }
+
+  /**
+   * Gets the ID of the second patient of the current contact
+   * @return The ID
+   */
+  public int getSecond()
+  {
+    return m_second[m_index];
+  }
+
+  /**
+   * Determines if the virus was transmitted during the current contact
+   * @return <tt>true</tt> if the virus was transmitted, <tt>false</tt>
+   * otherwise
+   */
+  public boolean isTransmitted()
+  {
+    return (m_transmitted[m_index >>> 6] & (1L << m_index)) != 0;
+  }
+
+  /**
+   * Gets the number of contacts read so far
+   * @return The number of contacts
+   */
+  public long getCount()
+  {
+    return m_count;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    m_inflater.end();
+    m_channel.close();
+  }
+
+  /**
+   * Reads and decodes the next block
+   * @return <tt>true</tt> if a block was read, <tt>false</tt> if the end
+   * of the file has been reached
+   * @throws IOException If the file cannot be read or is corrupted
+   */
+  protected boolean readBlock() throws IOException
+  {
+    m_header.clear();
+    if (!readFully(m_header))
+    {
+      return false;
+    }
+    m_header.flip();
+    long first_step = m_header.getLong();
+    int size = m_header.getInt();
+    int runs = m_header.getInt();
+    int raw_size = m_header.getInt();
+    int compressed_size = m_header.getInt();
+    if (size < 0 || size > ContactWriter.BLOCK_SIZE || runs < 0 || runs > size || raw_size < 0 || compressed_size < 0)
+    {
+      throw new IOException("Corrupted contact file");
+    }
+    if (m_compressed.length < compressed_size)
+    {
+      m_compressed = new byte[compressed_size];
+    }
+    if (m_raw.length < raw_size)
+    {
+      m_raw = new byte[raw_size];
+    }
+    if (!readFully(ByteBuffer.wrap(m_compressed, 0, compressed_size)))
+    {
+      throw new EOFException("Truncated contact file");
+    }
+    m_inflater.reset();
+    m_inflater.setInput(m_compressed, 0, compressed_size);
+    try
+    {
+      int length = 0;
+      while (length < raw_size && !m_inflater.finished())
+      {
+        int n = m_inflater.inflate(m_raw, length, raw_size - length);
+        if (n == 0 && (m_inflater.needsInput() || m_inflater.needsDictionary()))
+        {
+          break;
+        }
+        length += n;
+      }
+      if (length != raw_size)
+      {
+        throw new IOException("Corrupted contact file");
+      }
+    }
+    catch (DataFormatException e)
+    {
+      throw new IOException("Corrupted contact file", e);
+    }
+    try
+    {
+      decode(ByteBuffer.wrap(m_raw, 0, raw_size), first_step, size, runs);
+    }
+    catch (BufferUnderflowException e)
+    {
+      throw new IOException("Corrupted contact file", e);
+    }
+    m_size = size;
+    return true;
+  }
+
+  /**
+   * Decodes the columns of a block into the arrays of the reader
+   * @param raw The columns
+   * @param first_step The step of the first contact of the block
+   * @param size The number of contacts of the block
+   * @param runs The number of runs of steps of the block
+   * @throws IOException If the block is corrupted
+   */
+  protected void decode(/*@ non_null @*/ ByteBuffer raw, long first_step, int size, int runs) throws IOException
+  {
+    long step = first_step;
+    int i = 0;
+    for (int r = 0; r < runs; r++)
+    {
+      step += TrajectoryReader.getVarint(raw);
+      int length = TrajectoryReader.getVarint(raw);
+      if (length < 0 || i + length > size)
+      {
+        throw new IOException("Corrupted contact file");
+      }
+      for (int k = 0; k < length; k++)
+      {
+        m_steps[i++] = step;
+      }
+    }
+    for (i = 0; i < size; i++)
+    {
+      m_first[i] = TrajectoryReader.getVarint(raw);
+    }
+    for (i = 0; i < size; i++)
+    {
+      m_second[i] = m_first[i] + TrajectoryReader.unzigzag(TrajectoryReader.getVarint(raw));
+    }
+    int words = (size + 63) >>> 6;
+    for (int w = 0; w < words; w++)
+    {
+      m_transmitted[w] = raw.getLong();
+    }
+  }
+
+  /**
+   * Reads bytes from the file until a buffer is full
+   * @param b The buffer
+   * @return <tt>true</tt> if the buffer was filled, <tt>false</tt> if the
+   * end of the file was reached before reading any byte
+   * @throws IOException If the file cannot be read, or ends in the
+   * middle of the buffer
+   */
+  protected boolean readFully(/*@ non_null @*/ ByteBuffer b) throws IOException
+  {
+    int start = b.position();
+    while (b.hasRemaining())
+    {
+      if (m_channel.read(b) < 0)
+      {
+        if (b.position() == start)
+        {
+          return false;
+        }
+        throw new EOFException("Truncated contact file");
+      }
+    }
+    return true;
+  }
+}
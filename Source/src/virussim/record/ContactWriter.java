@@ -0,0 +1,496 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import virussim.HealthCounts;
+import virussim.Patient.Health;
+import virussim.physics.Arena;
+import virussim.physics.ContactListener;
+
+/**
+ * Records the contacts between patients found by an {@link Arena} into a
+ * compressed binary file, which can be read back with a
+ * {@link ContactReader}. The writer is given to the arena with
+ * {@link Arena#setContactListener(ContactListener)}; for each contact, it
+ * records the current step, the IDs of the two patients, and whether the
+ * virus was transmitted during the contact. A transmission is detected by
+ * a drop of the number of healthy patients in the {@link HealthCounts} of
+ * the arena, since nothing else makes this number decrease.
+ * <p>
+ * Contacts are appended to arrays of primitive values, so that recording
+ * one allocates no object. When {@value #BLOCK_SIZE} contacts have been
+ * collected, the arrays are handed over to a background thread and the
+ * writer goes on with a second set of arrays. The background thread
+ * encodes the block column by column (the steps as runs of equal values,
+ * the first IDs, the differences between the second and the first IDs,
+ * and the transmissions as a bitset), with variable-length integers, and
+ * compresses it with {@link Deflater} before writing it. The simulation
+ * only waits if a block fills up before the previous one is written.
+ * <p>
+ * The file starts with a header made of a magic number and a version,
+ * followed by the blocks. Each block has a header giving its first step,
+ * its number of contacts and of runs of steps, and the size of its
+ * columns before and after compression.
+ * <p>
+ * Contacts must be recorded by a single thread; the arenas call their
+ * listener from the thread computing the step.
+ */
+public class ContactWriter implements ContactListener, Closeable
+{
+  /**
+   * The first four bytes of a contact file ("VSCT")
+   */
+  public static final int MAGIC = 0x56534354;
+
+  /**
+   * The version of the file format
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * The number of contacts in a full block
+   */
+  public static final int BLOCK_SIZE = 1 << 16;
+
+  /**
+   * The number of bytes of the header of a block
+   */
+  protected static final int BLOCK_HEADER_SIZE = 24;
+
+  /**
+   * The channel to the file
+   */
+  /*@ non_null @*/ protected final FileChannel m_channel;
+
+  /**
+   * The counts from which transmissions are detected
+   */
+  /*@ non_null @*/ protected final HealthCounts m_counts;
+
+  /**
+   * The thread encoding and writing the blocks
+   */
+  /*@ non_null @*/ protected final ExecutorService m_executor;
+
+  /**
+   * The block where contacts are currently appended
+   */
+  /*@ non_null @*/ protected Block m_block = new Block();
+
+  /**
+   * The block handed over to the background thread, which is reused once
+   * it has been written
+   */
+  /*@ non_null @*/ protected Block m_spare = new Block();
+
+  /**
+   * The writing of the last block handed over, if any
+   */
+  protected Future<Void> m_pending = null;
+
+  /**
+   * The step of the contacts being recorded
+   */
+  protected long m_step = 0;
+
+  /**
+   * The number of healthy patients after the last contact
+   */
+  protected int m_healthy;
+
+  /**
+   * The number of contacts recorded
+   */
+  protected long m_contacts = 0;
+
+  /**
+   * The number of contacts recorded during which the virus was
+   * transmitted
+   */
+  protected long m_transmissions = 0;
+
+  /**
+   * Creates a writer and writes the header of the file
+   * @param file The file to write; it is replaced if it exists
+   * @param counts The counts of the arena whose contacts are recorded
+   * @throws IOException If the file cannot be written
+   */
+  public ContactWriter(/*@ non_null @*/ Path file, /*@ non_null @*/ HealthCounts counts) throws IOException
+  {
+    super();
+    m_counts = counts;
+    m_healthy = counts.get(Health.HEALTHY);
+    m_channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.flip();
+    while (header.hasRemaining())
+    {
+      m_channel.write(header);
+    }
+    m_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "contact-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Sets the step of the contacts recorded from now on. It is typically
+   * called before each update of the arena.
+   * @param step The step
+   */
+  public void setStep(long step)
+  {
+    m_step = step;
+    m_healthy = m_counts.get(Health.HEALTHY);
+  }
+
+  /**
+   * Gets the step of the contacts being recorded
+   * @return The step
+   */
+  public long getStep()
+  {
+    return m_step;
+  }
+
+  @Override
+  public void contact(int id1, int id2)
+  {
+    int healthy = m_counts.get(Health.HEALTHY);
+    boolean transmitted = healthy != m_healthy;
+    m_healthy = healthy;
+    m_block.add(m_step, id1, id2, transmitted);
+    m_contacts++;
+    if (transmitted)
+    {
+      m_transmissions++;
+    }
+    if (m_block.m_size == BLOCK_SIZE)
+    {
+      try
+      {
+        handOver();
+      }
+      catch (IOException e)
+      {
+        // The listener cannot throw checked exceptions
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of contacts recorded
+   * @return The number of contacts
+   */
+  public long getContactCount()
+  {
+    return m_contacts;
+  }
+
+  /**
+   * Gets the number of contacts recorded during which the virus was
+   * transmitted
+   * @return The number of contacts
+   */
+  public long getTransmissionCount()
+  {
+    return m_transmissions;
+  }
+
+  /**
+   * Writes the contacts recorded so far, and waits until they are in the
+   * file
+   * @throws IOException If the file cannot be written
+   */
+  public void flush() throws IOException
+  {
+    if (m_block.m_size > 0)
+    {
+      handOver();
+    }
+    if (m_pending != null)
+    {
+      collect();
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (!m_channel.isOpen())
+    {
+      return;
+    }
+    try
+    {
+      flush();
+      m_block.m_deflater.end();
+      m_spare.m_deflater.end();
+    }
+    finally
+    {
+      m_executor.shutdown();
+      m_channel.close();
+    }
+  }
+
+  /**
+   * Hands the current block over to the background thread, after waiting
+   * for the previous one to be written, and starts a new block
+   * @throws IOException If the previous block could not be written, or if
+   * the writer is closed
+   */
+  protected void handOver() throws IOException
+  {
+    if (!m_channel.isOpen())
+    {
+      throw new ClosedChannelException();
+    }
+    if (m_pending != null)
+    {
+      collect();
+    }
+    final Block b = m_block;
+    m_block = m_spare;
+    m_spare = b;
+    m_block.clear();
+    m_pending = m_executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException
+      {
+        ByteBuffer out = b.encode();
+        while (out.hasRemaining())
+        {
+          m_channel.write(out);
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Waits for the block being written
+   * @throws IOException If the block could not be written
+   */
+  protected void collect() throws IOException
+  {
+    Future<Void> f = m_pending;
+    m_pending = null;
+    try
+    {
+      f.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing contacts");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * A block of contacts, stored in parallel arrays. The steps are stored
+   * as runs of equal values, since contacts are recorded in the order of
+   * the steps.
+   */
+  protected static class Block
+  {
+    /**
+     * The first ID of each contact
+     */
+    /*@ non_null @*/ protected final int[] m_first = new int[BLOCK_SIZE];
+
+    /**
+     * The second ID of each contact
+     */
+    /*@ non_null @*/ protected final int[] m_second = new int[BLOCK_SIZE];
+
+    /**
+     * The transmission of each contact, as a bitset
+     */
+    /*@ non_null @*/ protected final long[] m_transmitted = new long[BLOCK_SIZE / 64];
+
+    /**
+     * The step of each run
+     */
+    /*@ non_null @*/ protected final long[] m_runSteps = new long[BLOCK_SIZE];
+
+    /**
+     * The number of contacts of each run
+     */
+    /*@ non_null @*/ protected final int[] m_runLengths = new int[BLOCK_SIZE];
+
+    /**
+     * The number of contacts in the block
+     */
+    protected int m_size = 0;
+
+    /**
+     * The number of runs in the block
+     */
+    protected int m_runs = 0;
+
+    /**
+     * The compressor of the block, reused from one block to the next
+     */
+    /*@ non_null @*/ protected final Deflater m_deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * The columns of the block before compression
+     */
+    /*@ non_null @*/ protected final ByteBuffer m_raw = ByteBuffer.allocate(maxRawSize());
+
+    /**
+     * The header and compressed columns of the block
+     */
+    /*@ non_null @*/ protected byte[] m_compressed = new byte[BLOCK_HEADER_SIZE + maxRawSize() / 2];
+
+    /**
+     * Appends a contact to the block
+     * @param step The step of the contact
+     * @param id1 The first ID
+     * @param id2 The second ID
+     * @param transmitted Whether the virus was transmitted
+     */
+    protected void add(long step, int id1, int id2, boolean transmitted)
+    {
+      if (m_runs == 0 || m_runSteps[m_runs - 1] != step)
+      {
+        m_runSteps[m_runs] = step;
+        m_runLengths[m_runs] = 0;
+        m_runs++;
+      }
+      m_runLengths[m_runs - 1]++;
+      int i = m_size++;
+      m_first[i] = id1;
+      m_second[i] = id2;
+      if (transmitted)
+      {
+        m_transmitted[i >>> 6] |= 1L << i;
+      }
+    }
+
+    /**
+     * Empties the block
+     */
+    protected void clear()
+    {
+      int words = (m_size + 63) >>> 6;
+      for (int w = 0; w < words; w++)
+      {
+        m_transmitted[w] = 0;
+      }
+      m_size = 0;
+      m_runs = 0;
+    }
+
+    /**
+     * Encodes and compresses the block
+     * @return A buffer holding the header of the block and its compressed
+     * columns, ready to be written
+     */
+    protected ByteBuffer encode()
+    {
+      ByteBuffer raw = m_raw;
+      raw.clear();
+      long last = m_runSteps[0];
+      for (int r = 0; r < m_runs; r++)
+      {
+        TrajectoryWriter.putVarint(raw, (int) (m_runSteps[r] - last));
+        TrajectoryWriter.putVarint(raw, m_runLengths[r]);
+        last = m_runSteps[r];
+      }
+      for (int i = 0; i < m_size; i++)
+      {
+        TrajectoryWriter.putVarint(raw, m_first[i]);
+      }
+      for (int i = 0; i < m_size; i++)
+      {
+        TrajectoryWriter.putVarint(raw, TrajectoryWriter.zigzag(m_second[i] - m_first[i]));
+      }
+      int words = (m_size + 63) >>> 6;
+      for (int w = 0; w < words; w++)
+      {
+        raw.putLong(m_transmitted[w]);
+      }
+      int raw_size = raw.position();
+      m_deflater.reset();
+      m_deflater.setInput(raw.array(), 0, raw_size);
+      m_deflater.finish();
+      int length = BLOCK_HEADER_SIZE;
+      while (!m_deflater.finished())
+      {
+        if (length == m_compressed.length)
+        {
+          m_compressed = Arrays.copyOf(m_compressed, 2 * m_compressed.length);
+        }
+        length += m_deflater.deflate(m_compressed, length, m_compressed.length - length);
+      }
+      ByteBuffer out = ByteBuffer.wrap(m_compressed, 0, length);
+      out.putLong(m_runSteps[0]);
+      out.putInt(m_size);
+      out.putInt(m_runs);
+      out.putInt(raw_size);
+      out.putInt(length - BLOCK_HEADER_SIZE);
+      out.position(0);
+      return out;
+    }
+
+    /**
+     * Gets the largest number of bytes the columns of a block can take
+     * before compression
+     * @return The number of bytes
+     */
+    protected static int maxRawSize()
+    {
+      // Two varints per run and per contact, and one bit per contact
+      return 20 * BLOCK_SIZE + BLOCK_SIZE / 8;
+    }
+  }
+}
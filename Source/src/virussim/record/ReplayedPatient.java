@@ -0,0 +1,122 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.record;
+
+import virussim.Patient;
+import virussim.physics.Ball;
+import virussim.physics.Vector2d;
+
+/**
+ * A patient whose position and health state are read from the current
+ * frame of a {@link TrajectoryReader}. As for the views of an arena, the
+ * vector returned by {@link #getPosition()} is reused, and its value only
+ * holds until the next frame is read. A replayed patient cannot be
+ * modified.
+ */
+public class ReplayedPatient extends Patient
+{
+  /**
+   * The reader the patient reads its state from
+   */
+  /*@ non_null @*/ protected final TrajectoryReader m_reader;
+
+  /**
+   * The index of the patient in the reader
+   */
+  protected final int m_index;
+
+  /**
+   * Creates a new replayed patient
+   * @param reader The reader the patient reads its state from
+   * @param index The index of the patient in the reader
+   * @param id The ID of the patient
+   */
+  protected ReplayedPatient(/*@ non_null @*/ TrajectoryReader reader, int index, int id)
+  {
+    super(id);
+    m_reader = reader;
+    m_index = index;
+    m_fixed = true;
+  }
+
+  @Override
+  public Vector2d getPosition()
+  {
+    return m_position.setX(m_reader.getX(m_index)).setY(m_reader.getY(m_index));
+  }
+
+  @Override
+  public void setPosition(/*@ non_null @*/ Vector2d p)
+  {
+    throw new UnsupportedOperationException("A replayed patient cannot be modified");
+  }
+
+  @Override
+  public void setVelocity(/*@ non_null @*/ Vector2d v)
+  {
+    throw new UnsupportedOperationException("A replayed patient cannot be modified");
+  }
+
+  @Override
+  public double getRadius()
+  {
+    return m_reader.getRadius(m_index);
+  }
+
+  @Override
+  public Health getHealthState()
+  {
+    return m_reader.getHealthState(m_index);
+  }
+
+  @Override
+  public void setHealthState(Health s)
+  {
+    throw new UnsupportedOperationException("A replayed patient cannot be modified");
+  }
+
+  /**
+   * Replayed patients are updated by their reader; calling this method
+   * has no effect
+   */
+  @Override
+  public void tick()
+  {
+    // Nothing to do
+  }
+
+  /**
+   * Interactions between replayed patients have already taken place;
+   * calling this method is not supported
+   */
+  @Override
+  public boolean interactWith(Ball b)
+  {
+    throw new UnsupportedOperationException("A replayed patient cannot interact");
+  }
+
+  /**
+   * Impacts between patients are computed by their arena; calling this
+   * method is not supported
+   */
+  @Override
+  public void impact(Ball b)
+  {
+    throw new UnsupportedOperationException("A replayed patient cannot interact");
+  }
+}
@@ -0,0 +1,413 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import virussim.HealthCounts;
+import virussim.Patient;
+import virussim.Patient.Health;
+
+/**
+ * Reads a file written by a {@link TrajectoryWriter}, one frame at a
+ * time. The file is mapped in memory, and each frame is decoded into
+ * arrays of coordinates and health states; the patients can be read
+ * either from these arrays, or through the map of {@link ReplayedPatient}
+ * objects returned by {@link #getPatients()}, which has the same shape as
+ * the map of balls of an arena. Files larger than the address space of a
+ * single mapping are mapped one window at a time.
+ */
+public class TrajectoryReader implements Closeable
+{
+  /**
+   * The largest number of bytes mapped at once
+   */
+  protected static final int MAP_SIZE = 1 << 30;
+
+  /**
+   * The possible health states
+   */
+  protected static final Health[] s_healthStates = Health.values();
+
+  /**
+   * The channel to the file
+   */
+  /*@ non_null @*/ protected final FileChannel m_channel;
+
+  /**
+   * The size of the file
+   */
+  protected final long m_fileSize;
+
+  /**
+   * The position in the file of the first frame
+   */
+  protected final long m_dataStart;
+
+  /**
+   * The largest number of bytes a frame can take
+   */
+  protected final int m_maxFrameSize;
+
+  /**
+   * The part of the file currently mapped in memory
+   */
+  /*@ non_null @*/ protected MappedByteBuffer m_map;
+
+  /**
+   * The position in the file of the start of {@link #m_map}
+   */
+  protected long m_mapStart;
+
+  /**
+   * The number of units per pixel of the coordinates
+   */
+  protected final int m_scale;
+
+  /**
+   * The width of the arena
+   */
+  protected final double m_width;
+
+  /**
+   * The height of the arena
+   */
+  protected final double m_height;
+
+  /**
+   * The ID of each patient
+   */
+  /*@ non_null @*/ protected final int[] m_ids;
+
+  /**
+   * The radius of each patient
+   */
+  /*@ non_null @*/ protected final float[] m_radius;
+
+  /**
+   * The x coordinate of each patient in the current frame, in units
+   */
+  /*@ non_null @*/ protected final int[] m_x;
+
+  /**
+   * The y coordinate of each patient in the current frame, in units
+   */
+  /*@ non_null @*/ protected final int[] m_y;
+
+  /**
+   * The ordinal of the health state of each patient in the current frame
+   */
+  /*@ non_null @*/ protected final byte[] m_health;
+
+  /**
+   * The number of patients in each health state in the current frame
+   */
+  /*@ non_null @*/ protected final HealthCounts m_counts = new HealthCounts();
+
+  /**
+   * The patients, indexed by their ID
+   */
+  /*@ non_null @*/ protected final Map<Integer,Patient> m_patients;
+
+  /**
+   * The number of frames read
+   */
+  protected long m_frames = 0;
+
+  /**
+   * Opens a trajectory file and reads its header
+   * @param file The file
+   * @throws IOException If the file cannot be read, or is not a
+   * trajectory file
+   */
+  public TrajectoryReader(/*@ non_null @*/ Path file) throws IOException
+  {
+    super();
+    m_channel = FileChannel.open(file, StandardOpenOption.READ);
+    m_fileSize = m_channel.size();
+    map(0);
+    try
+    {
+      if (m_map.getInt() != TrajectoryWriter.MAGIC)
+      {
+        throw new IOException("Not a trajectory file");
+      }
+      int version = m_map.getInt();
+      if (version != TrajectoryWriter.VERSION)
+      {
+        throw new IOException("Unsupported trajectory version " + version);
+      }
+      m_scale = m_map.getInt();
+      m_width = m_map.getDouble();
+      m_height = m_map.getDouble();
+      int n = m_map.getInt();
+      m_ids = new int[n];
+      m_radius = new float[n];
+      for (int i = 0; i < n; i++)
+      {
+        m_ids[i] = m_map.getInt();
+        m_radius[i] = m_map.getFloat();
+      }
+    }
+    catch (BufferUnderflowException e)
+    {
+      m_channel.close();
+      throw new IOException("Truncated trajectory header");
+    }
+    m_dataStart = m_map.position();
+    int n = m_ids.length;
+    m_maxFrameSize = TrajectoryWriter.maxFrameSize(n);
+    m_x = new int[n];
+    m_y = new int[n];
+    m_health = new byte[n];
+    Map<Integer,Patient> patients = new LinkedHashMap<Integer,Patient>();
+    for (int i = 0; i < n; i++)
+    {
+      patients.put(m_ids[i], new ReplayedPatient(this, i, m_ids[i]));
+      m_counts.add(Health.HEALTHY);
+    }
+    m_patients = Collections.unmodifiableMap(patients);
+  }
+
+  /**
+   * Decodes the next frame
+   * @return <tt>true</tt> if a frame was read, <tt>false</tt> if the end
+   * of the file has been reached
+   * @throws IOException If the file cannot be read, or ends in the middle
+   * of a frame
+   */
+  public boolean next() throws IOException
+  {
+    long position = m_mapStart + m_map.position();
+    if (position >= m_fileSize)
+    {
+      return false;
+    }
+    if (m_map.remaining() < m_maxFrameSize && m_mapStart + m_map.limit() < m_fileSize)
+    {
+      map(position);
+    }
+    try
+    {
+      for (int i = 0; i < m_x.length; i++)
+      {
+        m_x[i] += unzigzag(getVarint(m_map));
+        m_y[i] += unzigzag(getVarint(m_map));
+      }
+      int changed = getVarint(m_map);
+      int i = 0;
+      for (int c = 0; c < changed; c++)
+      {
+        i += getVarint(m_map);
+        byte h = m_map.get();
+        m_counts.move(s_healthStates[m_health[i]], s_healthStates[h]);
+        m_health[i] = h;
+      }
+    }
+    catch (BufferUnderflowException e)
+    {
+      throw new IOException("Truncated trajectory frame");
+    }
+    m_frames++;
+    return true;
+  }
+
+  /**
+   * Goes back to the state before the first frame
+   * @throws IOException If the file cannot be read
+   */
+  public void rewind() throws IOException
+  {
+    for (int i = 0; i < m_x.length; i++)
+    {
+      m_x[i] = 0;
+      m_y[i] = 0;
+      if (m_health[i] != 0)
+      {
+        m_counts.move(s_healthStates[m_health[i]], Health.HEALTHY);
+        m_health[i] = 0;
+      }
+    }
+    m_frames = 0;
+    map(m_dataStart);
+  }
+
+  /**
+   * Gets the number of frames read
+   * @return The number of frames
+   */
+  public long getFrameCount()
+  {
+    return m_frames;
+  }
+
+  /**
+   * Gets the width of the arena
+   * @return The width
+   */
+  public double getWidth()
+  {
+    return m_width;
+  }
+
+  /**
+   * Gets the height of the arena
+   * @return The height
+   */
+  public double getHeight()
+  {
+    return m_height;
+  }
+
+  /**
+   * Gets the number of patients
+   * @return The number of patients
+   */
+  public int size()
+  {
+    return m_ids.length;
+  }
+
+  /**
+   * Gets the ID of a patient
+   * @param index The index of the patient
+   * @return The ID
+   */
+  public int getId(int index)
+  {
+    return m_ids[index];
+  }
+
+  /**
+   * Gets the x coordinate of a patient in the current frame
+   * @param index The index of the patient
+   * @return The coordinate
+   */
+  public double getX(int index)
+  {
+    return (double) m_x[index] / m_scale;
+  }
+
+  /**
+   * Gets the y coordinate of a patient in the current frame
+   * @param index The index of the patient
+   * @return The coordinate
+   */
+  public double getY(int index)
+  {
+    return (double) m_y[index] / m_scale;
+  }
+
+  /**
+   * Gets the radius of a patient
+   * @param index The index of the patient
+   * @return The radius
+   */
+  public double getRadius(int index)
+  {
+    return m_radius[index];
+  }
+
+  /**
+   * Gets the health state of a patient in the current frame
+   * @param index The index of the patient
+   * @return The health state
+   */
+  public Health getHealthState(int index)
+  {
+    return s_healthStates[m_health[index]];
+  }
+
+  /**
+   * Gets the number of patients in each health state in the current
+   * frame. The counts are updated as frames are read.
+   * @return The counts
+   */
+  public HealthCounts getHealthCounts()
+  {
+    return m_counts;
+  }
+
+  /**
+   * Gets the patients. The map is unmodifiable; the patients it contains
+   * reflect the current frame.
+   * @return The patients, indexed by their ID
+   */
+  public Map<Integer,Patient> getPatients()
+  {
+    return m_patients;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    m_channel.close();
+  }
+
+  /**
+   * Maps a window of the file in memory
+   * @param start The position in the file of the start of the window
+   * @throws IOException If the file cannot be read
+   */
+  protected void map(long start) throws IOException
+  {
+    long size = Math.min(m_fileSize - start, MAP_SIZE);
+    m_map = m_channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    m_mapStart = start;
+  }
+
+  /**
+   * Reverses {@link TrajectoryWriter#zigzag(int)}
+   * @param v The mapped integer
+   * @return The signed integer
+   */
+  protected static int unzigzag(int v)
+  {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  /**
+   * Reads an integer written by
+   * {@link TrajectoryWriter#putVarint(ByteBuffer, int)}
+   * @param b The buffer to read from
+   * @return The integer
+   */
+  protected static int getVarint(/*@ non_null @*/ ByteBuffer b)
+  {
+    int v = 0;
+    int shift = 0;
+    byte x;
+    do
+    {
+      x = b.get();
+      v |= (x & 0x7F) << shift;
+      shift += 7;
+    } while ((x & 0x80) != 0);
+    return v;
+  }
+}
@@ -0,0 +1,306 @@
+/*
+    A BeepBeep simulation of coronavirus contagion
+    Copyright (C) 2020 Sylvain Hallé and friends
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package virussim.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import virussim.Patient;
+import virussim.TiledArena;
+import virussim.physics.Arena;
+import virussim.physics.Ball;
+
+/**
+ * Writes the successive states of an {@link Arena} into a compact binary
+ * file, which can be read back with a {@link TrajectoryReader}. A file
+ * contains a header followed by one frame per call to {@link #write()}.
+ * <p>
+ * The header gives the size of the arena, and the ID and radius of each
+ * patient. A frame gives, for each patient in the order of the header,
+ * the change of its position since the previous frame, followed by the
+ * list of patients whose health state changed. Positions are rounded to
+ * 1/{@value #SCALE} of a pixel, and the differences are computed between
+ * rounded positions, so that no error accumulates from frame to frame.
+ * Differences and indices are written as variable-length integers: a
+ * patient moving by less than a pixel per step takes two bytes per frame,
+ * instead of 17 for its raw coordinates and health state. The first frame
+ * is written as a difference with patients at the origin and in the
+ * HEALTHY state.
+ * <p>
+ * Frames are accumulated in a buffer, which is written to the file when
+ * it is full and when the writer is closed. The methods of the writer are
+ * synchronized, so that it can be closed from another thread (such as a
+ * shutdown hook) without cutting a frame in half.
+ */
+public class TrajectoryWriter implements Closeable
+{
+  /**
+   * The first four bytes of a trajectory file ("VSTR")
+   */
+  public static final int MAGIC = 0x56535452;
+
+  /**
+   * The version of the file format
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * The number of units per pixel in which positions are written
+   */
+  public static final int SCALE = 64;
+
+  /**
+   * The minimum size of the buffer where frames are accumulated
+   */
+  protected static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+   * The channel to the file
+   */
+  /*@ non_null @*/ protected final FileChannel m_channel;
+
+  /**
+   * The buffer where frames are accumulated
+   */
+  /*@ non_null @*/ protected final ByteBuffer m_buffer;
+
+  /**
+   * The patients, in the order in which they are written
+   */
+  /*@ non_null @*/ protected final Patient[] m_patients;
+
+  /**
+   * The x coordinate of each patient in the last frame, in units of
+   * 1/{@value #SCALE} pixel
+   */
+  /*@ non_null @*/ protected final int[] m_x;
+
+  /**
+   * The y coordinate of each patient in the last frame, in units of
+   * 1/{@value #SCALE} pixel
+   */
+  /*@ non_null @*/ protected final int[] m_y;
+
+  /**
+   * The ordinal of the health state of each patient in the last frame
+   */
+  /*@ non_null @*/ protected final byte[] m_health;
+
+  /**
+   * The indices of the patients whose health state changed in the
+   * current frame
+   */
+  /*@ non_null @*/ protected final int[] m_changed;
+
+  /**
+   * The number of frames written
+   */
+  protected long m_frames = 0;
+
+  /**
+   * Creates a writer for the patients of an arena, and writes the header
+   * of the file. Patients are written in ascending order of ID.
+   * @param file The file to write; it is replaced if it exists
+   * @param a The arena; all its balls must be {@link Patient}s, and it
+   * cannot be a {@link TiledArena}, whose map of balls only holds the
+   * patients of a viewport
+   * @throws IOException If the file cannot be written
+   */
+  public TrajectoryWriter(/*@ non_null @*/ Path file, /*@ non_null @*/ Arena a) throws IOException
+  {
+    super();
+    if (a instanceof TiledArena)
+    {
+      throw new IllegalArgumentException("The patients of a tiled arena cannot be recorded");
+    }
+    List<Patient> patients = new ArrayList<Patient>(a.getBalls().size());
+    for (Ball b : a.getBalls().values())
+    {
+      if (!(b instanceof Patient))
+      {
+        throw new IllegalArgumentException("Only patients can be recorded");
+      }
+      patients.add((Patient) b);
+    }
+    Collections.sort(patients, new Comparator<Patient>() {
+      @Override
+      public int compare(Patient p1, Patient p2)
+      {
+        return Integer.compare(p1.getId(), p2.getId());
+      }
+    });
+    int n = patients.size();
+    m_patients = patients.toArray(new Patient[n]);
+    m_x = new int[n];
+    m_y = new int[n];
+    m_health = new byte[n];
+    m_changed = new int[n];
+    m_buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, maxFrameSize(n)));
+    m_channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    m_buffer.putInt(MAGIC);
+    m_buffer.putInt(VERSION);
+    m_buffer.putInt(SCALE);
+    m_buffer.putDouble(a.getWidth());
+    m_buffer.putDouble(a.getHeight());
+    m_buffer.putInt(n);
+    for (Patient p : m_patients)
+    {
+      if (m_buffer.remaining() < 8)
+      {
+        flush();
+      }
+      m_buffer.putInt(p.getId());
+      m_buffer.putFloat((float) p.getRadius());
+    }
+  }
+
+  /**
+   * Writes the current state of the patients as a new frame
+   * @throws IOException If the file cannot be written, or if the writer
+   * is closed
+   */
+  public synchronized void write() throws IOException
+  {
+    if (!m_channel.isOpen())
+    {
+      throw new ClosedChannelException();
+    }
+    if (m_buffer.remaining() < maxFrameSize(m_patients.length))
+    {
+      flush();
+    }
+    int changed = 0;
+    for (int i = 0; i < m_patients.length; i++)
+    {
+      Patient p = m_patients[i];
+      int x = toFixed(p.getPosition().getX());
+      int y = toFixed(p.getPosition().getY());
+      putVarint(m_buffer, zigzag(x - m_x[i]));
+      putVarint(m_buffer, zigzag(y - m_y[i]));
+      m_x[i] = x;
+      m_y[i] = y;
+      byte h = (byte) p.getHealthState().ordinal();
+      if (h != m_health[i])
+      {
+        m_health[i] = h;
+        m_changed[changed++] = i;
+      }
+    }
+    putVarint(m_buffer, changed);
+    int last = 0;
+    for (int c = 0; c < changed; c++)
+    {
+      int i = m_changed[c];
+      putVarint(m_buffer, i - last);
+      m_buffer.put(m_health[i]);
+      last = i;
+    }
+    m_frames++;
+  }
+
+  /**
+   * Gets the number of frames written
+   * @return The number of frames
+   */
+  public synchronized long getFrameCount()
+  {
+    return m_frames;
+  }
+
+  /**
+   * Writes the frames accumulated in the buffer to the file
+   * @throws IOException If the file cannot be written
+   */
+  public synchronized void flush() throws IOException
+  {
+    m_buffer.flip();
+    while (m_buffer.hasRemaining())
+    {
+      m_channel.write(m_buffer);
+    }
+    m_buffer.clear();
+  }
+
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if (!m_channel.isOpen())
+    {
+      return;
+    }
+    flush();
+    m_channel.close();
+  }
+
+  /**
+   * Gets the largest number of bytes a frame can take
+   * @param n The number of patients
+   * @return The number of bytes
+   */
+  protected static int maxFrameSize(int n)
+  {
+    // Two varints per patient for the positions, and a varint and a byte
+    // per patient for the health states
+    return 16 * n + 5;
+  }
+
+  /**
+   * Converts a coordinate into units of 1/{@value #SCALE} pixel
+   * @param v The coordinate, in pixels
+   * @return The coordinate, in units
+   */
+  protected static int toFixed(double v)
+  {
+    return (int) Math.round(v * SCALE);
+  }
+
+  /**
+   * Maps a signed integer to an unsigned one, so that numbers of small
+   * magnitude have a short encoding
+   * @param v The integer
+   * @return The mapped integer
+   */
+  protected static int zigzag(int v)
+  {
+    return (v << 1) ^ (v >> 31);
+  }
+
+  /**
+   * Writes an integer in 1 to 5 bytes, 7 bits at a time
+   * @param b The buffer to write to
+   * @param v The integer, considered as unsigned
+   */
+  protected static void putVarint(/*@ non_null @*/ ByteBuffer b, int v)
+  {
+    while ((v & ~0x7F) != 0)
+    {
+      b.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    b.put((byte) v);
+  }
+}